@@ -0,0 +1,76 @@
+package bart1259.benchmarks;
+
+import bart1259.ReactionNetwork;
+import bart1259.Simulation;
+import bart1259.SimulationLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many times per second the rate equations of generated networks are evaluated, with the generic loops
+ * of ReactionNetwork and with the compiled rate kernel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DerivativeBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int speciesCount;
+
+    //Reactions per chemical
+    @Param({"2"})
+    public int reactionDensity;
+
+    @Param({"false", "true"})
+    public boolean compiled;
+
+    private ReactionNetwork network;
+    private double[] concentrations;
+    private double[] derivatives;
+
+    @Setup
+    public void generate(){
+        String[] sections = new ReactionNetworkGenerator()
+                .setSpeciesCount(speciesCount)
+                .setReactionCount(speciesCount * reactionDensity)
+                .generate();
+        Simulation simulation = SimulationLoader.parseSimulation(sections[0], sections[1], sections[2]);
+
+        //A copy of the network is never compiled, the simulation's own network may be
+        ReactionNetwork simulationNetwork = simulation.getNetwork();
+        double[] fwdReactionRates = new double[simulationNetwork.getReactionCount()];
+        double[] bwdReactionRates = new double[simulationNetwork.getReactionCount()];
+        for (int r = 0; r < fwdReactionRates.length; r++){
+            fwdReactionRates[r] = simulationNetwork.getFwdReactionRate(r);
+            bwdReactionRates[r] = simulationNetwork.getBwdReactionRate(r);
+        }
+        network = simulationNetwork.withRateConstants(fwdReactionRates, bwdReactionRates);
+        if(compiled){
+            network.compileRateKernel();
+        }
+
+        concentrations = simulation.getConcentrations();
+        derivatives = new double[concentrations.length];
+    }
+
+    @Benchmark
+    public double[] computeDerivatives(){
+        network.computeDerivatives(concentrations, derivatives);
+        return derivatives;
+    }
+}
@@ -0,0 +1,77 @@
+package bart1259.benchmarks;
+
+import bart1259.EnsembleNetwork;
+import bart1259.Simulation;
+import bart1259.SimulationLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many times per second the rate equations of one ensemble member are evaluated, with the scalar and the
+ * vector ensemble kernel. The forked JVM adds the Vector API module, without it both runs use the scalar kernel
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@OperationsPerInvocation(EnsembleBenchmark.MEMBER_COUNT)
+public class EnsembleBenchmark {
+
+    static final int MEMBER_COUNT = 256;
+
+    @Param({"10", "100"})
+    public int speciesCount;
+
+    //Reactions per chemical
+    @Param({"2"})
+    public int reactionDensity;
+
+    @Param({"false", "true"})
+    public boolean vectorized;
+
+    private EnsembleNetwork system;
+    private double[] state;
+    private double[] derivatives;
+
+    @Setup
+    public void generate(){
+        String[] sections = new ReactionNetworkGenerator()
+                .setSpeciesCount(speciesCount)
+                .setReactionCount(speciesCount * reactionDensity)
+                .generate();
+        Simulation simulation = SimulationLoader.parseSimulation(sections[0], sections[1], sections[2]);
+        system = new EnsembleNetwork(simulation.getNetwork(), MEMBER_COUNT, vectorized);
+
+        //Every member gets its own concentrations so no lane repeats another
+        SplittableRandom random = new SplittableRandom(1);
+        double[] concentrations = simulation.getConcentrations();
+        state = new double[system.getDimension()];
+        for (int s = 0; s < concentrations.length; s++){
+            for (int m = 0; m < MEMBER_COUNT; m++){
+                state[s * MEMBER_COUNT + m] = concentrations[s] * (0.5 + random.nextDouble());
+            }
+        }
+        derivatives = new double[state.length];
+    }
+
+    @Benchmark
+    public double[] computeDerivatives(){
+        system.computeDerivatives(state, derivatives);
+        return derivatives;
+    }
+}
@@ -0,0 +1,114 @@
+package bart1259.benchmarks;
+
+import bart1259.BinaryTrajectoryWriter;
+import bart1259.CsvTrajectoryWriter;
+import bart1259.Trajectory;
+import bart1259.TrajectorySink;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast a recorded trajectory is written in every output format, the same path the Output tab of the
+ * user interface takes. The bytes counter reports the export throughput in bytes per second
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"csv", "csv-time", "traj"})
+    public String format;
+
+    @Param({"100000"})
+    public int points;
+
+    @Param({"8"})
+    public int columns;
+
+    private Trajectory trajectory;
+    private Path directory;
+    private Path file;
+
+    /**
+     * Counts the bytes written so JMH reports them as a rate next to the operations
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void record() throws IOException {
+        String[] names = new String[columns];
+        for (int c = 0; c < columns; c++){
+            names[c] = "S" + c;
+        }
+        trajectory = new Trajectory(names);
+
+        //Smooth random walks look like real concentrations to the number formatter
+        SplittableRandom random = new SplittableRandom(1);
+        double[] values = new double[columns];
+        for (int c = 0; c < columns; c++){
+            values[c] = random.nextDouble();
+        }
+        for (int i = 0; i < points; i++){
+            for (int c = 0; c < columns; c++){
+                values[c] = Math.abs(values[c] + 1.0e-3 * (random.nextDouble() - 0.5));
+            }
+            trajectory.record(i * 1.0e-3, values);
+        }
+
+        directory = Files.createTempDirectory("benchmark");
+        file = directory.resolve(format.equals("traj") ? "export.traj" : "export.csv");
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public long export(Bytes counter) throws IOException {
+        TrajectorySink sink;
+        if(format.equals("traj")){
+            sink = new BinaryTrajectoryWriter(file, trajectory.getSize());
+        } else if(format.equals("csv-time")){
+            sink = new CsvTrajectoryWriter(file, CsvTrajectoryWriter.Layout.TIME_MAJOR);
+        } else {
+            sink = new CsvTrajectoryWriter(file, CsvTrajectoryWriter.Layout.CHEMICAL_MAJOR);
+        }
+        trajectory.replay(sink);
+
+        long size = Files.size(file);
+        counter.bytes += size;
+        return size;
+    }
+}
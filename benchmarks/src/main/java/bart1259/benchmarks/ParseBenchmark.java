@@ -0,0 +1,94 @@
+package bart1259.benchmarks;
+
+import bart1259.Simulation;
+import bart1259.SimulationLoader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast large simulations are parsed, both from text and from a .sim file. The bytes counter reports
+ * the parse throughput in bytes per second
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int speciesCount;
+
+    private String[] sections;
+    private long textBytes;
+    private Path file;
+    private long fileBytes;
+
+    /**
+     * Counts the bytes parsed so JMH reports them as a rate next to the operations
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset(){
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        ReactionNetworkGenerator generator = new ReactionNetworkGenerator()
+                .setSpeciesCount(speciesCount)
+                .setReactionCount(2 * speciesCount)
+                .setAdditionCount(speciesCount / 10);
+        sections = generator.generate();
+        textBytes = 0;
+        for (String section : sections){
+            textBytes += section.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        file = Files.createTempFile("benchmark", ".sim");
+        Files.write(file, generator.generateFile().getBytes(StandardCharsets.UTF_8));
+        fileBytes = Files.size(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Simulation parseText(Bytes counter){
+        counter.bytes += textBytes;
+        return SimulationLoader.parseSimulation(sections[0], sections[1], sections[2]);
+    }
+
+    @Benchmark
+    public Simulation loadFile(Bytes counter){
+        counter.bytes += fileBytes;
+        String[] variables = SimulationLoader.getSimulationVariables(file.toString());
+        return SimulationLoader.parseSimulation(variables[0], variables[1], variables[2]);
+    }
+}
@@ -0,0 +1,188 @@
+package bart1259.benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates random simulation text of any size for the benchmarks. Chemicals are named S0, S1, ... and every
+ * reaction picks its reactants and products at random, with stoichiometric coefficients drawn from a configurable
+ * distribution. The same settings and seed always produce the same text
+ */
+public class ReactionNetworkGenerator {
+
+    private int speciesCount = 100;
+    private int reactionCount = 200;
+    private int maxReactants = 2;
+    private int maxProducts = 2;
+    private int additionCount = 0;
+    private long seed = 1;
+
+    //coefficientWeights[k] is the relative probability of a coefficient of k + 1
+    private double[] coefficientWeights = {0.8, 0.15, 0.05};
+
+    /**
+     * Generates the three sections of a simulation, in the form returned by SimulationLoader.getSimulationVariables
+     * @return the chemicals, reactions and additions text
+     */
+    public String[] generate(){
+
+        if(speciesCount < maxReactants + maxProducts){
+            throw new RuntimeException("need at least " + (maxReactants + maxProducts) + " chemicals");
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+
+        StringBuilder chemicals = new StringBuilder();
+        for (int s = 0; s < speciesCount; s++){
+            chemicals.append('S').append(s).append(' ').append(round(random.nextDouble())).append(" #\r\n");
+        }
+
+        StringBuilder reactions = new StringBuilder();
+        int[] used = new int[maxReactants + maxProducts];
+        for (int r = 0; r < reactionCount; r++){
+            int reactants = 1 + random.nextInt(maxReactants);
+            int products = 1 + random.nextInt(maxProducts);
+
+            //Pick distinct chemicals so no chemical is on both sides
+            for (int i = 0; i < reactants + products; i++){
+                int species;
+                boolean duplicate;
+                do {
+                    species = random.nextInt(speciesCount);
+                    duplicate = false;
+                    for (int j = 0; j < i; j++){
+                        duplicate |= used[j] == species;
+                    }
+                } while (duplicate);
+                used[i] = species;
+            }
+
+            for (int i = 0; i < reactants + products; i++){
+                if(i == reactants){
+                    reactions.append("-> ");
+                } else if(i > 0){
+                    reactions.append("+ ");
+                }
+                int coefficient = drawCoefficient(random);
+                if(coefficient > 1){
+                    reactions.append(coefficient).append(' ');
+                }
+                reactions.append('S').append(used[i]).append(' ');
+            }
+
+            //Log uniform rate constants between 0.1 and 10
+            reactions.append("; Kfwd = ").append(round(Math.pow(10, 2 * random.nextDouble() - 1)))
+                    .append(" ; Kequ = ").append(round(Math.pow(10, 2 * random.nextDouble() - 1))).append("\r\n");
+        }
+
+        StringBuilder additions = new StringBuilder();
+        for (int a = 0; a < additionCount; a++){
+            additions.append('S').append(random.nextInt(speciesCount)).append(' ').append(round(random.nextDouble()))
+                    .append(" t = ").append(round(random.nextDouble())).append("\r\n");
+        }
+
+        return new String[]{chemicals.toString(), reactions.toString(), additions.toString()};
+    }
+
+    /**
+     * Generates the contents of a .sim file
+     * @return the file text
+     */
+    public String generateFile(){
+        String[] sections = generate();
+        return "~Chemicals\r\n" + sections[0] + "\r\n~Reactions\r\n" + sections[1] + "\r\n~Additions\r\n" + sections[2] + "\r\n";
+    }
+
+    /**
+     * Draws a stoichiometric coefficient from the coefficient distribution
+     * @param random the random number generator
+     * @return the coefficient
+     */
+    private int drawCoefficient(SplittableRandom random){
+        double total = 0.0;
+        for (double weight : coefficientWeights){
+            total += weight;
+        }
+        double target = random.nextDouble() * total;
+        for (int k = 0; k < coefficientWeights.length; k++){
+            target -= coefficientWeights[k];
+            if(target < 0){
+                return k + 1;
+            }
+        }
+        return coefficientWeights.length;
+    }
+
+    /**
+     * Rounds a value to three decimals so the text stays short
+     * @param value the value
+     * @return the rounded value
+     */
+    private static double round(double value){
+        return Math.round(value * 1000.0) / 1000.0;
+    }
+
+    //Accessors
+
+    public int getSpeciesCount() {
+        return speciesCount;
+    }
+
+    public ReactionNetworkGenerator setSpeciesCount(int speciesCount) {
+        this.speciesCount = speciesCount;
+        return this;
+    }
+
+    public int getReactionCount() {
+        return reactionCount;
+    }
+
+    public ReactionNetworkGenerator setReactionCount(int reactionCount) {
+        this.reactionCount = reactionCount;
+        return this;
+    }
+
+    public int getMaxReactants() {
+        return maxReactants;
+    }
+
+    public ReactionNetworkGenerator setMaxReactants(int maxReactants) {
+        this.maxReactants = maxReactants;
+        return this;
+    }
+
+    public int getMaxProducts() {
+        return maxProducts;
+    }
+
+    public ReactionNetworkGenerator setMaxProducts(int maxProducts) {
+        this.maxProducts = maxProducts;
+        return this;
+    }
+
+    public int getAdditionCount() {
+        return additionCount;
+    }
+
+    public ReactionNetworkGenerator setAdditionCount(int additionCount) {
+        this.additionCount = additionCount;
+        return this;
+    }
+
+    public double[] getCoefficientWeights() {
+        return coefficientWeights;
+    }
+
+    public ReactionNetworkGenerator setCoefficientWeights(double... coefficientWeights) {
+        this.coefficientWeights = coefficientWeights;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public ReactionNetworkGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+}
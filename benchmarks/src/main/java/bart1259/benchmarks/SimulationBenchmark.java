@@ -0,0 +1,70 @@
+package bart1259.benchmarks;
+
+import bart1259.Integrator;
+import bart1259.Simulation;
+import bart1259.SimulationLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many steps per second Simulation.simulate takes on generated networks of different sizes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationBenchmark {
+
+    private static final double DELTA_TIME = 1.0e-4;
+
+    @Param({"10", "100", "1000"})
+    public int speciesCount;
+
+    //Reactions per chemical
+    @Param({"2"})
+    public int reactionDensity;
+
+    @Param({Integrator.EULER, Integrator.DORMAND_PRINCE})
+    public String integrator;
+
+    private String[] sections;
+    private Simulation simulation;
+
+    @Setup(Level.Trial)
+    public void generate(){
+        sections = new ReactionNetworkGenerator()
+                .setSpeciesCount(speciesCount)
+                .setReactionCount(speciesCount * reactionDensity)
+                .generate();
+    }
+
+    /**
+     * Starts every iteration from the initial concentrations so the network doesn't drift into equilibrium
+     */
+    @Setup(Level.Iteration)
+    public void reset(){
+        simulation = SimulationLoader.parseSimulation(sections[0], sections[1], sections[2]);
+        simulation.setIntegrator(Integrator.create(integrator));
+        simulation.getNetwork();
+    }
+
+    @Benchmark
+    public double step(){
+        simulation.simulate(DELTA_TIME);
+        return simulation.getTimeSimulated();
+    }
+}
@@ -0,0 +1,111 @@
+package bart1259;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Computes the rate equations of as many ensemble members at once as fit in a vector register, four on AVX2 and
+ * eight on AVX-512, with the Vector API. The members left over after the last full vector are computed by the
+ * scalar kernel. Integer powers are taken by the same repeated squaring as ReactionNetwork.integerPower, so every
+ * member gets exactly the derivatives it would get on its own. The Vector API is an incubator module, so this class
+ * is kept out of src and compiled on its own with --add-modules jdk.incubator.vector. It is only loaded by
+ * EnsembleKernel.create and only if the JVM was started with the same option
+ */
+class VectorEnsembleKernel implements EnsembleKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    //Work arrays of the scalar kernel for the left over members
+    private double[] fwdRates = new double[0];
+    private double[] bwdRates = new double[0];
+
+    @Override
+    public void addDerivatives(ReactionNetwork network, int memberCount, double[] fwdReactionRates, double[] bwdReactionRates,
+                               double[] state, double[] derivatives) {
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] reactantCoefficients = network.getReactantCoefficients();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+        int[] productCoefficients = network.getProductCoefficients();
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+
+        int vectorMembers = SPECIES.loopBound(memberCount);
+        for (int r = 0; r < network.getReactionCount(); r++){
+            int rateOffset = r * memberCount;
+            for (int m = 0; m < vectorMembers; m += SPECIES.length()){
+
+                DoubleVector fwdRate = DoubleVector.fromArray(SPECIES, fwdReactionRates, rateOffset + m);
+                for (int i = reactantStart[r]; i < reactantStart[r + 1]; i++){
+                    fwdRate = multiplyByPower(fwdRate, state, reactantSpecies[i] * memberCount + m, reactantCoefficients[i]);
+                }
+                DoubleVector bwdRate = DoubleVector.fromArray(SPECIES, bwdReactionRates, rateOffset + m);
+                for (int i = productStart[r]; i < productStart[r + 1]; i++){
+                    bwdRate = multiplyByPower(bwdRate, state, productSpecies[i] * memberCount + m, productCoefficients[i]);
+                }
+                DoubleVector rate = fwdRate.sub(bwdRate);
+
+                for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                    int offset = stoichiometrySpecies[i] * memberCount + m;
+                    DoubleVector.fromArray(SPECIES, derivatives, offset)
+                            .add(rate.mul(stoichiometryCoefficients[i]))
+                            .intoArray(derivatives, offset);
+                }
+            }
+        }
+
+        if(vectorMembers < memberCount){
+            if(fwdRates.length != memberCount){
+                fwdRates = new double[memberCount];
+                bwdRates = new double[memberCount];
+            }
+            ScalarEnsembleKernel.addDerivatives(network, memberCount, fwdReactionRates, bwdReactionRates, state, derivatives,
+                    vectorMembers, memberCount, fwdRates, bwdRates);
+        }
+    }
+
+    /**
+     * Multiplies the rates of a vector of members by the concentration of a chemical raised to a power
+     * @param rate the rates
+     * @param state the concentration of every chemical in every member
+     * @param offset where the concentrations of the first member of the vector are in the state
+     * @param exponent the power
+     * @return the multiplied rates
+     */
+    private static DoubleVector multiplyByPower(DoubleVector rate, double[] state, int offset, int exponent){
+        if(exponent == 0){
+            return rate;
+        }
+        DoubleVector base = DoubleVector.fromArray(SPECIES, state, offset);
+        if(exponent == 1){
+            return rate.mul(base);
+        }
+        if(exponent < 0){
+            return rate.mul(base.lanewise(VectorOperators.POW, exponent));
+        }
+
+        //Square up to the lowest set bit, which starts the power, then multiply in the higher bits
+        while ((exponent & 1) == 0){
+            base = base.mul(base);
+            exponent >>= 1;
+        }
+        DoubleVector power = base;
+        exponent >>= 1;
+        while (exponent > 0){
+            base = base.mul(base);
+            if((exponent & 1) != 0){
+                power = power.mul(base);
+            }
+            exponent >>= 1;
+        }
+        return rate.mul(power);
+    }
+
+    @Override
+    public int getLaneCount() {
+        return SPECIES.length();
+    }
+}
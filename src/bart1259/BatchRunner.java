@@ -0,0 +1,500 @@
+package bart1259;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs simulation files from the command line without a user interface. Every file is run on a fixed size pool of
+ * worker threads, the recorded concentrations are written next to the file (or to an output directory) and a timing
+ * summary is printed once all files are done. Only classes that don't depend on JavaFX are used, so this runs on
+ * machines without a display or JavaFX installed
+ */
+public class BatchRunner {
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -cp <classpath> bart1259.BatchRunner [options] <file.sim or file.ckpt>...",
+            "Options:",
+            "  --dt <seconds>          time between recorded points (default 0.001)",
+            "  --duration <seconds>    how long to simulate (default 1.0)",
+            "  --integrator <name>     euler, rk45 or rosenbrock (default euler)",
+            "  --format <format>       csv (row per chemical), csv-time (row per time) or traj (binary) (default csv)",
+            "  --output <directory>    where to write the results (default next to each file)",
+            "  --threads <count>       how many files to run at once (default number of processors)",
+            "  --all                   record every chemical instead of only the ones marked with #",
+            "  --stochastic <size>     simulate individual reaction events, size is the molecules per unit of concentration",
+            "  --tau-leaping           leap over many reaction events at once in stochastic runs, for large molecule counts",
+            "  --seed <seed>           seed of the random numbers of stochastic runs (default random)",
+            "  --equilibrium           solve for the equilibrium concentrations directly and write them as a single point",
+            "  --fast-equilibrium <r>  keep reactions that relax r times faster than the rest at equilibrium (e.g. 1000)",
+            "  --sensitivities         also record the derivative of every recorded chemical with respect to every rate",
+            "                          constant and print the parameters that matter most",
+            "  --parallel-sensitivities  like --sensitivities but splits the parameters over all processors",
+            "  --fit <data.csv>        fit rate constants to measured concentrations and record the fitted simulation",
+            "  --free <parameters>     the parameters to fit, like Kfwd1,Kequ2 for reaction 1's Kfwd and reaction 2's Kequ",
+            "  --checkpoint <seconds>  write a checkpoint every this much simulated time to a .ckpt file next to the",
+            "                          results, run the .ckpt file instead of the .sim file to continue from it, the",
+            "                          continued run writes x.resumed.csv and x.resumed.ckpt for x.ckpt",
+            "  --metrics               print the step counts and where the time went once all files are done");
+
+    private double deltaTime = 0.001;
+    private double duration = 1.0;
+    private String integratorName = Integrator.EULER;
+    private boolean integratorGiven = false;
+    private String format = "csv";
+    private File outputDirectory = null;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean recordAll = false;
+    private double systemSize = 0.0;
+    private boolean tauLeaping = false;
+    private Long seed = null;
+    private boolean equilibrium = false;
+    private double fastEquilibriumSeparation = 0.0;
+    private boolean sensitivities = false;
+    private boolean parallelSensitivities = false;
+    private MeasuredData measuredData = null;
+    private String[] freeParameters = new String[0];
+    private double checkpointInterval = 0.0;
+    private boolean metrics = false;
+    private List<String> files = new ArrayList<>();
+
+    public static void main(String[] args) {
+        BatchRunner batchRunner = new BatchRunner();
+        try{
+            batchRunner.parseArguments(args);
+        } catch (RuntimeException e){
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        System.exit(batchRunner.runAll() ? 0 : 1);
+    }
+
+    /**
+     * Reads the command line arguments
+     * @param args the arguments
+     */
+    private void parseArguments(String[] args){
+        for (int i = 0; i < args.length; i++){
+            String arg = args[i];
+            switch (arg){
+                case "--dt":
+                    deltaTime = parseDouble(arg, value(args, ++i, arg));
+                    break;
+                case "--duration":
+                    duration = parseDouble(arg, value(args, ++i, arg));
+                    break;
+                case "--integrator":
+                    integratorName = value(args, ++i, arg);
+                    Integrator.create(integratorName);
+                    integratorGiven = true;
+                    break;
+                case "--format":
+                    format = value(args, ++i, arg);
+                    if(!format.equals("csv") && !format.equals("csv-time") && !format.equals("traj")){
+                        throw new RuntimeException("unknown format " + format);
+                    }
+                    break;
+                case "--output":
+                    outputDirectory = new File(value(args, ++i, arg));
+                    if(!outputDirectory.isDirectory() && !outputDirectory.mkdirs()){
+                        throw new RuntimeException("cannot create output directory " + outputDirectory);
+                    }
+                    break;
+                case "--threads":
+                    threads = (int) parseDouble(arg, value(args, ++i, arg));
+                    break;
+                case "--all":
+                    recordAll = true;
+                    break;
+                case "--stochastic":
+                    systemSize = parseDouble(arg, value(args, ++i, arg));
+                    if(!(systemSize > 0)){
+                        throw new RuntimeException("system size must be greater than 0");
+                    }
+                    break;
+                case "--tau-leaping":
+                    tauLeaping = true;
+                    break;
+                case "--seed":
+                    seed = (long) parseDouble(arg, value(args, ++i, arg));
+                    break;
+                case "--equilibrium":
+                    equilibrium = true;
+                    break;
+                case "--fast-equilibrium":
+                    fastEquilibriumSeparation = parseDouble(arg, value(args, ++i, arg));
+                    if(!(fastEquilibriumSeparation > 1)){
+                        throw new RuntimeException("fast equilibrium separation must be greater than 1");
+                    }
+                    break;
+                case "--sensitivities":
+                    sensitivities = true;
+                    break;
+                case "--parallel-sensitivities":
+                    sensitivities = true;
+                    parallelSensitivities = true;
+                    break;
+                case "--fit":
+                    measuredData = MeasuredData.load(Paths.get(value(args, ++i, arg)));
+                    break;
+                case "--checkpoint":
+                    checkpointInterval = parseDouble(arg, value(args, ++i, arg));
+                    if(!(checkpointInterval > 0)){
+                        throw new RuntimeException("checkpoint interval must be greater than 0");
+                    }
+                    break;
+                case "--free":
+                    freeParameters = value(args, ++i, arg).split(",");
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                default:
+                    if(arg.startsWith("--")){
+                        throw new RuntimeException("unknown option " + arg);
+                    }
+                    files.add(arg);
+            }
+        }
+
+        if(files.isEmpty()){
+            throw new RuntimeException("no simulation files given");
+        }
+        if(deltaTime <= 0 || duration <= 0 || deltaTime > duration){
+            throw new RuntimeException("Unreasonable values for dt and/or duration");
+        }
+        if(tauLeaping && systemSize <= 0){
+            throw new RuntimeException("--tau-leaping needs --stochastic");
+        }
+        if(equilibrium && systemSize > 0){
+            throw new RuntimeException("--equilibrium cannot be combined with --stochastic");
+        }
+        if(sensitivities && (systemSize > 0 || equilibrium || fastEquilibriumSeparation > 0)){
+            throw new RuntimeException("--sensitivities cannot be combined with --stochastic, --equilibrium or --fast-equilibrium");
+        }
+        if(measuredData != null && freeParameters.length == 0){
+            throw new RuntimeException("--fit needs --free");
+        }
+        if(measuredData != null && (systemSize > 0 || equilibrium || sensitivities)){
+            throw new RuntimeException("--fit cannot be combined with --stochastic, --equilibrium or --sensitivities");
+        }
+        if(checkpointInterval > 0 && (systemSize > 0 || equilibrium || sensitivities)){
+            throw new RuntimeException("--checkpoint cannot be combined with --stochastic, --equilibrium or --sensitivities");
+        }
+        if(threads <= 0){
+            throw new RuntimeException("thread count must be at least 1");
+        }
+    }
+
+    /**
+     * Gets the value following an option
+     * @param args the arguments
+     * @param index the index of the value
+     * @param option the option, for the error message
+     * @return the value
+     */
+    private static String value(String[] args, int index, String option){
+        if(index >= args.length){
+            throw new RuntimeException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    /**
+     * Parses the value of a numeric option
+     * @param option the option, for the error message
+     * @param text the value
+     * @return the parsed value
+     */
+    private static double parseDouble(String option, String text){
+        try{
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e){
+            throw new RuntimeException("Could not parse " + option + " value: " + text);
+        }
+    }
+
+    /**
+     * Runs every file on the worker pool and prints the summary
+     * @return true if every file ran successfully
+     */
+    private boolean runAll(){
+
+        if(metrics){
+            Metrics.setEnabled(true);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        long start = System.nanoTime();
+
+        List<Future<String>> results = new ArrayList<>();
+        for (String file : files){
+            results.add(pool.submit(() -> runFile(file)));
+        }
+        pool.shutdown();
+
+        //Print the summary in the order the files were given
+        boolean success = true;
+        String work = systemSize > 0 ? "Events" : equilibrium ? "Iterations" : "Evaluations";
+        System.out.println(String.format("%-40s %-8s %12s %14s %10s", "File", "Status", "Points", work, "Time (ms)"));
+        for (int i = 0; i < files.size(); i++){
+            try{
+                System.out.println(results.get(i).get());
+            } catch (ExecutionException e){
+                success = false;
+                System.out.println(String.format("%-40s %-8s %s", files.get(i), "FAILED", e.getCause().getMessage()));
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        System.out.println(String.format("Total time: %.1f ms", (System.nanoTime() - start) / 1.0e6));
+        if(metrics){
+            System.out.println();
+            System.out.print(Metrics.format());
+        }
+
+        return success;
+    }
+
+    /**
+     * Loads, runs and writes a single simulation file
+     * @param file the path of the simulation file
+     * @return the summary line of the file
+     */
+    private String runFile(String file){
+
+        long start = System.nanoTime();
+
+        //A checkpoint continues a run where it stopped, it records every chemical as the markers are not kept
+        Simulation simulation;
+        List<Chemical> trackedChemicals;
+        boolean resumed = isCheckpoint(file);
+        if(resumed){
+            simulation = SimulationCheckpoint.read(Paths.get(file)).restore();
+            trackedChemicals = simulation.getChemicals();
+        } else {
+
+            //Stream the file through the parser instead of loading its text first
+            SimulationParser parser;
+            try{
+                parser = SimulationParser.load(Paths.get(file));
+            } catch (RuntimeException e){
+                throw new RuntimeException("Error parsing the simulation: " + e.getMessage());
+            }
+            simulation = parser.getSimulation();
+            trackedChemicals = parser.getTrackedChemicals();
+            if(recordAll || trackedChemicals.isEmpty()){
+                trackedChemicals = simulation.getChemicals();
+            }
+        }
+        String fitSummary = null;
+        if(measuredData != null){
+            RateConstantFit fit = new RateConstantFit(simulation, measuredData);
+            for (String parameter : freeParameters){
+                fit.freeParameter(parameter.trim());
+            }
+            if(!integratorName.equalsIgnoreCase(Integrator.EULER)){
+                fit.setIntegratorName(integratorName);
+            }
+            RateConstantFit.Result result = fit.fit();
+            simulation = fit.createSimulation(result);
+            fitSummary = fitSummary(result);
+        }
+        //A resumed run keeps its integrator and settings unless they are given again
+        if(!resumed || integratorGiven){
+            simulation.setIntegrator(Integrator.create(integratorName));
+        }
+        if(!resumed || fastEquilibriumSeparation > 0){
+            simulation.setFastEquilibriumSeparation(fastEquilibriumSeparation);
+        }
+
+        //Stochastic runs start from the parsed simulation but replace the integrator with reaction events
+        Simulator simulator = simulation;
+        StochasticSimulation stochasticSimulation = null;
+        TauLeapingSimulation tauLeapingSimulation = null;
+        if(systemSize > 0 && tauLeaping){
+            tauLeapingSimulation = seed == null ? new TauLeapingSimulation(simulation, systemSize) : new TauLeapingSimulation(simulation, systemSize, seed);
+            simulator = tauLeapingSimulation;
+        } else if(systemSize > 0){
+            stochasticSimulation = seed == null ? new StochasticSimulation(simulation, systemSize) : new StochasticSimulation(simulation, systemSize, seed);
+            simulator = stochasticSimulation;
+        }
+
+        //Stream the recorded points to the output file
+        Path output = outputPath(file);
+        long points = equilibrium ? 1 : Math.round(duration / deltaTime) + 1;
+        TrajectorySink sink;
+        if(format.equals("traj")){
+            sink = new BinaryTrajectoryWriter(output, points);
+        } else if(format.equals("csv-time")){
+            sink = new CsvTrajectoryWriter(output, CsvTrajectoryWriter.Layout.TIME_MAJOR);
+        } else {
+            sink = new CsvTrajectoryWriter(output, CsvTrajectoryWriter.Layout.CHEMICAL_MAJOR);
+        }
+
+        if(equilibrium){
+            int iterations = writeEquilibrium(simulation, trackedChemicals, sink);
+            return String.format("%-40s %-8s %12d %14d %10.1f", file, "OK", points, iterations, (System.nanoTime() - start) / 1.0e6);
+        }
+
+        if(sensitivities){
+            return writeSensitivities(simulation, trackedChemicals, sink, file, points, start);
+        }
+
+        SimulationRunner runner = new SimulationRunner(simulator, duration, deltaTime, trackedChemicals.toArray(new Chemical[0]));
+        if(checkpointInterval > 0){
+            try(CheckpointWriter checkpointWriter = new CheckpointWriter(simulation, checkpointPath(file), checkpointInterval)){
+                runner.setCheckpointWriter(checkpointWriter);
+                runner.run(sink);
+            }
+        } else {
+            runner.run(sink);
+        }
+
+        long work = simulation.getIntegrator().getDerivativeEvaluations();
+        if(stochasticSimulation != null){
+            work = stochasticSimulation.getEventCount();
+        } else if(tauLeapingSimulation != null){
+            work = tauLeapingSimulation.getEventCount();
+        }
+        String summary = String.format("%-40s %-8s %12d %14d %10.1f", file, "OK", points, work, (System.nanoTime() - start) / 1.0e6);
+        if(simulation.getFastEquilibriumError() > 0){
+            summary += System.lineSeparator() + String.format("    fast reactions kept at equilibrium, estimated relative error %.1e", simulation.getFastEquilibriumError());
+        }
+        if(fitSummary != null){
+            summary += fitSummary;
+        }
+        return summary;
+    }
+
+    /**
+     * Solves for the equilibrium of a simulation and writes it as a single point at the end of the duration
+     * @param simulation the simulation
+     * @param trackedChemicals the chemicals to write
+     * @param sink where to write the point
+     * @return the number of newton iterations the solver took
+     */
+    private int writeEquilibrium(Simulation simulation, List<Chemical> trackedChemicals, TrajectorySink sink){
+        ReactionNetwork network = simulation.getNetwork();
+        EquilibriumSolver solver = new EquilibriumSolver(network);
+
+        List<String> columnNames = new ArrayList<>();
+        for (Chemical chemical : trackedChemicals){
+            columnNames.add(chemical.getChemicalName());
+        }
+
+        sink.begin(columnNames);
+        try{
+            double[] concentrations = solver.solve(simulation.getTotalAmounts());
+            double[] values = new double[trackedChemicals.size()];
+            for (int i = 0; i < values.length; i++){
+                values[i] = concentrations[network.indexOf(trackedChemicals.get(i))];
+            }
+            sink.record(duration, values);
+        } finally {
+            sink.end();
+        }
+        return solver.getIterations();
+    }
+
+    /**
+     * Runs a simulation with the sensitivities of the tracked chemicals to every rate constant and writes both
+     * @param simulation the simulation
+     * @param trackedChemicals the chemicals to write
+     * @param sink where to write the points
+     * @param file the path of the simulation file, for the summary
+     * @param points the number of points written
+     * @param start when the file started, from System.nanoTime
+     * @return the summary line of the file followed by the parameters that matter most
+     */
+    private String writeSensitivities(Simulation simulation, List<Chemical> trackedChemicals, TrajectorySink sink, String file, long points, long start){
+        SensitivityAnalysis analysis = new SensitivityAnalysis(simulation);
+        analysis.setIntegratorName(integratorName);
+        if(parallelSensitivities){
+            analysis.setPool(ForkJoinPool.commonPool());
+        }
+        analysis.run(duration, deltaTime, trackedChemicals.toArray(new Chemical[0]), sink);
+
+        StringBuilder summary = new StringBuilder(String.format("%-40s %-8s %12d %14d %10.1f", file, "OK", points,
+                analysis.getIntegrator().getDerivativeEvaluations(), (System.nanoTime() - start) / 1.0e6));
+        int[] ranking = analysis.rankParameters();
+        summary.append(System.lineSeparator()).append("    most sensitive parameters (relative sensitivity):");
+        for (int i = 0; i < Math.min(5, ranking.length); i++){
+            summary.append(String.format(" %s %.3g", analysis.getSystem().getParameterName(ranking[i]), analysis.getImportance(ranking[i])));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Describes the fitted parameters of a fit
+     * @param result the result of the fit
+     * @return a line per parameter with its value and confidence interval, each starting with a line separator
+     */
+    private static String fitSummary(RateConstantFit.Result result){
+        StringBuilder summary = new StringBuilder();
+        summary.append(System.lineSeparator()).append(String.format("    fit %s after %d iterations, sum of squares %.3e",
+                result.isConverged() ? "converged" : "stopped", result.getIterations(), result.getSumOfSquares()));
+        for (int k = 0; k < result.getParameterCount(); k++){
+            summary.append(System.lineSeparator()).append(String.format("    %-8s %.6g +- %.2g (%.6g to %.6g)", result.getName(k),
+                    result.getValue(k), result.getStandardError(k), result.getLowerBound(k), result.getUpperBound(k)));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Gets the file the results of a simulation file are written to
+     * @param file the path of the simulation file
+     * @return the output path
+     */
+    private Path outputPath(String file){
+        return siblingPath(file, format.equals("traj") ? ".traj" : ".csv");
+    }
+
+    /**
+     * Gets the file the checkpoints of a simulation file are written to
+     * @param file the path of the simulation file
+     * @return the checkpoint path
+     */
+    private Path checkpointPath(String file){
+        return siblingPath(file, ".ckpt");
+    }
+
+    /**
+     * Gets a file named like a simulation file with another extension, in the output directory or next to the file.
+     * The files of a resumed run are named x.resumed for a checkpoint x.ckpt, so they don't overwrite the results
+     * of the run the checkpoint was taken from or the checkpoint itself
+     * @param file the path of the simulation file or checkpoint
+     * @param extension the extension of the new file
+     * @return the path of the new file
+     */
+    private Path siblingPath(String file, String extension){
+        File simulationFile = new File(file);
+        String name = simulationFile.getName();
+        if(name.toLowerCase().endsWith(".sim")){
+            name = name.substring(0, name.length() - 4);
+        } else if(isCheckpoint(name)){
+            name = name.substring(0, name.length() - 5) + ".resumed";
+        }
+        name += extension;
+
+        File directory = outputDirectory != null ? outputDirectory : simulationFile.getAbsoluteFile().getParentFile();
+        return Paths.get(directory.getPath(), name);
+    }
+
+    /**
+     * Checks if a file is a checkpoint to resume instead of a simulation file
+     * @param file the path of the file
+     * @return true if the file has the checkpoint extension
+     */
+    private static boolean isCheckpoint(String file){
+        return file.toLowerCase().endsWith(".ckpt");
+    }
+}
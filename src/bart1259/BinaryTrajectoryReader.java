@@ -0,0 +1,233 @@
+package bart1259;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a binary trajectory file written by BinaryTrajectoryWriter. Columns are memory mapped when first asked for
+ * and returned as read only views of the file, so reading a window of a long run only pages in that window
+ */
+public class BinaryTrajectoryReader implements Closeable {
+
+    private Path path;
+    private FileChannel channel;
+    private List<String> columnNames;
+    private long capacity;
+    private long rowCount;
+    private long dataOffset;
+
+    //Mapped columns, 0 for time, null until first used
+    private DoubleBuffer[] columns;
+
+    /**
+     * Opens a binary trajectory file
+     * @param path the file to read
+     */
+    public BinaryTrajectoryReader(Path path){
+        this.path = path;
+        try{
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+
+            //Read the fixed part of the header
+            ByteBuffer header = ByteBuffer.allocate(BinaryTrajectoryWriter.NAMES_POSITION).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            byte[] magic = new byte[BinaryTrajectoryWriter.MAGIC.length];
+            header.get(magic);
+            if(!Arrays.equals(magic, BinaryTrajectoryWriter.MAGIC)){
+                throw new RuntimeException(path + " is not a trajectory file");
+            }
+            int version = header.getInt();
+            if(version != BinaryTrajectoryWriter.VERSION){
+                throw new RuntimeException(path + " has unsupported trajectory version " + version);
+            }
+            int columnCount = header.getInt();
+            capacity = header.getLong();
+            rowCount = header.getLong();
+            dataOffset = header.getLong();
+
+            //Read the names of the chemicals
+            ByteBuffer names = ByteBuffer.allocate((int) (dataOffset - BinaryTrajectoryWriter.NAMES_POSITION)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(names, BinaryTrajectoryWriter.NAMES_POSITION);
+            List<String> columnNames = new ArrayList<>();
+            for (int i = 0; i < columnCount; i++){
+                byte[] name = new byte[names.getInt()];
+                names.get(name);
+                columnNames.add(new String(name, StandardCharsets.UTF_8));
+            }
+            this.columnNames = Collections.unmodifiableList(columnNames);
+            columns = new DoubleBuffer[columnCount + 1];
+
+        } catch (IOException | RuntimeException e){
+            close();
+            throw new RuntimeException("Error while reading " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads from the file until a buffer is full
+     * @param buffer the buffer to fill
+     * @param position where in the file to start reading
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            int read = channel.read(buffer, position + buffer.position());
+            if(read < 0){
+                throw new IOException("file is truncated");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Gets a read only view of a whole column without copying it
+     * @param column the column, 0 for time and 1 and up for the chemicals in the order of getColumnNames
+     * @return the values of the column, one per row
+     */
+    private DoubleBuffer column(int column){
+        if(columns[column] == null){
+            try{
+                long offset = dataOffset + column * capacity * Double.BYTES;
+                columns[column] = channel.map(FileChannel.MapMode.READ_ONLY, offset, rowCount * Double.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            } catch (IOException e){
+                throw new RuntimeException("Error while reading " + path + ": " + e.getMessage());
+            }
+        }
+        return columns[column].duplicate();
+    }
+
+    /**
+     * Gets the times of every row
+     * @return a read only view of the time column
+     */
+    public DoubleBuffer getTimes(){
+        return column(0);
+    }
+
+    /**
+     * Gets the values of a chemical for every row
+     * @param chemical the index of the chemical in getColumnNames
+     * @return a read only view of the chemical's column
+     */
+    public DoubleBuffer getValues(int chemical){
+        return column(chemical + 1);
+    }
+
+    /**
+     * Gets the values of a chemical within a window of rows
+     * @param chemical the index of the chemical in getColumnNames
+     * @param fromRow the first row
+     * @param toRow the row after the last row
+     * @return a read only view of the part of the chemical's column
+     */
+    public DoubleBuffer getValues(int chemical, int fromRow, int toRow){
+        DoubleBuffer values = column(chemical + 1);
+        values.position(fromRow).limit(toRow);
+        return values.slice();
+    }
+
+    /**
+     * Finds the first row at or after a time, the times must be increasing
+     * @param time the time
+     * @return the index of the row, or the row count if every row is earlier
+     */
+    public int findRow(double time){
+        DoubleBuffer times = column(0);
+        int low = 0;
+        int high = (int) rowCount;
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if(times.get(middle) < time){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sends every row to a sink
+     * @param sink the sink
+     */
+    public void replay(TrajectorySink sink){
+        replayRows(sink, 0, (int) rowCount);
+    }
+
+    /**
+     * Sends the rows within a time window to a sink
+     * @param sink the sink
+     * @param fromTime the earliest time to send
+     * @param toTime the latest time to send
+     */
+    public void replay(TrajectorySink sink, double fromTime, double toTime){
+        replayRows(sink, findRow(fromTime), findRow(Math.nextUp(toTime)));
+    }
+
+    /**
+     * Sends a range of rows to a sink
+     * @param sink the sink
+     * @param fromRow the first row
+     * @param toRow the row after the last row
+     */
+    private void replayRows(TrajectorySink sink, int fromRow, int toRow){
+        DoubleBuffer times = column(0);
+        DoubleBuffer[] values = new DoubleBuffer[columnNames.size()];
+        for (int c = 0; c < values.length; c++){
+            values[c] = column(c + 1);
+        }
+
+        sink.begin(columnNames);
+        try{
+            double[] row = new double[values.length];
+            for (int i = fromRow; i < toRow; i++){
+                for (int c = 0; c < values.length; c++){
+                    row[c] = values[c].get(i);
+                }
+                sink.record(times.get(i), row);
+            }
+        } finally {
+            sink.end();
+        }
+    }
+
+    /**
+     * Closes the file, views that were already handed out stay valid
+     */
+    @Override
+    public void close(){
+        if(channel != null){
+            try{
+                channel.close();
+            } catch (IOException ignored){
+                //Nothing can be done if closing fails
+            }
+            channel = null;
+        }
+    }
+
+    //Accessors
+
+    public Path getPath() {
+        return path;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public int getRowCount() {
+        return (int) rowCount;
+    }
+}
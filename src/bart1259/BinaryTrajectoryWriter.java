@@ -0,0 +1,179 @@
+package bart1259;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes recorded concentrations to a compact columnar binary file through memory mapped buffers. The file holds a
+ * header followed by the time column and one column of doubles per chemical, each column being a contiguous block of
+ * little endian doubles, so a reader can map just the columns and rows it needs. The row count in the header is
+ * updated with every point, so the file can be read while it is still being written.
+ *
+ * Layout of the header:
+ * <pre>
+ *   8 bytes  magic "CRSTRAJ1"
+ *   int      format version
+ *   int      number of chemical columns
+ *   long     capacity, the number of rows space is reserved for in every column
+ *   long     number of rows written
+ *   long     offset of the first column from the start of the file
+ *   per chemical: int length of the name in bytes, followed by the UTF-8 name
+ * </pre>
+ * The time column starts at the data offset and column c (0 for time, 1 and up for chemicals) starts at
+ * data offset + c * capacity * 8. When the capacity runs out it is doubled and the columns are moved apart
+ */
+public class BinaryTrajectoryWriter implements TrajectorySink {
+
+    public static final byte[] MAGIC = "CRSTRAJ1".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+
+    //Positions of header fields
+    static final int CAPACITY_POSITION = 16;
+    static final int ROW_COUNT_POSITION = 24;
+    static final int DATA_OFFSET_POSITION = 32;
+    static final int NAMES_POSITION = 40;
+
+    private Path path;
+    private long capacity;
+
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer[] columns;
+    private long dataOffset;
+    private long rowCount;
+
+    /**
+     * Creates a binary trajectory writer, the file is created when the run begins
+     * @param path the file to write to
+     * @param expectedRows how many rows to reserve space for, the file grows if more are recorded
+     */
+    public BinaryTrajectoryWriter(Path path, long expectedRows){
+        this.path = path;
+        this.capacity = Math.max(1, expectedRows);
+    }
+
+    @Override
+    public void begin(List<String> columnNames) {
+        try{
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            //Work out the size of the header, the data starts on an 8 byte boundary
+            byte[][] names = new byte[columnNames.size()][];
+            long headerSize = NAMES_POSITION;
+            for (int i = 0; i < names.length; i++){
+                names[i] = columnNames.get(i).getBytes(StandardCharsets.UTF_8);
+                headerSize += 4 + names[i].length;
+            }
+            dataOffset = (headerSize + 7) & ~7L;
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.put(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(names.length);
+            header.putLong(capacity);
+            header.putLong(0);
+            header.putLong(dataOffset);
+            for (byte[] name : names){
+                header.putInt(name.length);
+                header.put(name);
+            }
+
+            columns = new MappedByteBuffer[names.length + 1];
+            mapColumns();
+            rowCount = 0;
+        } catch (IOException e){
+            close();
+            throw new RuntimeException("Error while writing " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void record(double time, double[] values) {
+        try{
+            if(rowCount == capacity){
+                grow();
+            }
+            int position = (int) (rowCount * Double.BYTES);
+            columns[0].putDouble(position, time);
+            for (int i = 0; i < values.length; i++){
+                columns[i + 1].putDouble(position, values[i]);
+            }
+            rowCount++;
+            header.putLong(ROW_COUNT_POSITION, rowCount);
+        } catch (IOException e){
+            close();
+            throw new RuntimeException("Error while writing " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void end() {
+        close();
+    }
+
+    /**
+     * Maps every column at the current capacity
+     */
+    private void mapColumns() throws IOException {
+        if(capacity * Double.BYTES > Integer.MAX_VALUE){
+            throw new IOException("too many rows for a single column");
+        }
+        for (int c = 0; c < columns.length; c++){
+            columns[c] = channel.map(FileChannel.MapMode.READ_WRITE, columnOffset(c, capacity), capacity * Double.BYTES);
+            columns[c].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Doubles the capacity, moving every column to its new place. With the capacity doubled column c moves to
+     * where column 2c was, which is past the end of its old place, so no column overwrites one not yet moved as
+     * long as they are moved from the last to the first
+     */
+    private void grow() throws IOException {
+        long newCapacity = capacity * 2;
+        long bytes = rowCount * Double.BYTES;
+        for (int c = columns.length - 1; c > 0; c--){
+            MappedByteBuffer target = channel.map(FileChannel.MapMode.READ_WRITE, columnOffset(c, newCapacity), bytes);
+            ByteBuffer source = columns[c].duplicate();
+            source.position(0).limit((int) bytes);
+            target.put(source);
+        }
+        capacity = newCapacity;
+        header.putLong(CAPACITY_POSITION, capacity);
+        mapColumns();
+    }
+
+    /**
+     * Gets where a column starts in the file
+     * @param column the column, 0 for time
+     * @param capacity the capacity of every column
+     * @return the offset of the column from the start of the file
+     */
+    private long columnOffset(int column, long capacity){
+        return dataOffset + column * capacity * Double.BYTES;
+    }
+
+    /**
+     * Closes the file, the mapped columns stay valid until they are garbage collected
+     */
+    private void close(){
+        if(channel == null){
+            return;
+        }
+        try{
+            channel.close();
+        } catch (IOException e){
+            throw new RuntimeException("Error while writing " + path + ": " + e.getMessage());
+        } finally {
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package bart1259;
+
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes checkpoints of a running simulation at regular intervals of simulated time. The checkpoint is taken on the
+ * thread that runs the simulation, which only copies the amounts as the network is copied once with the first
+ * checkpoint, and written on a background thread so the run keeps stepping while the file is written. If the file is
+ * still being written when the next checkpoint is due, only the newest checkpoint is kept and written next
+ */
+public class CheckpointWriter implements AutoCloseable {
+
+    private Simulation simulation;
+    private Path path;
+    private double interval;
+    private double nextCheckpointTime;
+
+    private ExecutorService executor;
+    private AtomicReference<SimulationCheckpoint> pending = new AtomicReference<>();
+
+    //The last checkpoint taken, the next one shares its network
+    private SimulationCheckpoint lastCheckpoint = null;
+    private volatile RuntimeException error = null;
+    private volatile long checkpointsWritten = 0;
+
+    /**
+     * Creates a checkpoint writer
+     * @param simulation the simulation to take checkpoints of
+     * @param path the file every checkpoint replaces
+     * @param interval the simulated time between checkpoints
+     */
+    public CheckpointWriter(Simulation simulation, Path path, double interval){
+        if(!(interval > 0)){
+            throw new RuntimeException("checkpoint interval must be greater than 0");
+        }
+        this.simulation = simulation;
+        this.path = path;
+        this.interval = interval;
+        nextCheckpointTime = simulation.getTimeSimulated() + interval;
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Takes a checkpoint if the simulation has passed the time of the next one, called by the thread running it
+     */
+    public void update(){
+        if(simulation.getTimeSimulated() >= nextCheckpointTime){
+            checkpoint();
+            nextCheckpointTime = simulation.getTimeSimulated() + interval;
+        }
+    }
+
+    /**
+     * Takes a checkpoint now and queues it to be written
+     */
+    public void checkpoint(){
+        lastCheckpoint = new SimulationCheckpoint(simulation, lastCheckpoint);
+        if(pending.getAndSet(lastCheckpoint) == null){
+            executor.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Writes the newest checkpoint taken, runs on the background thread
+     */
+    private void writePending(){
+        SimulationCheckpoint checkpoint = pending.getAndSet(null);
+        if(checkpoint == null){
+            return;
+        }
+        try{
+            checkpoint.write(path);
+            checkpointsWritten++;
+        } catch (RuntimeException e){
+            error = e;
+        }
+    }
+
+    /**
+     * Writes a last checkpoint of the simulation as it is now and waits until it is on disk
+     */
+    @Override
+    public void close(){
+        checkpoint();
+        executor.shutdown();
+        try{
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        if(error != null){
+            throw error;
+        }
+    }
+
+    //Accessors
+
+    public Path getPath() {
+        return path;
+    }
+
+    public double getInterval() {
+        return interval;
+    }
+
+    public long getCheckpointsWritten() {
+        return checkpointsWritten;
+    }
+}
@@ -0,0 +1,269 @@
+package bart1259;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The linear combinations of concentrations that no reaction of a network can change, like the total amount of each
+ * element. They span the left null space of the stoichiometry matrix and are found by bringing the net stoichiometry
+ * of the reactions into reduced row echelon form. Every pivot column is an independent chemical and every other
+ * column gives a conservation law that determines one dependent chemical from the independent ones and the total the
+ * law keeps, so only the independent chemicals have to be integrated
+ */
+public class ConservationLaws {
+
+    //Entries of the row echelon form smaller than this are treated as zero
+    private static final double PIVOT_TOLERANCE = 1.0e-9;
+
+    private int speciesCount;
+    private int[] independentSpecies;
+    private int[] dependentSpecies;
+
+    //Dependent chemical d is totals[d] plus the sum of linkValues[i] * the concentration of independent chemical
+    //linkIndependent[i], for i from linkStart[d] to linkStart[d + 1]. Most links are zero so only the others are kept
+    private int[] linkStart;
+    private int[] linkIndependent;
+    private double[] linkValues;
+
+    /**
+     * Finds the conservation laws of a reaction network, keeping the chemicals with the lowest ids independent
+     * @param network the network
+     */
+    public ConservationLaws(ReactionNetwork network){
+        this(network, null);
+    }
+
+    /**
+     * Finds the conservation laws of a reaction network, keeping the chemicals with the lowest concentrations
+     * independent where possible. A dependent chemical is computed as a difference of other concentrations, which
+     * loses the digits of a chemical far smaller than the rest
+     * @param network the network
+     * @param concentrations the concentration of every chemical, indexed by id, or null to prefer the lowest ids
+     */
+    public ConservationLaws(ReactionNetwork network, double[] concentrations){
+
+        speciesCount = network.getSpeciesCount();
+        int reactionCount = network.getReactionCount();
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+
+        //One row of the net stoichiometry per reaction
+        double[][] rows = new double[reactionCount][speciesCount];
+        for (int r = 0; r < reactionCount; r++){
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                rows[r][stoichiometrySpecies[i]] = stoichiometryCoefficients[i];
+            }
+        }
+
+        //Columns are pivoted on in order, so the chemicals tried first become independent
+        Integer[] order = new Integer[speciesCount];
+        for (int i = 0; i < speciesCount; i++){
+            order[i] = i;
+        }
+        if(concentrations != null){
+            Arrays.sort(order, Comparator.comparingDouble(i -> concentrations[i]));
+        }
+        int[] columnOrder = new int[speciesCount];
+        for (int i = 0; i < speciesCount; i++){
+            columnOrder[i] = order[i];
+        }
+
+        int[] pivotColumns = new int[Math.min(reactionCount, speciesCount)];
+        int rank = rowReduce(rows, reactionCount, columnOrder, pivotColumns);
+
+        boolean[] pivot = new boolean[speciesCount];
+        independentSpecies = new int[rank];
+        for (int k = 0; k < rank; k++){
+            independentSpecies[k] = pivotColumns[k];
+            pivot[pivotColumns[k]] = true;
+        }
+
+        //Law of free column f: x_f - sum over k of rows[k][f] * x_pivot(k) is constant
+        dependentSpecies = new int[speciesCount - rank];
+        linkStart = new int[speciesCount - rank + 1];
+        int linkCount = 0;
+        for (int column = 0; column < speciesCount; column++){
+            if(!pivot[column]){
+                for (int k = 0; k < rank; k++){
+                    if(rows[k][column] != 0.0){
+                        linkCount++;
+                    }
+                }
+            }
+        }
+        linkIndependent = new int[linkCount];
+        linkValues = new double[linkCount];
+
+        int d = 0;
+        int link = 0;
+        for (int column = 0; column < speciesCount; column++){
+            if(pivot[column]){
+                continue;
+            }
+            dependentSpecies[d] = column;
+            linkStart[d] = link;
+            for (int k = 0; k < rank; k++){
+                if(rows[k][column] != 0.0){
+                    linkIndependent[link] = k;
+                    linkValues[link] = rows[k][column];
+                    link++;
+                }
+            }
+            d++;
+        }
+        linkStart[d] = link;
+    }
+
+    /**
+     * Brings rows into reduced row echelon form with partial pivoting, moving the independent rows to the top. Every
+     * entry of a row is eliminated, so columns after the first n (like a right hand side) are carried along
+     * @param rows the rows, each with at least n entries
+     * @param m the number of rows
+     * @param n the number of columns to pivot on
+     * @param pivotColumns the array to store the pivot column of every independent row in
+     * @return the number of independent rows
+     */
+    static int rowReduce(double[][] rows, int m, int n, int[] pivotColumns){
+        int[] columnOrder = new int[n];
+        for (int i = 0; i < n; i++){
+            columnOrder[i] = i;
+        }
+        return rowReduce(rows, m, columnOrder, pivotColumns);
+    }
+
+    /**
+     * Brings rows into reduced row echelon form with partial pivoting, trying the columns in a given order
+     * @param rows the rows
+     * @param m the number of rows
+     * @param columnOrder the columns to pivot on, in the order they are tried
+     * @param pivotColumns the array to store the pivot column of every independent row in
+     * @return the number of independent rows
+     */
+    static int rowReduce(double[][] rows, int m, int[] columnOrder, int[] pivotColumns){
+
+        int rank = 0;
+        for (int c = 0; c < columnOrder.length && rank < m; c++){
+            int column = columnOrder[c];
+
+            //Find the largest pivot in the column
+            int pivot = rank;
+            for (int i = rank + 1; i < m; i++){
+                if(Math.abs(rows[i][column]) > Math.abs(rows[pivot][column])){
+                    pivot = i;
+                }
+            }
+            if(Math.abs(rows[pivot][column]) < PIVOT_TOLERANCE){
+                continue;
+            }
+            double[] pivotRow = rows[pivot];
+            rows[pivot] = rows[rank];
+            rows[rank] = pivotRow;
+
+            //Scale the pivot to 1 and eliminate the column from every other row
+            double scale = pivotRow[column];
+            for (int j = 0; j < pivotRow.length; j++){
+                pivotRow[j] /= scale;
+            }
+            pivotRow[column] = 1.0;
+            for (int i = 0; i < m; i++){
+                double[] row = rows[i];
+                double factor = row[column];
+                if(i != rank && factor != 0.0){
+                    for (int j = 0; j < row.length; j++){
+                        row[j] -= factor * pivotRow[j];
+                    }
+                    row[column] = 0.0;
+                }
+            }
+            pivotColumns[rank] = column;
+            rank++;
+        }
+
+        //Clean up round off left in the independent rows
+        for (int i = 0; i < rank; i++){
+            for (int column : columnOrder){
+                if(Math.abs(rows[i][column]) < PIVOT_TOLERANCE * 1.0e-3){
+                    rows[i][column] = 0.0;
+                }
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * Computes the total every conservation law keeps
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param totals the array to store the total of every law in, indexed like the dependent chemicals
+     */
+    public void computeTotals(double[] concentrations, double[] totals){
+        for (int d = 0; d < dependentSpecies.length; d++){
+            double total = concentrations[dependentSpecies[d]];
+            for (int i = linkStart[d]; i < linkStart[d + 1]; i++){
+                total -= linkValues[i] * concentrations[independentSpecies[linkIndependent[i]]];
+            }
+            totals[d] = total;
+        }
+    }
+
+    /**
+     * Gathers the concentrations of the independent chemicals
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param reduced the array to store the concentration of every independent chemical in
+     */
+    public void reduce(double[] concentrations, double[] reduced){
+        for (int a = 0; a < independentSpecies.length; a++){
+            reduced[a] = concentrations[independentSpecies[a]];
+        }
+    }
+
+    /**
+     * Reconstructs the concentration of every chemical from the independent chemicals and the conserved totals
+     * @param reduced the concentration of every independent chemical
+     * @param totals the total every conservation law keeps
+     * @param concentrations the array to store the concentration of every chemical in, indexed by id
+     */
+    public void expand(double[] reduced, double[] totals, double[] concentrations){
+        for (int a = 0; a < independentSpecies.length; a++){
+            concentrations[independentSpecies[a]] = reduced[a];
+        }
+        for (int d = 0; d < dependentSpecies.length; d++){
+            double concentration = totals[d];
+            for (int i = linkStart[d]; i < linkStart[d + 1]; i++){
+                concentration += linkValues[i] * reduced[linkIndependent[i]];
+            }
+            concentrations[dependentSpecies[d]] = concentration;
+        }
+    }
+
+    //Accessors
+
+    public int getSpeciesCount() {
+        return speciesCount;
+    }
+
+    public int getLawCount() {
+        return dependentSpecies.length;
+    }
+
+    public int[] getIndependentSpecies() {
+        return independentSpecies;
+    }
+
+    public int[] getDependentSpecies() {
+        return dependentSpecies;
+    }
+
+    public int[] getLinkStart() {
+        return linkStart;
+    }
+
+    public int[] getLinkIndependent() {
+        return linkIndependent;
+    }
+
+    public double[] getLinkValues() {
+        return linkValues;
+    }
+}
@@ -6,6 +6,9 @@ import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.stage.FileChooser;
@@ -13,7 +16,7 @@ import javafx.stage.FileChooser;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,6 +37,16 @@ public class Controller {
     private TextField deltaTimeTextField;
     @FXML
     private TextField experimentDurationTextField;
+    @FXML
+    private ChoiceBox<String> integratorChoiceBox;
+
+    //Controls of the running simulation
+    @FXML
+    private Button startSimulationButton;
+    @FXML
+    private Button cancelSimulationButton;
+    @FXML
+    private ProgressBar simulationProgressBar;
 
     //Text fields for experiment parameters
     @FXML
@@ -43,6 +56,34 @@ public class Controller {
     @FXML
     private TextArea additionsTextBox;
 
+    //The simulation running in the background, null if none was started
+    private SimulationTask simulationTask;
+
+    //Every point recorded by the last simulation, the graph only shows a downsampled copy
+    private Trajectory lastTrajectory;
+
+    //The trajectory file shown on the graph, kept open so the graph and exports read from the file instead of a copy
+    //in memory, null if the graph shows a simulation
+    private BinaryTrajectoryReader openedTrajectory;
+
+    //Snapshots of the last simulation, a re-run that only changes later additions continues from one of them
+    private SnapshotLadder snapshotLadder = new SnapshotLadder();
+
+    //The flight recorder event and metrics timing of the running simulation
+    private SimulationEvents.Run runEvent;
+    private long runStart;
+
+    //Number of points each chemical may have on the graph when its width is not known yet
+    private static final int DEFAULT_POINTS_PER_SERIES = 4000;
+
+    //Where the user interface spends its time, only recorded while metrics are enabled
+    private static final Metrics.Timer RUN_TIMER = Metrics.timer("controller.run");
+    private static final Metrics.Timer CHART_TIMER = Metrics.timer("chart.update");
+    private static final Metrics.Counter CHART_POINTS = Metrics.counter("chart.points");
+    private static final Metrics.Timer CSV_TIMER = Metrics.timer("export.csv");
+    private static final Metrics.Timer TRAJECTORY_TIMER = Metrics.timer("export.trajectory");
+    private static final Metrics.Counter EXPORTED_POINTS = Metrics.counter("export.points");
+
     /**
      * Initializes the graph and text boxes of the UI
      */
@@ -55,6 +96,10 @@ public class Controller {
         concentrationChart.setAnimated(false);
         concentrationChart.setCreateSymbols(false);
 
+        //Fill the integrator choices, euler is the default
+        integratorChoiceBox.getItems().addAll(Integrator.EULER, Integrator.DORMAND_PRINCE, Integrator.ROSENBROCK);
+        integratorChoiceBox.setValue(Integrator.EULER);
+
         //Set the default text box text
         chemicalsTextBox.setText("H2SO4 1.0 # \n" +
                 "NaOH 1.0 # \n" +
@@ -71,6 +116,10 @@ public class Controller {
     @FXML
     public void startSimulation(ActionEvent event) {
 
+        //Only one simulation can run at a time
+        if(isSimulationRunning()){
+            return;
+        }
 
         //Parse delta time and the duration of the experiment
         double dt = 0.001;
@@ -93,13 +142,16 @@ public class Controller {
         //Try parse and make the simulation
         try{
             Simulation simulation = SimulationLoader.parseSimulation(chemicalsTextBox.getText(), reactionsTextBox.getText(), additionsTextBox.getText());
+            simulation.setIntegrator(Integrator.create(integratorChoiceBox.getValue()));
             List<Chemical> trackedChemicals = SimulationLoader.getTrackedChemicals(chemicalsTextBox.getText(), simulation.getChemicals());
+            Chemical[] tracked = trackedChemicals.toArray(new Chemical[trackedChemicals.size()]);
 
-            //Clear chart
-            concentrationChart.getData().clear();
+            //Skip the part of the run that is the same as last time
+            int previousPoints = lastTrajectory == null ? 0 : lastTrajectory.getSize();
+            int resumedPoints = snapshotLadder.resume(simulation, duration, dt, tracked, previousPoints);
 
             //Run the simulation
-            runSimulation(simulation, duration, dt, trackedChemicals.toArray(new Chemical[trackedChemicals.size()]));
+            runSimulation(simulation, duration - simulation.getTimeSimulated(), dt, resumedPoints, tracked);
 
         } catch (RuntimeException exception){
             displayError("Error parsing the simulation: " + exception.getMessage());
@@ -107,6 +159,19 @@ public class Controller {
 
     }
 
+    /**
+     * Called when the cancel simulation button is pressed
+     * @param event the event that triggered the button to be pressed
+     */
+    @FXML
+    private void cancelSimulation(ActionEvent event){
+        //The buttons are enabled again in finishSimulation, once the run has actually stopped
+        if(isSimulationRunning()){
+            simulationTask.stop();
+            cancelSimulationButton.setDisable(true);
+        }
+    }
+
     /**
      * Called when the open simulation file button is pressed
      * @param event the event that triggered the button to be pressed
@@ -138,14 +203,37 @@ public class Controller {
     }
 
     /**
-     * Called when the output csv button is pressed
+     * Called when the output csv button is pressed, writes one row per chemical
      * @param event the event that triggered the button to be pressed
      */
     @FXML
     private void outputCSV(ActionEvent event) {
+        exportCSV(CsvTrajectoryWriter.Layout.CHEMICAL_MAJOR);
+    }
+
+    /**
+     * Called when the output csv by time button is pressed, writes one row per point in time
+     * @param event the event that triggered the button to be pressed
+     */
+    @FXML
+    private void outputTimeMajorCSV(ActionEvent event) {
+        exportCSV(CsvTrajectoryWriter.Layout.TIME_MAJOR);
+    }
+
+    /**
+     * Writes every point recorded by the last simulation to a csv file chosen by the user
+     * @param layout how to arrange the values in the file
+     */
+    private void exportCSV(CsvTrajectoryWriter.Layout layout) {
+
+        //Ensure the experiment is not still running
+        if (isSimulationRunning()) {
+            displayError("The experiment must finish before a csv can be outputted");
+            return;
+        }
 
         //Ensure an experiment was run prior to outputting csv
-        if (concentrationChart.getData().size() <= 0) {
+        if (getRecordedPointCount() <= 0) {
             displayError("An experiment must be run before a csv can be outputted");
             return;
         }
@@ -160,50 +248,172 @@ public class Controller {
             return;
         }
 
-        //Prepare the CSV writer
-        try(PrintWriter writer = new PrintWriter(file)){
+        try{
+            //Stream the recorded points into the file
+            String format = layout == CsvTrajectoryWriter.Layout.TIME_MAJOR ? "csv-time" : "csv";
+            exportTrajectory(file, format, CSV_TIMER, new CsvTrajectoryWriter(file.toPath(), layout));
 
+            //Notify user spreadsheet was outputted
+            Alert successAlert = new Alert(Alert.AlertType.CONFIRMATION);
+            successAlert.setHeaderText("Success!");
+            successAlert.setContentText("Successfully outputted file " + file.getAbsolutePath());
+            successAlert.showAndWait();
 
-            //Get the time row
-            String csvText = "Time: ";
+        } catch (RuntimeException exception){
+            displayError(exception.getMessage());
+        }
+    }
 
-            for (int j = 0; j < concentrationChart.getData().get(0).getData().size(); j++){
+    /**
+     * Called when the output binary trajectory button is pressed, writes every point recorded by the last simulation
+     * @param event the event that triggered the button to be pressed
+     */
+    @FXML
+    private void outputTrajectory(ActionEvent event) {
 
-                csvText += ",";
-                csvText += concentrationChart.getData().get(0).getData().get(j).getXValue();
-            }
+        //Ensure an experiment was run and finished prior to outputting the trajectory
+        if (isSimulationRunning() || getRecordedPointCount() <= 0) {
+            displayError("An experiment must be run before a trajectory can be outputted");
+            return;
+        }
+
+        //Choose a file
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Trajectory Files", ".traj"));
+        File file = fileChooser.showSaveDialog(null);
+
+        //No file selected, return
+        if(file == null){
+            return;
+        }
+
+        //The opened file is read while the new one is written, so it can't be replaced
+        if(openedTrajectory != null && file.getAbsoluteFile().toPath().equals(openedTrajectory.getPath().toAbsolutePath())){
+            displayError("The trajectory is already in " + file.getAbsolutePath());
+            return;
+        }
+
+        try{
+            exportTrajectory(file, "traj", TRAJECTORY_TIMER, new BinaryTrajectoryWriter(file.toPath(), getRecordedPointCount()));
+
+            //Notify user the trajectory was outputted
+            Alert successAlert = new Alert(Alert.AlertType.CONFIRMATION);
+            successAlert.setHeaderText("Success!");
+            successAlert.setContentText("Successfully outputted file " + file.getAbsolutePath());
+            successAlert.showAndWait();
+
+        } catch (RuntimeException exception){
+            displayError(exception.getMessage());
+        }
+    }
 
-            csvText += '\n';
+    /**
+     * Writes every point recorded by the last simulation or of the opened trajectory file to a file, timing it for the
+     * metrics and flight recorder
+     * @param file the file written to
+     * @param format the name of the format of the file
+     * @param timer the timer of the format
+     * @param writer the writer of the file
+     */
+    private void exportTrajectory(File file, String format, Metrics.Timer timer, TrajectorySink writer){
+        long start = timer.start();
+        SimulationEvents.Export event = new SimulationEvents.Export();
+        event.begin();
+
+        if(openedTrajectory != null){
+            openedTrajectory.replay(writer);
+        } else {
+            lastTrajectory.replay(writer);
+        }
 
-            //Get the chemical molarity rows
-            for (int i = 0; i < concentrationChart.getData().size(); i++) {
+        timer.stop(start);
+        EXPORTED_POINTS.add(getRecordedPointCount());
+        if(event.shouldCommit()){
+            event.path = file.getAbsolutePath();
+            event.format = format;
+            event.points = getRecordedPointCount();
+            event.commit();
+        }
+    }
 
-                String row = "";
+    /**
+     * Gets how many points can be outputted
+     * @return the number of rows of the opened trajectory file, or of points recorded by the last simulation
+     */
+    private int getRecordedPointCount(){
+        if(openedTrajectory != null){
+            return openedTrajectory.getRowCount();
+        }
+        return lastTrajectory == null ? 0 : lastTrajectory.getSize();
+    }
 
-                XYChart.Series<Number, Number> series = concentrationChart.getData().get(i);
-                row += series.getName();
+    /**
+     * Called when the open trajectory button is pressed, shows a binary trajectory file on the graph
+     * @param event the event that triggered the button to be pressed
+     */
+    @FXML
+    private void openTrajectory(ActionEvent event) {
 
-                for (int j = 0; j < series.getData().size(); j++){
-                    row += ",";
-                    row += series.getData().get(j).getYValue();
-                }
+        if (isSimulationRunning()) {
+            displayError("The experiment must finish before a trajectory can be opened");
+            return;
+        }
 
-                row += '\n';
-                csvText += row;
+        //Prompt the user to select a file
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Trajectory Files", "*.traj"));
+        File file = fileChooser.showOpenDialog(null);
+
+        //No file selected, return
+        if(file == null){
+            return;
+        }
+
+        BinaryTrajectoryReader reader = null;
+        try{
+            reader = new BinaryTrajectoryReader(file.toPath());
+            if(reader.getRowCount() == 0){
+                reader.close();
+                displayError("The trajectory " + file.getAbsolutePath() + " is empty");
+                return;
             }
 
-            //Write text to file
-            writer.write(csvText);
+            //Keep the file open instead of loading it, the graph and exports read what they need from it
+            closeOpenedTrajectory();
+            openedTrajectory = reader;
+            lastTrajectory = null;
+            showOpenedTrajectory(reader.getTimes().get(0), reader.getTimes().get(reader.getRowCount() - 1));
 
+        } catch (RuntimeException exception){
+            if(reader != null && reader != openedTrajectory){
+                reader.close();
+            }
+            displayError(exception.getMessage());
+        }
+    }
 
-            //Notify user spreadsheet was outputted
-            Alert successAlert = new Alert(Alert.AlertType.CONFIRMATION);
-            successAlert.setHeaderText("Success!");
-            successAlert.setContentText("Successfully outputted file " + file.getAbsolutePath());
-            successAlert.showAndWait();
+    /**
+     * Shows a window of time of the opened trajectory file on the graph, only the rows within the window are read
+     * @param startTime the start of the window
+     * @param endTime the end of the window
+     */
+    private void showOpenedTrajectory(double startTime, double endTime){
+        List<XYChart.Series<Number, Number>> chemicalSeries = createSeries(openedTrajectory.getColumnNames());
+        if(endTime > startTime){
+            MinMaxDownsampler downsampler = new MinMaxDownsampler(startTime, endTime, Math.max(1, getPointsPerSeries() / 4));
+            openedTrajectory.replay(downsampler, startTime, endTime);
+            addToChart(chemicalSeries, downsampler.takeOutput());
+            setTimeAxis(startTime, endTime);
+        }
+    }
 
-        } catch (FileNotFoundException exception){
-            displayError("Error while writing  " + file.getAbsolutePath());
+    /**
+     * Closes the opened trajectory file, if there is one
+     */
+    private void closeOpenedTrajectory(){
+        if(openedTrajectory != null){
+            openedTrajectory.close();
+            openedTrajectory = null;
         }
     }
 
@@ -245,48 +455,150 @@ public class Controller {
     }
 
     /**
-     * Runs the simulation
+     * Runs the simulation on a background thread, the graph is filled in as the simulation runs
      * @param simulation the simulation to run
      * @param duration how long to run the simulation for
-     * @param deltaTime the accuracy of the simulation (lower the more accurate)
+     * @param deltaTime the time between recorded points, with the euler integrator also the accuracy of the simulation (lower the more accurate)
+     * @param resumedPoints how many points of the last run come before the simulation's current time, 0 if it starts from zero
      * @param trackedChemicals a list of chemicals that should be tracked
      */
-    private void runSimulation(Simulation simulation, double duration, double deltaTime, Chemical... trackedChemicals){
-
-        //Make a hash map of all the chemicals that are going to be tracked with there data series
-        HashMap<Chemical,XYChart.Series> chemicalSeries = new HashMap<>();
-
-        //Initialize all the series
+    private void runSimulation(Simulation simulation, double duration, double deltaTime, int resumedPoints, Chemical... trackedChemicals){
+
+        //Time the run until finishSimulation
+        runStart = RUN_TIMER.start();
+        runEvent = new SimulationEvents.Run();
+        runEvent.begin();
+        runEvent.simulatedDuration = duration;
+        runEvent.deltaTime = deltaTime;
+        runEvent.trackedChemicals = trackedChemicals.length;
+        runEvent.resumedPoints = resumedPoints;
+
+        //Make a series for every tracked chemical, in the same order as the recorded columns
+        List<String> names = new ArrayList<>();
         for (Chemical c : trackedChemicals){
-            XYChart.Series series = new XYChart.Series();
-            series.setName(c.getChemicalName());
-            chemicalSeries.put(c, series);
+            names.add(c.getChemicalName());
         }
+        List<XYChart.Series<Number, Number>> chemicalSeries = createSeries(names);
+        double startTime = resumedPoints > 0 ? lastTrajectory.getTime(0) : simulation.getTimeSimulated();
+        setTimeAxis(startTime, simulation.getTimeSimulated() + duration);
+
+        //Prepare the background task, a resumed run shows the points of the last run before it first
+        SimulationRunner runner = new SimulationRunner(simulation, duration, deltaTime, trackedChemicals);
+        simulationTask = new SimulationTask(runner, getPointsPerSeries(), chunk -> addToChart(chemicalSeries, chunk),
+                lastTrajectory, resumedPoints, snapshotLadder);
+        lastTrajectory = null;
+        closeOpenedTrajectory();
+        simulationTask.setOnSucceeded(e -> finishSimulation());
+        simulationTask.setOnFailed(e -> {
+            finishSimulation();
+            displayError("Error while running the simulation: " + simulationTask.getException().getMessage());
+        });
+
+        simulationProgressBar.progressProperty().bind(simulationTask.progressProperty());
+        setSimulationRunning(true);
+
+        //Run the simulation
+        Thread thread = new Thread(simulationTask, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-        //Run through the simulation through the duration (plus a little due to floating point precision)
-        for (double t = 0; t <= duration + (deltaTime/2.0); t += deltaTime) {
+    /**
+     * Clears the graph and adds an empty series for every chemical
+     * @param names the names of the chemicals
+     * @return the series, in the same order as the names
+     */
+    private List<XYChart.Series<Number, Number>> createSeries(List<String> names){
+        concentrationChart.getData().clear();
+        List<XYChart.Series<Number, Number>> chemicalSeries = new ArrayList<>();
+        for (String name : names){
+            XYChart.Series<Number, Number> series = new XYChart.Series<>();
+            series.setName(name);
+            chemicalSeries.add(series);
+            concentrationChart.getData().add(series);
+        }
+        return chemicalSeries;
+    }
 
-            //Simulate
-            simulation.simulate(deltaTime);
+    /**
+     * Set the x axis properties to display all the data
+     * @param startTime the time of the first point
+     * @param endTime the time of the last point
+     */
+    private void setTimeAxis(double startTime, double endTime){
+        xAxis.setLowerBound(startTime);
+        xAxis.setUpperBound(endTime);
+        xAxis.setTickUnit((endTime - startTime) / 10.0);
+        xAxis.setMinorTickCount(5);
+    }
 
-            //Update the chemicals
-            for (Chemical c : trackedChemicals){
-                chemicalSeries.get(c).getData().add(new XYChart.Data<>(t,simulation.getConcentration(c)));
-            }
+    /**
+     * Gets how many points each chemical may have on the graph, about four per pixel
+     * @return the number of points
+     */
+    private int getPointsPerSeries(){
+        return concentrationChart.getWidth() > 0 ? (int) (4 * concentrationChart.getWidth()) : DEFAULT_POINTS_PER_SERIES;
+    }
 
+    /**
+     * Adds a chunk of downsampled points to the graph
+     * @param chemicalSeries the series of every tracked chemical
+     * @param chunk the points of every tracked chemical, in the same order as the series
+     */
+    private void addToChart(List<XYChart.Series<Number, Number>> chemicalSeries, Trajectory[] chunk){
+        long start = CHART_TIMER.start();
+        SimulationEvents.ChartUpdate event = new SimulationEvents.ChartUpdate();
+        event.begin();
+
+        int pointCount = 0;
+        for (int c = 0; c < chemicalSeries.size(); c++){
+            List<XYChart.Data<Number, Number>> points = new ArrayList<>(chunk[c].getSize());
+            for (int i = 0; i < chunk[c].getSize(); i++){
+                points.add(new XYChart.Data<>(chunk[c].getTime(i), chunk[c].getValue(0, i)));
+            }
+            chemicalSeries.get(c).getData().addAll(points);
+            pointCount += points.size();
         }
 
-        //Set the x axis properties to display all the data
-        xAxis.setUpperBound(duration);
-        xAxis.setTickUnit(duration / 10.0);
-        xAxis.setMinorTickCount(5);
+        CHART_TIMER.stop(start);
+        CHART_POINTS.add(pointCount);
+        if(event.shouldCommit()){
+            event.points = pointCount;
+            event.commit();
+        }
+    }
 
-        //Add all the chemicals to the graph
-        for (Chemical c : trackedChemicals){
-            concentrationChart.getData().add(chemicalSeries.get(c));
+    /**
+     * Called on the application thread once the background simulation stopped, keeps the recorded points for output
+     */
+    private void finishSimulation(){
+        lastTrajectory = simulationTask.getTrajectory();
+        setSimulationRunning(false);
+
+        RUN_TIMER.stop(runStart);
+        if(runEvent.shouldCommit()){
+            runEvent.recordedPoints = lastTrajectory == null ? 0 : lastTrajectory.getSize();
+            runEvent.commit();
         }
     }
 
+    /**
+     * Enables and disables the buttons that depend on whether a simulation is running
+     * @param running whether a simulation is running
+     */
+    private void setSimulationRunning(boolean running){
+        startSimulationButton.setDisable(running);
+        cancelSimulationButton.setDisable(!running);
+    }
+
+    /**
+     * Checks if a simulation is running in the background
+     * @return true if a simulation is running
+     */
+    private boolean isSimulationRunning(){
+        return simulationTask != null && simulationTask.isRunning();
+    }
+
     /**
      * Sanatizes double from text field input
      * @param textField text field to get the double from
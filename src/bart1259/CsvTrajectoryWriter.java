@@ -0,0 +1,269 @@
+package bart1259;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes recorded concentrations to a CSV file as they are recorded. Rows are formatted into a byte buffer which is
+ * written to a file channel whenever it fills up, so the memory used does not depend on the length of the run.
+ *
+ * Two layouts are supported. In the time major layout there is a header row of column names followed by one row per
+ * point in time. In the chemical major layout, the one the program has always written, the first row holds the
+ * times and each following row holds every value of one chemical. To stream that layout the points are collected in
+ * blocks, every block is written to a single temporary file one column after another and the rows are put together
+ * from the blocks when the run ends, so only two files are open and a few megabytes are buffered however many
+ * chemicals are tracked
+ */
+public class CsvTrajectoryWriter implements TrajectorySink {
+
+    /**
+     * How the values are arranged in the file
+     */
+    public enum Layout {
+        //One row per point in time, one column per chemical
+        TIME_MAJOR,
+        //One row per chemical, one column per point in time
+        CHEMICAL_MAJOR
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    //Most bytes and points in a block of the chemical major layout
+    private static final int BLOCK_SIZE = 1 << 22;
+    private static final int MAX_BLOCK_POINTS = 1 << 13;
+
+    private Path path;
+    private Layout layout;
+    private DoubleFormatter formatter = new DoubleFormatter();
+    private byte[] number = new byte[DoubleFormatter.MAX_LENGTH];
+
+    //The channel of the output file
+    private FileChannel channel;
+    private ByteBuffer buffer;
+
+    //The chemical major layout keeps the names of the rows and writes blocks of points to a temporary file. Value p of
+    //row r of a block is at (r * blockPoints + p) * 8 bytes from the start of the block
+    private List<String> columnNames;
+    private Path blockFile;
+    private FileChannel blockChannel;
+    private ByteBuffer block;
+    private int blockPoints;
+    private int blockFill = 0;
+    private long blockCount = 0;
+
+    /**
+     * Creates a CSV writer, the file is created when the run begins
+     * @param path the file to write to
+     * @param layout how to arrange the values
+     */
+    public CsvTrajectoryWriter(Path path, Layout layout){
+        this.path = path;
+        this.layout = layout;
+    }
+
+    @Override
+    public void begin(List<String> columnNames) {
+        try{
+            if(layout == Layout.TIME_MAJOR){
+                channel = open(path);
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+                //Write the header row
+                write("Time");
+                for (String name : columnNames){
+                    write(",");
+                    write(name);
+                }
+                write("\n");
+            } else {
+                //Make a temporary file next to the output for the blocks, with a row for the times and every chemical
+                this.columnNames = columnNames;
+                int rows = columnNames.size() + 1;
+                blockPoints = Math.max(1, Math.min(MAX_BLOCK_POINTS, BLOCK_SIZE / (Double.BYTES * rows)));
+                block = ByteBuffer.allocateDirect(rows * blockPoints * Double.BYTES);
+                blockFile = Files.createTempFile(path.toAbsolutePath().getParent(), "." + path.getFileName(), ".blocks");
+                blockChannel = open(blockFile);
+            }
+        } catch (IOException e){
+            close();
+            throw new RuntimeException("Error while writing " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void record(double time, double[] values) {
+        try{
+            if(layout == Layout.TIME_MAJOR){
+                write(time);
+                for (double value : values){
+                    write(',');
+                    write(value);
+                }
+                write('\n');
+            } else {
+                block.putDouble(blockFill * Double.BYTES, time);
+                for (int i = 0; i < values.length; i++){
+                    block.putDouble(((i + 1) * blockPoints + blockFill) * Double.BYTES, values[i]);
+                }
+                blockFill++;
+                if(blockFill == blockPoints){
+                    writeBlock();
+                }
+            }
+        } catch (IOException e){
+            close();
+            throw new RuntimeException("Error while writing " + path + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void end() {
+        if(channel == null && blockChannel == null){
+            return;
+        }
+        try{
+            if(layout == Layout.CHEMICAL_MAJOR){
+                //The last block is written whole so every block has the same size, only its filled points are read
+                int lastFill = blockFill;
+                if(blockFill > 0){
+                    writeBlock();
+                }
+                channel = open(path);
+                buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                ByteBuffer row = ByteBuffer.allocateDirect(blockPoints * Double.BYTES);
+                long blockBytes = (long) block.capacity();
+                for (int r = 0; r <= columnNames.size(); r++){
+                    write(r == 0 ? "Time: " : columnNames.get(r - 1));
+                    for (long b = 0; b < blockCount; b++){
+                        row.clear();
+                        long position = b * blockBytes + (long) r * blockPoints * Double.BYTES;
+                        while (row.hasRemaining()){
+                            if(blockChannel.read(row, position + row.position()) < 0){
+                                throw new IOException("the temporary file ended early");
+                            }
+                        }
+                        int points = b == blockCount - 1 && lastFill > 0 ? lastFill : blockPoints;
+                        for (int p = 0; p < points; p++){
+                            write(',');
+                            write(row.getDouble(p * Double.BYTES));
+                        }
+                    }
+                    write('\n');
+                }
+            }
+            flush();
+        } catch (IOException e){
+            throw new RuntimeException("Error while writing " + path + ": " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Writes the collected block of points to the temporary file
+     */
+    private void writeBlock() throws IOException {
+        block.clear();
+        while (block.hasRemaining()){
+            blockChannel.write(block);
+        }
+        block.clear();
+        blockFill = 0;
+        blockCount++;
+    }
+
+    /**
+     * Closes the channels and deletes the temporary file
+     */
+    private void close(){
+        for (FileChannel open : new FileChannel[]{channel, blockChannel}){
+            try{
+                if(open != null){
+                    open.close();
+                }
+            } catch (IOException ignored){
+                //Nothing can be done if closing fails
+            }
+        }
+        if(blockFile != null){
+            try{
+                Files.deleteIfExists(blockFile);
+            } catch (IOException ignored){
+                //A leftover temporary file is not worth failing the export for
+            }
+        }
+        channel = null;
+        blockChannel = null;
+        blockFile = null;
+    }
+
+    /**
+     * Opens a file for writing, replacing its contents
+     * @param file the file
+     * @return the channel
+     */
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes a double to the output
+     * @param value the value
+     */
+    private void write(double value) throws IOException {
+        int length = formatter.format(value, number, 0);
+        ensureSpace(length).put(number, 0, length);
+    }
+
+    /**
+     * Writes a single character to the output
+     * @param c the character
+     */
+    private void write(char c) throws IOException {
+        ensureSpace(1).put((byte) c);
+    }
+
+    /**
+     * Writes text to the output
+     * @param text the text
+     */
+    private void write(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        while (offset < bytes.length){
+            ByteBuffer buffer = ensureSpace(1);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Makes sure the buffer has space, writing it to the output if it doesn't
+     * @param bytes the number of bytes needed
+     * @return the buffer
+     */
+    private ByteBuffer ensureSpace(int bytes) throws IOException {
+        if(buffer.remaining() < bytes){
+            flush();
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes the buffer to the output
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,307 @@
+package bart1259;
+
+import java.util.Arrays;
+
+/**
+ * Integrates a system with the adaptive Dormand-Prince 5(4) Runge-Kutta method. Each step is made with a fifth
+ * order formula and the difference to the embedded fourth order formula is used to estimate the error, which
+ * decides both whether the step is accepted and how long the next step should be
+ */
+public class DormandPrinceIntegrator implements Integrator {
+
+    //Butcher tableau of the method
+    private static final double A21 = 1.0 / 5.0;
+    private static final double A31 = 3.0 / 40.0, A32 = 9.0 / 40.0;
+    private static final double A41 = 44.0 / 45.0, A42 = -56.0 / 15.0, A43 = 32.0 / 9.0;
+    private static final double A51 = 19372.0 / 6561.0, A52 = -25360.0 / 2187.0, A53 = 64448.0 / 6561.0, A54 = -212.0 / 729.0;
+    private static final double A61 = 9017.0 / 3168.0, A62 = -355.0 / 33.0, A63 = 46732.0 / 5247.0, A64 = 49.0 / 176.0, A65 = -5103.0 / 18656.0;
+    private static final double B1 = 35.0 / 384.0, B3 = 500.0 / 1113.0, B4 = 125.0 / 192.0, B5 = -2187.0 / 6784.0, B6 = 11.0 / 84.0;
+
+    //Difference between the fifth and fourth order weights
+    private static final double E1 = 71.0 / 57600.0, E3 = -71.0 / 16695.0, E4 = 71.0 / 1920.0, E5 = -17253.0 / 339200.0, E6 = 22.0 / 525.0, E7 = -1.0 / 40.0;
+
+    //Step size controller settings
+    private static final double SAFETY = 0.9;
+    private static final double MIN_FACTOR = 0.2;
+    private static final double MAX_FACTOR = 5.0;
+
+    private double relativeTolerance;
+    private double absoluteTolerance;
+
+    //The step size the error estimate suggested for the next step, 0 if it has to be estimated
+    private double stepSize = 0.0;
+
+    //Stage derivatives and work arrays
+    private double[] k1, k2, k3, k4, k5, k6, k7;
+    private double[] stageState, newState;
+
+    //The state the last step ended on, k7 of that step is reused as k1 if the next step starts from it
+    private double[] lastState;
+    private boolean lastStateValid = false;
+
+    private long derivativeEvaluations = 0;
+    private long acceptedSteps = 0;
+    private long rejectedSteps = 0;
+
+    /**
+     * Creates a Dormand-Prince integrator with default tolerances
+     */
+    public DormandPrinceIntegrator(){
+        this(1.0e-6, 1.0e-9);
+    }
+
+    /**
+     * Creates a Dormand-Prince integrator
+     * @param relativeTolerance the allowed local error relative to the size of each variable
+     * @param absoluteTolerance the allowed local error for variables close to zero
+     */
+    public DormandPrinceIntegrator(double relativeTolerance, double absoluteTolerance){
+        if(relativeTolerance <= 0 || absoluteTolerance <= 0){
+            throw new RuntimeException("tolerances must be greater than 0");
+        }
+        this.relativeTolerance = relativeTolerance;
+        this.absoluteTolerance = absoluteTolerance;
+        allocate(0);
+    }
+
+    /**
+     * Takes one accepted step, retrying with a shorter step as long as the error estimate is too large
+     * @param system the system to advance
+     * @param state the state at the start of the step, overwritten with the state at the end of the step
+     * @param maxStep the longest step that may be taken
+     * @return the length of the accepted step
+     */
+    @Override
+    public double step(OdeSystem system, double[] state, double maxStep) {
+
+        int n = system.getDimension();
+        if(k1.length != n){
+            allocate(n);
+        }
+        if(n == 0){
+            return maxStep;
+        }
+
+        //Reuse the last derivative of the previous step if nothing changed the state in between
+        if(!lastStateValid || !Arrays.equals(state, lastState)){
+            system.computeDerivatives(state, k1);
+            derivativeEvaluations++;
+        } else {
+            System.arraycopy(k7, 0, k1, 0, n);
+        }
+
+        if(stepSize <= 0){
+            stepSize = estimateInitialStep(system, state);
+        }
+
+        boolean rejected = false;
+        while (true){
+
+            double h = Math.min(stepSize, maxStep);
+            if(!(h > 0)){
+                throw new RuntimeException("step size underflow in " + getName() + " integrator");
+            }
+
+            double error = attemptStep(system, state, h);
+
+            if(error <= 1.0){
+                //Accept the step
+                System.arraycopy(newState, 0, state, 0, n);
+                System.arraycopy(newState, 0, lastState, 0, n);
+                lastStateValid = true;
+                acceptedSteps++;
+
+                //Only let the step grow if it was not just rejected, and don't shrink it because maxStep cut it short
+                double factor = error == 0 ? MAX_FACTOR : SAFETY * Math.pow(error, -0.2);
+                factor = Math.min(rejected ? 1.0 : MAX_FACTOR, Math.max(MIN_FACTOR, factor));
+                if(h < stepSize){
+                    stepSize = Math.max(stepSize, h * factor);
+                } else {
+                    stepSize = h * factor;
+                }
+
+                return h;
+            }
+
+            //Reject the step and try again with a shorter one
+            rejectedSteps++;
+            rejected = true;
+            double factor = Double.isNaN(error) ? MIN_FACTOR : Math.max(MIN_FACTOR, SAFETY * Math.pow(error, -0.2));
+            stepSize = h * factor;
+        }
+    }
+
+    /**
+     * Computes a fifth order step into newState and estimates its error
+     * @param system the system to advance
+     * @param state the state at the start of the step
+     * @param h the length of the step
+     * @return the scaled error norm, the step is accurate enough when this is at most 1
+     */
+    private double attemptStep(OdeSystem system, double[] state, double h){
+
+        int n = state.length;
+
+        for (int i = 0; i < n; i++){
+            stageState[i] = state[i] + h * A21 * k1[i];
+        }
+        system.computeDerivatives(stageState, k2);
+
+        for (int i = 0; i < n; i++){
+            stageState[i] = state[i] + h * (A31 * k1[i] + A32 * k2[i]);
+        }
+        system.computeDerivatives(stageState, k3);
+
+        for (int i = 0; i < n; i++){
+            stageState[i] = state[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+        }
+        system.computeDerivatives(stageState, k4);
+
+        for (int i = 0; i < n; i++){
+            stageState[i] = state[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+        }
+        system.computeDerivatives(stageState, k5);
+
+        for (int i = 0; i < n; i++){
+            stageState[i] = state[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+        }
+        system.computeDerivatives(stageState, k6);
+
+        for (int i = 0; i < n; i++){
+            newState[i] = state[i] + h * (B1 * k1[i] + B3 * k3[i] + B4 * k4[i] + B5 * k5[i] + B6 * k6[i]);
+        }
+        system.computeDerivatives(newState, k7);
+        derivativeEvaluations += 6;
+
+        //Root mean square of the error scaled by the tolerances
+        double sum = 0.0;
+        for (int i = 0; i < n; i++){
+            double error = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]);
+            double scale = absoluteTolerance + relativeTolerance * Math.max(Math.abs(state[i]), Math.abs(newState[i]));
+            sum += (error / scale) * (error / scale);
+        }
+        return Math.sqrt(sum / n);
+    }
+
+    /**
+     * Estimates a first step size from the size of the state and its derivatives (Hairer, Norsett and Wanner)
+     * @param system the system being integrated
+     * @param state the initial state, k1 must hold its derivatives
+     * @return the estimated step size
+     */
+    private double estimateInitialStep(OdeSystem system, double[] state){
+
+        int n = state.length;
+        double stateNorm = 0.0;
+        double derivativeNorm = 0.0;
+        for (int i = 0; i < n; i++){
+            double scale = absoluteTolerance + relativeTolerance * Math.abs(state[i]);
+            stateNorm += (state[i] / scale) * (state[i] / scale);
+            derivativeNorm += (k1[i] / scale) * (k1[i] / scale);
+        }
+        stateNorm = Math.sqrt(stateNorm / n);
+        derivativeNorm = Math.sqrt(derivativeNorm / n);
+
+        double h0 = (stateNorm < 1.0e-5 || derivativeNorm < 1.0e-5) ? 1.0e-6 : 0.01 * stateNorm / derivativeNorm;
+
+        //Take an explicit Euler step to estimate the second derivative
+        for (int i = 0; i < n; i++){
+            stageState[i] = state[i] + h0 * k1[i];
+        }
+        system.computeDerivatives(stageState, k2);
+        derivativeEvaluations++;
+
+        double secondDerivativeNorm = 0.0;
+        for (int i = 0; i < n; i++){
+            double scale = absoluteTolerance + relativeTolerance * Math.abs(state[i]);
+            double difference = (k2[i] - k1[i]) / scale;
+            secondDerivativeNorm += difference * difference;
+        }
+        secondDerivativeNorm = Math.sqrt(secondDerivativeNorm / n) / h0;
+
+        double largest = Math.max(derivativeNorm, secondDerivativeNorm);
+        double h1 = largest <= 1.0e-15 ? Math.max(1.0e-6, h0 * 1.0e-3) : Math.pow(0.01 / largest, 0.2);
+
+        return Math.min(100.0 * h0, h1);
+    }
+
+    /**
+     * Forgets the step size and the state of the last step, the next step starts over with an estimated step size
+     */
+    @Override
+    public void reset(){
+        lastStateValid = false;
+        stepSize = 0.0;
+    }
+
+    /**
+     * Allocates the work arrays for a system of a given size
+     * @param n the dimension of the system
+     */
+    private void allocate(int n){
+        boolean hadSystem = lastState != null && lastState.length > 0;
+        k1 = new double[n];
+        k2 = new double[n];
+        k3 = new double[n];
+        k4 = new double[n];
+        k5 = new double[n];
+        k6 = new double[n];
+        k7 = new double[n];
+        stageState = new double[n];
+        newState = new double[n];
+        lastState = new double[n];
+        lastStateValid = false;
+
+        //The step size of a different system means nothing, but a step size given before the first step is kept
+        if(hadSystem){
+            stepSize = 0.0;
+        }
+    }
+
+    //Accessors
+
+    @Override
+    public String getName() {
+        return DORMAND_PRINCE;
+    }
+
+    @Override
+    public long getDerivativeEvaluations() {
+        return derivativeEvaluations;
+    }
+
+    @Override
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    @Override
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    @Override
+    public double getStepSize() {
+        return stepSize;
+    }
+
+    @Override
+    public void setStepSize(double stepSize) {
+        this.stepSize = stepSize;
+    }
+
+    @Override
+    public void setStatistics(long derivativeEvaluations, long acceptedSteps, long rejectedSteps) {
+        this.derivativeEvaluations = derivativeEvaluations;
+        this.acceptedSteps = acceptedSteps;
+        this.rejectedSteps = rejectedSteps;
+    }
+
+    public double getRelativeTolerance() {
+        return relativeTolerance;
+    }
+
+    public double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+}
@@ -0,0 +1,295 @@
+package bart1259;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Formats doubles as ASCII text straight into a byte array, without creating strings. Values are written with the
+ * fewest significant digits, at most 17, that read back as exactly the same double, like Double.toString. Values
+ * from 0.001 up to 10^7 are written in plain notation and other values as d.dddE-n.
+ *
+ * The value is multiplied by a power of ten held as a pair of doubles, which is exact to about 106 bits, so the
+ * digits and how far they are from the value are known well enough to tell if they read back as the value.
+ * A formatter reuses its own scratch space, so each thread needs its own formatter
+ */
+public class DoubleFormatter {
+
+    //The longest text a formatted value can take
+    public static final int MAX_LENGTH = 24;
+
+    //17 significant digits always read back as the same double, any normal value that can be written with 15 or
+    //fewer digits reads back from its 15 digit rounding, so only 15, 16 and 17 digits have to be tried. Subnormal
+    //values hold fewer digits and shorter lengths are tried too
+    private static final int MIN_DIGITS = 15;
+    private static final int MAX_DIGITS = 17;
+    private static final long MIN_MANTISSA = 10_000_000_000_000_000L;
+    private static final long MAX_MANTISSA = 100_000_000_000_000_000L;
+    private static final long[] LONG_POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+    private static final double LOG10_OF_2 = 0.30102999566398120;
+    private static final double LOG2_OF_10 = 3.32192809488736235;
+
+    //Digits closer to the edge of the rounding interval of the value than this fraction of it are not trusted
+    private static final double INTERVAL_MARGIN = 1.0e-9;
+
+    //10^k is (POWER_HIGH[i] + POWER_LOW[i]) * 2^POWER_EXPONENT[i] with i = k - MIN_POWER
+    private static final int MIN_POWER = -400;
+    private static final int MAX_POWER = 400;
+    private static final double[] POWER_HIGH = new double[MAX_POWER - MIN_POWER + 1];
+    private static final double[] POWER_LOW = new double[MAX_POWER - MIN_POWER + 1];
+    private static final int[] POWER_EXPONENT = new int[MAX_POWER - MIN_POWER + 1];
+
+    static {
+        LONG_POWERS_OF_TEN[0] = 1L;
+        for (int i = 1; i < LONG_POWERS_OF_TEN.length; i++){
+            LONG_POWERS_OF_TEN[i] = LONG_POWERS_OF_TEN[i - 1] * 10L;
+        }
+        for (int k = MIN_POWER; k <= MAX_POWER; k++){
+            //Scale 10^k by a power of two so it fits in a double, both are exact as decimals
+            int exponent = (int) Math.floor(k * LOG2_OF_10);
+            BigDecimal power = BigDecimal.ONE.scaleByPowerOfTen(k);
+            if(exponent >= 0){
+                power = power.multiply(new BigDecimal(BigInteger.valueOf(5).pow(exponent))).scaleByPowerOfTen(-exponent);
+            } else {
+                power = power.multiply(new BigDecimal(BigInteger.TWO.pow(-exponent)));
+            }
+            int i = k - MIN_POWER;
+            POWER_HIGH[i] = power.doubleValue();
+            POWER_LOW[i] = power.subtract(new BigDecimal(POWER_HIGH[i])).doubleValue();
+            POWER_EXPONENT[i] = exponent;
+        }
+    }
+
+    //The digits of the value being formatted
+    private byte[] digits = new byte[MAX_DIGITS];
+
+    //The value times a power of ten, split into its whole part and the rest
+    private long scaledWhole;
+    private double scaledFraction;
+
+    /**
+     * Writes a double as text
+     * @param value the value to write
+     * @param buffer the array to write to, it needs MAX_LENGTH bytes of space from position
+     * @param position where in the array to start writing
+     * @return the position after the last byte written
+     */
+    public int format(double value, byte[] buffer, int position){
+
+        //Leave special values to the standard formatting
+        if(Double.isNaN(value) || Double.isInfinite(value)){
+            return writeAscii(Double.toString(value), buffer, position);
+        }
+        if(value == 0.0){
+            return writeAscii((1.0 / value) < 0 ? "-0.0" : "0.0", buffer, position);
+        }
+
+        if(value < 0){
+            buffer[position++] = '-';
+            value = -value;
+        }
+
+        //Split the value into a fraction from 1 to 2 and a binary exponent, both exactly
+        int binaryExponent = value < Double.MIN_NORMAL ? Math.getExponent(value * 0x1p54) - 54 : Math.getExponent(value);
+        double fraction = Math.scalb(value, -binaryExponent);
+
+        //Estimate the decimal exponent from the binary one, it is the exponent or one less
+        int exponent = (int) Math.floor(binaryExponent * LOG10_OF_2);
+
+        //Scale the value to a 17 digit whole number
+        scale(fraction, binaryExponent, MAX_DIGITS - 1 - exponent);
+        while (scaledWhole >= MAX_MANTISSA){
+            exponent++;
+            scale(fraction, binaryExponent, MAX_DIGITS - 1 - exponent);
+        }
+        while (scaledWhole < MIN_MANTISSA){
+            exponent--;
+            scale(fraction, binaryExponent, MAX_DIGITS - 1 - exponent);
+        }
+
+        //Any number closer to the value than half the gap to the next double on that side reads back as the value.
+        //The gap is 2^-52 of the binary exponent, or of the smallest normal exponent for subnormal values, and the gap
+        //below a power of two is half the gap above it
+        double scaled = scaledWhole + scaledFraction;
+        int gapExponent = Math.max(binaryExponent, Double.MIN_EXPONENT) - 52;
+        double upperBound = 0.5 * scaled * Math.scalb(1.0 / fraction, gapExponent - binaryExponent) * (1.0 - INTERVAL_MARGIN);
+        double lowerBound = fraction == 1.0 && binaryExponent > Double.MIN_EXPONENT ? 0.5 * upperBound : upperBound;
+
+        //Subnormal values may need fewer digits
+        if(value < Double.MIN_NORMAL){
+            for (int digitCount = 1; digitCount < MIN_DIGITS; digitCount++){
+                long unit = LONG_POWERS_OF_TEN[MAX_DIGITS - digitCount];
+                long mantissa = round(unit);
+                if(isClose(mantissa, unit, upperBound, lowerBound)){
+                    return writeDigits(mantissa, digitCount, exponent, buffer, position);
+                }
+            }
+        }
+
+        //Try 15, 16 and 17 digits, the units are constants so dividing by them is cheap
+        long mantissa = round(100);
+        if(isClose(mantissa, 100, upperBound, lowerBound)){
+            return writeDigits(mantissa, MAX_DIGITS - 2, exponent, buffer, position);
+        }
+        mantissa = round(10);
+        if(isClose(mantissa, 10, upperBound, lowerBound)){
+            return writeDigits(mantissa, MAX_DIGITS - 1, exponent, buffer, position);
+        }
+        mantissa = round(1);
+        if(isClose(mantissa, 1, upperBound, lowerBound)){
+            return writeDigits(mantissa, MAX_DIGITS, exponent, buffer, position);
+        }
+
+        //17 digits are always close enough, this is only a safety net
+        return writeAscii(Double.toString(value), buffer, position);
+    }
+
+    /**
+     * Multiplies a value by a power of ten, keeping the whole part and the rest of the product
+     * @param fraction the value without its binary exponent, from 1 to 2
+     * @param binaryExponent the binary exponent of the value
+     * @param power the power of ten
+     */
+    private void scale(double fraction, int binaryExponent, int power){
+        int i = power - MIN_POWER;
+        double high = fraction * POWER_HIGH[i];
+        double low = Math.fma(fraction, POWER_HIGH[i], -high) + fraction * POWER_LOW[i];
+        //The product is about 10^16, so the power of two it is scaled by is a normal double and scaling is exact
+        double shift = Double.longBitsToDouble((long) (binaryExponent + POWER_EXPONENT[i] + Double.MAX_EXPONENT) << 52);
+        high *= shift;
+        low *= shift;
+
+        //Below 2^53 high may have a fraction, taking it off is exact
+        double whole = Math.floor(high);
+        scaledWhole = (long) whole;
+        scaledFraction = (high - whole) + low;
+    }
+
+    /**
+     * Rounds the scaled value to a whole number of units
+     * @param unit the unit, a power of ten
+     * @return the number of units nearest to the scaled value
+     */
+    private long round(long unit){
+        long mantissa = scaledWhole / unit;
+        if((scaledWhole - mantissa * unit) + scaledFraction >= 0.5 * unit){
+            mantissa++;
+        }
+        return mantissa;
+    }
+
+    /**
+     * Checks if a rounded value reads back as the value being formatted
+     * @param mantissa the rounded value in units
+     * @param unit the unit, a power of ten
+     * @param upperBound how far above the scaled value a number may be
+     * @param lowerBound how far below the scaled value a number may be
+     * @return true if the rounded value is within the bounds
+     */
+    private boolean isClose(long mantissa, long unit, double upperBound, double lowerBound){
+        double difference = (mantissa * unit - scaledWhole) - scaledFraction;
+        return difference >= 0 ? difference < upperBound : -difference < lowerBound;
+    }
+
+    /**
+     * Writes the digits of a mantissa, dropping the trailing zeros
+     * @param mantissa the digits as a whole number
+     * @param digitCount the number of digits
+     * @param exponent the decimal exponent of the first digit
+     * @param buffer the array to write to
+     * @param position where to start writing
+     * @return the position after the last byte written
+     */
+    private int writeDigits(long mantissa, int digitCount, int exponent, byte[] buffer, int position){
+
+        //Rounding may carry into a new digit, 9.99..95 becomes 10.0
+        if(mantissa >= LONG_POWERS_OF_TEN[digitCount]){
+            mantissa /= 10;
+            exponent++;
+        }
+
+        for (int i = digitCount - 1; i >= 0; i--){
+            digits[i] = (byte) ('0' + (mantissa % 10));
+            mantissa /= 10;
+        }
+        while (digitCount > 1 && digits[digitCount - 1] == '0'){
+            digitCount--;
+        }
+
+        if(exponent >= -3 && exponent < 7){
+            return writePlain(digitCount, exponent, buffer, position);
+        }
+        return writeScientific(digitCount, exponent, buffer, position);
+    }
+
+    /**
+     * Writes digits in plain notation, such as 123.45 or 0.0012
+     */
+    private int writePlain(int digitCount, int exponent, byte[] buffer, int position){
+        if(exponent < 0){
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            for (int i = -1; i > exponent; i--){
+                buffer[position++] = '0';
+            }
+            for (int i = 0; i < digitCount; i++){
+                buffer[position++] = digits[i];
+            }
+            return position;
+        }
+
+        //Integer part, padded with zeros if the digits run out
+        for (int i = 0; i <= exponent; i++){
+            buffer[position++] = i < digitCount ? digits[i] : (byte) '0';
+        }
+        buffer[position++] = '.';
+        if(digitCount <= exponent + 1){
+            buffer[position++] = '0';
+        } else {
+            for (int i = exponent + 1; i < digitCount; i++){
+                buffer[position++] = digits[i];
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Writes digits in scientific notation, such as 1.2345E-5
+     */
+    private int writeScientific(int digitCount, int exponent, byte[] buffer, int position){
+        buffer[position++] = digits[0];
+        buffer[position++] = '.';
+        if(digitCount == 1){
+            buffer[position++] = '0';
+        }
+        for (int i = 1; i < digitCount; i++){
+            buffer[position++] = digits[i];
+        }
+        buffer[position++] = 'E';
+        if(exponent < 0){
+            buffer[position++] = '-';
+            exponent = -exponent;
+        }
+        if(exponent >= 100){
+            buffer[position++] = (byte) ('0' + exponent / 100);
+        }
+        if(exponent >= 10){
+            buffer[position++] = (byte) ('0' + (exponent / 10) % 10);
+        }
+        buffer[position++] = (byte) ('0' + exponent % 10);
+        return position;
+    }
+
+    /**
+     * Writes an ASCII string
+     * @param text the string
+     * @param buffer the array to write to
+     * @param position where to start writing
+     * @return the position after the last byte written
+     */
+    public static int writeAscii(String text, byte[] buffer, int position){
+        for (int i = 0; i < text.length(); i++){
+            buffer[position++] = (byte) text.charAt(i);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,216 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Many variants of a simulation that share their reactions and additions but differ in their rate constants and
+ * initial concentrations, stepped together in lockstep. The concentrations of all members are kept in one array with
+ * the members of a chemical next to each other, so the rate of a reaction is computed for many members at once in
+ * vector registers instead of once per simulation. All members take the same steps: with the Dormand-Prince
+ * integrator the tolerances are divided by the square root of the number of members, which keeps the error of every
+ * member within the tolerances it would have on its own. Stiff ensembles can't be stepped together, the Rosenbrock
+ * integrator would have to factor a matrix of every chemical of every member
+ */
+public class Ensemble {
+
+    private EnsembleNetwork system;
+    private double[] state;
+    private Integrator integrator;
+
+    //Chemical additions that have not happened yet, sorted by time, they are added to every member
+    private List<AddedChemical> chemicalAdditions;
+    private int nextAddition = 0;
+    private double timeSimulated = 0.0;
+
+    /**
+     * Creates an ensemble where every member starts as a copy of a simulation that has not been run yet
+     * @param simulation the simulation
+     * @param memberCount the number of members
+     * @param vectorized whether to compute many members at once with the Vector API if it is available
+     */
+    public Ensemble(Simulation simulation, int memberCount, boolean vectorized){
+        this(simulation.getNetwork(), simulation.getConcentrations(), simulation.getChemicalAdditions(), memberCount, vectorized);
+    }
+
+    /**
+     * Creates an ensemble where every member starts from the same concentrations
+     * @param network the reactions every member shares, its rate constants are the starting rate constants of every member
+     * @param initialConcentrations the concentration of every chemical at the start, indexed by id
+     * @param chemicalAdditions the chemicals that will be added to every member during the simulation, sorted by time
+     * @param memberCount the number of members
+     * @param vectorized whether to compute many members at once with the Vector API if it is available
+     */
+    Ensemble(ReactionNetwork network, double[] initialConcentrations, List<AddedChemical> chemicalAdditions, int memberCount, boolean vectorized){
+        system = new EnsembleNetwork(network, memberCount, vectorized);
+        integrator = new EulerIntegrator();
+        state = new double[system.getDimension()];
+        for (int m = 0; m < memberCount; m++){
+            setConcentrations(m, initialConcentrations);
+        }
+        this.chemicalAdditions = new ArrayList<>(chemicalAdditions);
+        for (AddedChemical addition : chemicalAdditions){
+            if(network.indexOf(addition.getChemical()) < 0){
+                throw new RuntimeException("addition of " + addition.getChemical().getChemicalName() + " is not in the network");
+            }
+        }
+    }
+
+    /**
+     * Simulates every member for a duration of delta time, stopping at every chemical addition like Simulation does
+     * @param deltaTime the length of time to simulate, the integrator may split it into several steps
+     */
+    public void simulate(double deltaTime){
+
+        double endTime = timeSimulated + deltaTime;
+
+        applyDueAdditions();
+        while (timeSimulated < endTime){
+
+            //Integrate up to the next addition or the end of delta time, whichever comes first
+            double stopTime = endTime;
+            if(nextAddition < chemicalAdditions.size()){
+                stopTime = Math.min(stopTime, chemicalAdditions.get(nextAddition).getTime());
+            }
+
+            double remainingTime = stopTime - timeSimulated;
+            while (remainingTime > 0){
+                remainingTime -= integrator.step(system, state, remainingTime);
+                clamp(state);
+            }
+            timeSimulated = stopTime;
+
+            applyDueAdditions();
+        }
+    }
+
+    /**
+     * Applies the chemical additions whose time has been reached to every member
+     */
+    private void applyDueAdditions(){
+        boolean applied = false;
+        int memberCount = getMemberCount();
+        while (nextAddition < chemicalAdditions.size() && chemicalAdditions.get(nextAddition).getTime() <= timeSimulated){
+            AddedChemical addition = chemicalAdditions.get(nextAddition);
+            int offset = system.getNetwork().indexOf(addition.getChemical()) * memberCount;
+            for (int m = 0; m < memberCount; m++){
+                state[offset + m] = Math.max(0.0, state[offset + m] + addition.getAmount());
+            }
+            nextAddition++;
+            applied = true;
+        }
+        if(applied){
+            integrator.reset();
+        }
+    }
+
+    /**
+     * Ensure there is not a negative number present of any chemical in any member
+     * @param state the concentrations to clamp
+     */
+    private static void clamp(double[] state){
+        for (int i = 0; i < state.length; i++){
+            if(state[i] < 0){
+                state[i] = 0.0;
+            }
+        }
+    }
+
+    /**
+     * Sets the integrator every member is stepped with
+     * @param name the name of the integrator, euler or rk45
+     */
+    public void setIntegratorName(String name){
+        integrator = createIntegrator(name, getMemberCount());
+    }
+
+    /**
+     * Creates an integrator for an ensemble
+     * @param name the name of the integrator, euler or rk45
+     * @param memberCount the number of members of the ensemble
+     * @return the integrator
+     */
+    static Integrator createIntegrator(String name, int memberCount){
+        Integrator integrator = Integrator.create(name);
+        if(integrator instanceof RosenbrockIntegrator){
+            throw new RuntimeException("ensembles can't use the " + integrator.getName() + " integrator, run stiff variants one at a time");
+        }
+        if(integrator instanceof DormandPrinceIntegrator){
+            DormandPrinceIntegrator defaults = (DormandPrinceIntegrator) integrator;
+            double scale = Math.sqrt(memberCount);
+            integrator = new DormandPrinceIntegrator(defaults.getRelativeTolerance() / scale, defaults.getAbsoluteTolerance() / scale);
+        }
+        return integrator;
+    }
+
+    /**
+     * Sets the rate constants of a member, before the ensemble is run
+     * @param member the index of the member
+     * @param fwdReactionRates the forward rate constant of every reaction
+     * @param bwdReactionRates the backward rate constant of every reaction
+     */
+    public void setRateConstants(int member, double[] fwdReactionRates, double[] bwdReactionRates){
+        system.setRateConstants(member, fwdReactionRates, bwdReactionRates);
+        integrator.reset();
+    }
+
+    /**
+     * Sets the concentration of every chemical of a member
+     * @param member the index of the member
+     * @param concentrations the concentration of every chemical, indexed by id
+     */
+    public void setConcentrations(int member, double[] concentrations){
+        int speciesCount = system.getNetwork().getSpeciesCount();
+        if(concentrations.length != speciesCount){
+            throw new RuntimeException("expected " + speciesCount + " concentrations");
+        }
+        for (int s = 0; s < speciesCount; s++){
+            state[s * getMemberCount() + member] = concentrations[s];
+        }
+        integrator.reset();
+    }
+
+    /**
+     * Gets the concentration of every chemical of a member
+     * @param member the index of the member
+     * @param concentrations the array to store the concentration of every chemical in, indexed by id
+     */
+    public void getConcentrations(int member, double[] concentrations){
+        for (int s = 0; s < concentrations.length; s++){
+            concentrations[s] = state[s * getMemberCount() + member];
+        }
+    }
+
+    /**
+     * Gets the concentration of a chemical in a member
+     * @param member the index of the member
+     * @param chemical the chemical
+     * @return the concentration, 0 if the chemical is not in the ensemble
+     */
+    public double getConcentration(int member, Chemical chemical){
+        int index = system.getNetwork().indexOf(chemical);
+        return index < 0 ? 0.0 : state[index * getMemberCount() + member];
+    }
+
+    //Accessors
+
+    public double getTimeSimulated() {
+        return timeSimulated;
+    }
+
+    public int getMemberCount() {
+        return system.getMemberCount();
+    }
+
+    public EnsembleNetwork getSystem() {
+        return system;
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    public boolean isVectorized() {
+        return system.isVectorized();
+    }
+}
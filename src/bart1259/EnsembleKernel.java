@@ -0,0 +1,45 @@
+package bart1259;
+
+/**
+ * Computes the rate equations of every member of an ensemble at once. The state is laid out species major, the
+ * concentration of chemical s in member m is at s * memberCount + m, and the rate constants of reaction r in member m
+ * are at r * memberCount + m, so the members of a chemical are next to each other in memory
+ */
+interface EnsembleKernel {
+
+    /**
+     * Adds the rate of change caused by every reaction in every member to the derivatives, which the caller sets to
+     * zero first
+     * @param network the reactions every member shares
+     * @param memberCount the number of members
+     * @param fwdReactionRates the forward rate constant of every reaction in every member
+     * @param bwdReactionRates the backward rate constant of every reaction in every member
+     * @param state the concentration of every chemical in every member
+     * @param derivatives the rate of change of every chemical in every member
+     */
+    void addDerivatives(ReactionNetwork network, int memberCount, double[] fwdReactionRates, double[] bwdReactionRates,
+                        double[] state, double[] derivatives);
+
+    /**
+     * Gets how many members are computed at once
+     * @return the number of vector lanes, 1 for the scalar kernel
+     */
+    int getLaneCount();
+
+    /**
+     * Creates a kernel, the vector kernel is only used if it was compiled from src-vector and the jdk.incubator.vector
+     * module was added to the JVM with --add-modules jdk.incubator.vector, otherwise the scalar kernel is used
+     * @param vectorized whether to use the vector kernel if it is available
+     * @return the kernel
+     */
+    static EnsembleKernel create(boolean vectorized){
+        if(vectorized){
+            try{
+                return (EnsembleKernel) Class.forName("bart1259.VectorEnsembleKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e){
+                //The Vector API is not available, fall back to the scalar kernel
+            }
+        }
+        return new ScalarEnsembleKernel();
+    }
+}
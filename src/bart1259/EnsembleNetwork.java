@@ -0,0 +1,101 @@
+package bart1259;
+
+/**
+ * The rate equations of many copies of a reaction network that only differ in their rate constants, integrated as
+ * one system. The concentrations are laid out species major, the concentration of chemical s in member m is at
+ * s * memberCount + m, so a kernel can compute the same reaction for many members at once
+ */
+public class EnsembleNetwork implements OdeSystem {
+
+    private ReactionNetwork network;
+    private int memberCount;
+
+    //The rate constants of reaction r in member m are at r * memberCount + m
+    private double[] fwdReactionRates;
+    private double[] bwdReactionRates;
+
+    private EnsembleKernel kernel;
+
+    /**
+     * Creates an ensemble network where every member starts with the rate constants of the network
+     * @param network the reactions every member shares
+     * @param memberCount the number of members
+     * @param vectorized whether to compute many members at once with the Vector API if it is available
+     */
+    public EnsembleNetwork(ReactionNetwork network, int memberCount, boolean vectorized){
+        if(memberCount <= 0){
+            throw new RuntimeException("an ensemble needs at least 1 member");
+        }
+        this.network = network;
+        this.memberCount = memberCount;
+        fwdReactionRates = new double[network.getReactionCount() * memberCount];
+        bwdReactionRates = new double[network.getReactionCount() * memberCount];
+        for (int r = 0; r < network.getReactionCount(); r++){
+            for (int m = 0; m < memberCount; m++){
+                fwdReactionRates[r * memberCount + m] = network.getFwdReactionRate(r);
+                bwdReactionRates[r * memberCount + m] = network.getBwdReactionRate(r);
+            }
+        }
+        kernel = EnsembleKernel.create(vectorized);
+    }
+
+    /**
+     * Sets the rate constants of a member
+     * @param member the index of the member
+     * @param fwdReactionRates the forward rate constant of every reaction
+     * @param bwdReactionRates the backward rate constant of every reaction
+     */
+    public void setRateConstants(int member, double[] fwdReactionRates, double[] bwdReactionRates){
+        if(fwdReactionRates.length != network.getReactionCount() || bwdReactionRates.length != network.getReactionCount()){
+            throw new RuntimeException("expected " + network.getReactionCount() + " rate constants");
+        }
+        for (int r = 0; r < fwdReactionRates.length; r++){
+            this.fwdReactionRates[r * memberCount + member] = fwdReactionRates[r];
+            this.bwdReactionRates[r * memberCount + member] = bwdReactionRates[r];
+        }
+    }
+
+    /**
+     * Computes how fast the concentration of every chemical in every member is changing
+     * @param state the concentration of every chemical in every member
+     * @param derivatives the array to store the rate of change of every chemical in every member in
+     */
+    @Override
+    public void computeDerivatives(double[] state, double[] derivatives){
+        for (int i = 0; i < getDimension(); i++){
+            derivatives[i] = 0.0;
+        }
+        kernel.addDerivatives(network, memberCount, fwdReactionRates, bwdReactionRates, state, derivatives);
+    }
+
+    public double getFwdReactionRate(int member, int reaction) {
+        return fwdReactionRates[reaction * memberCount + member];
+    }
+
+    public double getBwdReactionRate(int member, int reaction) {
+        return bwdReactionRates[reaction * memberCount + member];
+    }
+
+    //Accessors
+
+    @Override
+    public int getDimension() {
+        return network.getSpeciesCount() * memberCount;
+    }
+
+    public ReactionNetwork getNetwork() {
+        return network;
+    }
+
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    public int getLaneCount() {
+        return kernel.getLaneCount();
+    }
+
+    public boolean isVectorized() {
+        return kernel.getLaneCount() > 1;
+    }
+}
@@ -0,0 +1,506 @@
+package bart1259;
+
+import java.util.Arrays;
+
+/**
+ * Finds the equilibrium concentrations of a reaction network directly, without integrating the rate equations over
+ * time. At equilibrium every reaction satisfies its equilibrium constant, which is linear in the logarithm of the
+ * concentrations, while the amounts conserved by the reactions (the conservation laws) keep their initial totals.
+ * The log concentrations that satisfy every equilibrium constant are a particular solution plus any combination of the
+ * conservation laws, and the combination that matches the totals is the minimum of a convex function, which is found
+ * with a damped Newton method. Only chemicals that can be formed from the initial amounts take part, the others stay
+ * at zero
+ */
+public class EquilibriumSolver {
+
+    private ReactionNetwork network;
+    private double tolerance = 1.0e-10;
+    private int maxIterations = 200;
+
+    //Newton iterations taken by the last solve
+    private int iterations;
+
+    /**
+     * Creates an equilibrium solver for a network
+     * @param network the compiled reactions
+     */
+    public EquilibriumSolver(ReactionNetwork network){
+        this.network = network;
+    }
+
+    /**
+     * Solves for the equilibrium concentrations reached from some initial concentrations
+     * @param initialConcentrations the concentration of every chemical at the start, indexed by id
+     * @return the concentration of every chemical at equilibrium, indexed by id
+     */
+    public double[] solve(double[] initialConcentrations){
+
+        int speciesCount = network.getSpeciesCount();
+        double[] equilibrium = Arrays.copyOf(initialConcentrations, speciesCount);
+        iterations = 0;
+
+        //Find the chemicals present at equilibrium and the reactions between them
+        boolean[] present = findPresentChemicals(initialConcentrations);
+        int[] speciesIds = new int[speciesCount];
+        int[] columns = new int[speciesCount];
+        int n = 0;
+        for (int i = 0; i < speciesCount; i++){
+            columns[i] = -1;
+            if(present[i]){
+                columns[i] = n;
+                speciesIds[n++] = i;
+            }
+        }
+        if(n == 0){
+            return equilibrium;
+        }
+
+        //Every active reaction gives one row of the net stoichiometry with the log of its equilibrium constant
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+        double[][] rows = new double[network.getReactionCount()][];
+        int m = 0;
+        for (int r = 0; r < network.getReactionCount(); r++){
+            if(!isActive(r, present)){
+                continue;
+            }
+            double[] row = new double[n + 1];
+            boolean changesSomething = false;
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                row[columns[stoichiometrySpecies[i]]] = stoichiometryCoefficients[i];
+                changesSomething |= stoichiometryCoefficients[i] != 0.0;
+            }
+
+            //Reactions that change nothing don't affect the concentrations
+            if(changesSomething){
+                row[n] = Math.log(network.getFwdReactionRate(r) / network.getBwdReactionRate(r));
+                rows[m++] = row;
+            }
+        }
+
+        //Reduce the reactions to the independent ones, the free columns give the conservation laws
+        double[] logParticular = new double[n];
+        double[][] laws = findLaws(rows, m, n, logParticular);
+
+        //The total each law keeps
+        double[] totals = new double[laws.length];
+        double[] scales = new double[laws.length];
+        double[] amounts = new double[n];
+        for (int j = 0; j < n; j++){
+            amounts[j] = initialConcentrations[speciesIds[j]];
+        }
+        computeTotals(laws, amounts, totals, scales);
+
+        //Start from the multipliers that bring the log concentrations closest to the initial ones
+        double floor = 0.0;
+        for (int j = 0; j < n; j++){
+            floor = Math.max(floor, amounts[j]);
+        }
+        floor *= 1.0e-6;
+        double[] logInitial = new double[n];
+        for (int j = 0; j < n; j++){
+            logInitial[j] = Math.log(Math.max(amounts[j], floor));
+        }
+        double[] multipliers = new double[laws.length];
+        fitMultipliers(logParticular, laws, logInitial, multipliers);
+
+        double[] concentrations = new double[n];
+        solveConservation(logParticular, laws, totals, scales, multipliers, concentrations);
+        for (int j = 0; j < n; j++){
+            equilibrium[speciesIds[j]] = concentrations[j];
+        }
+        return equilibrium;
+    }
+
+    /**
+     * Finds the log concentrations that satisfy the equilibrium constant of every reaction and the conservation laws
+     * that leave the concentrations free. Any combination of the laws can be added to the log concentrations
+     * @param rows one row per reaction with one column per chemical followed by the log of its equilibrium constant,
+     *             reduced in place
+     * @param m the number of rows
+     * @param n the number of chemicals
+     * @param logParticular the array to store log concentrations that satisfy every equilibrium constant in
+     * @return the conservation laws, one row per law and one column per chemical
+     */
+    static double[][] findLaws(double[][] rows, int m, int n, double[] logParticular){
+
+        int[] pivotColumns = new int[Math.min(m, n)];
+        int rank = reduce(rows, m, n, pivotColumns);
+        boolean[] pivot = new boolean[n];
+        for (int k = 0; k < rank; k++){
+            pivot[pivotColumns[k]] = true;
+        }
+
+        //Particular solution of the log concentrations, with every free column at 0
+        Arrays.fill(logParticular, 0.0);
+        for (int k = 0; k < rank; k++){
+            logParticular[pivotColumns[k]] = rows[k][n];
+        }
+
+        //One law per free column
+        double[][] laws = new double[n - rank][n];
+        int law = 0;
+        for (int column = 0; column < n; column++){
+            if(pivot[column]){
+                continue;
+            }
+            laws[law][column] = 1.0;
+            for (int k = 0; k < rank; k++){
+                laws[law][pivotColumns[k]] = -rows[k][column];
+            }
+            law++;
+        }
+        return laws;
+    }
+
+    /**
+     * Computes the total every conservation law keeps and the size of its terms, to measure errors relative to
+     * @param laws the conservation laws
+     * @param concentrations the concentrations to compute the totals of
+     * @param totals the array to store the total of every law in
+     * @param scales the array to store the size of the terms of every law in
+     */
+    static void computeTotals(double[][] laws, double[] concentrations, double[] totals, double[] scales){
+
+        double largest = 0.0;
+        for (double concentration : concentrations){
+            largest = Math.max(largest, concentration);
+        }
+
+        for (int a = 0; a < laws.length; a++){
+            totals[a] = 0.0;
+            scales[a] = 0.0;
+            for (int j = 0; j < concentrations.length; j++){
+                totals[a] += laws[a][j] * concentrations[j];
+                scales[a] += Math.abs(laws[a][j]) * concentrations[j];
+            }
+
+            //A law whose chemicals are all at zero is measured against the other chemicals instead
+            if(scales[a] == 0.0){
+                scales[a] = largest;
+            }
+        }
+    }
+
+    /**
+     * Finds the multipliers of the conservation laws that bring the log concentrations closest to some target, a good
+     * starting point for the newton method
+     * @param logParticular log concentrations that satisfy every equilibrium constant
+     * @param laws the conservation laws
+     * @param logTarget the log concentrations to get close to
+     * @param multipliers the array to store the multipliers in
+     */
+    static void fitMultipliers(double[] logParticular, double[][] laws, double[] logTarget, double[] multipliers){
+        int q = laws.length;
+        if(q == 0){
+            return;
+        }
+        double[][] normal = new double[q][q];
+        for (int a = 0; a < q; a++){
+            for (int b = 0; b < q; b++){
+                normal[a][b] = dot(laws[a], laws[b]);
+            }
+            multipliers[a] = 0.0;
+            for (int j = 0; j < logParticular.length; j++){
+                multipliers[a] += laws[a][j] * (logTarget[j] - logParticular[j]);
+            }
+        }
+        LUDecomposition lu = new LUDecomposition(q);
+        lu.factor(normal);
+        lu.solve(multipliers);
+    }
+
+    /**
+     * Finds the chemicals that are present at equilibrium, the ones present at the start and every chemical that can
+     * be formed from them by the forward or backward direction of a reaction
+     * @param initialConcentrations the concentration of every chemical at the start, indexed by id
+     * @return whether each chemical is present, indexed by id
+     */
+    private boolean[] findPresentChemicals(double[] initialConcentrations){
+
+        boolean[] present = new boolean[network.getSpeciesCount()];
+        for (int i = 0; i < present.length; i++){
+            if(initialConcentrations[i] < 0 || Double.isNaN(initialConcentrations[i])){
+                throw new RuntimeException("initial concentration of " + network.getChemical(i).getChemicalName() + " is not valid: " + initialConcentrations[i]);
+            }
+            present[i] = initialConcentrations[i] > 0;
+        }
+
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+
+        //Keep running every reaction that can happen until no new chemical is formed
+        boolean changed = true;
+        while (changed){
+            changed = false;
+            for (int r = 0; r < network.getReactionCount(); r++){
+                if(allPresent(reactantSpecies, reactantStart[r], reactantStart[r + 1], present)){
+                    changed |= markPresent(productSpecies, productStart[r], productStart[r + 1], present);
+                }
+                if(allPresent(productSpecies, productStart[r], productStart[r + 1], present)){
+                    changed |= markPresent(reactantSpecies, reactantStart[r], reactantStart[r + 1], present);
+                }
+            }
+        }
+
+        return present;
+    }
+
+    /**
+     * Checks if every chemical in a range of a flattened term array is present
+     * @param species the chemical of every term
+     * @param start the first term
+     * @param end the term after the last one
+     * @param present whether each chemical is present
+     * @return true if every chemical is present
+     */
+    private static boolean allPresent(int[] species, int start, int end, boolean[] present){
+        for (int i = start; i < end; i++){
+            if(!present[species[i]]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks every chemical in a range of a flattened term array as present
+     * @param species the chemical of every term
+     * @param start the first term
+     * @param end the term after the last one
+     * @param present whether each chemical is present
+     * @return true if a chemical was not present before
+     */
+    private static boolean markPresent(int[] species, int start, int end, boolean[] present){
+        boolean changed = false;
+        for (int i = start; i < end; i++){
+            if(!present[species[i]]){
+                present[species[i]] = true;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Checks if a reaction can happen, once every chemical that can be formed is present a reaction either has all
+     * of its chemicals present or can't happen in either direction
+     * @param reaction the index of the reaction
+     * @param present whether each chemical is present
+     * @return true if the reaction can happen
+     */
+    private boolean isActive(int reaction, boolean[] present){
+        return allPresent(network.getReactantSpecies(), network.getReactantStart()[reaction], network.getReactantStart()[reaction + 1], present)
+                && allPresent(network.getProductSpecies(), network.getProductStart()[reaction], network.getProductStart()[reaction + 1], present);
+    }
+
+    /**
+     * Reduces the reactions to the independent ones, checking that the equilibrium constants of the dependent ones
+     * agree with them
+     * @param rows the rows, each with one column per chemical followed by the right hand side
+     * @param m the number of rows
+     * @param n the number of columns before the right hand side
+     * @param pivotColumns the array to store the pivot column of every independent row in
+     * @return the number of independent rows
+     */
+    private static int reduce(double[][] rows, int m, int n, int[] pivotColumns){
+
+        int rank = ConservationLaws.rowReduce(rows, m, n, pivotColumns);
+
+        //A dependent reaction whose equilibrium constant doesn't match the others can never be at equilibrium
+        for (int i = rank; i < m; i++){
+            if(Math.abs(rows[i][n]) > 1.0e-6 * Math.max(1.0, maxAbsolute(rows, rank, n))){
+                throw new RuntimeException("the equilibrium constants of the reactions contradict each other, the system has no equilibrium");
+            }
+        }
+
+        return rank;
+    }
+
+    /**
+     * Gets the largest absolute right hand side of the independent rows
+     * @param rows the rows
+     * @param rank the number of independent rows
+     * @param n the column of the right hand side
+     * @return the largest absolute value
+     */
+    private static double maxAbsolute(double[][] rows, int rank, int n){
+        double max = 0.0;
+        for (int i = 0; i < rank; i++){
+            max = Math.max(max, Math.abs(rows[i][n]));
+        }
+        return max;
+    }
+
+    /**
+     * Finds the combination of conservation laws that makes the concentrations keep their conserved totals, by
+     * minimizing the sum of the concentrations minus the totals weighted by the multipliers of the laws. The gradient
+     * of that function is how far each total is off and its hessian is positive definite, so a Newton step with a
+     * backtracking line search always makes progress
+     * @param logParticular log concentrations that satisfy every equilibrium constant
+     * @param laws the conservation laws, one row per law and one column per chemical
+     * @param totals the total each law keeps
+     * @param scales the size of the terms of each total, to measure the error relative to
+     * @param multipliers the multipliers to start from, overwritten with the solution
+     * @param concentrations the array to store the concentration of every chemical at equilibrium in
+     */
+    void solveConservation(double[] logParticular, double[][] laws, double[] totals, double[] scales,
+                           double[] multipliers, double[] concentrations){
+
+        int n = logParticular.length;
+        int q = laws.length;
+        iterations = 0;
+        if(q == 0){
+            computeConcentrations(logParticular, laws, multipliers, concentrations);
+            return;
+        }
+
+        double[][] hessian = new double[q][q];
+        double[] gradient = new double[q];
+        LUDecomposition lu = new LUDecomposition(q);
+        double[] step = new double[q];
+        double[] trial = new double[q];
+        double objective = computeObjective(logParticular, laws, totals, multipliers, concentrations);
+
+        for (iterations = 1; iterations <= maxIterations; iterations++){
+
+            //The gradient is how far off every total is
+            boolean converged = true;
+            for (int a = 0; a < q; a++){
+                gradient[a] = dot(laws[a], concentrations) - totals[a];
+                converged &= Math.abs(gradient[a]) <= tolerance * scales[a];
+            }
+            if(converged){
+                return;
+            }
+
+            //The hessian is the laws weighted by the concentrations
+            for (int a = 0; a < q; a++){
+                for (int b = a; b < q; b++){
+                    double sum = 0.0;
+                    for (int j = 0; j < n; j++){
+                        sum += laws[a][j] * laws[b][j] * concentrations[j];
+                    }
+                    hessian[a][b] = sum;
+                    hessian[b][a] = sum;
+                }
+                step[a] = -gradient[a];
+            }
+            lu.factor(hessian);
+            lu.solve(step);
+
+            //Totals no positive concentrations add up to, such as negative ones, have no solution and the step blows up
+            for (int a = 0; a < q; a++){
+                if(!Double.isFinite(step[a])){
+                    throw new RuntimeException("no equilibrium has the conserved totals");
+                }
+            }
+
+            //Damp the step so no concentration changes by more than a factor of e^8 at once
+            double largest = 0.0;
+            for (int j = 0; j < n; j++){
+                double change = 0.0;
+                for (int a = 0; a < q; a++){
+                    change += laws[a][j] * step[a];
+                }
+                largest = Math.max(largest, Math.abs(change));
+            }
+            double length = Math.min(1.0, 8.0 / largest);
+
+            //Backtrack until the objective decreases enough. Close to the solution the decrease is lost in the round
+            //off of the objective, so a step that doesn't increase it by more than that is taken as well
+            double slope = dot(gradient, step);
+            double roundOff = 1.0e-12 * (Math.abs(objective) + Math.abs(dot(totals, multipliers)));
+            double trialObjective;
+            while (true){
+                for (int a = 0; a < q; a++){
+                    trial[a] = multipliers[a] + length * step[a];
+                }
+                trialObjective = computeObjective(logParticular, laws, totals, trial, concentrations);
+                if(trialObjective <= objective + Math.max(1.0e-4 * length * slope, roundOff) || !(length >= 1.0e-12)){
+                    break;
+                }
+                length /= 2;
+            }
+            System.arraycopy(trial, 0, multipliers, 0, q);
+            objective = trialObjective;
+        }
+
+        throw new RuntimeException("equilibrium did not converge in " + maxIterations + " iterations");
+    }
+
+    /**
+     * Computes the concentrations for some multipliers of the conservation laws
+     * @param logParticular log concentrations that satisfy every equilibrium constant
+     * @param laws the conservation laws
+     * @param multipliers the multiplier of every law
+     * @param concentrations the array to store the concentrations in
+     */
+    private static void computeConcentrations(double[] logParticular, double[][] laws, double[] multipliers, double[] concentrations){
+        for (int j = 0; j < logParticular.length; j++){
+            double log = logParticular[j];
+            for (int a = 0; a < laws.length; a++){
+                log += laws[a][j] * multipliers[a];
+            }
+            concentrations[j] = Math.exp(log);
+        }
+    }
+
+    /**
+     * Computes the function minimized by the newton method, the sum of the concentrations minus the totals weighted
+     * by the multipliers
+     * @param logParticular log concentrations that satisfy every equilibrium constant
+     * @param laws the conservation laws
+     * @param totals the total each law keeps
+     * @param multipliers the multiplier of every law
+     * @param concentrations the array to store the concentrations in
+     * @return the value of the function
+     */
+    private static double computeObjective(double[] logParticular, double[][] laws, double[] totals, double[] multipliers, double[] concentrations){
+        computeConcentrations(logParticular, laws, multipliers, concentrations);
+        double objective = 0.0;
+        for (double concentration : concentrations){
+            objective += concentration;
+        }
+        return objective - dot(totals, multipliers);
+    }
+
+    /**
+     * Computes the dot product of two vectors
+     * @param a the first vector
+     * @param b the second vector
+     * @return the dot product
+     */
+    private static double dot(double[] a, double[] b){
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++){
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    //Accessors
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+}
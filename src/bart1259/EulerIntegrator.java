@@ -0,0 +1,64 @@
+package bart1259;
+
+/**
+ * Integrates a system with the fixed step forward Euler method
+ */
+public class EulerIntegrator implements Integrator {
+
+    private double[] derivatives = new double[0];
+    private long derivativeEvaluations = 0;
+    private long acceptedSteps = 0;
+
+    /**
+     * Takes one Euler step of exactly maxStep
+     * @param system the system to advance
+     * @param state the state at the start of the step, overwritten with the state at the end of the step
+     * @param maxStep the length of the step
+     * @return maxStep
+     */
+    @Override
+    public double step(OdeSystem system, double[] state, double maxStep) {
+
+        if(derivatives.length != system.getDimension()){
+            derivatives = new double[system.getDimension()];
+        }
+
+        system.computeDerivatives(state, derivatives);
+        derivativeEvaluations++;
+
+        for (int i = 0; i < derivatives.length; i++){
+            state[i] += maxStep * derivatives[i];
+        }
+
+        acceptedSteps++;
+        return maxStep;
+    }
+
+    //Accessors
+
+    @Override
+    public String getName() {
+        return EULER;
+    }
+
+    @Override
+    public long getDerivativeEvaluations() {
+        return derivativeEvaluations;
+    }
+
+    @Override
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    @Override
+    public long getRejectedSteps() {
+        return 0;
+    }
+
+    @Override
+    public void setStatistics(long derivativeEvaluations, long acceptedSteps, long rejectedSteps) {
+        this.derivativeEvaluations = derivativeEvaluations;
+        this.acceptedSteps = acceptedSteps;
+    }
+}
@@ -0,0 +1,337 @@
+package bart1259;
+
+import java.util.Arrays;
+
+/**
+ * The rate equations of a reaction network with its fast reactions assumed to be at equilibrium at all times. Every
+ * reaction gets a relaxation rate, how quickly it would return to equilibrium on its own, and if the rates split
+ * into fast and slow groups separated by a large enough ratio the fast reactions are replaced by their equilibrium
+ * constants. What is left to integrate are the totals the fast reactions conserve, which only the slow reactions
+ * change, and the concentrations are recovered from those totals by solving the fast equilibrium. This removes the
+ * time scales of the fast reactions, so steps are limited by the slow reactions only. The error this introduces is
+ * of the order of the ratio between the slowest fast reaction and the fastest slow reaction
+ */
+public class FastEquilibriumNetwork implements OdeSystem {
+
+    private ReactionNetwork network;
+    private double minimumSeparation;
+    private boolean[] fast;
+    private int fastCount;
+
+    //Relaxation rate of the slowest fast reaction over that of the fastest slow reaction, when last measured
+    private double separation;
+
+    //Log concentrations that satisfy every fast equilibrium and the totals the fast reactions conserve
+    private double[] logParticular;
+    private double[][] laws;
+    private EquilibriumSolver solver;
+
+    //The last equilibrium solved, the next solve starts from it
+    private double[] multipliers;
+    private double[] scales;
+    private double[] concentrations;
+    private double[] derivatives;
+    private double[] solvedTotals;
+
+    /**
+     * Splits the reactions of a network into fast and slow ones at some concentrations
+     * @param network the network
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param minimumSeparation how many times faster the fast reactions must relax than the slow ones
+     */
+    public FastEquilibriumNetwork(ReactionNetwork network, double[] concentrations, double minimumSeparation){
+
+        this.network = network;
+        this.minimumSeparation = minimumSeparation;
+        int n = network.getSpeciesCount();
+        this.concentrations = Arrays.copyOf(concentrations, n);
+        derivatives = new double[n];
+
+        double[] rates = computeRelaxationRates(concentrations);
+        fast = new boolean[network.getReactionCount()];
+        fastCount = classify(rates, concentrations, fast);
+        separation = fastCount > 0 ? measureSeparation(rates) : Double.POSITIVE_INFINITY;
+
+        //The fast reactions and their equilibrium constants give the laws the state is made of
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+        double[][] rows = new double[fastCount][n + 1];
+        int m = 0;
+        for (int r = 0; r < network.getReactionCount(); r++){
+            if(fast[r]){
+                for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                    rows[m][stoichiometrySpecies[i]] = stoichiometryCoefficients[i];
+                }
+                rows[m][n] = Math.log(network.getFwdReactionRate(r) / network.getBwdReactionRate(r));
+                m++;
+            }
+        }
+        logParticular = new double[n];
+        laws = EquilibriumSolver.findLaws(rows, m, n, logParticular);
+        solver = new EquilibriumSolver(network);
+
+        multipliers = new double[laws.length];
+        scales = new double[laws.length];
+        solvedTotals = new double[laws.length];
+        Arrays.fill(solvedTotals, Double.NaN);
+    }
+
+    /**
+     * Computes how quickly every reaction on its own would return to equilibrium, the derivative of its net rate
+     * along the direction it changes the concentrations
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @return the relaxation rate of every reaction
+     */
+    private double[] computeRelaxationRates(double[] concentrations){
+
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+
+        double[] rates = new double[network.getReactionCount()];
+        for (int r = 0; r < rates.length; r++){
+            double rate = 0.0;
+            for (int t = reactantStart[r]; t < reactantStart[r + 1]; t++){
+                rate -= network.computeReactantDerivative(r, t, concentrations) * netCoefficient(r, reactantSpecies[t]);
+            }
+            for (int t = productStart[r]; t < productStart[r + 1]; t++){
+                rate -= network.computeProductDerivative(r, t, concentrations) * netCoefficient(r, productSpecies[t]);
+            }
+            rates[r] = Math.max(rate, 0.0);
+        }
+        return rates;
+    }
+
+    /**
+     * Gets the net stoichiometric coefficient of a chemical in a reaction
+     * @param reaction the index of the reaction
+     * @param species the id of the chemical
+     * @return the net coefficient, positive if the reaction forms the chemical
+     */
+    private double netCoefficient(int reaction, int species){
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        for (int i = stoichiometryStart[reaction]; i < stoichiometryStart[reaction + 1]; i++){
+            if(stoichiometrySpecies[i] == species){
+                return network.getStoichiometryCoefficients()[i];
+            }
+        }
+        return 0.0;
+    }
+
+    /**
+     * Splits the reactions at the largest gap between the relaxation rates, if it is at least the minimum separation.
+     * Reactions with a chemical that is not present can't be at equilibrium and are always slow
+     * @param rates the relaxation rate of every reaction
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param fast the array to mark the fast reactions in
+     * @return the number of fast reactions, 0 if no split is separated enough
+     */
+    private int classify(double[] rates, double[] concentrations, boolean[] fast){
+
+        int reactionCount = network.getReactionCount();
+
+        //Sort the reactions that could be fast by their relaxation rate, fastest first
+        Integer[] order = new Integer[reactionCount];
+        int candidates = 0;
+        for (int r = 0; r < reactionCount; r++){
+            if(rates[r] > 0 && allPresent(r, concentrations)){
+                order[candidates++] = r;
+            }
+        }
+        Arrays.sort(order, 0, candidates, (a, b) -> Double.compare(rates[b], rates[a]));
+
+        //Reactions that can't be fast bound the slow ones too
+        double fastestExcluded = 0.0;
+        for (int r = 0; r < reactionCount; r++){
+            if(!(rates[r] > 0 && allPresent(r, concentrations))){
+                fastestExcluded = Math.max(fastestExcluded, rates[r]);
+            }
+        }
+
+        //Find the largest ratio between the slowest fast reaction and the fastest slow one. Fast is only relative to
+        //something slower, so a reaction that changes something has to be left slow
+        double best = 0.0;
+        int split = 0;
+        for (int k = 0; k < candidates; k++){
+            double fastestSlow = fastestExcluded;
+            if(k + 1 < candidates){
+                fastestSlow = Math.max(fastestSlow, rates[order[k + 1]]);
+            }
+            if(fastestSlow == 0.0){
+                break;
+            }
+            double ratio = rates[order[k]] / fastestSlow;
+            if(ratio > best){
+                best = ratio;
+                split = k + 1;
+            }
+        }
+        if(best < minimumSeparation){
+            return 0;
+        }
+
+        for (int k = 0; k < split; k++){
+            fast[order[k]] = true;
+        }
+        return split;
+    }
+
+    /**
+     * Checks if every chemical of a reaction is present
+     * @param reaction the index of the reaction
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @return true if no chemical of the reaction is at zero
+     */
+    private boolean allPresent(int reaction, double[] concentrations){
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+        for (int t = reactantStart[reaction]; t < reactantStart[reaction + 1]; t++){
+            if(!(concentrations[reactantSpecies[t]] > 0)){
+                return false;
+            }
+        }
+        for (int t = productStart[reaction]; t < productStart[reaction + 1]; t++){
+            if(!(concentrations[productSpecies[t]] > 0)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the split of the reactions still holds at new concentrations. A split with fast reactions holds while
+     * they relax at least the minimum separation faster than the slow ones, a split without any holds while the
+     * reactions still can't be split, for example until the products of a fast reaction first appear
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @return true if the split still holds, false if the reactions should be split again
+     */
+    public boolean checkSeparation(double[] concentrations){
+        double[] rates = computeRelaxationRates(concentrations);
+        if(fastCount == 0){
+            return classify(rates, concentrations, new boolean[rates.length]) == 0;
+        }
+        separation = measureSeparation(rates);
+        return separation >= minimumSeparation;
+    }
+
+    /**
+     * Measures how many times faster the slowest fast reaction relaxes than the fastest slow one
+     * @param rates the relaxation rate of every reaction
+     * @return the separation
+     */
+    private double measureSeparation(double[] rates){
+        double slowestFast = Double.POSITIVE_INFINITY;
+        double fastestSlow = 0.0;
+        for (int r = 0; r < rates.length; r++){
+            if(fast[r]){
+                slowestFast = Math.min(slowestFast, rates[r]);
+            } else {
+                fastestSlow = Math.max(fastestSlow, rates[r]);
+            }
+        }
+        return slowestFast / fastestSlow;
+    }
+
+    /**
+     * Computes the totals the fast reactions conserve, the state of this system
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param totals the array to store the totals in
+     */
+    public void reduce(double[] concentrations, double[] totals){
+        EquilibriumSolver.computeTotals(laws, concentrations, totals, scales);
+
+        //Start the first solve from the multipliers closest to these concentrations
+        double floor = 0.0;
+        for (double concentration : concentrations){
+            floor = Math.max(floor, concentration);
+        }
+        floor *= 1.0e-6;
+        double[] logConcentrations = new double[concentrations.length];
+        for (int j = 0; j < concentrations.length; j++){
+            logConcentrations[j] = Math.log(Math.max(concentrations[j], floor));
+        }
+        EquilibriumSolver.fitMultipliers(logParticular, laws, logConcentrations, multipliers);
+        Arrays.fill(solvedTotals, Double.NaN);
+    }
+
+    /**
+     * Solves the fast equilibrium for some totals
+     * @param totals the totals the fast reactions conserve
+     * @param concentrations the array to store the concentration of every chemical in, indexed by id
+     */
+    public void expand(double[] totals, double[] concentrations){
+        solve(totals);
+        System.arraycopy(this.concentrations, 0, concentrations, 0, concentrations.length);
+    }
+
+    /**
+     * Solves the fast equilibrium for some totals, starting from the last solution
+     * @param totals the totals the fast reactions conserve
+     */
+    private void solve(double[] totals){
+        if(Arrays.equals(totals, solvedTotals)){
+            return;
+        }
+        solver.solveConservation(logParticular, laws, totals, scales, multipliers, concentrations);
+        System.arraycopy(totals, 0, solvedTotals, 0, totals.length);
+    }
+
+    @Override
+    public void computeDerivatives(double[] totals, double[] totalDerivatives){
+        solve(totals);
+
+        //Only the slow reactions change the totals
+        Arrays.fill(derivatives, 0.0);
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+        for (int r = 0; r < network.getReactionCount(); r++){
+            if(!fast[r]){
+                double reactionRate = network.computeReactionRate(r, concentrations);
+                for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                    derivatives[stoichiometrySpecies[i]] += reactionRate * stoichiometryCoefficients[i];
+                }
+            }
+        }
+
+        for (int a = 0; a < laws.length; a++){
+            double sum = 0.0;
+            for (int j = 0; j < derivatives.length; j++){
+                sum += laws[a][j] * derivatives[j];
+            }
+            totalDerivatives[a] = sum;
+        }
+    }
+
+    /**
+     * Estimates the relative error of assuming the fast reactions are at equilibrium
+     * @return the relative error estimate
+     */
+    public double getErrorEstimate(){
+        return 1.0 / separation;
+    }
+
+    //Accessors
+
+    @Override
+    public int getDimension() {
+        return laws.length;
+    }
+
+    public int getFastReactionCount() {
+        return fastCount;
+    }
+
+    public boolean isFast(int reaction) {
+        return fast[reaction];
+    }
+
+    public double getSeparation() {
+        return separation;
+    }
+}
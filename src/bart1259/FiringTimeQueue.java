@@ -0,0 +1,129 @@
+package bart1259;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of the next firing time of every reaction channel. Unlike a normal priority queue every channel
+ * always has exactly one entry and its position in the heap is tracked, so changing the time of a channel costs
+ * O(log n) and finding the channel that fires next costs O(1)
+ */
+public class FiringTimeQueue {
+
+    private double[] times;
+
+    //heap[i] is the channel at position i of the heap, position[c] is where channel c is in the heap
+    private int[] heap;
+    private int[] position;
+
+    /**
+     * Creates a queue where every channel has an infinite firing time
+     * @param size the number of channels
+     */
+    public FiringTimeQueue(int size){
+        times = new double[size];
+        heap = new int[size];
+        position = new int[size];
+        Arrays.fill(times, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < size; i++){
+            heap[i] = i;
+            position[i] = i;
+        }
+    }
+
+    /**
+     * Changes the firing time of a channel
+     * @param channel the channel
+     * @param time the new firing time
+     */
+    public void set(int channel, double time){
+        double oldTime = times[channel];
+        times[channel] = time;
+        if(time < oldTime){
+            siftUp(position[channel]);
+        } else if(time > oldTime){
+            siftDown(position[channel]);
+        }
+    }
+
+    /**
+     * Gets the channel that fires first
+     * @return the channel with the smallest firing time
+     */
+    public int peek(){
+        if(heap.length == 0){
+            throw new RuntimeException("the queue has no channels");
+        }
+        return heap[0];
+    }
+
+    /**
+     * Checks if the queue has no channels, which is the case for a network without reactions
+     * @return true if there are no channels
+     */
+    public boolean isEmpty(){
+        return heap.length == 0;
+    }
+
+    /**
+     * Moves an entry towards the root until its parent is not later than it
+     * @param index the position of the entry
+     */
+    private void siftUp(int index){
+        int channel = heap[index];
+        double time = times[channel];
+        while (index > 0){
+            int parent = (index - 1) >>> 1;
+            if(times[heap[parent]] <= time){
+                break;
+            }
+            move(heap[parent], index);
+            index = parent;
+        }
+        move(channel, index);
+    }
+
+    /**
+     * Moves an entry towards the leaves until neither child is earlier than it
+     * @param index the position of the entry
+     */
+    private void siftDown(int index){
+        int channel = heap[index];
+        double time = times[channel];
+        int size = heap.length;
+        while (true){
+            int child = 2 * index + 1;
+            if(child >= size){
+                break;
+            }
+            if(child + 1 < size && times[heap[child + 1]] < times[heap[child]]){
+                child++;
+            }
+            if(times[heap[child]] >= time){
+                break;
+            }
+            move(heap[child], index);
+            index = child;
+        }
+        move(channel, index);
+    }
+
+    /**
+     * Puts a channel at a position of the heap
+     * @param channel the channel
+     * @param index the position
+     */
+    private void move(int channel, int index){
+        heap[index] = channel;
+        position[channel] = index;
+    }
+
+    //Accessors
+
+    public int getSize() {
+        return heap.length;
+    }
+
+    public double getTime(int channel) {
+        return times[channel];
+    }
+}
@@ -0,0 +1,94 @@
+package bart1259;
+
+/**
+ * A numerical method that advances a system of differential equations through time
+ */
+public interface Integrator {
+
+    //Names of the integrators that can be created with create
+    String EULER = "Euler";
+    String DORMAND_PRINCE = "Dormand-Prince 5(4)";
+    String ROSENBROCK = "Rosenbrock 2(3) (stiff)";
+
+    /**
+     * Advances the state of a system by a single step
+     * @param system the system to advance
+     * @param state the state at the start of the step, overwritten with the state at the end of the step
+     * @param maxStep the longest step that may be taken
+     * @return the length of the step that was taken, never more than maxStep
+     */
+    double step(OdeSystem system, double[] state, double maxStep);
+
+    /**
+     * Tells the integrator the state was changed from outside, so it should not rely on anything it learned from
+     * earlier steps, like a step size or derivatives it could reuse
+     */
+    default void reset(){
+    }
+
+    /**
+     * Gets the name of the integration method
+     * @return the name of the method
+     */
+    String getName();
+
+    /**
+     * Gets how many times the derivatives of a system have been evaluated
+     * @return the number of derivative evaluations
+     */
+    long getDerivativeEvaluations();
+
+    /**
+     * Gets how many steps have been taken
+     * @return the number of accepted steps
+     */
+    long getAcceptedSteps();
+
+    /**
+     * Gets how many steps have been thrown away because they were not accurate enough
+     * @return the number of rejected steps
+     */
+    long getRejectedSteps();
+
+    /**
+     * Gets the step size the next step will try, so a run can be resumed with it
+     * @return the step size, 0 if the integrator has none or will estimate it
+     */
+    default double getStepSize(){
+        return 0.0;
+    }
+
+    /**
+     * Sets the step size the next step will try, used when a run is resumed
+     * @param stepSize the step size, 0 to let the integrator estimate it
+     */
+    default void setStepSize(double stepSize){
+    }
+
+    /**
+     * Sets the counters of the integrator, used when a run is resumed so they count the whole run
+     * @param derivativeEvaluations the number of derivative evaluations
+     * @param acceptedSteps the number of accepted steps
+     * @param rejectedSteps the number of rejected steps
+     */
+    void setStatistics(long derivativeEvaluations, long acceptedSteps, long rejectedSteps);
+
+    /**
+     * Creates an integrator from its name
+     * @param name the name of the integrator
+     * @return a new integrator with default settings
+     */
+    static Integrator create(String name){
+        if(EULER.equalsIgnoreCase(name)){
+            return new EulerIntegrator();
+        }
+        if(DORMAND_PRINCE.equalsIgnoreCase(name) || "rk45".equalsIgnoreCase(name)){
+            return new DormandPrinceIntegrator();
+        }
+        if(ROSENBROCK.equalsIgnoreCase(name) || "rosenbrock".equalsIgnoreCase(name)){
+            return new RosenbrockIntegrator();
+        }
+        throw new RuntimeException("unknown integrator " + name);
+    }
+
+}
@@ -0,0 +1,121 @@
+package bart1259;
+
+/**
+ * An LU factorization of a dense square matrix with partial pivoting. A factorization is computed once and can then
+ * be used to solve any number of linear systems with that matrix. The storage is allocated once and reused by every
+ * factorization of a matrix of the same size
+ */
+public class LUDecomposition {
+
+    private int size;
+    private double[][] lu;
+    private int[] pivots;
+
+    /**
+     * Creates an LU decomposition for matrices of a given size
+     * @param size the number of rows and columns of the matrices to factor
+     */
+    public LUDecomposition(int size){
+        this.size = size;
+        lu = new double[size][size];
+        pivots = new int[size];
+    }
+
+    /**
+     * Factors a matrix, replacing the previous factorization
+     * @param matrix the matrix to factor, it is not modified
+     */
+    public void factor(double[][] matrix){
+
+        for (int i = 0; i < size; i++){
+            System.arraycopy(matrix[i], 0, lu[i], 0, size);
+        }
+
+        for (int k = 0; k < size; k++){
+
+            //Find the largest pivot in the column
+            int pivot = k;
+            double largest = Math.abs(lu[k][k]);
+            for (int i = k + 1; i < size; i++){
+                if(Math.abs(lu[i][k]) > largest){
+                    largest = Math.abs(lu[i][k]);
+                    pivot = i;
+                }
+            }
+            if(largest == 0.0 || Double.isNaN(largest)){
+                throw new RuntimeException("matrix is singular");
+            }
+
+            //Swap the pivot row into place
+            pivots[k] = pivot;
+            if(pivot != k){
+                double[] row = lu[pivot];
+                lu[pivot] = lu[k];
+                lu[k] = row;
+            }
+
+            //Eliminate the column below the pivot
+            double[] pivotRow = lu[k];
+            for (int i = k + 1; i < size; i++){
+                double[] row = lu[i];
+                double factor = row[k] / pivotRow[k];
+                row[k] = factor;
+                if(factor != 0.0){
+                    for (int j = k + 1; j < size; j++){
+                        row[j] -= factor * pivotRow[j];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves the linear system A x = b with the last factored matrix A
+     * @param b the right hand side, overwritten with the solution x
+     */
+    public void solve(double[] b){
+        solve(b, 0);
+    }
+
+    /**
+     * Solves the linear system A x = b with the last factored matrix A, where b is a slice of a longer array
+     * @param b the array holding the right hand side, the slice is overwritten with the solution x
+     * @param offset where the right hand side starts in the array
+     */
+    public void solve(double[] b, int offset){
+
+        //Apply the row swaps and solve the lower triangular system
+        for (int i = 0; i < size; i++){
+            int pivot = pivots[i];
+            if(pivot != i){
+                double temp = b[offset + i];
+                b[offset + i] = b[offset + pivot];
+                b[offset + pivot] = temp;
+            }
+        }
+        for (int i = 0; i < size; i++){
+            double sum = b[offset + i];
+            double[] row = lu[i];
+            for (int j = 0; j < i; j++){
+                sum -= row[j] * b[offset + j];
+            }
+            b[offset + i] = sum;
+        }
+
+        //Solve the upper triangular system
+        for (int i = size - 1; i >= 0; i--){
+            double sum = b[offset + i];
+            double[] row = lu[i];
+            for (int j = i + 1; j < size; j++){
+                sum -= row[j] * b[offset + j];
+            }
+            b[offset + i] = sum / row[i];
+        }
+    }
+
+    //Accessors
+
+    public int getSize() {
+        return size;
+    }
+}
@@ -0,0 +1,184 @@
+package bart1259;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Concentrations measured at points in time, read from a csv file in either layout CsvTrajectoryWriter writes. In
+ * the chemical major layout the first row holds the times and every other row a chemical, in the time major layout
+ * the first row holds the names and every other row a point in time. Empty cells are missing measurements
+ */
+public class MeasuredData {
+
+    private double[] times;
+    private List<String> columnNames;
+
+    //values[c][t] is column c at time t, NaN where nothing was measured
+    private double[][] values;
+
+    /**
+     * Creates measured data
+     * @param times the time of every point, in increasing order
+     * @param columnNames the name of the chemical of every column
+     * @param values the measured values indexed by column and then by time, NaN where nothing was measured
+     */
+    public MeasuredData(double[] times, List<String> columnNames, double[][] values){
+        for (int t = 1; t < times.length; t++){
+            if(!(times[t] > times[t - 1])){
+                throw new RuntimeException("measured times must be increasing: " + times[t - 1] + " then " + times[t]);
+            }
+        }
+        if(times.length > 0 && times[0] < 0){
+            throw new RuntimeException("measured times cannot be less than 0: " + times[0]);
+        }
+        this.times = times;
+        this.columnNames = Collections.unmodifiableList(new ArrayList<>(columnNames));
+        this.values = values;
+    }
+
+    /**
+     * Reads measured data from a csv file
+     * @param path the file
+     * @return the measured data
+     */
+    public static MeasuredData load(Path path){
+        List<String[]> rows = new ArrayList<>();
+        try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)){
+            String line;
+            while ((line = reader.readLine()) != null){
+                if(!line.trim().isEmpty()){
+                    rows.add(line.split(",", -1));
+                }
+            }
+        } catch (IOException e){
+            throw new RuntimeException("Error while reading " + path + ": " + e.getMessage());
+        }
+        if(rows.isEmpty()){
+            throw new RuntimeException(path + " is empty");
+        }
+
+        try{
+            return isNumeric(rows.get(0)) ? parseChemicalMajor(rows) : parseTimeMajor(rows);
+        } catch (RuntimeException e){
+            throw new RuntimeException("Error while reading " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks if every cell of a row after the first holds a number, which is only the case for the row of times
+     * @param row the cells of the row
+     * @return true if the row holds times
+     */
+    private static boolean isNumeric(String[] row){
+        for (int i = 1; i < row.length; i++){
+            String cell = row[i].trim();
+            if(!cell.isEmpty()){
+                try{
+                    Double.parseDouble(cell);
+                } catch (NumberFormatException e){
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads rows in the layout with a row of times followed by a row per chemical
+     * @param rows the cells of every row
+     * @return the measured data
+     */
+    private static MeasuredData parseChemicalMajor(List<String[]> rows){
+        String[] timeRow = rows.get(0);
+        double[] times = new double[timeRow.length - 1];
+        for (int t = 0; t < times.length; t++){
+            times[t] = parseCell(timeRow[t + 1], 1, t + 2);
+        }
+
+        List<String> columnNames = new ArrayList<>();
+        double[][] values = new double[rows.size() - 1][];
+        for (int c = 0; c < values.length; c++){
+            String[] row = rows.get(c + 1);
+            columnNames.add(row[0].trim());
+            values[c] = new double[times.length];
+            for (int t = 0; t < times.length; t++){
+                values[c][t] = t + 1 < row.length ? parseCell(row[t + 1], c + 2, t + 2) : Double.NaN;
+            }
+        }
+        return new MeasuredData(times, columnNames, values);
+    }
+
+    /**
+     * Reads rows in the layout with a row of names followed by a row per point in time
+     * @param rows the cells of every row
+     * @return the measured data
+     */
+    private static MeasuredData parseTimeMajor(List<String[]> rows){
+        String[] header = rows.get(0);
+        List<String> columnNames = new ArrayList<>();
+        for (int c = 1; c < header.length; c++){
+            columnNames.add(header[c].trim());
+        }
+
+        double[] times = new double[rows.size() - 1];
+        double[][] values = new double[columnNames.size()][times.length];
+        for (int t = 0; t < times.length; t++){
+            String[] row = rows.get(t + 1);
+            times[t] = parseCell(row[0], t + 2, 1);
+            for (int c = 0; c < columnNames.size(); c++){
+                values[c][t] = c + 1 < row.length ? parseCell(row[c + 1], t + 2, c + 2) : Double.NaN;
+            }
+        }
+        return new MeasuredData(times, columnNames, values);
+    }
+
+    /**
+     * Parses a cell of the file
+     * @param cell the text of the cell
+     * @param line the line of the cell, for the error message
+     * @param column the column of the cell, for the error message
+     * @return the value, NaN if the cell is empty
+     */
+    private static double parseCell(String cell, int line, int column){
+        cell = cell.trim();
+        if(cell.isEmpty()){
+            return Double.NaN;
+        }
+        try{
+            return Double.parseDouble(cell);
+        } catch (NumberFormatException e){
+            throw new RuntimeException("Could not parse value at line " + line + ", column " + column + ": " + cell);
+        }
+    }
+
+    /**
+     * Gets the measured values of a chemical
+     * @param name the name of the chemical
+     * @return the value at every time, NaN where nothing was measured, or null if the chemical was not measured
+     */
+    public double[] getValues(String name){
+        int column = columnNames.indexOf(name);
+        return column < 0 ? null : Arrays.copyOf(values[column], times.length);
+    }
+
+    //Accessors
+
+    public double[] getTimes() {
+        return times;
+    }
+
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    public int getPointCount() {
+        return times.length;
+    }
+}
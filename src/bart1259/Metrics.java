@@ -0,0 +1,416 @@
+package bart1259;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A registry of counters, timers and histograms that show where runs spend their time. Recording is off unless it is
+ * turned on with setEnabled or by starting the JVM with -Dbart1259.metrics=true, and while it is off every update is
+ * a single check of a flag. The values can be polled with snapshot, and once recording is on they are also the
+ * attributes of the bart1259:type=Metrics bean of the platform MBean server, so JConsole or any other JMX client can
+ * read them from a running simulator
+ */
+public class Metrics {
+
+    //The name of the bean the metrics are registered under
+    public static final String OBJECT_NAME = "bart1259:type=Metrics";
+
+    //Histograms count values in buckets of powers of two, bucket i holds the values below 2^i
+    private static final int BUCKET_COUNT = 65;
+
+    //The start returned by a timer while recording is off
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = false;
+    private static boolean registered = false;
+
+    static {
+        if(Boolean.getBoolean("bart1259.metrics")){
+            setEnabled(true);
+        }
+    }
+
+    /**
+     * Gets the counter with a name, creating it the first time
+     * @param name the name of the counter
+     * @return the counter
+     */
+    public static Counter counter(String name){
+        return (Counter) metrics.computeIfAbsent(name, key -> new Counter());
+    }
+
+    /**
+     * Gets the histogram with a name, creating it the first time
+     * @param name the name of the histogram
+     * @return the histogram
+     */
+    public static Histogram histogram(String name){
+        return (Histogram) metrics.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Gets the timer with a name, creating it the first time
+     * @param name the name of the timer
+     * @return the timer
+     */
+    public static Timer timer(String name){
+        return (Timer) metrics.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Reads every metric. Counters are a single value, histograms are split into name.count, name.mean, name.max,
+     * name.p50 and name.p99, and timers into the same parts in milliseconds with name.total for the time spent in all
+     * @return the value of every metric part by name, sorted by name
+     */
+    public static SortedMap<String, Double> snapshot(){
+        SortedMap<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, Metric> entry : metrics.entrySet()){
+            entry.getValue().read(entry.getKey(), values);
+        }
+
+        //Steps per second of time spent simulating, the one rate that can't be read from a single metric
+        Double steps = values.get("simulation.steps");
+        Double simulateTime = values.get("simulation.simulate.total");
+        if(steps != null && simulateTime != null && simulateTime > 0){
+            values.put("simulation.stepsPerSecond", steps / (simulateTime / 1000.0));
+        }
+        return values;
+    }
+
+    /**
+     * Formats every metric as a line of name and value
+     * @return the formatted metrics
+     */
+    public static String format(){
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Double> entry : snapshot().entrySet()){
+            builder.append(String.format("%-40s %16.3f", entry.getKey(), entry.getValue())).append(System.lineSeparator());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Sets every metric back to zero
+     */
+    public static void reset(){
+        for (Metric metric : metrics.values()){
+            metric.reset();
+        }
+    }
+
+    /**
+     * Turns recording on or off, turning it on also registers the metrics bean
+     * @param enabled whether to record
+     */
+    public static void setEnabled(boolean enabled){
+        if(enabled){
+            registerMBean();
+        }
+        Metrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * Registers the metrics bean with the platform MBean server, does nothing if it is already registered
+     */
+    private static synchronized void registerMBean(){
+        if(registered){
+            return;
+        }
+        try{
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if(!server.isRegistered(name)){
+                server.registerMBean(new MetricsBean(), name);
+            }
+            registered = true;
+        } catch (JMException e){
+            throw new RuntimeException("could not register the metrics bean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A metric of the registry
+     */
+    private interface Metric {
+
+        /**
+         * Adds the values of the metric to a snapshot
+         * @param name the name of the metric
+         * @param values the snapshot
+         */
+        void read(String name, SortedMap<String, Double> values);
+
+        /**
+         * Sets the metric back to zero
+         */
+        void reset();
+    }
+
+    /**
+     * A count of something that happened
+     */
+    public static class Counter implements Metric {
+
+        private LongAdder count = new LongAdder();
+
+        private Counter(){
+        }
+
+        /**
+         * Adds to the count if recording is on
+         * @param amount how much to add
+         */
+        public void add(long amount){
+            if(enabled){
+                count.add(amount);
+            }
+        }
+
+        /**
+         * Adds one to the count if recording is on
+         */
+        public void increment(){
+            add(1);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public void read(String name, SortedMap<String, Double> values) {
+            values.put(name, (double) count.sum());
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+        }
+    }
+
+    /**
+     * The distribution of a value that is never negative, kept as counts in buckets of powers of two so recording a
+     * value never allocates or locks. The percentiles are the upper ends of the buckets they fall into, so they are
+     * at most twice the true value
+     */
+    public static class Histogram implements Metric {
+
+        private LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+        private LongAdder count = new LongAdder();
+        private LongAdder sum = new LongAdder();
+        private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(){
+            for (int i = 0; i < buckets.length; i++){
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a value if recording is on
+         * @param value the value, negative values are counted as 0
+         */
+        public void record(long value){
+            if(enabled){
+                value = Math.max(0, value);
+                buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+                count.increment();
+                sum.add(value);
+                max.accumulate(value);
+            }
+        }
+
+        /**
+         * Estimates a percentile of the recorded values
+         * @param fraction the fraction of the values below the percentile, between 0 and 1
+         * @return the estimate, 0 if nothing was recorded
+         */
+        public double getPercentile(double fraction){
+            long total = count.sum();
+            if(total == 0){
+                return 0.0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++){
+                seen += buckets[i].sum();
+                if(seen >= rank){
+                    return Math.min(i == 0 ? 0.0 : Math.pow(2, i) - 1, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long total = count.sum();
+            return total == 0 ? 0.0 : (double) sum.sum() / total;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        @Override
+        public void read(String name, SortedMap<String, Double> values) {
+            read(name, values, 1.0);
+        }
+
+        /**
+         * Adds the values of the histogram to a snapshot, scaled to another unit
+         * @param name the name of the metric
+         * @param values the snapshot
+         * @param scale what every value is multiplied with
+         */
+        void read(String name, SortedMap<String, Double> values, double scale){
+            values.put(name + ".count", (double) getCount());
+            values.put(name + ".mean", getMean() * scale);
+            values.put(name + ".max", getMax() * scale);
+            values.put(name + ".p50", getPercentile(0.5) * scale);
+            values.put(name + ".p99", getPercentile(0.99) * scale);
+        }
+
+        @Override
+        public void reset() {
+            for (LongAdder bucket : buckets){
+                bucket.reset();
+            }
+            count.reset();
+            sum.reset();
+            max.reset();
+        }
+    }
+
+    /**
+     * The distribution of how long something takes, in nanoseconds. A timing is started with start and recorded
+     * with stop, while recording is off neither reads the clock
+     */
+    public static class Timer implements Metric {
+
+        private Histogram nanoseconds = new Histogram();
+
+        private Timer(){
+        }
+
+        /**
+         * Starts a timing
+         * @return the value to pass to stop
+         */
+        public long start(){
+            return enabled ? System.nanoTime() : NOT_TIMED;
+        }
+
+        /**
+         * Records the time since a timing was started, if recording was on when it started
+         * @param start the value returned by start
+         */
+        public void stop(long start){
+            if(start != NOT_TIMED){
+                nanoseconds.record(System.nanoTime() - start);
+            }
+        }
+
+        public Histogram getNanoseconds() {
+            return nanoseconds;
+        }
+
+        @Override
+        public void read(String name, SortedMap<String, Double> values) {
+            nanoseconds.read(name, values, 1.0e-6);
+            values.put(name + ".total", nanoseconds.getSum() * 1.0e-6);
+        }
+
+        @Override
+        public void reset() {
+            nanoseconds.reset();
+        }
+    }
+
+    /**
+     * Shows every part of every metric as a read only attribute over JMX, with a reset operation
+     */
+    private static class MetricsBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Double value = snapshot().get(attribute);
+            if(value == null){
+                throw new AttributeNotFoundException("unknown metric " + attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("metrics are read only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            SortedMap<String, Double> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes){
+                if(values.containsKey(attribute)){
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if(actionName.equals("reset")){
+                reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName), "unknown operation " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            SortedMap<String, Double> values = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String name : values.keySet()){
+                attributes[i++] = new MBeanAttributeInfo(name, "double", name, true, false, false);
+            }
+            MBeanOperationInfo[] operations = {
+                    new MBeanOperationInfo("reset", "sets every metric back to zero", null, "void", MBeanOperationInfo.ACTION)
+            };
+            return new MBeanInfo(getClass().getName(), "chemical reaction simulator metrics", attributes, null, operations, null);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package bart1259;
+
+import java.util.List;
+
+/**
+ * Reduces the number of points of every recorded column before it is drawn. The time axis is split into buckets of
+ * equal width, about one pixel each, and for every bucket only the first, lowest, highest and last point of each
+ * column are kept, in the order they were recorded. A line drawn through those points looks the same as one drawn
+ * through every point, so peaks and the jumps caused by chemical additions survive however many points a bucket
+ * holds
+ */
+public class MinMaxDownsampler implements TrajectorySink {
+
+    private double startTime;
+    private double bucketWidth;
+
+    //The bucket being filled, -1 before the first point
+    private long currentBucket = -1;
+
+    //Times and values of the first, lowest, highest and last point of every column in the current bucket
+    private double firstTime, lastTime;
+    private double[] firstValues, lastValues;
+    private double[] minTimes, minValues;
+    private double[] maxTimes, maxValues;
+
+    //The kept points of every column since the output was last taken
+    private String[] columnNames;
+    private Trajectory[] output;
+
+    /**
+     * Creates a downsampler
+     * @param startTime the time at which the first bucket starts
+     * @param endTime the time at which the last bucket ends
+     * @param bucketCount how many buckets to split the time in to, each column keeps at most four points per bucket
+     */
+    public MinMaxDownsampler(double startTime, double endTime, int bucketCount){
+        if(bucketCount <= 0 || !(endTime > startTime)){
+            throw new RuntimeException("downsampler needs a positive number of buckets and a time range");
+        }
+        this.startTime = startTime;
+        this.bucketWidth = (endTime - startTime) / bucketCount;
+    }
+
+    @Override
+    public void begin(List<String> columnNames) {
+        int columnCount = columnNames.size();
+        this.columnNames = columnNames.toArray(new String[0]);
+        firstValues = new double[columnCount];
+        lastValues = new double[columnCount];
+        minTimes = new double[columnCount];
+        minValues = new double[columnCount];
+        maxTimes = new double[columnCount];
+        maxValues = new double[columnCount];
+        output = newOutput();
+        currentBucket = -1;
+    }
+
+    @Override
+    public void record(double time, double[] values) {
+
+        long bucket = (long) Math.floor((time - startTime) / bucketWidth);
+
+        //Start a new bucket, keeping the points of the previous one
+        if(bucket != currentBucket){
+            flushBucket();
+            currentBucket = bucket;
+            firstTime = time;
+            for (int c = 0; c < values.length; c++){
+                firstValues[c] = values[c];
+                minTimes[c] = time;
+                minValues[c] = values[c];
+                maxTimes[c] = time;
+                maxValues[c] = values[c];
+            }
+        }
+
+        //Update the extremes of every column
+        for (int c = 0; c < values.length; c++){
+            if(values[c] < minValues[c]){
+                minValues[c] = values[c];
+                minTimes[c] = time;
+            }
+            if(values[c] > maxValues[c]){
+                maxValues[c] = values[c];
+                maxTimes[c] = time;
+            }
+            lastValues[c] = values[c];
+        }
+        lastTime = time;
+    }
+
+    @Override
+    public void end() {
+        flushBucket();
+        currentBucket = -1;
+    }
+
+    /**
+     * Takes the points kept since the last call
+     * @return one single column trajectory per column, holding the kept points of that column
+     */
+    public Trajectory[] takeOutput(){
+        Trajectory[] taken = output;
+        output = newOutput();
+        return taken;
+    }
+
+    /**
+     * Moves the points of the current bucket to the output
+     */
+    private void flushBucket(){
+        if(currentBucket < 0){
+            return;
+        }
+
+        double[] point = new double[1];
+        for (int c = 0; c < output.length; c++){
+
+            //The lowest and highest points go between the first and last, in the order they were recorded
+            boolean minFirst = minTimes[c] <= maxTimes[c];
+            double middleTime1 = minFirst ? minTimes[c] : maxTimes[c];
+            double middleValue1 = minFirst ? minValues[c] : maxValues[c];
+            double middleTime2 = minFirst ? maxTimes[c] : minTimes[c];
+            double middleValue2 = minFirst ? maxValues[c] : minValues[c];
+
+            Trajectory series = output[c];
+            point[0] = firstValues[c];
+            series.record(firstTime, point);
+            if(middleTime1 != firstTime){
+                point[0] = middleValue1;
+                series.record(middleTime1, point);
+            }
+            if(middleTime2 != middleTime1 && middleTime2 != firstTime){
+                point[0] = middleValue2;
+                series.record(middleTime2, point);
+            }
+            if(lastTime != middleTime2 && lastTime != firstTime){
+                point[0] = lastValues[c];
+                series.record(lastTime, point);
+            }
+        }
+    }
+
+    /**
+     * Makes an empty output trajectory for every column
+     * @return the output trajectories
+     */
+    private Trajectory[] newOutput(){
+        Trajectory[] trajectories = new Trajectory[columnNames.length];
+        for (int c = 0; c < trajectories.length; c++){
+            trajectories[c] = new Trajectory(columnNames[c]);
+        }
+        return trajectories;
+    }
+}
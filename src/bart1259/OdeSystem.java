@@ -0,0 +1,42 @@
+package bart1259;
+
+/**
+ * Represents a system of ordinary differential equations dy/dt = f(y) that can be advanced by an integrator
+ */
+public interface OdeSystem {
+
+    /**
+     * Gets the number of variables in the system
+     * @return the size of the state vector
+     */
+    int getDimension();
+
+    /**
+     * Computes how fast every variable of the system is changing
+     * @param state the current value of every variable
+     * @param derivatives the array to store the rate of change of every variable in
+     */
+    void computeDerivatives(double[] state, double[] derivatives);
+
+    /**
+     * Computes the jacobian of the derivatives, systems that can't compute it exactly return false and leave
+     * integrators to estimate it
+     * @param state the current value of every variable
+     * @param jacobian the matrix to store the jacobian in, jacobian[i][j] is the derivative of the rate of change of
+     *                 variable i with respect to variable j
+     * @return true if the jacobian was computed
+     */
+    default boolean computeJacobian(double[] state, double[][] jacobian){
+        return false;
+    }
+
+    /**
+     * Gets the size of the block the jacobian is made of. A system whose jacobian is one block repeated along the
+     * diagonal and zero elsewhere returns the size of that block, and computeJacobian only fills that block
+     * @return the size of the block, the dimension if the jacobian is not split into blocks
+     */
+    default int getJacobianBlockSize(){
+        return getDimension();
+    }
+
+}
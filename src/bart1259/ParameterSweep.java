@@ -0,0 +1,663 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Runs many variants of a simulation that differ in their rate constants and initial amounts. The simulation is
+ * compiled once and its network is shared read only by every variant, variants only get their own rate constants,
+ * concentrations and integrator. The variants are split over a fork join pool so idle workers steal work from busy
+ * ones, and the summary of every variant is passed on as soon as it finishes. With an ensemble size set, that many
+ * variants at a time are stepped together as one Ensemble, which computes their rates in vector registers
+ */
+public class ParameterSweep {
+
+    private ReactionNetwork network;
+    private double[] initialConcentrations;
+    private List<AddedChemical> chemicalAdditions;
+
+    private String integratorName = Integrator.EULER;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    //How many variants are stepped together as one ensemble, 1 to run a simulation per variant
+    private int ensembleSize = 1;
+    private boolean vectorized = true;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a sweep over a parsed simulation. The simulation should not have been run yet
+     * @param simulation the simulation every variant starts from
+     */
+    public ParameterSweep(Simulation simulation){
+        network = simulation.getNetwork();
+        initialConcentrations = simulation.getConcentrations();
+        chemicalAdditions = simulation.getChemicalAdditions();
+    }
+
+    /**
+     * Builds every combination of the values of some parameters
+     * @param parameters the parameters and their values
+     * @return one variant per combination, the first parameter changes the slowest
+     */
+    public static List<Variant> grid(Parameter... parameters){
+
+        List<Variant> variants = new ArrayList<>();
+        variants.add(new Variant());
+
+        for (Parameter parameter : parameters){
+            List<Variant> expanded = new ArrayList<>(variants.size() * parameter.values.length);
+            for (Variant variant : variants){
+                for (double value : parameter.values){
+                    Variant copy = new Variant(variant);
+                    parameter.apply(copy, value);
+                    expanded.add(copy);
+                }
+            }
+            variants = expanded;
+        }
+
+        return variants;
+    }
+
+    /**
+     * Runs every variant and blocks until all of them are done or the sweep is cancelled
+     * @param variants the variants to run
+     * @param duration how long to simulate every variant for
+     * @param deltaTime the time between the points the summaries are taken from
+     * @param resultConsumer receives the result of every variant as it finishes, it is called from the worker
+     *                       threads so it has to be thread safe
+     * @return true if every variant ran, false if the sweep was cancelled
+     */
+    public boolean run(List<Variant> variants, double duration, double deltaTime, Consumer<Result> resultConsumer){
+
+        if(deltaTime <= 0 || duration <= 0 || deltaTime > duration){
+            throw new RuntimeException("Unreasonable values for dt and/or duration");
+        }
+
+        //Resolve the variants up front so a bad override fails before anything runs
+        if(ensembleSize > 1){
+            Ensemble.createIntegrator(integratorName, ensembleSize);
+        } else {
+            Integrator.create(integratorName);
+        }
+        Variant[] resolved = variants.toArray(new Variant[0]);
+        for (Variant variant : resolved){
+            variant.resolve(network);
+        }
+
+        //The work is split into single variants or into ensembles of variants
+        int unitCount = (resolved.length + ensembleSize - 1) / ensembleSize;
+        cancelled = false;
+        pool.invoke(new SweepAction(resolved, 0, unitCount, duration, deltaTime, resultConsumer));
+        return !cancelled;
+    }
+
+    /**
+     * Stops the sweep, variants that are running finish but no new ones are started
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    /**
+     * Runs a single variant
+     * @param variants all variants
+     * @param index the index of the variant to run
+     * @param duration how long to simulate for
+     * @param deltaTime the time between the points the summary is taken from
+     * @return the result of the variant
+     */
+    private Result runVariant(Variant[] variants, int index, double duration, double deltaTime){
+
+        Variant variant = variants[index];
+        long start = System.nanoTime();
+
+        //Only the rate constants and concentrations are copied, the structure of the network is shared
+        double[] fwdReactionRates = new double[network.getReactionCount()];
+        double[] bwdReactionRates = new double[network.getReactionCount()];
+        resolveRateConstants(variant, fwdReactionRates, bwdReactionRates);
+
+        Simulation simulation = new Simulation(network.withRateConstants(fwdReactionRates, bwdReactionRates),
+                resolveConcentrations(variant), chemicalAdditions);
+        simulation.setIntegrator(Integrator.create(integratorName));
+
+        Chemical[] chemicals = getChemicals();
+
+        SummarySink summary = new SummarySink(chemicals.length);
+        String error = null;
+        try{
+            new SimulationRunner(simulation, duration, deltaTime, chemicals).run(summary);
+        } catch (RuntimeException e){
+            error = e.getMessage();
+        }
+
+        return new Result(index, variant, chemicals, summary, simulation.getIntegrator().getDerivativeEvaluations(),
+                (System.nanoTime() - start) / 1.0e9, error);
+    }
+
+    /**
+     * Runs a range of variants together as one ensemble
+     * @param variants all variants
+     * @param from the index of the first variant of the ensemble
+     * @param to the index after the last variant of the ensemble
+     * @param duration how long to simulate for
+     * @param deltaTime the time between the points the summaries are taken from
+     * @return the result of every variant of the ensemble, the derivative evaluations and time are the ensemble's
+     */
+    private List<Result> runEnsemble(Variant[] variants, int from, int to, double duration, double deltaTime){
+
+        long start = System.nanoTime();
+        Chemical[] chemicals = getChemicals();
+        int memberCount = to - from;
+        SummarySink[] summaries = new SummarySink[memberCount];
+        String error = null;
+
+        Ensemble ensemble = new Ensemble(network, initialConcentrations, chemicalAdditions, memberCount, vectorized);
+        try{
+            ensemble.setIntegratorName(integratorName);
+            double[] fwdReactionRates = new double[network.getReactionCount()];
+            double[] bwdReactionRates = new double[network.getReactionCount()];
+            for (int m = 0; m < memberCount; m++){
+                resolveRateConstants(variants[from + m], fwdReactionRates, bwdReactionRates);
+                ensemble.setRateConstants(m, fwdReactionRates, bwdReactionRates);
+                ensemble.setConcentrations(m, resolveConcentrations(variants[from + m]));
+                summaries[m] = new SummarySink(chemicals.length);
+            }
+
+            //Record every member at the same points SimulationRunner would
+            long steps = Math.round(duration / deltaTime);
+            double[] values = new double[chemicals.length];
+            for (long i = 0; i <= steps; i++){
+                if(i > 0){
+                    ensemble.simulate(deltaTime);
+                }
+                for (int m = 0; m < memberCount; m++){
+                    ensemble.getConcentrations(m, values);
+                    summaries[m].record(i * deltaTime, values);
+                }
+            }
+        } catch (RuntimeException e){
+            error = e.getMessage();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+        List<Result> results = new ArrayList<>();
+        for (int m = 0; m < memberCount; m++){
+            SummarySink summary = summaries[m] != null ? summaries[m] : new SummarySink(chemicals.length);
+            results.add(new Result(from + m, variants[from + m], chemicals, summary,
+                    ensemble.getIntegrator().getDerivativeEvaluations(), seconds, error));
+        }
+        return results;
+    }
+
+    /**
+     * Gets the rate constants of a variant, the parsed ones where the variant doesn't override them
+     * @param variant the variant
+     * @param fwdReactionRates the array to store the forward rate constant of every reaction in
+     * @param bwdReactionRates the array to store the backward rate constant of every reaction in
+     */
+    private void resolveRateConstants(Variant variant, double[] fwdReactionRates, double[] bwdReactionRates){
+        for (int r = 0; r < fwdReactionRates.length; r++){
+            double fwdReactionRate = network.getFwdReactionRate(r);
+            double equilibriumConstant = fwdReactionRate / network.getBwdReactionRate(r);
+            if(!Double.isNaN(variant.fwdReactionRates[r])){
+                fwdReactionRate = variant.fwdReactionRates[r];
+            }
+            if(!Double.isNaN(variant.equilibriumConstants[r])){
+                equilibriumConstant = variant.equilibriumConstants[r];
+            }
+            fwdReactionRates[r] = fwdReactionRate;
+            bwdReactionRates[r] = fwdReactionRate / equilibriumConstant;
+        }
+    }
+
+    /**
+     * Gets the initial concentrations of a variant, the parsed ones where the variant doesn't override them
+     * @param variant the variant
+     * @return the concentration of every chemical, indexed by id
+     */
+    private double[] resolveConcentrations(Variant variant){
+        double[] concentrations = initialConcentrations.clone();
+        for (int i = 0; i < concentrations.length; i++){
+            if(!Double.isNaN(variant.initialAmounts[i])){
+                concentrations[i] = variant.initialAmounts[i];
+            }
+        }
+        return concentrations;
+    }
+
+    /**
+     * Gets every chemical of the network, in the order of their ids
+     * @return the chemicals
+     */
+    private Chemical[] getChemicals(){
+        Chemical[] chemicals = new Chemical[network.getSpeciesCount()];
+        for (int i = 0; i < chemicals.length; i++){
+            chemicals[i] = network.getChemical(i);
+        }
+        return chemicals;
+    }
+
+    /**
+     * Splits a range of variants, or of ensembles of variants, in half until it is small enough to run directly
+     */
+    private class SweepAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private Variant[] variants;
+        private int from;
+        private int to;
+        private double duration;
+        private double deltaTime;
+        private Consumer<Result> resultConsumer;
+
+        SweepAction(Variant[] variants, int from, int to, double duration, double deltaTime, Consumer<Result> resultConsumer){
+            this.variants = variants;
+            this.from = from;
+            this.to = to;
+            this.duration = duration;
+            this.deltaTime = deltaTime;
+            this.resultConsumer = resultConsumer;
+        }
+
+        @Override
+        protected void compute() {
+
+            //A single simulation is already a large piece of work, so split all the way down to one variant or ensemble
+            if(to - from > 1){
+                int middle = (from + to) >>> 1;
+                invokeAll(new SweepAction(variants, from, middle, duration, deltaTime, resultConsumer),
+                        new SweepAction(variants, middle, to, duration, deltaTime, resultConsumer));
+                return;
+            }
+
+            if(from < to && !cancelled){
+                if(ensembleSize > 1){
+                    int first = from * ensembleSize;
+                    for (Result result : runEnsemble(variants, first, Math.min(variants.length, first + ensembleSize), duration, deltaTime)){
+                        resultConsumer.accept(result);
+                    }
+                } else {
+                    resultConsumer.accept(runVariant(variants, from, duration, deltaTime));
+                }
+            }
+        }
+    }
+
+    /**
+     * A parameter and the values it takes in a grid
+     */
+    public static class Parameter {
+
+        private ChemicalReaction reaction;
+        private Chemical chemical;
+        private boolean equilibriumConstant;
+        private double[] values;
+
+        private Parameter(ChemicalReaction reaction, Chemical chemical, boolean equilibriumConstant, double[] values){
+            this.reaction = reaction;
+            this.chemical = chemical;
+            this.equilibriumConstant = equilibriumConstant;
+            this.values = values.clone();
+        }
+
+        /**
+         * Creates a parameter for the forward rate constant of a reaction
+         * @param reaction the reaction
+         * @param values the values of the rate constant
+         * @return the parameter
+         */
+        public static Parameter fwdReactionRate(ChemicalReaction reaction, double... values){
+            return new Parameter(reaction, null, false, values);
+        }
+
+        /**
+         * Creates a parameter for the equilibrium constant of a reaction
+         * @param reaction the reaction
+         * @param values the values of the equilibrium constant
+         * @return the parameter
+         */
+        public static Parameter equilibriumConstant(ChemicalReaction reaction, double... values){
+            return new Parameter(reaction, null, true, values);
+        }
+
+        /**
+         * Creates a parameter for the initial amount of a chemical
+         * @param chemical the chemical
+         * @param values the initial amounts
+         * @return the parameter
+         */
+        public static Parameter initialAmount(Chemical chemical, double... values){
+            return new Parameter(null, chemical, false, values);
+        }
+
+        /**
+         * Sets this parameter in a variant
+         * @param variant the variant
+         * @param value the value of the parameter
+         */
+        private void apply(Variant variant, double value){
+            if(chemical != null){
+                variant.setInitialAmount(chemical, value);
+            } else if(equilibriumConstant){
+                variant.setEquilibriumConstant(reaction, value);
+            } else {
+                variant.setFwdReactionRate(reaction, value);
+            }
+        }
+    }
+
+    /**
+     * A set of overrides of the parsed simulation, everything that is not overridden keeps its parsed value
+     */
+    public static class Variant {
+
+        private LinkedHashMap<ChemicalReaction, Double> fwdReactionRateOverrides;
+        private LinkedHashMap<ChemicalReaction, Double> equilibriumConstantOverrides;
+        private LinkedHashMap<Chemical, Double> initialAmountOverrides;
+
+        //The overrides indexed by reaction or chemical id, NaN where nothing is overridden
+        private double[] fwdReactionRates;
+        private double[] equilibriumConstants;
+        private double[] initialAmounts;
+
+        /**
+         * Creates a variant without overrides
+         */
+        public Variant(){
+            fwdReactionRateOverrides = new LinkedHashMap<>();
+            equilibriumConstantOverrides = new LinkedHashMap<>();
+            initialAmountOverrides = new LinkedHashMap<>();
+        }
+
+        /**
+         * Creates a copy of a variant
+         * @param variant the variant to copy
+         */
+        public Variant(Variant variant){
+            fwdReactionRateOverrides = new LinkedHashMap<>(variant.fwdReactionRateOverrides);
+            equilibriumConstantOverrides = new LinkedHashMap<>(variant.equilibriumConstantOverrides);
+            initialAmountOverrides = new LinkedHashMap<>(variant.initialAmountOverrides);
+        }
+
+        /**
+         * Overrides the forward rate constant of a reaction
+         * @param reaction the reaction
+         * @param fwdReactionRate the forward rate constant
+         * @return this variant
+         */
+        public Variant setFwdReactionRate(ChemicalReaction reaction, double fwdReactionRate){
+            if(fwdReactionRate <= 0){
+                throw new RuntimeException("Kfwd must be greater than 0: " + fwdReactionRate);
+            }
+            fwdReactionRateOverrides.put(reaction, fwdReactionRate);
+            return this;
+        }
+
+        /**
+         * Overrides the equilibrium constant of a reaction
+         * @param reaction the reaction
+         * @param equilibriumConstant the equilibrium constant
+         * @return this variant
+         */
+        public Variant setEquilibriumConstant(ChemicalReaction reaction, double equilibriumConstant){
+            if(equilibriumConstant <= 0){
+                throw new RuntimeException("Kequ must be greater than 0: " + equilibriumConstant);
+            }
+            equilibriumConstantOverrides.put(reaction, equilibriumConstant);
+            return this;
+        }
+
+        /**
+         * Overrides the initial amount of a chemical
+         * @param chemical the chemical
+         * @param amount the initial amount
+         * @return this variant
+         */
+        public Variant setInitialAmount(Chemical chemical, double amount){
+            if(amount < 0){
+                throw new RuntimeException("initial amount of " + chemical.getChemicalName() + " cannot be less than 0: " + amount);
+            }
+            initialAmountOverrides.put(chemical, amount);
+            return this;
+        }
+
+        /**
+         * Converts the overrides into arrays indexed by the ids of a network
+         * @param network the network
+         */
+        private void resolve(ReactionNetwork network){
+            fwdReactionRates = resolveReactions(network, fwdReactionRateOverrides);
+            equilibriumConstants = resolveReactions(network, equilibriumConstantOverrides);
+
+            initialAmounts = new double[network.getSpeciesCount()];
+            Arrays.fill(initialAmounts, Double.NaN);
+            for (Map.Entry<Chemical, Double> override : initialAmountOverrides.entrySet()){
+                int index = network.indexOf(override.getKey());
+                if(index < 0){
+                    throw new RuntimeException("chemical " + override.getKey().getChemicalName() + " is not in the simulation");
+                }
+                initialAmounts[index] = override.getValue();
+            }
+        }
+
+        /**
+         * Converts reaction overrides into an array indexed by reaction
+         * @param network the network
+         * @param overrides the overrides
+         * @return the overridden values, NaN where nothing is overridden
+         */
+        private static double[] resolveReactions(ReactionNetwork network, Map<ChemicalReaction, Double> overrides){
+            double[] values = new double[network.getReactionCount()];
+            Arrays.fill(values, Double.NaN);
+            for (Map.Entry<ChemicalReaction, Double> override : overrides.entrySet()){
+                int index = network.indexOf(override.getKey());
+                if(index < 0){
+                    throw new RuntimeException("reaction is not in the simulation");
+                }
+                values[index] = override.getValue();
+            }
+            return values;
+        }
+
+        //Accessors
+
+        public Map<ChemicalReaction, Double> getFwdReactionRateOverrides() {
+            return fwdReactionRateOverrides;
+        }
+
+        public Map<ChemicalReaction, Double> getEquilibriumConstantOverrides() {
+            return equilibriumConstantOverrides;
+        }
+
+        public Map<Chemical, Double> getInitialAmountOverrides() {
+            return initialAmountOverrides;
+        }
+    }
+
+    /**
+     * Collects the final value, the peak and the time of the peak of every column
+     */
+    private static class SummarySink implements TrajectorySink {
+
+        private double[] finalValues;
+        private double[] peakValues;
+        private double[] peakTimes;
+
+        SummarySink(int columnCount){
+            finalValues = new double[columnCount];
+            peakValues = new double[columnCount];
+            peakTimes = new double[columnCount];
+            Arrays.fill(peakValues, Double.NEGATIVE_INFINITY);
+        }
+
+        @Override
+        public void begin(List<String> columnNames) {
+        }
+
+        @Override
+        public void record(double time, double[] values) {
+            for (int i = 0; i < values.length; i++){
+                if(values[i] > peakValues[i]){
+                    peakValues[i] = values[i];
+                    peakTimes[i] = time;
+                }
+            }
+            System.arraycopy(values, 0, finalValues, 0, values.length);
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    /**
+     * The summary of a finished variant
+     */
+    public static class Result {
+
+        private int index;
+        private Variant variant;
+        private Chemical[] chemicals;
+        private double[] finalConcentrations;
+        private double[] peakConcentrations;
+        private double[] peakTimes;
+        private long derivativeEvaluations;
+        private double seconds;
+        private String error;
+
+        private Result(int index, Variant variant, Chemical[] chemicals, SummarySink summary, long derivativeEvaluations, double seconds, String error){
+            this.index = index;
+            this.variant = variant;
+            this.chemicals = chemicals;
+            this.finalConcentrations = summary.finalValues;
+            this.peakConcentrations = summary.peakValues;
+            this.peakTimes = summary.peakTimes;
+            this.derivativeEvaluations = derivativeEvaluations;
+            this.seconds = seconds;
+            this.error = error;
+        }
+
+        /**
+         * Gets the id of a chemical in the concentration arrays
+         * @param chemical the chemical
+         * @return the id of the chemical
+         */
+        private int indexOf(Chemical chemical){
+            for (int i = 0; i < chemicals.length; i++){
+                if(chemicals[i] == chemical){
+                    return i;
+                }
+            }
+            throw new RuntimeException("chemical " + chemical.getChemicalName() + " is not in the simulation");
+        }
+
+        public double getFinalConcentration(Chemical chemical){
+            return finalConcentrations[indexOf(chemical)];
+        }
+
+        public double getPeakConcentration(Chemical chemical){
+            return peakConcentrations[indexOf(chemical)];
+        }
+
+        public double getPeakTime(Chemical chemical){
+            return peakTimes[indexOf(chemical)];
+        }
+
+        //Accessors
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Variant getVariant() {
+            return variant;
+        }
+
+        public List<Chemical> getChemicals() {
+            return Arrays.asList(chemicals);
+        }
+
+        public double[] getFinalConcentrations() {
+            return finalConcentrations;
+        }
+
+        public double[] getPeakConcentrations() {
+            return peakConcentrations;
+        }
+
+        public double[] getPeakTimes() {
+            return peakTimes;
+        }
+
+        public long getDerivativeEvaluations() {
+            return derivativeEvaluations;
+        }
+
+        public double getSeconds() {
+            return seconds;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    //Accessors
+
+    public ReactionNetwork getNetwork() {
+        return network;
+    }
+
+    public String getIntegratorName() {
+        return integratorName;
+    }
+
+    public void setIntegratorName(String integratorName) {
+        this.integratorName = integratorName;
+    }
+
+    public int getEnsembleSize() {
+        return ensembleSize;
+    }
+
+    /**
+     * Steps variants together in ensembles instead of running a simulation per variant, which computes the rates of
+     * many variants at once but makes every variant of an ensemble take the steps of its most demanding variant
+     * @param ensembleSize how many variants are stepped together, 1 to run a simulation per variant
+     */
+    public void setEnsembleSize(int ensembleSize) {
+        if(ensembleSize <= 0){
+            throw new RuntimeException("ensemble size must be at least 1");
+        }
+        this.ensembleSize = ensembleSize;
+    }
+
+    public boolean isVectorized() {
+        return vectorized;
+    }
+
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
@@ -0,0 +1,676 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fits rate constants of a simulation to measured concentrations with the Levenberg-Marquardt method. The residuals
+ * are the simulated minus the measured concentrations at every measured point, and the free parameters are fitted
+ * as logarithms so they stay positive and parameters of very different sizes are treated alike. The jacobian is
+ * estimated with one extra simulation per free parameter, and those simulations are split over a fork join pool.
+ * The network is compiled once and shared read only by every simulation of the fit
+ */
+public class RateConstantFit {
+
+    //Relative change of a parameter used to estimate its column of the jacobian
+    private static final double DIFFERENCE_STEP = 1.0e-3;
+
+    //How much the damping grows or shrinks after a rejected or accepted step, and the range it is kept in
+    private static final double DAMPING_FACTOR = 10.0;
+    private static final double MIN_DAMPING = 1.0e-12;
+    private static final double MAX_DAMPING = 1.0e12;
+
+    //Moving the parameters one standard error from the best fit raises the sum of squares by about its residual
+    //variance. Once a full Gauss-Newton step would lower it by less than this fraction of that, the parameters are
+    //within a tenth of a standard error of the best fit. The simulations and the differenced jacobian are too noisy
+    //to get much closer, so the fit has converged
+    private static final double PREDICTED_DECREASE_FRACTION = 1.0e-2;
+
+    //Where the simulations barely depend on the parameters every step is small and barely lowers the sum of squares,
+    //so a fit only counts as converged if the standard error of every log parameter is below this, a factor of about
+    //20000, otherwise the data don't determine the parameters where the fit stopped
+    private static final double MAX_STANDARD_ERROR = 10.0;
+
+    private ReactionNetwork network;
+    private double[] initialConcentrations;
+    private List<AddedChemical> chemicalAdditions;
+    private MeasuredData data;
+
+    //The species every fitted column of the data belongs to and the measured values of those columns
+    private int[] measuredSpecies;
+    private double[][] measuredValues;
+    private int residualCount;
+
+    //The free parameters, parameter 2r is Kfwd of reaction r and 2r + 1 its Kequ like in SensitivitySystem
+    private List<Integer> freeParameters = new ArrayList<>();
+
+    private String integratorName = Integrator.ROSENBROCK;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private double tolerance = 1.0e-8;
+    private int maxIterations = 100;
+    private double confidenceLevel = 0.95;
+
+    /**
+     * Creates a fit of a parsed simulation to measured data. The simulation should not have been run yet, its rate
+     * constants are where the fit starts from
+     * @param simulation the simulation to fit
+     * @param data the measured concentrations, columns are matched to chemicals by name and others are ignored
+     */
+    public RateConstantFit(Simulation simulation, MeasuredData data){
+        network = simulation.getNetwork();
+        initialConcentrations = simulation.getConcentrations();
+        chemicalAdditions = simulation.getChemicalAdditions();
+        this.data = data;
+
+        List<Integer> species = new ArrayList<>();
+        List<double[]> values = new ArrayList<>();
+        for (int i = 0; i < network.getSpeciesCount(); i++){
+            double[] measured = data.getValues(network.getChemical(i).getChemicalName());
+            if(measured != null){
+                species.add(i);
+                values.add(measured);
+                for (double value : measured){
+                    if(!Double.isNaN(value)){
+                        residualCount++;
+                    }
+                }
+            }
+        }
+        if(species.isEmpty()){
+            throw new RuntimeException("none of the measured chemicals are in the simulation");
+        }
+        measuredSpecies = new int[species.size()];
+        for (int i = 0; i < measuredSpecies.length; i++){
+            measuredSpecies[i] = species.get(i);
+        }
+        measuredValues = values.toArray(new double[0][]);
+    }
+
+    /**
+     * Lets the fit change the forward rate constant of a reaction
+     * @param reaction the reaction
+     */
+    public void freeFwdReactionRate(ChemicalReaction reaction){
+        freeParameter(2 * reactionIndex(reaction));
+    }
+
+    /**
+     * Lets the fit change the equilibrium constant of a reaction
+     * @param reaction the reaction
+     */
+    public void freeEquilibriumConstant(ChemicalReaction reaction){
+        freeParameter(2 * reactionIndex(reaction) + 1);
+    }
+
+    /**
+     * Lets the fit change a parameter given by name
+     * @param name Kfwd or Kequ followed by the number of the reaction, counting from 1, like Kfwd2
+     */
+    public void freeParameter(String name){
+        boolean fwdReactionRate = name.regionMatches(true, 0, "Kfwd", 0, 4);
+        if(!fwdReactionRate && !name.regionMatches(true, 0, "Kequ", 0, 4)){
+            throw new RuntimeException("unknown parameter " + name + ", expected Kfwd or Kequ followed by a reaction number");
+        }
+        int reaction;
+        try{
+            reaction = Integer.parseInt(name.substring(4)) - 1;
+        } catch (NumberFormatException e){
+            throw new RuntimeException("unknown parameter " + name + ", expected Kfwd or Kequ followed by a reaction number");
+        }
+        if(reaction < 0 || reaction >= network.getReactionCount()){
+            throw new RuntimeException("parameter " + name + " refers to reaction " + (reaction + 1) + " but there are " + network.getReactionCount() + " reactions");
+        }
+        freeParameter(2 * reaction + (fwdReactionRate ? 0 : 1));
+    }
+
+    /**
+     * Adds a parameter to the free parameters
+     * @param parameter the index of the parameter
+     */
+    private void freeParameter(int parameter){
+        if(!freeParameters.contains(parameter)){
+            freeParameters.add(parameter);
+        }
+    }
+
+    /**
+     * Gets the index of a reaction in the network
+     * @param reaction the reaction
+     * @return the index of the reaction
+     */
+    private int reactionIndex(ChemicalReaction reaction){
+        int index = network.indexOf(reaction);
+        if(index < 0){
+            throw new RuntimeException("reaction is not in the simulation");
+        }
+        return index;
+    }
+
+    /**
+     * Fits the free parameters to the measured data
+     * @return the fitted parameters and their confidence intervals
+     */
+    public Result fit(){
+
+        int parameterCount = freeParameters.size();
+        if(parameterCount == 0){
+            throw new RuntimeException("no parameters to fit");
+        }
+        if(residualCount < parameterCount){
+            throw new RuntimeException("cannot fit " + parameterCount + " parameters to " + residualCount + " measurements");
+        }
+        Integrator.create(integratorName);
+
+        double[] logParameters = new double[parameterCount];
+        for (int k = 0; k < parameterCount; k++){
+            logParameters[k] = Math.log(getParameterValue(network, freeParameters.get(k)));
+        }
+        double[] residuals = computeResiduals(logParameters);
+        double cost = sumOfSquares(residuals);
+        if(Double.isInfinite(cost)){
+            throw new RuntimeException("the simulation fails with the starting rate constants");
+        }
+
+        double[][] jacobian = new double[residualCount][parameterCount];
+        double[][] normalMatrix = new double[parameterCount][parameterCount];
+        double[][] dampedMatrix = new double[parameterCount][parameterCount];
+        double[] gradient = new double[parameterCount];
+        double[] trial = new double[parameterCount];
+        LUDecomposition decomposition = new LUDecomposition(parameterCount);
+        double damping = 1.0e-3;
+        boolean converged = false;
+        boolean stalled = false;
+        int iteration = 0;
+
+        while (!converged && !stalled && iteration < maxIterations){
+            iteration++;
+            computeJacobian(logParameters, residuals, jacobian);
+            computeNormalEquations(jacobian, residuals, normalMatrix, gradient);
+            if(isCloseToBest(normalMatrix, gradient, cost, decomposition)){
+                converged = true;
+                break;
+            }
+
+            //Raise the damping until a step lowers the sum of squares, the step turns from Gauss-Newton to gradient descent
+            boolean accepted = false;
+            while (!accepted && damping <= MAX_DAMPING){
+                for (int i = 0; i < parameterCount; i++){
+                    System.arraycopy(normalMatrix[i], 0, dampedMatrix[i], 0, parameterCount);
+                    dampedMatrix[i][i] += damping * Math.max(normalMatrix[i][i], MIN_DAMPING);
+                }
+                double[] step = new double[parameterCount];
+                for (int i = 0; i < parameterCount; i++){
+                    step[i] = -gradient[i];
+                }
+                try{
+                    decomposition.factor(dampedMatrix);
+                    decomposition.solve(step);
+                } catch (RuntimeException e){
+                    damping *= DAMPING_FACTOR;
+                    continue;
+                }
+
+                double largestStep = 0.0;
+                for (int i = 0; i < parameterCount; i++){
+                    trial[i] = logParameters[i] + step[i];
+                    largestStep = Math.max(largestStep, Math.abs(step[i]));
+                }
+                double[] trialResiduals = computeResiduals(trial);
+                double trialCost = sumOfSquares(trialResiduals);
+
+                if(trialCost < cost){
+                    accepted = true;
+                    stalled = cost - trialCost <= tolerance * cost || largestStep <= tolerance;
+                    System.arraycopy(trial, 0, logParameters, 0, parameterCount);
+                    residuals = trialResiduals;
+                    cost = trialCost;
+                    damping = Math.max(damping / DAMPING_FACTOR, MIN_DAMPING);
+                } else {
+                    damping *= DAMPING_FACTOR;
+                }
+            }
+
+            //No step lowers the sum of squares any more, unless the fit is exact it is stuck without having met the
+            //tolerance
+            if(!accepted){
+                converged = cost == 0.0;
+                break;
+            }
+        }
+
+        computeJacobian(logParameters, residuals, jacobian);
+        computeNormalEquations(jacobian, residuals, normalMatrix, gradient);
+
+        //A fit that stopped making progress has converged if the data determine the parameters it stopped at
+        if(stalled){
+            converged = isDetermined(normalMatrix, cost, decomposition);
+        }
+        return new Result(logParameters, normalMatrix, cost, iteration, converged);
+    }
+
+    /**
+     * Checks if the parameters are as close to the best fit as the noise of the simulations allows, by how much a
+     * full Gauss-Newton step would lower the sum of squares compared to the residual variance
+     * @param normalMatrix the normal matrix at the parameters
+     * @param gradient the gradient at the parameters
+     * @param cost the sum of squares at the parameters
+     * @param decomposition the decomposition to factor the normal matrix with
+     * @return true if every parameter is determined and the step would lower the sum of squares by less than the
+     *         fraction of the residual variance
+     */
+    private boolean isCloseToBest(double[][] normalMatrix, double[] gradient, double cost, LUDecomposition decomposition){
+        if(!isDetermined(normalMatrix, cost, decomposition)){
+            return false;
+        }
+        double[] step = gradient.clone();
+        decomposition.solve(step);
+        double predictedDecrease = 0.0;
+        for (int a = 0; a < gradient.length; a++){
+            predictedDecrease += gradient[a] * step[a];
+        }
+        return predictedDecrease <= PREDICTED_DECREASE_FRACTION * getResidualVariance(cost, gradient.length);
+    }
+
+    /**
+     * Checks if the data determine every parameter, by the standard error of its logarithm
+     * @param normalMatrix the normal matrix at the parameters
+     * @param cost the sum of squares at the parameters
+     * @param decomposition the decomposition to factor the normal matrix with, it holds the factored matrix after
+     * @return true if every standard error is below MAX_STANDARD_ERROR
+     */
+    private boolean isDetermined(double[][] normalMatrix, double cost, LUDecomposition decomposition){
+        int parameterCount = normalMatrix.length;
+        double residualVariance = getResidualVariance(cost, parameterCount);
+        double[] column = new double[parameterCount];
+        try{
+            decomposition.factor(normalMatrix);
+        } catch (RuntimeException e){
+            return false;
+        }
+
+        //The variance of a parameter is the residual variance times its diagonal entry of the inverse
+        for (int a = 0; a < parameterCount; a++){
+            Arrays.fill(column, 0.0);
+            column[a] = 1.0;
+            decomposition.solve(column);
+            if(!(residualVariance * column[a] <= MAX_STANDARD_ERROR * MAX_STANDARD_ERROR)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the variance of the measurement errors from the sum of squares
+     * @param cost the sum of squares
+     * @param parameterCount the number of free parameters
+     * @return the sum of squares over the degrees of freedom
+     */
+    private double getResidualVariance(double cost, int parameterCount){
+        return cost / Math.max(1, residualCount - parameterCount);
+    }
+
+    /**
+     * Computes the residuals of the measured points for some parameters
+     * @param logParameters the logarithm of every free parameter
+     * @return the simulated minus the measured value of every measured point, all infinite if the simulation failed
+     */
+    private double[] computeResiduals(double[] logParameters){
+
+        double[] residuals = new double[residualCount];
+        try{
+            Simulation simulation = createSimulation(logParameters);
+            double[] times = data.getTimes();
+            int k = 0;
+            for (int t = 0; t < times.length; t++){
+                if(times[t] > simulation.getTimeSimulated()){
+                    simulation.simulate(times[t] - simulation.getTimeSimulated());
+                }
+                double[] concentrations = simulation.getConcentrations();
+                for (int c = 0; c < measuredSpecies.length; c++){
+                    if(!Double.isNaN(measuredValues[c][t])){
+                        residuals[k++] = concentrations[measuredSpecies[c]] - measuredValues[c][t];
+                    }
+                }
+            }
+        } catch (RuntimeException e){
+            Arrays.fill(residuals, Double.POSITIVE_INFINITY);
+        }
+        return residuals;
+    }
+
+    /**
+     * Estimates the jacobian of the residuals with respect to the logarithm of every free parameter by forward
+     * differences, running the simulation of every column on the pool
+     * @param logParameters the logarithm of every free parameter
+     * @param residuals the residuals at those parameters
+     * @param jacobian the matrix to store the jacobian in
+     */
+    private void computeJacobian(double[] logParameters, double[] residuals, double[][] jacobian){
+        pool.invoke(new ColumnAction(logParameters, residuals, jacobian, 0, logParameters.length));
+    }
+
+    /**
+     * Estimates a single column of the jacobian
+     * @param logParameters the logarithm of every free parameter
+     * @param residuals the residuals at those parameters
+     * @param jacobian the matrix to store the column in
+     * @param column the free parameter of the column
+     */
+    private void computeColumn(double[] logParameters, double[] residuals, double[][] jacobian, int column){
+        double[] shifted = logParameters.clone();
+        shifted[column] += DIFFERENCE_STEP;
+        double[] shiftedResiduals = computeResiduals(shifted);
+        for (int i = 0; i < residualCount; i++){
+            double derivative = (shiftedResiduals[i] - residuals[i]) / DIFFERENCE_STEP;
+            jacobian[i][column] = Double.isFinite(derivative) ? derivative : 0.0;
+        }
+    }
+
+    /**
+     * Computes J^T J and J^T r of the least squares problem
+     * @param jacobian the jacobian of the residuals
+     * @param residuals the residuals
+     * @param normalMatrix the matrix to store J^T J in
+     * @param gradient the array to store J^T r in
+     */
+    private static void computeNormalEquations(double[][] jacobian, double[] residuals, double[][] normalMatrix, double[] gradient){
+        int parameterCount = gradient.length;
+        for (double[] row : normalMatrix){
+            Arrays.fill(row, 0.0);
+        }
+        Arrays.fill(gradient, 0.0);
+        for (int i = 0; i < residuals.length; i++){
+            double[] row = jacobian[i];
+            for (int a = 0; a < parameterCount; a++){
+                gradient[a] += row[a] * residuals[i];
+                for (int b = 0; b < parameterCount; b++){
+                    normalMatrix[a][b] += row[a] * row[b];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds up the squares of the residuals
+     * @param residuals the residuals
+     * @return the sum of squares, infinite if any residual is not a number
+     */
+    private static double sumOfSquares(double[] residuals){
+        double sum = 0.0;
+        for (double residual : residuals){
+            sum += residual * residual;
+        }
+        return Double.isNaN(sum) ? Double.POSITIVE_INFINITY : sum;
+    }
+
+    /**
+     * Creates a simulation of the network with the free parameters set
+     * @param logParameters the logarithm of every free parameter
+     * @return the simulation, not run yet
+     */
+    private Simulation createSimulation(double[] logParameters){
+        double[] fwdReactionRates = new double[network.getReactionCount()];
+        double[] equilibriumConstants = new double[network.getReactionCount()];
+        for (int r = 0; r < fwdReactionRates.length; r++){
+            fwdReactionRates[r] = network.getFwdReactionRate(r);
+            equilibriumConstants[r] = fwdReactionRates[r] / network.getBwdReactionRate(r);
+        }
+        for (int k = 0; k < logParameters.length; k++){
+            int parameter = freeParameters.get(k);
+            if(parameter % 2 == 0){
+                fwdReactionRates[parameter / 2] = Math.exp(logParameters[k]);
+            } else {
+                equilibriumConstants[parameter / 2] = Math.exp(logParameters[k]);
+            }
+        }
+        double[] bwdReactionRates = new double[fwdReactionRates.length];
+        for (int r = 0; r < fwdReactionRates.length; r++){
+            bwdReactionRates[r] = fwdReactionRates[r] / equilibriumConstants[r];
+        }
+
+        Simulation simulation = new Simulation(network.withRateConstants(fwdReactionRates, bwdReactionRates), initialConcentrations, chemicalAdditions);
+        simulation.setIntegrator(Integrator.create(integratorName));
+        return simulation;
+    }
+
+    /**
+     * Creates a simulation with the fitted rate constants, for example to compare it with the measured data
+     * @param result the result of a fit of this simulation
+     * @return the simulation, not run yet
+     */
+    public Simulation createSimulation(Result result){
+        double[] logParameters = new double[result.values.length];
+        for (int k = 0; k < logParameters.length; k++){
+            logParameters[k] = Math.log(result.values[k]);
+        }
+        return createSimulation(logParameters);
+    }
+
+    /**
+     * Gets the value of a parameter in a network
+     * @param network the network
+     * @param parameter the index of the parameter
+     * @return the forward rate constant or the equilibrium constant of the reaction
+     */
+    private static double getParameterValue(ReactionNetwork network, int parameter){
+        int reaction = parameter / 2;
+        double fwdReactionRate = network.getFwdReactionRate(reaction);
+        return parameter % 2 == 0 ? fwdReactionRate : fwdReactionRate / network.getBwdReactionRate(reaction);
+    }
+
+    /**
+     * Gets the two sided quantile of the student t distribution, from the Cornish-Fisher expansion around the normal
+     * quantile which is within a percent from 3 degrees of freedom on
+     * @param confidenceLevel the probability inside the interval
+     * @param degreesOfFreedom the degrees of freedom
+     * @return the number of standard errors either side of the value
+     */
+    static double studentQuantile(double confidenceLevel, int degreesOfFreedom){
+
+        //Normal quantile by the rational approximation of Abramowitz and Stegun 26.2.23
+        double p = (1.0 - confidenceLevel) / 2.0;
+        double w = Math.sqrt(-2.0 * Math.log(p));
+        double z = w - (2.515517 + 0.802853 * w + 0.010328 * w * w) / (1.0 + 1.432788 * w + 0.189269 * w * w + 0.001308 * w * w * w);
+
+        double v = degreesOfFreedom;
+        double z3 = z * z * z;
+        double z5 = z3 * z * z;
+        double z7 = z5 * z * z;
+        return z + (z3 + z) / (4.0 * v) + (5.0 * z5 + 16.0 * z3 + 3.0 * z) / (96.0 * v * v)
+                + (3.0 * z7 + 19.0 * z5 + 17.0 * z3 - 15.0 * z) / (384.0 * v * v * v);
+    }
+
+    /**
+     * Splits a range of jacobian columns in half until it is a single column
+     */
+    private class ColumnAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private double[] logParameters;
+        private double[] residuals;
+        private double[][] jacobian;
+        private int from;
+        private int to;
+
+        ColumnAction(double[] logParameters, double[] residuals, double[][] jacobian, int from, int to){
+            this.logParameters = logParameters;
+            this.residuals = residuals;
+            this.jacobian = jacobian;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            //Every column is a full simulation, so split all the way down to one column
+            if(to - from > 1){
+                int middle = (from + to) >>> 1;
+                invokeAll(new ColumnAction(logParameters, residuals, jacobian, from, middle),
+                        new ColumnAction(logParameters, residuals, jacobian, middle, to));
+                return;
+            }
+            if(from < to){
+                computeColumn(logParameters, residuals, jacobian, from);
+            }
+        }
+    }
+
+    /**
+     * The fitted parameters with their standard errors and confidence intervals. The covariance of the logarithms of
+     * the parameters is the residual variance times (J^T J)^-1, so the intervals are symmetric in the logarithm and
+     * never include values at or below zero
+     */
+    public class Result {
+
+        private String[] names;
+        private double[] values;
+        private double[] standardErrors;
+        private double[] lowerBounds;
+        private double[] upperBounds;
+        private double sumOfSquares;
+        private int iterations;
+        private boolean converged;
+
+        private Result(double[] logParameters, double[][] normalMatrix, double sumOfSquares, int iterations, boolean converged){
+            int parameterCount = logParameters.length;
+            this.sumOfSquares = sumOfSquares;
+            this.iterations = iterations;
+            this.converged = converged;
+
+            names = new String[parameterCount];
+            values = new double[parameterCount];
+            standardErrors = new double[parameterCount];
+            lowerBounds = new double[parameterCount];
+            upperBounds = new double[parameterCount];
+
+            //The diagonal of (J^T J)^-1, infinite for parameters the data can't tell apart
+            double[] variances = new double[parameterCount];
+            Arrays.fill(variances, Double.POSITIVE_INFINITY);
+            int degreesOfFreedom = residualCount - parameterCount;
+            if(degreesOfFreedom > 0){
+                double residualVariance = sumOfSquares / degreesOfFreedom;
+                try{
+                    LUDecomposition decomposition = new LUDecomposition(parameterCount);
+                    decomposition.factor(normalMatrix);
+                    for (int k = 0; k < parameterCount; k++){
+                        double[] unit = new double[parameterCount];
+                        unit[k] = 1.0;
+                        decomposition.solve(unit);
+                        variances[k] = unit[k] > 0 ? residualVariance * unit[k] : Double.POSITIVE_INFINITY;
+                    }
+                } catch (RuntimeException e){
+                    //Singular, every variance stays infinite
+                }
+            }
+            double quantile = degreesOfFreedom > 0 ? studentQuantile(confidenceLevel, degreesOfFreedom) : Double.POSITIVE_INFINITY;
+
+            for (int k = 0; k < parameterCount; k++){
+                int parameter = freeParameters.get(k);
+                names[k] = (parameter % 2 == 0 ? "Kfwd" : "Kequ") + (parameter / 2 + 1);
+                values[k] = Math.exp(logParameters[k]);
+                double logError = Math.sqrt(variances[k]);
+                standardErrors[k] = values[k] * logError;
+                lowerBounds[k] = Math.exp(logParameters[k] - quantile * logError);
+                upperBounds[k] = Math.exp(logParameters[k] + quantile * logError);
+            }
+        }
+
+        //Accessors
+
+        public int getParameterCount() {
+            return values.length;
+        }
+
+        public String getName(int parameter) {
+            return names[parameter];
+        }
+
+        public double getValue(int parameter) {
+            return values[parameter];
+        }
+
+        public double getStandardError(int parameter) {
+            return standardErrors[parameter];
+        }
+
+        public double getLowerBound(int parameter) {
+            return lowerBounds[parameter];
+        }
+
+        public double getUpperBound(int parameter) {
+            return upperBounds[parameter];
+        }
+
+        public double getSumOfSquares() {
+            return sumOfSquares;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        public boolean isConverged() {
+            return converged;
+        }
+    }
+
+    //Accessors
+
+    public MeasuredData getData() {
+        return data;
+    }
+
+    public int getResidualCount() {
+        return residualCount;
+    }
+
+    public String getIntegratorName() {
+        return integratorName;
+    }
+
+    public void setIntegratorName(String integratorName) {
+        Integrator.create(integratorName);
+        this.integratorName = integratorName;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    public void setTolerance(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    public double getConfidenceLevel() {
+        return confidenceLevel;
+    }
+
+    public void setConfidenceLevel(double confidenceLevel) {
+        if(!(confidenceLevel > 0 && confidenceLevel < 1)){
+            throw new RuntimeException("confidence level must be between 0 and 1");
+        }
+        this.confidenceLevel = confidenceLevel;
+    }
+}
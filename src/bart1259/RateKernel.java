@@ -0,0 +1,14 @@
+package bart1259;
+
+/**
+ * The rate equations of one reaction network compiled into straight line code, see RateKernelCompiler
+ */
+interface RateKernel {
+
+    /**
+     * Adds the rate of change caused by every reaction to the derivatives, which the caller sets to zero first
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param derivatives the rate of change of every chemical, indexed by id
+     */
+    void addDerivatives(double[] concentrations, double[] derivatives);
+}
@@ -0,0 +1,490 @@
+package bart1259;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compiles the rate equations of a reaction network into a hidden class with one line of arithmetic per term. Every
+ * rate constant, chemical id, exponent and stoichiometric coefficient is a constant of the class, integer powers
+ * are expanded into the same multiplications ReactionNetwork.integerPower does and the loops over the reactants,
+ * products and stoichiometry are unrolled, so the JIT compiles it to straight line code without loads of the
+ * network's arrays. The operations are done in the same order as ReactionNetwork.computeDerivatives, so the
+ * derivatives are exactly the same. The bytecode is written directly as the JDK has no public API for it
+ */
+class RateKernelCompiler {
+
+    //HotSpot doesn't JIT compile methods longer than 8000 bytes, the reactions are split over methods shorter than that
+    private static final int MAX_BLOCK_LENGTH = 6000;
+
+    //Constant pool indices are 16 bits
+    private static final int MAX_CONSTANTS = 65535;
+
+    //Class file version 55 is Java 11, the straight line methods don't need stack map frames
+    private static final int CLASS_VERSION = 55;
+
+    private static final String CLASS_NAME = "bart1259/CompiledRateKernel";
+    private static final String BLOCK_DESCRIPTOR = "([D[D)V";
+
+    //Local variables of the block methods
+    private static final int CONCENTRATIONS = 0;
+    private static final int DERIVATIVES = 1;
+    private static final int RATE = 2;
+    private static final int BASE = 4;
+    private static final int BLOCK_LOCALS = 6;
+    private static final int BLOCK_STACK = 10;
+
+    //Opcodes
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int DALOAD = 0x31;
+    private static final int DSTORE = 0x39;
+    private static final int DASTORE = 0x52;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    //Constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    //Access flags
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private ReactionNetwork network;
+
+    //The constant pool, every constant is added once and looked up by a key of its tag and value
+    private ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private DataOutputStream pool = new DataOutputStream(poolBytes);
+    private HashMap<String, Integer> constants = new HashMap<>();
+    private int constantCount = 1;
+
+    //The code of every block method
+    private List<byte[]> blocks = new ArrayList<>();
+    private ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    /**
+     * Creates a compiler for a network
+     * @param network the network to compile
+     */
+    private RateKernelCompiler(ReactionNetwork network){
+        this.network = network;
+    }
+
+    /**
+     * Compiles the rate equations of a network and loads them as a hidden class. The class is unloaded once the
+     * kernel is no longer used
+     * @param network the network
+     * @return the rate kernel of the network
+     */
+    static RateKernel compile(ReactionNetwork network){
+        byte[] classBytes = new RateKernelCompiler(network).writeClass();
+        try{
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classBytes, true);
+            return (RateKernel) lookup.lookupClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e){
+            throw new RuntimeException("could not load the compiled rate equations: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the class file of the kernel
+     * @return the bytes of the class file
+     */
+    private byte[] writeClass(){
+        for (int r = 0; r < network.getReactionCount(); r++){
+            writeReaction(r);
+            if(code.size() > MAX_BLOCK_LENGTH){
+                endBlock();
+            }
+        }
+        if(code.size() > 0 || blocks.isEmpty()){
+            endBlock();
+        }
+
+        try{
+            //Everything that refers to the constant pool is written first so the pool is complete
+            ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+            DataOutputStream methods = new DataOutputStream(methodBytes);
+            writeMethod(methods, ACC_PUBLIC, "<init>", "()V", 1, 1, writeConstructor());
+            writeMethod(methods, ACC_PUBLIC, "addDerivatives", BLOCK_DESCRIPTOR, 2, 3, writeEntry());
+            for (int b = 0; b < blocks.size(); b++){
+                writeMethod(methods, ACC_PRIVATE | ACC_STATIC, "block" + b, BLOCK_DESCRIPTOR, BLOCK_STACK, BLOCK_LOCALS, blocks.get(b));
+            }
+            int thisClass = classConstant(CLASS_NAME);
+            int superClass = classConstant("java/lang/Object");
+            int kernelInterface = classConstant("bart1259/RateKernel");
+
+            ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(classBytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_VERSION);
+            out.writeShort(constantCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(kernelInterface);
+            out.writeShort(0);
+            out.writeShort(blocks.size() + 2);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+            return classBytes.toByteArray();
+        } catch (IOException e){
+            throw new RuntimeException("could not write the compiled rate equations: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the code of a reaction into the current block: its rate is computed into a local variable and then
+     * added to the derivative of every chemical it changes
+     * @param reaction the index of the reaction
+     */
+    private void writeReaction(int reaction){
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] reactantCoefficients = network.getReactantCoefficients();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+        int[] productCoefficients = network.getProductCoefficients();
+
+        //rate = fwd * reactants... - bwd * products...
+        pushDouble(network.getFwdReactionRate(reaction));
+        for (int i = reactantStart[reaction]; i < reactantStart[reaction + 1]; i++){
+            multiplyByPower(reactantSpecies[i], reactantCoefficients[i]);
+        }
+        pushDouble(network.getBwdReactionRate(reaction));
+        for (int i = productStart[reaction]; i < productStart[reaction + 1]; i++){
+            multiplyByPower(productSpecies[i], productCoefficients[i]);
+        }
+        code.write(DSUB);
+        writeLocal(DSTORE, RATE);
+
+        //derivatives[species] += rate * coefficient, a coefficient of 1 or -1 is an exact add or subtract
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+        for (int i = stoichiometryStart[reaction]; i < stoichiometryStart[reaction + 1]; i++){
+            code.write(ALOAD_0 + DERIVATIVES);
+            pushInt(stoichiometrySpecies[i]);
+            code.write(DUP2);
+            code.write(DALOAD);
+            writeLocal(DLOAD, RATE);
+            double coefficient = stoichiometryCoefficients[i];
+            if(coefficient == 1.0){
+                code.write(DADD);
+            } else if(coefficient == -1.0){
+                code.write(DSUB);
+            } else {
+                pushDouble(coefficient);
+                code.write(DMUL);
+                code.write(DADD);
+            }
+            code.write(DASTORE);
+        }
+    }
+
+    /**
+     * Writes code that multiplies the value on top of the stack by a concentration raised to an integer power, with
+     * the same repeated squaring as ReactionNetwork.integerPower
+     * @param species the id of the chemical
+     * @param exponent the power
+     */
+    private void multiplyByPower(int species, int exponent){
+        if(exponent == 0){
+            return;
+        }
+        code.write(ALOAD_0 + CONCENTRATIONS);
+        pushInt(species);
+        code.write(DALOAD);
+        if(exponent < 0){
+            pushInt(exponent);
+            code.write(INVOKESTATIC);
+            writeShort(methodConstant("bart1259/ReactionNetwork", "integerPower", "(DI)D"));
+        } else if(exponent == 2){
+            code.write(DUP2);
+            code.write(DMUL);
+        } else if(exponent > 2){
+            writeLocal(DSTORE, BASE);
+            boolean first = true;
+            while (exponent > 0){
+                if((exponent & 1) != 0){
+                    writeLocal(DLOAD, BASE);
+                    if(!first){
+                        code.write(DMUL);
+                    }
+                    first = false;
+                }
+                exponent >>= 1;
+                if(exponent > 0){
+                    writeLocal(DLOAD, BASE);
+                    writeLocal(DLOAD, BASE);
+                    code.write(DMUL);
+                    writeLocal(DSTORE, BASE);
+                }
+            }
+        }
+        code.write(DMUL);
+    }
+
+    /**
+     * Ends the current block method
+     */
+    private void endBlock(){
+        code.write(RETURN);
+        if(code.size() > 0xFFFF){
+            throw new RuntimeException("a reaction is too long to compile");
+        }
+        blocks.add(code.toByteArray());
+        code.reset();
+    }
+
+    /**
+     * Writes the code of the constructor, which only calls the constructor of Object
+     * @return the code
+     */
+    private byte[] writeConstructor(){
+        code.write(ALOAD_0);
+        code.write(INVOKESPECIAL);
+        writeShort(methodConstant("java/lang/Object", "<init>", "()V"));
+        code.write(RETURN);
+        byte[] constructor = code.toByteArray();
+        code.reset();
+        return constructor;
+    }
+
+    /**
+     * Writes the code of addDerivatives, which calls every block in turn
+     * @return the code
+     */
+    private byte[] writeEntry(){
+        for (int b = 0; b < blocks.size(); b++){
+            code.write(ALOAD_0 + 1);
+            code.write(ALOAD_0 + 2);
+            code.write(INVOKESTATIC);
+            writeShort(methodConstant(CLASS_NAME, "block" + b, BLOCK_DESCRIPTOR));
+        }
+        code.write(RETURN);
+        byte[] entry = code.toByteArray();
+        code.reset();
+        if(entry.length > 0xFFFF){
+            throw new RuntimeException("the network is too large to compile");
+        }
+        return entry;
+    }
+
+    /**
+     * Writes a method with a Code attribute
+     * @param out the stream of methods
+     * @param access the access flags
+     * @param name the name of the method
+     * @param descriptor the descriptor of the method
+     * @param maxStack the deepest the operand stack gets
+     * @param maxLocals the number of local variable slots
+     * @param methodCode the bytecode
+     */
+    private void writeMethod(DataOutputStream out, int access, String name, String descriptor, int maxStack, int maxLocals,
+                             byte[] methodCode) throws IOException {
+        out.writeShort(access);
+        out.writeShort(utf8Constant(name));
+        out.writeShort(utf8Constant(descriptor));
+        out.writeShort(1);
+        out.writeShort(utf8Constant("Code"));
+        out.writeInt(12 + methodCode.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(methodCode.length);
+        out.write(methodCode);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /**
+     * Writes an instruction that takes a local variable, using the one byte form for the first four
+     * @param opcode DLOAD or DSTORE
+     * @param index the index of the local variable
+     */
+    private void writeLocal(int opcode, int index){
+        if(index <= 3){
+            //dload_0 is 0x26 and dstore_0 is 0x47, both follow the long form by 14
+            code.write(opcode + 14 + index);
+        } else {
+            code.write(opcode);
+            code.write(index);
+        }
+    }
+
+    /**
+     * Writes code that pushes an int with the shortest instruction
+     * @param value the value
+     */
+    private void pushInt(int value){
+        if(value >= -1 && value <= 5){
+            code.write(ICONST_0 + value);
+        } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+            code.write(BIPUSH);
+            code.write(value);
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+            code.write(SIPUSH);
+            writeShort(value);
+        } else {
+            code.write(LDC_W);
+            writeShort(intConstant(value));
+        }
+    }
+
+    /**
+     * Writes code that pushes a double with the shortest instruction
+     * @param value the value
+     */
+    private void pushDouble(double value){
+        if(Double.doubleToRawLongBits(value) == 0L){
+            code.write(DCONST_0);
+        } else if(value == 1.0){
+            code.write(DCONST_1);
+        } else {
+            code.write(LDC2_W);
+            writeShort(doubleConstant(value));
+        }
+    }
+
+    private void writeShort(int value){
+        code.write(value >>> 8);
+        code.write(value);
+    }
+
+    private int utf8Constant(String value){
+        Integer index = constants.get("U" + value);
+        if(index == null){
+            index = addConstant("U" + value, 1);
+            try{
+                pool.writeByte(CONSTANT_UTF8);
+                pool.writeUTF(value);
+            } catch (IOException e){
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private int intConstant(int value){
+        Integer index = constants.get("I" + value);
+        if(index == null){
+            index = addConstant("I" + value, 1);
+            try{
+                pool.writeByte(CONSTANT_INTEGER);
+                pool.writeInt(value);
+            } catch (IOException e){
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private int doubleConstant(double value){
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = constants.get("D" + bits);
+        if(index == null){
+            //A double takes up two entries of the pool
+            index = addConstant("D" + bits, 2);
+            try{
+                pool.writeByte(CONSTANT_DOUBLE);
+                pool.writeLong(bits);
+            } catch (IOException e){
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private int classConstant(String name){
+        Integer index = constants.get("C" + name);
+        if(index == null){
+            int nameIndex = utf8Constant(name);
+            index = addConstant("C" + name, 1);
+            try{
+                pool.writeByte(CONSTANT_CLASS);
+                pool.writeShort(nameIndex);
+            } catch (IOException e){
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private int methodConstant(String owner, String name, String descriptor){
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = constants.get(key);
+        if(index == null){
+            int ownerIndex = classConstant(owner);
+            int nameAndTypeIndex = nameAndTypeConstant(name, descriptor);
+            index = addConstant(key, 1);
+            try{
+                pool.writeByte(CONSTANT_METHODREF);
+                pool.writeShort(ownerIndex);
+                pool.writeShort(nameAndTypeIndex);
+            } catch (IOException e){
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    private int nameAndTypeConstant(String name, String descriptor){
+        Integer index = constants.get("N" + name + descriptor);
+        if(index == null){
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            index = addConstant("N" + name + descriptor, 1);
+            try{
+                pool.writeByte(CONSTANT_NAME_AND_TYPE);
+                pool.writeShort(nameIndex);
+                pool.writeShort(descriptorIndex);
+            } catch (IOException e){
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Reserves the next index of the constant pool
+     * @param key the key the constant is looked up by
+     * @param size the number of entries the constant takes
+     * @return the index of the constant
+     */
+    private int addConstant(String key, int size){
+        if(constantCount + size > MAX_CONSTANTS){
+            throw new RuntimeException("the network has too many constants to compile");
+        }
+        int index = constantCount;
+        constantCount += size;
+        constants.put(key, index);
+        return index;
+    }
+}
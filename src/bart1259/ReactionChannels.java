@@ -0,0 +1,231 @@
+package bart1259;
+
+import java.util.Arrays;
+
+/**
+ * The reactions of a network as seen by the stochastic simulations. Every reversible reaction is split into a forward
+ * and a backward channel, channel 2r being the forward direction of reaction r and channel 2r + 1 the backward
+ * direction. Rate constants are converted from concentrations to molecule counts with the system size, the number of
+ * molecules per unit of concentration
+ */
+public class ReactionChannels {
+
+    private ReactionNetwork network;
+    private double systemSize;
+
+    private double[] rateConstants;
+
+    //Reactants of channel c with duplicates merged, stored from reactantStart[c] to reactantStart[c + 1]
+    private int[] reactantStart;
+    private int[] reactantSpecies;
+    private int[] reactantOrders;
+
+    //Sum of the reactant orders of every channel
+    private int[] orders;
+
+    //Channels that have chemical s as a reactant, stored from consumerStart[s] to consumerStart[s + 1]
+    private int[] consumerStart;
+    private int[] consumers;
+
+    /**
+     * Splits the reactions of a network into channels
+     * @param network the network
+     * @param systemSize the number of molecules per unit of concentration
+     */
+    public ReactionChannels(ReactionNetwork network, double systemSize){
+
+        if(!(systemSize > 0)){
+            throw new RuntimeException("system size must be greater than 0");
+        }
+        this.network = network;
+        this.systemSize = systemSize;
+
+        int reactionCount = network.getReactionCount();
+        rateConstants = new double[2 * reactionCount];
+        orders = new int[2 * reactionCount];
+        reactantStart = new int[2 * reactionCount + 1];
+
+        int[] networkReactantStart = network.getReactantStart();
+        int[] networkReactantSpecies = network.getReactantSpecies();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+        reactantSpecies = new int[networkReactantSpecies.length + productSpecies.length];
+        reactantOrders = new int[networkReactantSpecies.length + productSpecies.length];
+
+        for (int r = 0; r < reactionCount; r++){
+            reactantStart[2 * r + 1] = addReactants(reactantStart[2 * r], networkReactantStart[r], networkReactantStart[r + 1], networkReactantSpecies, network.getReactantCoefficients());
+            rateConstants[2 * r] = stochasticRateConstant(network.getFwdReactionRate(r), 2 * r);
+
+            reactantStart[2 * r + 2] = addReactants(reactantStart[2 * r + 1], productStart[r], productStart[r + 1], productSpecies, network.getProductCoefficients());
+            rateConstants[2 * r + 1] = stochasticRateConstant(network.getBwdReactionRate(r), 2 * r + 1);
+        }
+
+        buildConsumers();
+    }
+
+    /**
+     * Adds the reactants of a channel, merging chemicals that appear more than once into a single higher order
+     * @param index where the reactants of the channel start
+     * @param from the first term of the side of the reaction
+     * @param to the term after the last term of the side of the reaction
+     * @param species the chemical of every term
+     * @param coefficients the coefficient of every term
+     * @return the end of the reactants of the channel
+     */
+    private int addReactants(int index, int from, int to, int[] species, int[] coefficients){
+        int start = index;
+        for (int t = from; t < to; t++){
+            if(coefficients[t] == 0){
+                continue;
+            }
+            int existing = start;
+            while (existing < index && reactantSpecies[existing] != species[t]){
+                existing++;
+            }
+            if(existing == index){
+                reactantSpecies[index] = species[t];
+                reactantOrders[index] = 0;
+                index++;
+            }
+            reactantOrders[existing] += coefficients[t];
+        }
+        return index;
+    }
+
+    /**
+     * Converts a rate constant in concentration units to a rate constant for molecule counts
+     * @param rateConstant the deterministic rate constant
+     * @param channel the channel, its reactants must already be added
+     * @return the stochastic rate constant
+     */
+    private double stochasticRateConstant(double rateConstant, int channel){
+        for (int i = reactantStart[channel]; i < reactantStart[channel + 1]; i++){
+            orders[channel] += reactantOrders[i];
+        }
+        //k [A]^a [B]^b in concentration per time is k / size^(a + b - 1) A^a B^b in molecules per time
+        return rateConstant * Math.pow(systemSize, 1 - orders[channel]);
+    }
+
+    /**
+     * Inverts the channel reactants into the channels consuming every chemical
+     */
+    private void buildConsumers(){
+
+        int speciesCount = network.getSpeciesCount();
+        int channelCount = rateConstants.length;
+
+        consumerStart = new int[speciesCount + 1];
+        for (int i = 0; i < reactantStart[channelCount]; i++){
+            consumerStart[reactantSpecies[i] + 1]++;
+        }
+        for (int s = 0; s < speciesCount; s++){
+            consumerStart[s + 1] += consumerStart[s];
+        }
+        consumers = new int[consumerStart[speciesCount]];
+        int[] fill = Arrays.copyOf(consumerStart, speciesCount);
+        for (int c = 0; c < channelCount; c++){
+            for (int i = reactantStart[c]; i < reactantStart[c + 1]; i++){
+                consumers[fill[reactantSpecies[i]]++] = c;
+            }
+        }
+    }
+
+    /**
+     * Computes how likely a channel is to fire per unit of time, the rate constant times the number of distinct
+     * combinations of reactant molecules
+     * @param channel the channel
+     * @param counts the number of molecules of every chemical
+     * @return the propensity of the channel
+     */
+    public double computePropensity(int channel, long[] counts){
+        double propensity = rateConstants[channel];
+        for (int i = reactantStart[channel]; i < reactantStart[channel + 1]; i++){
+            long count = counts[reactantSpecies[i]];
+            int order = reactantOrders[i];
+            if(count < order){
+                return 0.0;
+            }
+            for (int k = 0; k < order; k++){
+                propensity *= count - k;
+            }
+        }
+        return propensity;
+    }
+
+    /**
+     * Fires a channel a number of times
+     * @param channel the channel
+     * @param firings how many times the channel fires
+     * @param counts the number of molecules of every chemical, updated in place
+     */
+    public void fire(int channel, long firings, long[] counts){
+        int r = channel / 2;
+        long change = getDirection(channel) * firings;
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+        for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+            counts[stoichiometrySpecies[i]] += change * (long) stoichiometryCoefficients[i];
+        }
+    }
+
+    /**
+     * Converts concentrations to molecule counts
+     * @param concentrations the concentration of every chemical
+     * @return the number of molecules of every chemical
+     */
+    public long[] toCounts(double[] concentrations){
+        long[] counts = new long[concentrations.length];
+        for (int i = 0; i < counts.length; i++){
+            counts[i] = Math.round(concentrations[i] * systemSize);
+        }
+        return counts;
+    }
+
+    /**
+     * Gets which way a channel runs its reaction
+     * @param channel the channel
+     * @return 1 for the forward direction, -1 for the backward direction
+     */
+    public int getDirection(int channel){
+        return channel % 2 == 0 ? 1 : -1;
+    }
+
+    //Accessors
+
+    public ReactionNetwork getNetwork() {
+        return network;
+    }
+
+    public double getSystemSize() {
+        return systemSize;
+    }
+
+    public int getChannelCount() {
+        return rateConstants.length;
+    }
+
+    public int getOrder(int channel) {
+        return orders[channel];
+    }
+
+    public int[] getReactantStart() {
+        return reactantStart;
+    }
+
+    public int[] getReactantSpecies() {
+        return reactantSpecies;
+    }
+
+    public int[] getReactantOrders() {
+        return reactantOrders;
+    }
+
+    public int[] getConsumerStart() {
+        return consumerStart;
+    }
+
+    public int[] getConsumers() {
+        return consumers;
+    }
+}
@@ -0,0 +1,479 @@
+package bart1259;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A compiled form of a set of chemical reactions. Every chemical is given an integer id and the
+ * reactions are flattened into arrays so that reaction rates can be computed without allocating
+ * objects or doing hash lookups. The stoichiometry is stored as a sparse matrix in compressed row
+ * (CSR) form with one row per reaction and one column per chemical
+ */
+public class ReactionNetwork implements OdeSystem {
+
+    private Chemical[] chemicals;
+    private ChemicalReaction[] reactions;
+    private HashMap<Chemical, Integer> chemicalIndices;
+
+    //Rate constants of each reaction
+    private double[] fwdReactionRates;
+    private double[] bwdReactionRates;
+
+    //Reactants of reaction r are stored from reactantStart[r] to reactantStart[r + 1]
+    private int[] reactantStart;
+    private int[] reactantSpecies;
+    private int[] reactantCoefficients;
+
+    //Products of reaction r are stored from productStart[r] to productStart[r + 1]
+    private int[] productStart;
+    private int[] productSpecies;
+    private int[] productCoefficients;
+
+    //Net stoichiometry matrix in CSR form, row r is stored from stoichiometryStart[r] to stoichiometryStart[r + 1]
+    private int[] stoichiometryStart;
+    private int[] stoichiometrySpecies;
+    private double[] stoichiometryCoefficients;
+
+    //Found the first time they are needed, they only depend on the stoichiometry
+    private ConservationLaws conservationLaws;
+
+    //The rate equations compiled into a class of their own, null until compileRateKernel is called
+    private volatile RateKernel rateKernel;
+
+    /**
+     * Compiles a list of chemicals and reactions into a reaction network
+     * @param chemicals the chemicals in the network, the index of a chemical in this list becomes its id
+     * @param reactions the reactions between the chemicals
+     */
+    public ReactionNetwork(List<Chemical> chemicals, List<ChemicalReaction> reactions){
+
+        this.chemicals = chemicals.toArray(new Chemical[0]);
+        this.reactions = reactions.toArray(new ChemicalReaction[0]);
+
+        //Give every chemical an id
+        chemicalIndices = new HashMap<>();
+        for (int i = 0; i < this.chemicals.length; i++){
+            chemicalIndices.put(this.chemicals[i], i);
+        }
+
+        int reactionCount = this.reactions.length;
+        fwdReactionRates = new double[reactionCount];
+        bwdReactionRates = new double[reactionCount];
+        reactantStart = new int[reactionCount + 1];
+        productStart = new int[reactionCount + 1];
+        stoichiometryStart = new int[reactionCount + 1];
+
+        //Count the terms so the flat arrays can be sized
+        int reactantTerms = 0;
+        int productTerms = 0;
+        for (ChemicalReaction rxn : this.reactions){
+            reactantTerms += rxn.getReactants().size();
+            productTerms += rxn.getProducts().size();
+        }
+
+        reactantSpecies = new int[reactantTerms];
+        reactantCoefficients = new int[reactantTerms];
+        productSpecies = new int[productTerms];
+        productCoefficients = new int[productTerms];
+        stoichiometrySpecies = new int[reactantTerms + productTerms];
+        stoichiometryCoefficients = new double[reactantTerms + productTerms];
+
+        int reactantIndex = 0;
+        int productIndex = 0;
+        int stoichiometryIndex = 0;
+
+        for (int r = 0; r < reactionCount; r++){
+            ChemicalReaction rxn = this.reactions[r];
+            fwdReactionRates[r] = rxn.getFwdReactionRate();
+            bwdReactionRates[r] = rxn.getBwdReactionRate();
+
+            //Flatten the reactants and products
+            reactantStart[r] = reactantIndex;
+            for (ChemicalComponent reactant : rxn.getReactants()){
+                reactantSpecies[reactantIndex] = getChemicalIndex(reactant.getChemical(), r);
+                reactantCoefficients[reactantIndex] = reactant.getStoicheometricCoefficient();
+                reactantIndex++;
+            }
+            productStart[r] = productIndex;
+            for (ChemicalComponent product : rxn.getProducts()){
+                productSpecies[productIndex] = getChemicalIndex(product.getChemical(), r);
+                productCoefficients[productIndex] = product.getStoicheometricCoefficient();
+                productIndex++;
+            }
+
+            //Build the row of the stoichiometry matrix, merging chemicals that appear more than once
+            stoichiometryStart[r] = stoichiometryIndex;
+            for (int i = reactantStart[r]; i < reactantIndex; i++){
+                stoichiometryIndex = addStoichiometry(stoichiometryStart[r], stoichiometryIndex, reactantSpecies[i], -reactantCoefficients[i]);
+            }
+            for (int i = productStart[r]; i < productIndex; i++){
+                stoichiometryIndex = addStoichiometry(stoichiometryStart[r], stoichiometryIndex, productSpecies[i], productCoefficients[i]);
+            }
+        }
+
+        reactantStart[reactionCount] = reactantIndex;
+        productStart[reactionCount] = productIndex;
+        stoichiometryStart[reactionCount] = stoichiometryIndex;
+    }
+
+    /**
+     * Creates a copy of a network with different rate constants. The structure arrays are shared with the original
+     * network as neither network ever modifies them
+     * @param network the network to copy
+     * @param fwdReactionRates the forward rate constant of every reaction
+     * @param bwdReactionRates the backward rate constant of every reaction
+     */
+    private ReactionNetwork(ReactionNetwork network, double[] fwdReactionRates, double[] bwdReactionRates){
+        chemicals = network.chemicals;
+        reactions = network.reactions;
+        chemicalIndices = network.chemicalIndices;
+        reactantStart = network.reactantStart;
+        reactantSpecies = network.reactantSpecies;
+        reactantCoefficients = network.reactantCoefficients;
+        productStart = network.productStart;
+        productSpecies = network.productSpecies;
+        productCoefficients = network.productCoefficients;
+        stoichiometryStart = network.stoichiometryStart;
+        stoichiometrySpecies = network.stoichiometrySpecies;
+        stoichiometryCoefficients = network.stoichiometryCoefficients;
+        conservationLaws = network.conservationLaws;
+        this.fwdReactionRates = fwdReactionRates;
+        this.bwdReactionRates = bwdReactionRates;
+    }
+
+    /**
+     * Creates a network with the same chemicals and reactions but different rate constants. The rate constants of
+     * the returned network are not reflected in the ChemicalReaction objects returned by getReaction
+     * @param fwdReactionRates the forward rate constant of every reaction
+     * @param bwdReactionRates the backward rate constant of every reaction
+     * @return the new network
+     */
+    public ReactionNetwork withRateConstants(double[] fwdReactionRates, double[] bwdReactionRates){
+        if(fwdReactionRates.length != reactions.length || bwdReactionRates.length != reactions.length){
+            throw new RuntimeException("expected " + reactions.length + " rate constants");
+        }
+        return new ReactionNetwork(this, fwdReactionRates.clone(), bwdReactionRates.clone());
+    }
+
+    /**
+     * Adds a coefficient to the stoichiometry row currently being built
+     * @param rowStart the index where the row starts
+     * @param rowEnd the index after the last entry of the row
+     * @param species the id of the chemical
+     * @param coefficient the coefficient to add
+     * @return the new end of the row
+     */
+    private int addStoichiometry(int rowStart, int rowEnd, int species, double coefficient){
+        for (int i = rowStart; i < rowEnd; i++){
+            if(stoichiometrySpecies[i] == species){
+                stoichiometryCoefficients[i] += coefficient;
+                return rowEnd;
+            }
+        }
+        stoichiometrySpecies[rowEnd] = species;
+        stoichiometryCoefficients[rowEnd] = coefficient;
+        return rowEnd + 1;
+    }
+
+    /**
+     * Gets the id of a chemical that is used in a reaction
+     * @param chemical the chemical
+     * @param reactionIndex the index of the reaction for error message generation
+     * @return the id of the chemical
+     */
+    private int getChemicalIndex(Chemical chemical, int reactionIndex){
+        Integer index = chemicalIndices.get(chemical);
+        if(index == null){
+            throw new RuntimeException("reaction # " + (reactionIndex + 1) + " uses chemical " + chemical.getChemicalName() + " which is not in the network");
+        }
+        return index;
+    }
+
+    /**
+     * Computes the net rate (forward minus backward) of every reaction
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param rates the array to store the rate of every reaction in
+     */
+    public void computeReactionRates(double[] concentrations, double[] rates){
+        for (int r = 0; r < reactions.length; r++){
+            rates[r] = computeReactionRate(r, concentrations);
+        }
+    }
+
+    /**
+     * Computes the net rate (forward minus backward) of a reaction
+     * @param reaction the index of the reaction
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @return the net rate of the reaction
+     */
+    public double computeReactionRate(int reaction, double[] concentrations){
+
+        //Calculate the rate of the forward reaction
+        double fwdReaction = fwdReactionRates[reaction];
+        for (int i = reactantStart[reaction]; i < reactantStart[reaction + 1]; i++){
+            fwdReaction *= integerPower(concentrations[reactantSpecies[i]], reactantCoefficients[i]);
+        }
+
+        //Calculate the rate of the backward reaction
+        double bwdReaction = bwdReactionRates[reaction];
+        for (int i = productStart[reaction]; i < productStart[reaction + 1]; i++){
+            bwdReaction *= integerPower(concentrations[productSpecies[i]], productCoefficients[i]);
+        }
+
+        return fwdReaction - bwdReaction;
+    }
+
+    /**
+     * Computes how fast the concentration of every chemical is changing
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param derivatives the array to store the rate of change of every chemical in
+     */
+    @Override
+    public void computeDerivatives(double[] concentrations, double[] derivatives){
+
+        for (int i = 0; i < chemicals.length; i++){
+            derivatives[i] = 0.0;
+        }
+
+        RateKernel rateKernel = this.rateKernel;
+        if(rateKernel != null){
+            rateKernel.addDerivatives(concentrations, derivatives);
+            return;
+        }
+
+        //Scatter the rate of every reaction through its row of the stoichiometry matrix
+        for (int r = 0; r < reactions.length; r++){
+            double reactionRate = computeReactionRate(r, concentrations);
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                derivatives[stoichiometrySpecies[i]] += reactionRate * stoichiometryCoefficients[i];
+            }
+        }
+    }
+
+    /**
+     * Computes the exact jacobian of the mass action rate equations
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param jacobian the matrix to store the jacobian in, jacobian[i][j] is the derivative of the rate of change of
+     *                 chemical i with respect to the concentration of chemical j
+     * @return true as the jacobian is always available
+     */
+    @Override
+    public boolean computeJacobian(double[] concentrations, double[][] jacobian){
+
+        for (double[] row : jacobian){
+            Arrays.fill(row, 0.0);
+        }
+
+        //Every term of a rate law contributes to the column of its chemical in every row the reaction changes
+        for (int r = 0; r < reactions.length; r++){
+            for (int t = reactantStart[r]; t < reactantStart[r + 1]; t++){
+                double derivative = computeReactantDerivative(r, t, concentrations);
+                for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                    jacobian[stoichiometrySpecies[i]][reactantSpecies[t]] += stoichiometryCoefficients[i] * derivative;
+                }
+            }
+            for (int t = productStart[r]; t < productStart[r + 1]; t++){
+                double derivative = computeProductDerivative(r, t, concentrations);
+                for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                    jacobian[stoichiometrySpecies[i]][productSpecies[t]] += stoichiometryCoefficients[i] * derivative;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes the derivative of the net rate of a reaction with respect to the concentration of one of its reactants
+     * @param reaction the index of the reaction
+     * @param term the index of the reactant in the flattened reactant arrays
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @return the derivative of the net rate
+     */
+    public double computeReactantDerivative(int reaction, int term, double[] concentrations){
+
+        if(reactantCoefficients[term] == 0){
+            return 0.0;
+        }
+
+        //d/dx of k x^a is k a x^(a - 1), the other reactants are constant factors
+        double derivative = fwdReactionRates[reaction] * reactantCoefficients[term]
+                * integerPower(concentrations[reactantSpecies[term]], reactantCoefficients[term] - 1);
+        for (int i = reactantStart[reaction]; i < reactantStart[reaction + 1]; i++){
+            if(i != term){
+                derivative *= integerPower(concentrations[reactantSpecies[i]], reactantCoefficients[i]);
+            }
+        }
+        return derivative;
+    }
+
+    /**
+     * Computes the derivative of the net rate of a reaction with respect to the concentration of one of its products
+     * @param reaction the index of the reaction
+     * @param term the index of the product in the flattened product arrays
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @return the derivative of the net rate
+     */
+    public double computeProductDerivative(int reaction, int term, double[] concentrations){
+
+        if(productCoefficients[term] == 0){
+            return 0.0;
+        }
+
+        //The backward rate is subtracted from the net rate
+        double derivative = -bwdReactionRates[reaction] * productCoefficients[term]
+                * integerPower(concentrations[productSpecies[term]], productCoefficients[term] - 1);
+        for (int i = productStart[reaction]; i < productStart[reaction + 1]; i++){
+            if(i != term){
+                derivative *= integerPower(concentrations[productSpecies[i]], productCoefficients[i]);
+            }
+        }
+        return derivative;
+    }
+
+    /**
+     * Raises a number to a non negative integer power using repeated squaring
+     * @param base the base
+     * @param exponent the exponent
+     * @return base raised to the exponent
+     */
+    public static double integerPower(double base, int exponent){
+        if(exponent < 0){
+            return Math.pow(base, exponent);
+        }
+        double result = 1.0;
+        while (exponent > 0){
+            if((exponent & 1) != 0){
+                result *= base;
+            }
+            base *= base;
+            exponent >>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the id of a chemical
+     * @param chemical the chemical
+     * @return the id of the chemical or -1 if it is not in the network
+     */
+    public int indexOf(Chemical chemical){
+        Integer index = chemicalIndices.get(chemical);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Gets the index of a reaction
+     * @param reaction the reaction
+     * @return the index of the reaction or -1 if it is not in the network
+     */
+    public int indexOf(ChemicalReaction reaction){
+        for (int r = 0; r < reactions.length; r++){
+            if(reactions[r] == reaction){
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compiles the rate equations into a class with straight line code for every reaction and uses it for
+     * computeDerivatives from then on. The derivatives stay exactly the same, but are several times faster to
+     * compute for networks with many reactions once the JIT has compiled the class. Networks made by
+     * withRateConstants are not compiled
+     * @return true if the rate equations are compiled, false if the network is too large for a class
+     */
+    public synchronized boolean compileRateKernel(){
+        if(rateKernel == null){
+            try{
+                rateKernel = RateKernelCompiler.compile(this);
+            } catch (RuntimeException e){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the conservation laws of the network, finding them the first time they are needed
+     * @return the conservation laws
+     */
+    public synchronized ConservationLaws getConservationLaws(){
+        if(conservationLaws == null){
+            conservationLaws = new ConservationLaws(this);
+        }
+        return conservationLaws;
+    }
+
+    //Accessors
+
+    @Override
+    public int getDimension() {
+        return chemicals.length;
+    }
+
+    public int getSpeciesCount() {
+        return chemicals.length;
+    }
+
+    public int getReactionCount() {
+        return reactions.length;
+    }
+
+    public boolean isRateKernelCompiled() {
+        return rateKernel != null;
+    }
+
+    public Chemical getChemical(int index) {
+        return chemicals[index];
+    }
+
+    public ChemicalReaction getReaction(int index) {
+        return reactions[index];
+    }
+
+    public double getFwdReactionRate(int reaction) {
+        return fwdReactionRates[reaction];
+    }
+
+    public double getBwdReactionRate(int reaction) {
+        return bwdReactionRates[reaction];
+    }
+
+    public int[] getReactantStart() {
+        return reactantStart;
+    }
+
+    public int[] getReactantSpecies() {
+        return reactantSpecies;
+    }
+
+    public int[] getReactantCoefficients() {
+        return reactantCoefficients;
+    }
+
+    public int[] getProductStart() {
+        return productStart;
+    }
+
+    public int[] getProductSpecies() {
+        return productSpecies;
+    }
+
+    public int[] getProductCoefficients() {
+        return productCoefficients;
+    }
+
+    public int[] getStoichiometryStart() {
+        return stoichiometryStart;
+    }
+
+    public int[] getStoichiometrySpecies() {
+        return stoichiometrySpecies;
+    }
+
+    public double[] getStoichiometryCoefficients() {
+        return stoichiometryCoefficients;
+    }
+}
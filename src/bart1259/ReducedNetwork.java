@@ -0,0 +1,132 @@
+package bart1259;
+
+/**
+ * The rate equations of a reaction network restricted to its independent chemicals. The dependent chemicals are
+ * reconstructed from the conservation laws whenever the rates are needed, so integrators work on a smaller state and
+ * a smaller jacobian and the conserved totals can't drift however many steps are taken
+ */
+public class ReducedNetwork implements OdeSystem {
+
+    private ReactionNetwork network;
+    private ConservationLaws laws;
+    private double[] totals;
+
+    //Work arrays for the full state so evaluating the reduced system never allocates
+    private double[] concentrations;
+    private double[] derivatives;
+    private double[][] jacobian;
+
+    /**
+     * Creates the reduced system of a network
+     * @param network the network
+     */
+    public ReducedNetwork(ReactionNetwork network){
+        this(network, network.getConservationLaws());
+    }
+
+    /**
+     * Creates the reduced system of a network that keeps the chemicals with the lowest concentrations independent,
+     * so they are integrated directly instead of computed as a difference of larger concentrations
+     * @param network the network
+     * @param concentrations the concentration of every chemical, indexed by id
+     */
+    public ReducedNetwork(ReactionNetwork network, double[] concentrations){
+        this(network, new ConservationLaws(network, concentrations));
+    }
+
+    /**
+     * Creates the reduced system of a network
+     * @param network the network
+     * @param laws the conservation laws of the network
+     */
+    private ReducedNetwork(ReactionNetwork network, ConservationLaws laws){
+        this.network = network;
+        this.laws = laws;
+        totals = new double[laws.getLawCount()];
+        concentrations = new double[network.getSpeciesCount()];
+        derivatives = new double[network.getSpeciesCount()];
+    }
+
+    /**
+     * Sets the totals the conservation laws keep from the concentration of every chemical and gathers the
+     * independent chemicals
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param reduced the array to store the concentration of every independent chemical in
+     */
+    public void reduce(double[] concentrations, double[] reduced){
+        laws.computeTotals(concentrations, totals);
+        laws.reduce(concentrations, reduced);
+    }
+
+    /**
+     * Reconstructs the concentration of every chemical
+     * @param reduced the concentration of every independent chemical
+     * @param concentrations the array to store the concentration of every chemical in, indexed by id
+     */
+    public void expand(double[] reduced, double[] concentrations){
+        laws.expand(reduced, totals, concentrations);
+    }
+
+    @Override
+    public void computeDerivatives(double[] reduced, double[] reducedDerivatives){
+        laws.expand(reduced, totals, concentrations);
+        network.computeDerivatives(concentrations, derivatives);
+        laws.reduce(derivatives, reducedDerivatives);
+    }
+
+    /**
+     * Computes the jacobian of the reduced system, every dependent chemical changes with the independent chemicals it
+     * is linked to by its conservation law
+     * @param reduced the concentration of every independent chemical
+     * @param reducedJacobian the matrix to store the jacobian in
+     * @return true as the jacobian is always available
+     */
+    @Override
+    public boolean computeJacobian(double[] reduced, double[][] reducedJacobian){
+
+        int speciesCount = network.getSpeciesCount();
+        if(jacobian == null){
+            jacobian = new double[speciesCount][speciesCount];
+        }
+        laws.expand(reduced, totals, concentrations);
+        network.computeJacobian(concentrations, jacobian);
+
+        int[] independent = laws.getIndependentSpecies();
+        int[] dependent = laws.getDependentSpecies();
+        int[] linkStart = laws.getLinkStart();
+        int[] linkIndependent = laws.getLinkIndependent();
+        double[] linkValues = laws.getLinkValues();
+        for (int a = 0; a < independent.length; a++){
+            double[] row = jacobian[independent[a]];
+            double[] reducedRow = reducedJacobian[a];
+            for (int b = 0; b < independent.length; b++){
+                reducedRow[b] = row[independent[b]];
+            }
+            for (int d = 0; d < dependent.length; d++){
+                double derivative = row[dependent[d]];
+                if(derivative != 0.0){
+                    for (int i = linkStart[d]; i < linkStart[d + 1]; i++){
+                        reducedRow[linkIndependent[i]] += derivative * linkValues[i];
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    //Accessors
+
+    @Override
+    public int getDimension() {
+        return laws.getIndependentSpecies().length;
+    }
+
+    public ReactionNetwork getNetwork() {
+        return network;
+    }
+
+    public ConservationLaws getLaws() {
+        return laws;
+    }
+}
@@ -0,0 +1,359 @@
+package bart1259;
+
+import java.util.Arrays;
+
+/**
+ * Integrates stiff systems with the adaptive linearly implicit Rosenbrock 2(3) method of Shampine and Reichelt (the
+ * method behind MATLAB's ode23s). Every step solves three linear systems with the matrix W = I - h d J, where J is
+ * the Jacobian of the system. W is factored once per step attempt and the factorization is shared by all three
+ * stages, and J is only recomputed once a step has been accepted, so rejected steps only pay for a new factorization.
+ * Systems that provide an exact jacobian are used directly, others are differentiated numerically. Systems whose
+ * jacobian repeats one block along its diagonal only have that block factored, and each block of a stage is solved
+ * with it.
+ * The method is L-stable, so the step size is limited by accuracy instead of by the fastest reaction
+ */
+public class RosenbrockIntegrator implements Integrator {
+
+    //Method constants
+    private static final double D = 1.0 / (2.0 + Math.sqrt(2.0));
+    private static final double E32 = 6.0 + Math.sqrt(2.0);
+
+    //Step size controller settings
+    private static final double SAFETY = 0.9;
+    private static final double MIN_FACTOR = 0.2;
+    private static final double MAX_FACTOR = 5.0;
+
+    private double relativeTolerance;
+    private double absoluteTolerance;
+
+    //The step size the error estimate suggested for the next step, 0 if it has to be estimated
+    private double stepSize = 0.0;
+
+    //Jacobian block, iteration matrix and its factorization
+    private double[][] jacobian;
+    private double[][] iterationMatrix;
+    private LUDecomposition decomposition;
+
+    //Stage values and work arrays
+    private double[] f0, f1, f2, k1, k2, k3;
+    private double[] stageState, newState, perturbedDerivatives;
+
+    //The state the last step ended on, f2 of that step is reused as f0 if the next step starts from it
+    private double[] lastState;
+    private boolean lastStateValid = false;
+
+    private long derivativeEvaluations = 0;
+    private long jacobianEvaluations = 0;
+    private long factorizations = 0;
+    private long acceptedSteps = 0;
+    private long rejectedSteps = 0;
+
+    /**
+     * Creates a Rosenbrock integrator with default tolerances
+     */
+    public RosenbrockIntegrator(){
+        this(1.0e-6, 1.0e-9);
+    }
+
+    /**
+     * Creates a Rosenbrock integrator
+     * @param relativeTolerance the allowed local error relative to the size of each variable
+     * @param absoluteTolerance the allowed local error for variables close to zero
+     */
+    public RosenbrockIntegrator(double relativeTolerance, double absoluteTolerance){
+        if(relativeTolerance <= 0 || absoluteTolerance <= 0){
+            throw new RuntimeException("tolerances must be greater than 0");
+        }
+        this.relativeTolerance = relativeTolerance;
+        this.absoluteTolerance = absoluteTolerance;
+        allocate(0, 0);
+    }
+
+    /**
+     * Takes one accepted step, retrying with a shorter step as long as the error estimate is too large
+     * @param system the system to advance
+     * @param state the state at the start of the step, overwritten with the state at the end of the step
+     * @param maxStep the longest step that may be taken
+     * @return the length of the accepted step
+     */
+    @Override
+    public double step(OdeSystem system, double[] state, double maxStep) {
+
+        int n = system.getDimension();
+        int blockSize = system.getJacobianBlockSize();
+        if(f0.length != n || jacobian.length != blockSize){
+            allocate(n, blockSize);
+        }
+        if(n == 0){
+            return maxStep;
+        }
+
+        //Reuse the last derivative of the previous step if nothing changed the state in between
+        if(!lastStateValid || !Arrays.equals(state, lastState)){
+            system.computeDerivatives(state, f0);
+            derivativeEvaluations++;
+        } else {
+            System.arraycopy(f2, 0, f0, 0, n);
+        }
+
+        //The jacobian is evaluated once per step and kept for any retries
+        computeJacobian(system, state);
+
+        if(stepSize <= 0){
+            stepSize = estimateInitialStep(state);
+        }
+
+        boolean rejected = false;
+        while (true){
+
+            double h = Math.min(stepSize, maxStep);
+            if(!(h > 0)){
+                throw new RuntimeException("step size underflow in " + getName() + " integrator");
+            }
+
+            double error = attemptStep(system, state, h);
+
+            if(error <= 1.0){
+                //Accept the step
+                System.arraycopy(newState, 0, state, 0, n);
+                System.arraycopy(newState, 0, lastState, 0, n);
+                lastStateValid = true;
+                acceptedSteps++;
+
+                //Only let the step grow if it was not just rejected, and don't shrink it because maxStep cut it short
+                double factor = error == 0 ? MAX_FACTOR : SAFETY * Math.cbrt(1.0 / error);
+                factor = Math.min(rejected ? 1.0 : MAX_FACTOR, Math.max(MIN_FACTOR, factor));
+                if(h < stepSize){
+                    stepSize = Math.max(stepSize, h * factor);
+                } else {
+                    stepSize = h * factor;
+                }
+
+                return h;
+            }
+
+            //Reject the step and try again with a shorter one
+            rejectedSteps++;
+            rejected = true;
+            double factor = Double.isNaN(error) ? MIN_FACTOR : Math.max(MIN_FACTOR, SAFETY * Math.cbrt(1.0 / error));
+            stepSize = h * factor;
+        }
+    }
+
+    /**
+     * Computes a step into newState and estimates its error
+     * @param system the system to advance
+     * @param state the state at the start of the step, f0 must hold its derivatives
+     * @param h the length of the step
+     * @return the scaled error norm, the step is accurate enough when this is at most 1, NaN if W was singular
+     */
+    private double attemptStep(OdeSystem system, double[] state, double h){
+
+        int n = state.length;
+        int blockSize = jacobian.length;
+
+        //Form and factor W = I - h d J
+        for (int i = 0; i < blockSize; i++){
+            double[] jacobianRow = jacobian[i];
+            double[] row = iterationMatrix[i];
+            for (int j = 0; j < blockSize; j++){
+                row[j] = -h * D * jacobianRow[j];
+            }
+            row[i] += 1.0;
+        }
+        try{
+            decomposition.factor(iterationMatrix);
+            factorizations++;
+        } catch (RuntimeException e){
+            return Double.NaN;
+        }
+
+        //First stage
+        System.arraycopy(f0, 0, k1, 0, n);
+        solve(k1);
+
+        //Second stage
+        for (int i = 0; i < n; i++){
+            stageState[i] = state[i] + 0.5 * h * k1[i];
+        }
+        system.computeDerivatives(stageState, f1);
+        for (int i = 0; i < n; i++){
+            k2[i] = f1[i] - k1[i];
+        }
+        solve(k2);
+        for (int i = 0; i < n; i++){
+            k2[i] += k1[i];
+            newState[i] = state[i] + h * k2[i];
+        }
+
+        //Third stage, only used for the error estimate
+        system.computeDerivatives(newState, f2);
+        derivativeEvaluations += 2;
+        for (int i = 0; i < n; i++){
+            k3[i] = f2[i] - E32 * (k2[i] - f1[i]) - 2.0 * (k1[i] - f0[i]);
+        }
+        solve(k3);
+
+        //Root mean square of the error scaled by the tolerances
+        double sum = 0.0;
+        for (int i = 0; i < n; i++){
+            double error = h / 6.0 * (k1[i] - 2.0 * k2[i] + k3[i]);
+            double scale = absoluteTolerance + relativeTolerance * Math.max(Math.abs(state[i]), Math.abs(newState[i]));
+            sum += (error / scale) * (error / scale);
+        }
+        return Math.sqrt(sum / n);
+    }
+
+    /**
+     * Solves W x = b block by block with the factored iteration matrix
+     * @param b the right hand side, overwritten with the solution
+     */
+    private void solve(double[] b){
+        int blockSize = jacobian.length;
+        for (int offset = 0; offset < b.length; offset += blockSize){
+            decomposition.solve(b, offset);
+        }
+    }
+
+    /**
+     * Computes the jacobian block of the system at a state, estimating it with forward differences if the system
+     * can't compute it exactly
+     * @param system the system
+     * @param state the state, f0 must hold its derivatives
+     */
+    private void computeJacobian(OdeSystem system, double[] state){
+
+        int n = state.length;
+        int blockSize = jacobian.length;
+        jacobianEvaluations++;
+
+        if(system.computeJacobian(state, jacobian)){
+            return;
+        }
+
+        System.arraycopy(state, 0, stageState, 0, n);
+        for (int j = 0; j < blockSize; j++){
+            double delta = Math.sqrt(Math.ulp(1.0)) * Math.max(Math.abs(state[j]), absoluteTolerance / relativeTolerance);
+            stageState[j] = state[j] + delta;
+            system.computeDerivatives(stageState, perturbedDerivatives);
+            derivativeEvaluations++;
+            for (int i = 0; i < blockSize; i++){
+                jacobian[i][j] = (perturbedDerivatives[i] - f0[i]) / delta;
+            }
+            stageState[j] = state[j];
+        }
+    }
+
+    /**
+     * Estimates a first step size from the size of the state and its derivatives
+     * @param state the initial state, f0 must hold its derivatives
+     * @return the estimated step size
+     */
+    private double estimateInitialStep(double[] state){
+
+        int n = state.length;
+        double stateNorm = 0.0;
+        double derivativeNorm = 0.0;
+        for (int i = 0; i < n; i++){
+            double scale = absoluteTolerance + relativeTolerance * Math.abs(state[i]);
+            stateNorm += (state[i] / scale) * (state[i] / scale);
+            derivativeNorm += (f0[i] / scale) * (f0[i] / scale);
+        }
+        stateNorm = Math.sqrt(stateNorm / n);
+        derivativeNorm = Math.sqrt(derivativeNorm / n);
+
+        return (stateNorm < 1.0e-5 || derivativeNorm < 1.0e-5) ? 1.0e-6 : 0.01 * stateNorm / derivativeNorm;
+    }
+
+    /**
+     * Forgets the step size and the state of the last step, the next step starts over with an estimated step size
+     */
+    @Override
+    public void reset(){
+        lastStateValid = false;
+        stepSize = 0.0;
+    }
+
+    /**
+     * Allocates the work arrays for a system of a given size
+     * @param n the dimension of the system
+     * @param blockSize the size of the block its jacobian is made of
+     */
+    private void allocate(int n, int blockSize){
+        boolean hadSystem = lastState != null && lastState.length > 0;
+        jacobian = new double[blockSize][blockSize];
+        iterationMatrix = new double[blockSize][blockSize];
+        decomposition = new LUDecomposition(blockSize);
+        f0 = new double[n];
+        f1 = new double[n];
+        f2 = new double[n];
+        k1 = new double[n];
+        k2 = new double[n];
+        k3 = new double[n];
+        stageState = new double[n];
+        newState = new double[n];
+        perturbedDerivatives = new double[n];
+        lastState = new double[n];
+        lastStateValid = false;
+
+        //The step size of a different system means nothing, but a step size given before the first step is kept
+        if(hadSystem){
+            stepSize = 0.0;
+        }
+    }
+
+    //Accessors
+
+    @Override
+    public String getName() {
+        return ROSENBROCK;
+    }
+
+    @Override
+    public long getDerivativeEvaluations() {
+        return derivativeEvaluations;
+    }
+
+    @Override
+    public long getAcceptedSteps() {
+        return acceptedSteps;
+    }
+
+    @Override
+    public long getRejectedSteps() {
+        return rejectedSteps;
+    }
+
+    @Override
+    public double getStepSize() {
+        return stepSize;
+    }
+
+    @Override
+    public void setStepSize(double stepSize) {
+        this.stepSize = stepSize;
+    }
+
+    @Override
+    public void setStatistics(long derivativeEvaluations, long acceptedSteps, long rejectedSteps) {
+        this.derivativeEvaluations = derivativeEvaluations;
+        this.acceptedSteps = acceptedSteps;
+        this.rejectedSteps = rejectedSteps;
+    }
+
+    public long getJacobianEvaluations() {
+        return jacobianEvaluations;
+    }
+
+    public long getFactorizations() {
+        return factorizations;
+    }
+
+    public double getRelativeTolerance() {
+        return relativeTolerance;
+    }
+
+    public double getAbsoluteTolerance() {
+        return absoluteTolerance;
+    }
+}
@@ -0,0 +1,101 @@
+package bart1259;
+
+/**
+ * Computes the rate equations of an ensemble one reaction at a time, looping over the members in the innermost
+ * loops. The loops run through memory in order, so the JIT can vectorize the simplest of them by itself. Every
+ * member gets exactly the derivatives ReactionNetwork computes for it on its own
+ */
+class ScalarEnsembleKernel implements EnsembleKernel {
+
+    //The forward and net rate of the current reaction in every member
+    private double[] fwdRates = new double[0];
+    private double[] bwdRates = new double[0];
+
+    @Override
+    public void addDerivatives(ReactionNetwork network, int memberCount, double[] fwdReactionRates, double[] bwdReactionRates,
+                               double[] state, double[] derivatives) {
+        if(fwdRates.length != memberCount){
+            fwdRates = new double[memberCount];
+            bwdRates = new double[memberCount];
+        }
+        addDerivatives(network, memberCount, fwdReactionRates, bwdReactionRates, state, derivatives, 0, memberCount, fwdRates, bwdRates);
+    }
+
+    /**
+     * Adds the rate of change caused by every reaction to the derivatives of a range of members
+     * @param network the reactions every member shares
+     * @param memberCount the number of members
+     * @param fwdReactionRates the forward rate constant of every reaction in every member
+     * @param bwdReactionRates the backward rate constant of every reaction in every member
+     * @param state the concentration of every chemical in every member
+     * @param derivatives the rate of change of every chemical in every member
+     * @param from the first member of the range
+     * @param to the member after the last member of the range
+     * @param fwdRates work array with room for every member
+     * @param bwdRates work array with room for every member
+     */
+    static void addDerivatives(ReactionNetwork network, int memberCount, double[] fwdReactionRates, double[] bwdReactionRates,
+                               double[] state, double[] derivatives, int from, int to, double[] fwdRates, double[] bwdRates){
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] reactantCoefficients = network.getReactantCoefficients();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+        int[] productCoefficients = network.getProductCoefficients();
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+
+        for (int r = 0; r < network.getReactionCount(); r++){
+            int rateOffset = r * memberCount;
+            System.arraycopy(fwdReactionRates, rateOffset + from, fwdRates, from, to - from);
+            System.arraycopy(bwdReactionRates, rateOffset + from, bwdRates, from, to - from);
+
+            for (int i = reactantStart[r]; i < reactantStart[r + 1]; i++){
+                multiplyByPower(fwdRates, state, reactantSpecies[i] * memberCount, reactantCoefficients[i], from, to);
+            }
+            for (int i = productStart[r]; i < productStart[r + 1]; i++){
+                multiplyByPower(bwdRates, state, productSpecies[i] * memberCount, productCoefficients[i], from, to);
+            }
+
+            //The net rate replaces the forward rate
+            for (int m = from; m < to; m++){
+                fwdRates[m] -= bwdRates[m];
+            }
+
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                int offset = stoichiometrySpecies[i] * memberCount;
+                double coefficient = stoichiometryCoefficients[i];
+                for (int m = from; m < to; m++){
+                    derivatives[offset + m] += fwdRates[m] * coefficient;
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies the rate of every member of a range by the concentration of a chemical raised to a power
+     * @param rates the rate of every member
+     * @param state the concentration of every chemical in every member
+     * @param offset where the concentrations of the chemical start in the state
+     * @param exponent the power
+     * @param from the first member of the range
+     * @param to the member after the last member of the range
+     */
+    private static void multiplyByPower(double[] rates, double[] state, int offset, int exponent, int from, int to){
+        if(exponent == 1){
+            for (int m = from; m < to; m++){
+                rates[m] *= state[offset + m];
+            }
+        } else {
+            for (int m = from; m < to; m++){
+                rates[m] *= ReactionNetwork.integerPower(state[offset + m], exponent);
+            }
+        }
+    }
+
+    @Override
+    public int getLaneCount() {
+        return 1;
+    }
+}
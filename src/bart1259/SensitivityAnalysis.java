@@ -0,0 +1,233 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs a simulation together with the derivatives of its concentrations with respect to every rate constant, so
+ * the parameters a result depends on can be ranked from a single run instead of two extra runs per parameter. The
+ * sensitivities are integrated alongside the concentrations by the same integrator and recorded next to them
+ */
+public class SensitivityAnalysis {
+
+    private ReactionNetwork network;
+    private double[] initialConcentrations;
+    private List<AddedChemical> chemicalAdditions;
+
+    private String integratorName = Integrator.EULER;
+    private ForkJoinPool pool = null;
+
+    private SensitivitySystem system;
+    private Integrator integrator;
+
+    //The largest relative sensitivity of any tracked chemical to every parameter, p / x * dx/dp
+    private double[] importance;
+
+    /**
+     * Creates an analysis of a parsed simulation. The simulation should not have been run yet
+     * @param simulation the simulation to analyse
+     */
+    public SensitivityAnalysis(Simulation simulation){
+        network = simulation.getNetwork();
+        initialConcentrations = simulation.getConcentrations();
+        chemicalAdditions = simulation.getChemicalAdditions();
+        system = new SensitivitySystem(network);
+        importance = new double[system.getParameterCount()];
+    }
+
+    /**
+     * Runs the simulation, recording the concentrations of the tracked chemicals followed by the sensitivity of every
+     * tracked chemical to every parameter, named like d[A]/dKfwd1
+     * @param duration how long to simulate for
+     * @param deltaTime the time between recorded points
+     * @param trackedChemicals the chemicals whose concentrations and sensitivities are recorded
+     * @param sink where the recorded values are sent
+     */
+    public void run(double duration, double deltaTime, Chemical[] trackedChemicals, TrajectorySink sink){
+
+        if(deltaTime <= 0 || duration <= 0 || deltaTime > duration){
+            throw new RuntimeException("Unreasonable values for dt and/or duration");
+        }
+
+        int parameterCount = system.getParameterCount();
+        int[] tracked = new int[trackedChemicals.length];
+        List<String> columnNames = new ArrayList<>();
+        for (int i = 0; i < trackedChemicals.length; i++){
+            tracked[i] = network.indexOf(trackedChemicals[i]);
+            if(tracked[i] < 0){
+                throw new RuntimeException("chemical " + trackedChemicals[i].getChemicalName() + " is not in the simulation");
+            }
+            columnNames.add(trackedChemicals[i].getChemicalName());
+        }
+        for (Chemical chemical : trackedChemicals){
+            for (int p = 0; p < parameterCount; p++){
+                columnNames.add("d[" + chemical.getChemicalName() + "]/d" + system.getParameterName(p));
+            }
+        }
+
+        system.setPool(pool);
+        integrator = Integrator.create(integratorName);
+        Arrays.fill(importance, 0.0);
+        double[] state = new double[system.getDimension()];
+        system.initialize(initialConcentrations, state);
+        double[] values = new double[columnNames.size()];
+        int nextAddition = 0;
+        double time = 0.0;
+        long steps = Math.round(duration / deltaTime);
+
+        sink.begin(columnNames);
+        try{
+            nextAddition = applyDueAdditions(state, time, nextAddition);
+            record(sink, time, state, tracked, values);
+
+            for (long s = 1; s <= steps; s++){
+                double endTime = s * deltaTime;
+                while (time < endTime){
+
+                    //Stop at every addition, amounts added don't depend on a rate constant so only the concentrations jump
+                    double stopTime = endTime;
+                    if(nextAddition < chemicalAdditions.size()){
+                        stopTime = Math.min(stopTime, chemicalAdditions.get(nextAddition).getTime());
+                    }
+                    double remainingTime = stopTime - time;
+                    while (remainingTime > 0){
+                        remainingTime -= integrator.step(system, state, remainingTime);
+                        clamp(state);
+                    }
+                    time = stopTime;
+                    nextAddition = applyDueAdditions(state, time, nextAddition);
+                }
+                record(sink, endTime, state, tracked, values);
+            }
+        } finally {
+            sink.end();
+        }
+    }
+
+    /**
+     * Applies the chemical additions whose time has been reached
+     * @param state the state
+     * @param time the current time
+     * @param nextAddition the index of the first addition that has not happened yet
+     * @return the index of the first addition that has not happened after this
+     */
+    private int applyDueAdditions(double[] state, double time, int nextAddition){
+        boolean applied = false;
+        while (nextAddition < chemicalAdditions.size() && chemicalAdditions.get(nextAddition).getTime() <= time){
+            AddedChemical addition = chemicalAdditions.get(nextAddition);
+            int index = network.indexOf(addition.getChemical());
+            state[index] += addition.getAmount();
+            nextAddition++;
+            applied = true;
+        }
+        if(applied){
+            clamp(state);
+            integrator.reset();
+        }
+        return nextAddition;
+    }
+
+    /**
+     * Ensures there is not a negative amount of any chemical. A clamped chemical is pinned at zero, so it no longer
+     * depends on any parameter
+     * @param state the state
+     */
+    private void clamp(double[] state){
+        int speciesCount = system.getSpeciesCount();
+        for (int i = 0; i < speciesCount; i++){
+            if(state[i] < 0){
+                state[i] = 0.0;
+                for (int j = speciesCount + i; j < state.length; j += speciesCount){
+                    state[j] = 0.0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the tracked concentrations and sensitivities to a sink and updates the importance of every parameter
+     * @param sink the sink
+     * @param time the time of the point
+     * @param state the state
+     * @param tracked the ids of the tracked chemicals
+     * @param values the array to put the values in
+     */
+    private void record(TrajectorySink sink, double time, double[] state, int[] tracked, double[] values){
+        int parameterCount = system.getParameterCount();
+        int column = tracked.length;
+        for (int i = 0; i < tracked.length; i++){
+            values[i] = state[tracked[i]];
+        }
+        for (int species : tracked){
+            for (int p = 0; p < parameterCount; p++){
+                double sensitivity = system.getSensitivity(state, species, p);
+                values[column++] = sensitivity;
+                if(state[species] > 0){
+                    double relative = Math.abs(sensitivity * system.getParameterValue(p) / state[species]);
+                    importance[p] = Math.max(importance[p], relative);
+                }
+            }
+        }
+        sink.record(time, values);
+    }
+
+    /**
+     * Ranks the parameters by how much they changed the tracked chemicals in the last run
+     * @return the parameter indices, the most important first
+     */
+    public int[] rankParameters(){
+        Integer[] order = new Integer[importance.length];
+        for (int p = 0; p < order.length; p++){
+            order[p] = p;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(importance[b], importance[a]));
+        int[] ranking = new int[order.length];
+        for (int p = 0; p < order.length; p++){
+            ranking[p] = order[p];
+        }
+        return ranking;
+    }
+
+    //Accessors
+
+    public SensitivitySystem getSystem() {
+        return system;
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    /**
+     * Gets the largest relative sensitivity of any tracked chemical to a parameter in the last run, how many percent
+     * a chemical changes when the parameter changes by one percent
+     * @param parameter the index of the parameter
+     * @return the importance of the parameter
+     */
+    public double getImportance(int parameter) {
+        return importance[parameter];
+    }
+
+    public String getIntegratorName() {
+        return integratorName;
+    }
+
+    public void setIntegratorName(String integratorName) {
+        Integrator.create(integratorName);
+        this.integratorName = integratorName;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Evaluates the sensitivities of different parameters in parallel
+     * @param pool the pool to split the parameters over, null to evaluate them on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
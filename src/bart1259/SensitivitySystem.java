@@ -0,0 +1,249 @@
+package bart1259;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The rate equations of a reaction network together with the forward sensitivity equations of its rate constants.
+ * The state is the concentration of every chemical followed by one block per parameter holding the derivative of
+ * every concentration with respect to that parameter. Each block changes as dS/dt = J S + df/dp, where J is the
+ * jacobian of the rate equations, so J is evaluated once per derivative evaluation and shared by every parameter.
+ * The parameters are the forward rate constant and the equilibrium constant of every reaction, in that order, so
+ * parameter 2r is Kfwd of reaction r and parameter 2r + 1 is its Kequ
+ */
+public class SensitivitySystem implements OdeSystem {
+
+    //Parameters are only split over the pool in groups of at least this many
+    private static final int PARALLEL_THRESHOLD = 8;
+
+    private ReactionNetwork network;
+    private SparseJacobian jacobian;
+    private int speciesCount;
+    private int parameterCount;
+
+    //The pool the parameter blocks are split over, null to evaluate them on the calling thread
+    private ForkJoinPool pool;
+
+    //The derivative of the net rate of every reaction with respect to its two parameters at the last state
+    private double[] fwdRateDerivatives;
+    private double[] equilibriumDerivatives;
+
+    /**
+     * Creates the sensitivity equations of every rate constant of a network
+     * @param network the network
+     */
+    public SensitivitySystem(ReactionNetwork network){
+        this.network = network;
+        jacobian = new SparseJacobian(network);
+        speciesCount = network.getSpeciesCount();
+        parameterCount = 2 * network.getReactionCount();
+        fwdRateDerivatives = new double[network.getReactionCount()];
+        equilibriumDerivatives = new double[network.getReactionCount()];
+    }
+
+    /**
+     * Gets the name of a parameter
+     * @param parameter the index of the parameter
+     * @return Kfwd or Kequ followed by the number of the reaction, counting from 1
+     */
+    public String getParameterName(int parameter){
+        return (parameter % 2 == 0 ? "Kfwd" : "Kequ") + (parameter / 2 + 1);
+    }
+
+    /**
+     * Gets the value of a parameter
+     * @param parameter the index of the parameter
+     * @return the forward rate constant or the equilibrium constant of the reaction
+     */
+    public double getParameterValue(int parameter){
+        int reaction = parameter / 2;
+        double fwdReactionRate = network.getFwdReactionRate(reaction);
+        return parameter % 2 == 0 ? fwdReactionRate : fwdReactionRate / network.getBwdReactionRate(reaction);
+    }
+
+    /**
+     * Sets up a state from concentrations, no concentration depends on a rate constant at the start
+     * @param concentrations the concentration of every chemical, indexed by id
+     * @param state the array to store the state in
+     */
+    public void initialize(double[] concentrations, double[] state){
+        System.arraycopy(concentrations, 0, state, 0, speciesCount);
+        Arrays.fill(state, speciesCount, state.length, 0.0);
+    }
+
+    /**
+     * Gets the derivative of the concentration of a chemical with respect to a parameter
+     * @param state the state
+     * @param species the id of the chemical
+     * @param parameter the index of the parameter
+     * @return the sensitivity
+     */
+    public double getSensitivity(double[] state, int species, int parameter){
+        return state[(parameter + 1) * speciesCount + species];
+    }
+
+    @Override
+    public void computeDerivatives(double[] state, double[] derivatives){
+
+        //The concentrations are the start of the state, the network only looks at the first species count entries
+        network.computeDerivatives(state, derivatives);
+        jacobian.evaluate(state);
+
+        //Kequ only enters through Kbwd = Kfwd / Kequ
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] reactantCoefficients = network.getReactantCoefficients();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+        int[] productCoefficients = network.getProductCoefficients();
+        for (int r = 0; r < fwdRateDerivatives.length; r++){
+            double fwdProduct = 1.0;
+            for (int i = reactantStart[r]; i < reactantStart[r + 1]; i++){
+                fwdProduct *= ReactionNetwork.integerPower(state[reactantSpecies[i]], reactantCoefficients[i]);
+            }
+            double bwdProduct = 1.0;
+            for (int i = productStart[r]; i < productStart[r + 1]; i++){
+                bwdProduct *= ReactionNetwork.integerPower(state[productSpecies[i]], productCoefficients[i]);
+            }
+            double fwdReactionRate = network.getFwdReactionRate(r);
+            double bwdReactionRate = network.getBwdReactionRate(r);
+            double inverseEquilibrium = fwdReactionRate > 0 ? bwdReactionRate / fwdReactionRate : 0.0;
+            fwdRateDerivatives[r] = fwdProduct - inverseEquilibrium * bwdProduct;
+            equilibriumDerivatives[r] = bwdReactionRate * inverseEquilibrium * bwdProduct;
+        }
+
+        if(pool != null && parameterCount > PARALLEL_THRESHOLD){
+            pool.invoke(new BlockAction(state, derivatives, 0, parameterCount));
+        } else {
+            computeBlocks(state, derivatives, 0, parameterCount);
+        }
+    }
+
+    /**
+     * Computes the derivatives of a range of parameter blocks
+     * @param state the state
+     * @param derivatives the array to store the derivatives in
+     * @param from the first parameter
+     * @param to one past the last parameter
+     */
+    private void computeBlocks(double[] state, double[] derivatives, int from, int to){
+
+        int[] rowStart = jacobian.getRowStart();
+        int[] columns = jacobian.getColumns();
+        double[] values = jacobian.getValues();
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+
+        for (int p = from; p < to; p++){
+            int offset = (p + 1) * speciesCount;
+
+            //J S for this parameter
+            for (int i = 0; i < speciesCount; i++){
+                double sum = 0.0;
+                for (int k = rowStart[i]; k < rowStart[i + 1]; k++){
+                    sum += values[k] * state[offset + columns[k]];
+                }
+                derivatives[offset + i] = sum;
+            }
+
+            //A parameter only changes the rate of its own reaction
+            int r = p / 2;
+            double rateDerivative = p % 2 == 0 ? fwdRateDerivatives[r] : equilibriumDerivatives[r];
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                derivatives[offset + stoichiometrySpecies[i]] += rateDerivative * stoichiometryCoefficients[i];
+            }
+        }
+    }
+
+    /**
+     * Computes the block of an approximate jacobian of the combined system. Every block on the diagonal is the
+     * jacobian of the rate equations, the coupling of the sensitivities to the concentrations through the second
+     * derivatives is left out. Rosenbrock steps stay stable with it and the error estimate keeps the step size honest
+     * @param state the state
+     * @param blockJacobian the species count square matrix to store the jacobian of the rate equations in
+     * @return true as the jacobian is always available
+     */
+    @Override
+    public boolean computeJacobian(double[] state, double[][] blockJacobian){
+        jacobian.evaluate(state);
+        int[] rowStart = jacobian.getRowStart();
+        int[] columns = jacobian.getColumns();
+        double[] values = jacobian.getValues();
+        for (int i = 0; i < speciesCount; i++){
+            double[] row = blockJacobian[i];
+            Arrays.fill(row, 0.0);
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++){
+                row[columns[k]] = values[k];
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int getJacobianBlockSize() {
+        return speciesCount;
+    }
+
+    /**
+     * Splits a range of parameters in half until it is small enough to evaluate directly
+     */
+    private class BlockAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private double[] state;
+        private double[] derivatives;
+        private int from;
+        private int to;
+
+        BlockAction(double[] state, double[] derivatives, int from, int to){
+            this.state = state;
+            this.derivatives = derivatives;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > PARALLEL_THRESHOLD){
+                int middle = (from + to) >>> 1;
+                invokeAll(new BlockAction(state, derivatives, from, middle), new BlockAction(state, derivatives, middle, to));
+                return;
+            }
+            computeBlocks(state, derivatives, from, to);
+        }
+    }
+
+    //Accessors
+
+    @Override
+    public int getDimension() {
+        return (parameterCount + 1) * speciesCount;
+    }
+
+    public ReactionNetwork getNetwork() {
+        return network;
+    }
+
+    public int getSpeciesCount() {
+        return speciesCount;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Evaluates the parameter blocks in parallel, worth it once there are many parameters and chemicals
+     * @param pool the pool to split the blocks over, null to evaluate them on the calling thread
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+}
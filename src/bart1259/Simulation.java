@@ -5,86 +5,404 @@ import java.util.*;
 /**
  * A class that represents a chemical simulation ina medium
  */
-public class Simulation {
+public class Simulation implements Simulator {
 
-    private HashMap<Chemical, Double> chemicalAmounts;
+    //Finding the conservation laws takes dense row reduction of the reactions by chemicals matrix, mechanisms with
+    //more chemicals or a larger matrix are integrated in full
+    private static final int MAX_REDUCED_SPECIES = 1000;
+    private static final long MAX_REDUCED_ENTRIES = 1000000;
+
+    //Reactions that could not be split into fast and slow ones are checked again every this many steps
+    private static final int FAST_SPLIT_CHECK_STEPS = 100;
+
+    //A step of the slow reactions that leaves no fast equilibrium is retried with half the step this many times
+    private static final int MAX_FAST_STEP_HALVINGS = 50;
+
+    //Networks with this many reactions get their rate equations compiled, for smaller ones it doesn't pay off
+    private static final int MIN_COMPILED_REACTIONS = 50;
+
+    //Where runs spend their time, only recorded while metrics are enabled
+    private static final Metrics.Timer SIMULATE_TIMER = Metrics.timer("simulation.simulate");
+    private static final Metrics.Timer ADDITIONS_TIMER = Metrics.timer("simulation.additions");
+    private static final Metrics.Counter ACCEPTED_STEPS = Metrics.counter("simulation.steps");
+    private static final Metrics.Counter REJECTED_STEPS = Metrics.counter("simulation.rejectedSteps");
+    private static final Metrics.Counter DERIVATIVE_EVALUATIONS = Metrics.counter("simulation.derivativeEvaluations");
+    private static final Metrics.Histogram STEPS_PER_CALL = Metrics.histogram("simulation.stepsPerCall");
+
+    //The id of every chemical in the simulation, the id is the index of the chemical in the concentrations array
+    private LinkedHashMap<Chemical, Integer> chemicalIndices;
+    private double[] concentrations;
     private ArrayList<ChemicalReaction> reactions;
+    //Chemical additions that have not happened yet, sorted by time
     private ArrayList<AddedChemical> chemicalAdditions;
+    private int nextAddition = 0;
     private double timeSimulated = 0.0;
 
+    //The compiled form of the reactions, null when chemicals or reactions changed since it was last compiled
+    private ReactionNetwork network;
+    private Integrator integrator;
+
+    //When set the integrator only advances the independent chemicals and the rest follow from the conservation laws
+    private boolean reduceConservedChemicals = true;
+    private ReducedNetwork reducedNetwork;
+    private double[] reducedState;
+    //False when the concentrations were changed from outside and the reduced state has to be gathered again
+    private boolean reducedStateValid = false;
+
+    //When above zero, reactions that relax this many times faster than all others are kept at equilibrium
+    private double fastEquilibriumSeparation = 0.0;
+    private FastEquilibriumNetwork fastEquilibriumNetwork;
+    private double[] fastEquilibriumState;
+    private boolean fastEquilibriumStateValid = false;
+    //The largest estimated relative error of keeping fast reactions at equilibrium so far
+    private double fastEquilibriumError = 0.0;
+
     /**
      * Creates a simulation
      */
     public Simulation(){
         //Initialize variables
-        chemicalAmounts = new HashMap<>();
+        chemicalIndices = new LinkedHashMap<>();
+        concentrations = new double[0];
         reactions = new ArrayList<>();
         chemicalAdditions = new ArrayList<>();
+        integrator = new EulerIntegrator();
+    }
+
+    /**
+     * Creates a simulation that starts from a compiled network instead of parsed chemicals and reactions. The network
+     * is used as is and may be shared with other simulations
+     * @param network the compiled reactions
+     * @param initialConcentrations the concentration of every chemical of the network at the start, indexed by id
+     * @param chemicalAdditions the chemicals that will be added during the simulation
+     */
+    Simulation(ReactionNetwork network, double[] initialConcentrations, List<AddedChemical> chemicalAdditions){
+        this();
+        for (int i = 0; i < network.getSpeciesCount(); i++){
+            chemicalIndices.put(network.getChemical(i), i);
+        }
+        for (int r = 0; r < network.getReactionCount(); r++){
+            reactions.add(network.getReaction(r));
+        }
+        concentrations = Arrays.copyOf(initialConcentrations, network.getSpeciesCount());
+        for (AddedChemical addition : chemicalAdditions){
+            if(network.indexOf(addition.getChemical()) < 0){
+                throw new RuntimeException("addition of " + addition.getChemical().getChemicalName() + " is not in the network");
+            }
+            addChemicalAddition(addition);
+        }
+        this.network = network;
     }
 
     /**
-     * Simulate the chemical reactions of a duration of delta time
-     * @param deltaTime the length of time to linearly simulate the reactions for
+     * Simulate the chemical reactions of a duration of delta time. The integrator stops exactly at the time of
+     * every chemical addition, applies it and continues from there
+     * @param deltaTime the length of time to simulate the reactions for, the integrator may split it into several steps
      */
+    @Override
     public void simulate(double deltaTime) {
 
-        //Make a hash map of chemical changes
-        //This way previous chemical reactions don't affect later ones that should
-        //be simulated at the same time
-        HashMap<Chemical, Double> changeAmounts = new HashMap<>();
-        //Initialize the changes to zero
-        for(Chemical c : chemicalAmounts.keySet()){
-            changeAmounts.put(c,0.0);
-        }
+        long start = SIMULATE_TIMER.start();
+        SimulationEvents.Simulate event = new SimulationEvents.Simulate();
+        event.begin();
+        double startTime = timeSimulated;
+        long acceptedSteps = integrator.getAcceptedSteps();
+        long rejectedSteps = integrator.getRejectedSteps();
+        long derivativeEvaluations = integrator.getDerivativeEvaluations();
 
-        //Loop through all the reactions and simulate them
-        for(ChemicalReaction rxn : reactions) {
+        ReactionNetwork network = getNetwork();
+        double endTime = timeSimulated + deltaTime;
 
-            //Calculate the rate of the forward reaction
-            double fwdReaction = rxn.getFwdReactionRate();
-            for (ChemicalComponent reactant : rxn.getReactants()){
-                fwdReaction *= Math.pow(chemicalAmounts.get(reactant.getChemical()), reactant.getStoicheometricCoefficient());
-            }
+        //Split the reactions again once the fast ones are no longer fast enough to be kept at equilibrium, or once
+        //reactions that could not be split before, for example because their products were not present yet, can be
+        if(fastEquilibriumNetwork != null && !fastEquilibriumNetwork.checkSeparation(concentrations)){
+            fastEquilibriumNetwork = null;
+            integrator.reset();
+        }
+
+        applyDueAdditions();
+        while (timeSimulated < endTime){
 
-            //Calculate the rate of the backward reaction
-            double bwdReaction = rxn.getBwdReactionRate();
-            for (ChemicalComponent product : rxn.getProducts()){
-                bwdReaction *= Math.pow(chemicalAmounts.get(product.getChemical()), product.getStoicheometricCoefficient());
+            //Integrate up to the next addition or the end of delta time, whichever comes first
+            double stopTime = endTime;
+            if(nextAddition < chemicalAdditions.size()){
+                stopTime = Math.min(stopTime, chemicalAdditions.get(nextAddition).getTime());
             }
 
-            //Calculate the overall reaction rate
-            double reactionRate = fwdReaction - bwdReaction;
+            double remainingTime = stopTime - timeSimulated;
+            FastEquilibriumNetwork fastEquilibriumNetwork = getFastEquilibriumNetwork();
+            ReducedNetwork reducedNetwork = fastEquilibriumNetwork == null ? getReducedNetwork() : null;
+            if(fastEquilibriumNetwork != null){
+                if(!fastEquilibriumStateValid){
+                    fastEquilibriumNetwork.reduce(concentrations, fastEquilibriumState);
+                    fastEquilibriumStateValid = true;
+                }
+                double[] lastConcentrations = concentrations.clone();
+                double maxStep = remainingTime;
+                int halvings = 0;
+                while (remainingTime > 0){
+                    try{
+                        double step = integrator.step(fastEquilibriumNetwork, fastEquilibriumState, Math.min(maxStep, remainingTime));
+                        fastEquilibriumNetwork.expand(fastEquilibriumState, concentrations);
+                        remainingTime -= step;
+                        System.arraycopy(concentrations, 0, lastConcentrations, 0, concentrations.length);
+                        halvings = 0;
+                    } catch (RuntimeException e){
 
-            //Subtract the reactants ( reactants could be added if the reaction rate is negative )
-            for (ChemicalComponent reactant : rxn.getReactants()){
-                double deltaChemical = -deltaTime * (reactionRate * reactant.getStoicheometricCoefficient());
-                changeAmounts.put(reactant.getChemical(), deltaChemical + changeAmounts.get(reactant.getChemical()));
-            }
-            //Add to the products ( products could be removed if the reaction rate is negative )
-            for (ChemicalComponent product : rxn.getProducts()){
-                double deltaChemical = deltaTime * (reactionRate * product.getStoicheometricCoefficient());
-                changeAmounts.put(product.getChemical(), deltaChemical + changeAmounts.get(product.getChemical()));
+                        //A step too long for the slow reactions can leave totals that no concentrations add up to, like
+                        //negative ones, so go back to the last concentrations and take shorter steps from there
+                        if(++halvings > MAX_FAST_STEP_HALVINGS){
+                            throw new RuntimeException("fast equilibrium failed at time " + (stopTime - remainingTime) + ": " + e.getMessage());
+                        }
+                        System.arraycopy(lastConcentrations, 0, concentrations, 0, concentrations.length);
+                        fastEquilibriumNetwork.reduce(concentrations, fastEquilibriumState);
+                        integrator.reset();
+                        maxStep = Math.min(maxStep, remainingTime) / 2;
+                    }
+                }
+                fastEquilibriumError = Math.max(fastEquilibriumError, fastEquilibriumNetwork.getErrorEstimate());
+                reducedStateValid = false;
+            } else if(reducedNetwork != null){
+                if(!reducedStateValid){
+                    reducedNetwork.reduce(concentrations, reducedState);
+                    reducedStateValid = true;
+                }
+                int steps = 0;
+                while (remainingTime > 0){
+                    remainingTime -= integrator.step(reducedNetwork, reducedState, remainingTime);
+                    clamp(reducedState);
+                    reducedNetwork.expand(reducedState, concentrations);
+                    clamp(concentrations);
+                    if(++steps % FAST_SPLIT_CHECK_STEPS == 0 && splitAgain()){
+                        break;
+                    }
+                }
+                fastEquilibriumStateValid = false;
+            } else {
+                int steps = 0;
+                while (remainingTime > 0){
+                    remainingTime -= integrator.step(network, concentrations, remainingTime);
+                    clamp(concentrations);
+                    if(++steps % FAST_SPLIT_CHECK_STEPS == 0 && splitAgain()){
+                        break;
+                    }
+                }
             }
 
+            //Stopping early to split the reactions continues from where the integrator got to
+            timeSimulated = remainingTime > 0 ? stopTime - remainingTime : stopTime;
+
+            applyDueAdditions();
+        }
 
+        //Record the work done by the integrator in this call
+        acceptedSteps = integrator.getAcceptedSteps() - acceptedSteps;
+        rejectedSteps = integrator.getRejectedSteps() - rejectedSteps;
+        derivativeEvaluations = integrator.getDerivativeEvaluations() - derivativeEvaluations;
+        ACCEPTED_STEPS.add(acceptedSteps);
+        REJECTED_STEPS.add(rejectedSteps);
+        DERIVATIVE_EVALUATIONS.add(derivativeEvaluations);
+        STEPS_PER_CALL.record(acceptedSteps + rejectedSteps);
+        SIMULATE_TIMER.stop(start);
+        if(event.shouldCommit()){
+            event.simulatedStart = startTime;
+            event.simulatedEnd = timeSimulated;
+            event.integrator = integrator.getName();
+            event.acceptedSteps = acceptedSteps;
+            event.rejectedSteps = rejectedSteps;
+            event.derivativeEvaluations = derivativeEvaluations;
+            event.commit();
         }
-        //Increment the amount of time simulated
-        timeSimulated += deltaTime;
+    }
 
-        //Check for chemical additions
-        for (int i = chemicalAdditions.size() - 1; i >= 0; i--){
+    /**
+     * Computes the concentrations the simulation settles at, directly instead of by integrating until they stop
+     * changing. The simulation itself is not changed
+     * @return the concentration of every chemical at equilibrium, indexed by the ids of the compiled network
+     */
+    public double[] computeEquilibrium(){
+        return new EquilibriumSolver(getNetwork()).solve(getTotalAmounts());
+    }
+
+    /**
+     * Gets the concentrations once every chemical addition that has not happened yet is added, which is all the
+     * equilibrium depends on. A removal is taken from the current amounts, so if it removes more of a chemical than
+     * will be present at its time the simulated result will differ
+     * @return the concentration of every chemical, indexed by the ids of the compiled network
+     */
+    public double[] getTotalAmounts(){
+        getNetwork();
+        double[] amounts = getConcentrations();
+        for (int i = nextAddition; i < chemicalAdditions.size(); i++){
             AddedChemical addition = chemicalAdditions.get(i);
-            if(timeSimulated > addition.getTime()){
-                changeAmounts.put(addition.getChemical(), addition.getAmount() + changeAmounts.get(addition.getChemical()));
-                chemicalAdditions.remove(addition);
+            int index = chemicalIndices.get(addition.getChemical());
+            amounts[index] = Math.max(0.0, amounts[index] + addition.getAmount());
+        }
+        return amounts;
+    }
+
+    /**
+     * Sets the time a restored simulation continues from
+     * @param timeSimulated the time simulated when the checkpoint was taken
+     * @param fastEquilibriumError the largest estimated error of the fast equilibrium so far
+     */
+    void restoreTime(double timeSimulated, double fastEquilibriumError){
+        this.timeSimulated = timeSimulated;
+        this.fastEquilibriumError = fastEquilibriumError;
+    }
+
+    /**
+     * Moves a simulation that has not been run yet to a state an identical run reached before. The given number of
+     * additions are taken as applied, the ones after them are kept. The count is not worked out from the time, a
+     * state taken at the time of an addition may be from before or after it was applied
+     * @param timeSimulated the time the state was reached at
+     * @param concentrations the concentration of every chemical at that time, indexed by id
+     * @param fastEquilibriumError the largest estimated error of the fast equilibrium up to that time
+     * @param appliedAdditions how many additions had been applied when the state was reached
+     */
+    void resumeFrom(double timeSimulated, double[] concentrations, double fastEquilibriumError, int appliedAdditions){
+        getNetwork();
+        if(concentrations.length != chemicalIndices.size()){
+            throw new RuntimeException("cannot resume from " + concentrations.length + " concentrations with " + chemicalIndices.size() + " chemicals");
+        }
+        if(nextAddition != 0 || appliedAdditions > chemicalAdditions.size()){
+            throw new RuntimeException("cannot resume after " + appliedAdditions + " of " + chemicalAdditions.size() + " additions");
+        }
+        System.arraycopy(concentrations, 0, this.concentrations, 0, concentrations.length);
+        restoreTime(timeSimulated, fastEquilibriumError);
+        nextAddition = appliedAdditions;
+
+        //Pick the independent chemicals and the fast reactions for the new concentrations
+        reducedNetwork = null;
+        fastEquilibriumNetwork = null;
+        reducedStateValid = false;
+        fastEquilibriumStateValid = false;
+    }
+
+    /**
+     * Applies the chemical additions whose time has been reached
+     */
+    private void applyDueAdditions(){
+        if(nextAddition >= chemicalAdditions.size() || chemicalAdditions.get(nextAddition).getTime() > timeSimulated){
+            return;
+        }
+
+        long start = ADDITIONS_TIMER.start();
+        SimulationEvents.ChemicalAddition event = new SimulationEvents.ChemicalAddition();
+        event.begin();
+        int applied = 0;
+        while (nextAddition < chemicalAdditions.size() && chemicalAdditions.get(nextAddition).getTime() <= timeSimulated){
+            AddedChemical addition = chemicalAdditions.get(nextAddition);
+            addChemical(addition.getChemical(), addition.getAmount());
+            nextAddition++;
+            applied++;
+        }
+        integrator.reset();
+
+        //Pick the fast reactions again as they depend on the concentrations. The conservation laws stay the same,
+        //only their totals change and those are taken again when the reduced state is gathered
+        fastEquilibriumNetwork = null;
+
+        ADDITIONS_TIMER.stop(start);
+        if(event.shouldCommit()){
+            event.simulatedTime = timeSimulated;
+            event.additions = applied;
+            event.commit();
+        }
+    }
+
+    /**
+     * Checks if reactions that could not be split into fast and slow ones can be split now, dropping the split if so
+     * @return true if the reactions have to be split again
+     */
+    private boolean splitAgain(){
+        if(fastEquilibriumNetwork == null || fastEquilibriumNetwork.getFastReactionCount() > 0
+                || fastEquilibriumNetwork.checkSeparation(concentrations)){
+            return false;
+        }
+        fastEquilibriumNetwork = null;
+        integrator.reset();
+        return true;
+    }
+
+    /**
+     * Ensure there is not a negative number present of any chemical
+     * @param concentrations the concentrations to clamp
+     */
+    private static void clamp(double[] concentrations){
+        for (int i = 0; i < concentrations.length; i++){
+            if(concentrations[i] < 0){
+                concentrations[i] = 0.0;
             }
         }
+    }
+
+    /**
+     * Gets the rate equations restricted to the independent chemicals, creating them if needed. The conservation laws
+     * are found once per network, the chemicals with the lowest concentrations when the run starts are kept
+     * independent
+     * @return the reduced system, or null if the reactions conserve nothing or reducing is turned off or too costly
+     */
+    private ReducedNetwork getReducedNetwork(){
+        ReactionNetwork network = getNetwork();
+        if(!reduceConservedChemicals || network.getSpeciesCount() > MAX_REDUCED_SPECIES
+                || (long) network.getReactionCount() * network.getSpeciesCount() > MAX_REDUCED_ENTRIES){
+            return null;
+        }
+        if(reducedNetwork == null){
+            reducedNetwork = new ReducedNetwork(network, concentrations);
+            reducedState = new double[reducedNetwork.getDimension()];
+            reducedStateValid = false;
+        }
+        return reducedNetwork.getLaws().getLawCount() > 0 ? reducedNetwork : null;
+    }
 
-        //Update chemical amounts
-        for(Chemical c : chemicalAmounts.keySet()){
-            addChemical(c, changeAmounts.get(c));
+    /**
+     * Gets the rate equations with the fast reactions kept at equilibrium, splitting the reactions if needed
+     * @return the system, or null if it is turned off or no reactions are fast enough
+     */
+    private FastEquilibriumNetwork getFastEquilibriumNetwork(){
+        if(fastEquilibriumSeparation <= 0){
+            return null;
+        }
+        if(fastEquilibriumNetwork == null){
+            fastEquilibriumNetwork = new FastEquilibriumNetwork(getNetwork(), concentrations, fastEquilibriumSeparation);
+            fastEquilibriumState = new double[fastEquilibriumNetwork.getDimension()];
+            fastEquilibriumStateValid = false;
         }
+        return fastEquilibriumNetwork.getFastReactionCount() > 0 ? fastEquilibriumNetwork : null;
+    }
+
+    /**
+     * Gets the compiled form of the simulation's reactions, compiling them if needed
+     * @return the reaction network
+     */
+    public ReactionNetwork getNetwork(){
+        if(network == null){
+
+            //Make sure every chemical used by a reaction has an id
+            for (ChemicalReaction rxn : reactions){
+                for (ChemicalComponent reactant : rxn.getReactants()){
+                    addChemical(reactant.getChemical(), 0.0);
+                }
+                for (ChemicalComponent product : rxn.getProducts()){
+                    addChemical(product.getChemical(), 0.0);
+                }
+            }
+
+            //Drop the spare capacity left by addChemical, the integrators expect one value per chemical
+            if(concentrations.length != chemicalIndices.size()){
+                concentrations = Arrays.copyOf(concentrations, chemicalIndices.size());
+            }
 
+            network = new ReactionNetwork(getChemicals(), reactions);
+            if(network.getReactionCount() >= MIN_COMPILED_REACTIONS){
+                network.compileRateKernel();
+            }
+            reducedNetwork = null;
+            fastEquilibriumNetwork = null;
+        }
+        return network;
     }
 
     /**
@@ -92,21 +410,23 @@ public class Simulation {
      * @return
      */
     public ArrayList<Chemical> getChemicals(){
-        ArrayList<Chemical> chemicals = new ArrayList<>();
-
-        //Loop through all the chemical amounts and add the keys to a list
-        for (Chemical key : chemicalAmounts.keySet()){
-            chemicals.add(key);
-        }
-
-        return chemicals;
+        return new ArrayList<>(chemicalIndices.keySet());
     }
 
     /**
      * Adds a chemical addition to the simulation
      * @param addition the addition to add
      */
-    public void addChemicalAddition(AddedChemical addition) { chemicalAdditions.add(addition); }
+    public void addChemicalAddition(AddedChemical addition) {
+        addChemical(addition.getChemical(), 0.0);
+
+        //Insert after every addition at the same time or earlier, so additions at the same time keep their order
+        int index = chemicalAdditions.size();
+        while (index > nextAddition && chemicalAdditions.get(index - 1).getTime() > addition.getTime()){
+            index--;
+        }
+        chemicalAdditions.add(index, addition);
+    }
 
     /**
      * Adds a reaction to the simulation
@@ -114,6 +434,7 @@ public class Simulation {
      */
     public void addReaction(ChemicalReaction reaction){
         reactions.add(reaction);
+        network = null;
     }
 
     /**
@@ -123,20 +444,25 @@ public class Simulation {
      */
     public void addChemical(Chemical chemical, double numberOfMoles){
 
+        Integer index = chemicalIndices.get(chemical);
 
-        //If chemical is present add the amount to it
-        if(chemicalAmounts.containsKey(chemical)){
-            Double amt = chemicalAmounts.get(chemical);
-            amt += numberOfMoles;
-            chemicalAmounts.put(chemical,amt);
-        }else{
-            //If the chemical is not present add it to the hashmap
-            chemicalAmounts.put(chemical, numberOfMoles);
+        //If the chemical is not present give it an id, growing the array geometrically so adding many chemicals stays linear
+        if(index == null){
+            index = chemicalIndices.size();
+            chemicalIndices.put(chemical, index);
+            if(index == concentrations.length){
+                concentrations = Arrays.copyOf(concentrations, Math.max(8, 2 * index));
+            }
+            network = null;
         }
 
+        concentrations[index] += numberOfMoles;
+        reducedStateValid = false;
+        fastEquilibriumStateValid = false;
+
         //Ensure there is not a negative number present of a chemical
-        if(chemicalAmounts.get(chemical) < 0){
-            chemicalAmounts.put(chemical, 0.0);
+        if(concentrations[index] < 0){
+            concentrations[index] = 0.0;
         }
 
     }
@@ -146,12 +472,14 @@ public class Simulation {
      * @param chemical the chemical
      * @return the current concentration of the chemical
      */
+    @Override
     public double getConcentration(Chemical chemical){
 
+        Integer index = chemicalIndices.get(chemical);
 
-        if(chemicalAmounts.containsKey(chemical)){
+        if(index != null){
             //If chemical is present return the amount
-            return chemicalAmounts.get(chemical);
+            return concentrations[index];
         } else {
             //Return 0 if the chemical doesn't exist
             return 0.0;
@@ -159,4 +487,84 @@ public class Simulation {
 
     }
 
+    /**
+     * Gets the concentration of every chemical, indexed by the ids of the compiled network
+     * @return a copy of the concentrations
+     */
+    public double[] getConcentrations(){
+        return Arrays.copyOf(concentrations, chemicalIndices.size());
+    }
+
+    /**
+     * Gets the chemical additions that have not happened yet
+     * @return a copy of the list of additions, sorted by time
+     */
+    public List<AddedChemical> getChemicalAdditions(){
+        return new ArrayList<>(chemicalAdditions.subList(nextAddition, chemicalAdditions.size()));
+    }
+
+    //Accessors
+
+    @Override
+    public double getTimeSimulated() {
+        return timeSimulated;
+    }
+
+    public Integrator getIntegrator() {
+        return integrator;
+    }
+
+    public int getReactionCount() {
+        return reactions.size();
+    }
+
+    /**
+     * Gets how many chemical additions have been applied so far
+     * @return the number of applied additions
+     */
+    int getAppliedAdditionCount() {
+        return nextAddition;
+    }
+
+    public void setIntegrator(Integrator integrator) {
+        this.integrator = integrator;
+    }
+
+    public boolean isReducingConservedChemicals() {
+        return reduceConservedChemicals;
+    }
+
+    public double getFastEquilibriumSeparation() {
+        return fastEquilibriumSeparation;
+    }
+
+    /**
+     * Keeps reactions that relax much faster than all the others at equilibrium instead of integrating them, so the
+     * step size is set by the slow reactions only
+     * @param fastEquilibriumSeparation how many times faster a reaction must relax than the rest, 0 to turn it off
+     */
+    public void setFastEquilibriumSeparation(double fastEquilibriumSeparation) {
+        this.fastEquilibriumSeparation = fastEquilibriumSeparation;
+        fastEquilibriumNetwork = null;
+        integrator.reset();
+    }
+
+    public double getFastEquilibriumError() {
+        return fastEquilibriumError;
+    }
+
+    /**
+     * Gets how many reactions are currently kept at equilibrium
+     * @return the number of fast reactions
+     */
+    public int getFastReactionCount() {
+        return fastEquilibriumNetwork == null ? 0 : fastEquilibriumNetwork.getFastReactionCount();
+    }
+
+    public void setReducingConservedChemicals(boolean reduceConservedChemicals) {
+        this.reduceConservedChemicals = reduceConservedChemicals;
+        reducedNetwork = null;
+        integrator.reset();
+    }
+
 }
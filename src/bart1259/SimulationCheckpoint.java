@@ -0,0 +1,412 @@
+package bart1259;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A copy of everything a simulation needs to continue a run: the chemicals and their amounts, the reactions with the
+ * rate constants they are simulated with, the time simulated, the chemical additions that have not happened yet and
+ * the integrator with its step size and counters. A checkpoint taken after another one of the same network shares
+ * the chemicals and reactions of the earlier one and only copies the amounts and additions, so it is cheap enough to
+ * do while a run is stepping and the copy can be written to disk on another thread. A restored
+ * simulation continues with the same step size, so it follows the original run to within the integrator tolerance.
+ *
+ * Layout of the file, big endian as written by DataOutputStream:
+ * <pre>
+ *   8 bytes  magic "CRSCKPT1"
+ *   int      format version
+ *   double   time simulated
+ *   int      number of chemicals, per chemical: UTF name, double amount
+ *   int      number of reactions, per reaction: double Kfwd, double Kequ, int number of reactants, per reactant:
+ *            int chemical id and int coefficient, followed by the products in the same form
+ *   int      number of pending additions, per addition: int chemical id, double time, double amount
+ *   UTF      integrator name, double relative tolerance, double absolute tolerance (NaN if it has none),
+ *            double step size, long derivative evaluations, long accepted steps, long rejected steps
+ *   boolean  reduce conserved chemicals, double fast equilibrium separation, double fast equilibrium error
+ * </pre>
+ * The file is written next to its destination and moved into place, so a crash while writing leaves the previous
+ * checkpoint intact
+ */
+public class SimulationCheckpoint {
+
+    public static final byte[] MAGIC = "CRSCKPT1".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+
+    private double timeSimulated;
+
+    //The network the chemicals and reactions were copied from, null if the checkpoint was read from a file
+    private ReactionNetwork network;
+    private String[] chemicalNames;
+    private double[] amounts;
+
+    //Reaction r has rate constants fwdReactionRates[r] and equilibriumConstants[r], its reactant chemical ids and
+    //coefficients are reactantSpecies[r] and reactantCoefficients[r] and likewise for its products
+    private double[] fwdReactionRates;
+    private double[] equilibriumConstants;
+    private int[][] reactantSpecies;
+    private int[][] reactantCoefficients;
+    private int[][] productSpecies;
+    private int[][] productCoefficients;
+
+    private int[] additionSpecies;
+    private double[] additionTimes;
+    private double[] additionAmounts;
+
+    private String integratorName;
+    private double relativeTolerance;
+    private double absoluteTolerance;
+    private double stepSize;
+    private long derivativeEvaluations;
+    private long acceptedSteps;
+    private long rejectedSteps;
+
+    private boolean reduceConservedChemicals;
+    private double fastEquilibriumSeparation;
+    private double fastEquilibriumError;
+
+    /**
+     * Takes a checkpoint of a simulation
+     * @param simulation the simulation, it is not changed
+     */
+    public SimulationCheckpoint(Simulation simulation){
+        this(simulation, null);
+    }
+
+    /**
+     * Takes a checkpoint of a simulation, sharing the chemicals and reactions of an earlier checkpoint if the
+     * simulation still has the same network
+     * @param simulation the simulation, it is not changed
+     * @param previous an earlier checkpoint of the simulation, or null
+     */
+    public SimulationCheckpoint(Simulation simulation, SimulationCheckpoint previous){
+
+        network = simulation.getNetwork();
+        timeSimulated = simulation.getTimeSimulated();
+        amounts = simulation.getConcentrations();
+        if(previous != null && previous.network == network){
+            chemicalNames = previous.chemicalNames;
+            fwdReactionRates = previous.fwdReactionRates;
+            equilibriumConstants = previous.equilibriumConstants;
+            reactantSpecies = previous.reactantSpecies;
+            reactantCoefficients = previous.reactantCoefficients;
+            productSpecies = previous.productSpecies;
+            productCoefficients = previous.productCoefficients;
+        } else {
+            copyNetwork();
+        }
+
+        List<AddedChemical> additions = simulation.getChemicalAdditions();
+        additionSpecies = new int[additions.size()];
+        additionTimes = new double[additions.size()];
+        additionAmounts = new double[additions.size()];
+        for (int i = 0; i < additionSpecies.length; i++){
+            AddedChemical addition = additions.get(i);
+            additionSpecies[i] = network.indexOf(addition.getChemical());
+            additionTimes[i] = addition.getTime();
+            additionAmounts[i] = addition.getAmount();
+        }
+
+        Integrator integrator = simulation.getIntegrator();
+        integratorName = integrator.getName();
+        relativeTolerance = Double.NaN;
+        absoluteTolerance = Double.NaN;
+        if(integrator instanceof DormandPrinceIntegrator){
+            relativeTolerance = ((DormandPrinceIntegrator) integrator).getRelativeTolerance();
+            absoluteTolerance = ((DormandPrinceIntegrator) integrator).getAbsoluteTolerance();
+        } else if(integrator instanceof RosenbrockIntegrator){
+            relativeTolerance = ((RosenbrockIntegrator) integrator).getRelativeTolerance();
+            absoluteTolerance = ((RosenbrockIntegrator) integrator).getAbsoluteTolerance();
+        }
+        stepSize = integrator.getStepSize();
+        derivativeEvaluations = integrator.getDerivativeEvaluations();
+        acceptedSteps = integrator.getAcceptedSteps();
+        rejectedSteps = integrator.getRejectedSteps();
+
+        reduceConservedChemicals = simulation.isReducingConservedChemicals();
+        fastEquilibriumSeparation = simulation.getFastEquilibriumSeparation();
+        fastEquilibriumError = simulation.getFastEquilibriumError();
+    }
+
+    /**
+     * Copies the chemicals and reactions of the network, the arrays are not changed afterwards so later checkpoints
+     * can share them
+     */
+    private void copyNetwork(){
+        chemicalNames = new String[network.getSpeciesCount()];
+        for (int i = 0; i < chemicalNames.length; i++){
+            chemicalNames[i] = network.getChemical(i).getChemicalName();
+        }
+
+        //Take the rate constants from the network, it may have been given other ones than the parsed reactions
+        int reactionCount = network.getReactionCount();
+        fwdReactionRates = new double[reactionCount];
+        equilibriumConstants = new double[reactionCount];
+        reactantSpecies = new int[reactionCount][];
+        reactantCoefficients = new int[reactionCount][];
+        productSpecies = new int[reactionCount][];
+        productCoefficients = new int[reactionCount][];
+        int[] reactantStart = network.getReactantStart();
+        int[] productStart = network.getProductStart();
+        for (int r = 0; r < reactionCount; r++){
+            fwdReactionRates[r] = network.getFwdReactionRate(r);
+            equilibriumConstants[r] = network.getFwdReactionRate(r) / network.getBwdReactionRate(r);
+            reactantSpecies[r] = Arrays.copyOfRange(network.getReactantSpecies(), reactantStart[r], reactantStart[r + 1]);
+            reactantCoefficients[r] = Arrays.copyOfRange(network.getReactantCoefficients(), reactantStart[r], reactantStart[r + 1]);
+            productSpecies[r] = Arrays.copyOfRange(network.getProductSpecies(), productStart[r], productStart[r + 1]);
+            productCoefficients[r] = Arrays.copyOfRange(network.getProductCoefficients(), productStart[r], productStart[r + 1]);
+        }
+    }
+
+    /**
+     * Creates an empty checkpoint to be read into
+     */
+    private SimulationCheckpoint(){
+    }
+
+    /**
+     * Creates a new simulation that continues from this checkpoint. Every restored simulation is independent, so
+     * one checkpoint can be branched into several follow up runs
+     * @return the simulation
+     */
+    public Simulation restore(){
+
+        Chemical[] chemicals = new Chemical[chemicalNames.length];
+        Simulation simulation = new Simulation();
+        for (int i = 0; i < chemicals.length; i++){
+            chemicals[i] = new Chemical(chemicalNames[i]);
+            simulation.addChemical(chemicals[i], amounts[i]);
+        }
+        for (int r = 0; r < fwdReactionRates.length; r++){
+            ChemicalReaction reaction = new ChemicalReaction(fwdReactionRates[r], equilibriumConstants[r]);
+            for (int i = 0; i < reactantSpecies[r].length; i++){
+                reaction.addReactant(new ChemicalComponent(chemicals[reactantSpecies[r][i]], reactantCoefficients[r][i]));
+            }
+            for (int i = 0; i < productSpecies[r].length; i++){
+                reaction.addProduct(new ChemicalComponent(chemicals[productSpecies[r][i]], productCoefficients[r][i]));
+            }
+            simulation.addReaction(reaction);
+        }
+        for (int i = 0; i < additionSpecies.length; i++){
+            simulation.addChemicalAddition(new AddedChemical(chemicals[additionSpecies[i]], additionTimes[i], additionAmounts[i]));
+        }
+        simulation.restoreTime(timeSimulated, fastEquilibriumError);
+
+        //The settings reset the integrator, so it is set last to keep its step size
+        simulation.setReducingConservedChemicals(reduceConservedChemicals);
+        simulation.setFastEquilibriumSeparation(fastEquilibriumSeparation);
+        Integrator integrator = Integrator.create(integratorName);
+        if(!Double.isNaN(relativeTolerance) && integrator instanceof DormandPrinceIntegrator){
+            integrator = new DormandPrinceIntegrator(relativeTolerance, absoluteTolerance);
+        } else if(!Double.isNaN(relativeTolerance) && integrator instanceof RosenbrockIntegrator){
+            integrator = new RosenbrockIntegrator(relativeTolerance, absoluteTolerance);
+        }
+        integrator.setStepSize(stepSize);
+        integrator.setStatistics(derivativeEvaluations, acceptedSteps, rejectedSteps);
+        simulation.setIntegrator(integrator);
+
+        return simulation;
+    }
+
+    /**
+     * Writes the checkpoint to a file, replacing the file in one move once it is complete
+     * @param path the file to write to
+     */
+    public void write(Path path){
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try{
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))){
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeDouble(timeSimulated);
+
+                out.writeInt(chemicalNames.length);
+                for (int i = 0; i < chemicalNames.length; i++){
+                    out.writeUTF(chemicalNames[i]);
+                    out.writeDouble(amounts[i]);
+                }
+
+                out.writeInt(fwdReactionRates.length);
+                for (int r = 0; r < fwdReactionRates.length; r++){
+                    out.writeDouble(fwdReactionRates[r]);
+                    out.writeDouble(equilibriumConstants[r]);
+                    writeComponents(out, reactantSpecies[r], reactantCoefficients[r]);
+                    writeComponents(out, productSpecies[r], productCoefficients[r]);
+                }
+
+                out.writeInt(additionSpecies.length);
+                for (int i = 0; i < additionSpecies.length; i++){
+                    out.writeInt(additionSpecies[i]);
+                    out.writeDouble(additionTimes[i]);
+                    out.writeDouble(additionAmounts[i]);
+                }
+
+                out.writeUTF(integratorName);
+                out.writeDouble(relativeTolerance);
+                out.writeDouble(absoluteTolerance);
+                out.writeDouble(stepSize);
+                out.writeLong(derivativeEvaluations);
+                out.writeLong(acceptedSteps);
+                out.writeLong(rejectedSteps);
+
+                out.writeBoolean(reduceConservedChemicals);
+                out.writeDouble(fastEquilibriumSeparation);
+                out.writeDouble(fastEquilibriumError);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e){
+            throw new RuntimeException("Error while writing checkpoint " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the chemicals of one side of a reaction
+     * @param out the stream to write to
+     * @param species the chemical ids
+     * @param coefficients the coefficients
+     */
+    private static void writeComponents(DataOutputStream out, int[] species, int[] coefficients) throws IOException {
+        out.writeInt(species.length);
+        for (int i = 0; i < species.length; i++){
+            out.writeInt(species[i]);
+            out.writeInt(coefficients[i]);
+        }
+    }
+
+    /**
+     * Reads a checkpoint from a file
+     * @param path the file to read
+     * @return the checkpoint
+     */
+    public static SimulationCheckpoint read(Path path){
+        SimulationCheckpoint checkpoint = new SimulationCheckpoint();
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))){
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if(!Arrays.equals(magic, MAGIC)){
+                throw new RuntimeException(path + " is not a checkpoint file");
+            }
+            int version = in.readInt();
+            if(version != VERSION){
+                throw new RuntimeException(path + " has unsupported checkpoint version " + version);
+            }
+            checkpoint.timeSimulated = in.readDouble();
+
+            int chemicalCount = in.readInt();
+            checkpoint.chemicalNames = new String[chemicalCount];
+            checkpoint.amounts = new double[chemicalCount];
+            for (int i = 0; i < chemicalCount; i++){
+                checkpoint.chemicalNames[i] = in.readUTF();
+                checkpoint.amounts[i] = in.readDouble();
+            }
+
+            int reactionCount = in.readInt();
+            checkpoint.fwdReactionRates = new double[reactionCount];
+            checkpoint.equilibriumConstants = new double[reactionCount];
+            checkpoint.reactantSpecies = new int[reactionCount][];
+            checkpoint.reactantCoefficients = new int[reactionCount][];
+            checkpoint.productSpecies = new int[reactionCount][];
+            checkpoint.productCoefficients = new int[reactionCount][];
+            for (int r = 0; r < reactionCount; r++){
+                checkpoint.fwdReactionRates[r] = in.readDouble();
+                checkpoint.equilibriumConstants[r] = in.readDouble();
+                int[][] reactants = readComponents(in, chemicalCount);
+                checkpoint.reactantSpecies[r] = reactants[0];
+                checkpoint.reactantCoefficients[r] = reactants[1];
+                int[][] products = readComponents(in, chemicalCount);
+                checkpoint.productSpecies[r] = products[0];
+                checkpoint.productCoefficients[r] = products[1];
+            }
+
+            int additionCount = in.readInt();
+            checkpoint.additionSpecies = new int[additionCount];
+            checkpoint.additionTimes = new double[additionCount];
+            checkpoint.additionAmounts = new double[additionCount];
+            for (int i = 0; i < additionCount; i++){
+                checkpoint.additionSpecies[i] = readChemicalId(in, chemicalCount);
+                checkpoint.additionTimes[i] = in.readDouble();
+                checkpoint.additionAmounts[i] = in.readDouble();
+            }
+
+            checkpoint.integratorName = in.readUTF();
+            checkpoint.relativeTolerance = in.readDouble();
+            checkpoint.absoluteTolerance = in.readDouble();
+            checkpoint.stepSize = in.readDouble();
+            checkpoint.derivativeEvaluations = in.readLong();
+            checkpoint.acceptedSteps = in.readLong();
+            checkpoint.rejectedSteps = in.readLong();
+
+            checkpoint.reduceConservedChemicals = in.readBoolean();
+            checkpoint.fastEquilibriumSeparation = in.readDouble();
+            checkpoint.fastEquilibriumError = in.readDouble();
+
+        } catch (IOException | RuntimeException e){
+            throw new RuntimeException("Error while reading checkpoint " + path + ": " + e.getMessage());
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Reads the chemicals of one side of a reaction
+     * @param in the stream to read from
+     * @param chemicalCount the number of chemicals, to check the ids against
+     * @return the chemical ids followed by the coefficients
+     */
+    private static int[][] readComponents(DataInputStream in, int chemicalCount) throws IOException {
+        int count = in.readInt();
+        int[][] components = new int[2][count];
+        for (int i = 0; i < count; i++){
+            components[0][i] = readChemicalId(in, chemicalCount);
+            components[1][i] = in.readInt();
+        }
+        return components;
+    }
+
+    /**
+     * Reads the id of a chemical
+     * @param in the stream to read from
+     * @param chemicalCount the number of chemicals
+     * @return the id
+     */
+    private static int readChemicalId(DataInputStream in, int chemicalCount) throws IOException {
+        int id = in.readInt();
+        if(id < 0 || id >= chemicalCount){
+            throw new RuntimeException("chemical id " + id + " is out of range");
+        }
+        return id;
+    }
+
+    //Accessors
+
+    public double getTimeSimulated() {
+        return timeSimulated;
+    }
+
+    public int getChemicalCount() {
+        return chemicalNames.length;
+    }
+
+    public int getReactionCount() {
+        return fwdReactionRates.length;
+    }
+
+    public int getPendingAdditionCount() {
+        return additionSpecies.length;
+    }
+
+    public String getIntegratorName() {
+        return integratorName;
+    }
+
+    public double getStepSize() {
+        return stepSize;
+    }
+}
@@ -0,0 +1,154 @@
+package bart1259;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * The JDK Flight Recorder events of the simulator. They are recorded along with the JVM's own events when a recording
+ * is started, for example with -XX:StartFlightRecording=filename=run.jfr or jcmd, and cost nothing but a check while
+ * no recording is running
+ */
+public class SimulationEvents {
+
+    private static final String CATEGORY = "Chemical Reaction Simulator";
+
+    private SimulationEvents(){
+    }
+
+    /**
+     * A call of Simulation.simulate. Calls shorter than a millisecond are left out by default, as there is one per
+     * recorded point, the metrics count them all
+     */
+    @Name("bart1259.Simulate")
+    @Label("Simulate")
+    @Category({CATEGORY, "Simulation"})
+    @Description("Integration of the reactions over one recorded time step")
+    @Threshold("1 ms")
+    static class Simulate extends Event {
+
+        @Label("Simulated Start")
+        @Description("Simulated time at the start of the call")
+        double simulatedStart;
+
+        @Label("Simulated End")
+        @Description("Simulated time at the end of the call")
+        double simulatedEnd;
+
+        @Label("Integrator")
+        String integrator;
+
+        @Label("Accepted Steps")
+        long acceptedSteps;
+
+        @Label("Rejected Steps")
+        long rejectedSteps;
+
+        @Label("Derivative Evaluations")
+        long derivativeEvaluations;
+    }
+
+    /**
+     * Chemical additions applied together at one point in simulated time
+     */
+    @Name("bart1259.ChemicalAddition")
+    @Label("Chemical Addition")
+    @Category({CATEGORY, "Simulation"})
+    @Description("Chemical additions applied and the integrator reset")
+    static class ChemicalAddition extends Event {
+
+        @Label("Simulated Time")
+        @Description("Simulated time of the additions")
+        double simulatedTime;
+
+        @Label("Additions")
+        int additions;
+    }
+
+    /**
+     * A simulation file or text read by one of the loaders
+     */
+    @Name("bart1259.Load")
+    @Label("Load Simulation")
+    @Category({CATEGORY, "Input"})
+    @Description("Simulation file or text parsed")
+    static class Load extends Event {
+
+        @Label("Source")
+        @Description("The file, or text when parsed from the text boxes")
+        String source;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Chemicals")
+        int chemicals;
+
+        @Label("Reactions")
+        int reactions;
+    }
+
+    /**
+     * A run of the user interface, from pressing start until the run stopped
+     */
+    @Name("bart1259.Run")
+    @Label("Simulation Run")
+    @Category({CATEGORY, "User Interface"})
+    @Description("Simulation run started from the user interface")
+    static class Run extends Event {
+
+        @Label("Simulated Duration")
+        @Description("Simulated time of the run")
+        double simulatedDuration;
+
+        @Label("Delta Time")
+        double deltaTime;
+
+        @Label("Tracked Chemicals")
+        int trackedChemicals;
+
+        @Label("Resumed Points")
+        @Description("Points of the previous run the run continued after")
+        int resumedPoints;
+
+        @Label("Recorded Points")
+        int recordedPoints;
+    }
+
+    /**
+     * A chunk of points added to the graph
+     */
+    @Name("bart1259.ChartUpdate")
+    @Label("Chart Update")
+    @Category({CATEGORY, "User Interface"})
+    @Description("Downsampled points added to the graph on the application thread")
+    static class ChartUpdate extends Event {
+
+        @Label("Points")
+        int points;
+    }
+
+    /**
+     * Recorded points written to a file
+     */
+    @Name("bart1259.Export")
+    @Label("Export")
+    @Category({CATEGORY, "Output"})
+    @Description("Recorded points written to a file")
+    static class Export extends Event {
+
+        @Label("Path")
+        String path;
+
+        @Label("Format")
+        String format;
+
+        @Label("Points")
+        int points;
+    }
+}
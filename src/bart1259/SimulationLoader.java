@@ -1,17 +1,26 @@
 package bart1259;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
 
 /**
  * A class that loads the simulation
  */
 public class SimulationLoader {
 
+    //How long parsing and reading take, only recorded while metrics are enabled
+    private static final Metrics.Timer PARSE_TIMER = Metrics.timer("loader.parse");
+    private static final Metrics.Timer READ_TIMER = Metrics.timer("loader.read");
+    private static final Metrics.Counter PARSED_CHARACTERS = Metrics.counter("loader.characters");
+
     /**
      * Parses a chemical reaction from a string of chemicals, reactions and chemical additions
      * @param chemicals string containing chemicals
@@ -20,100 +29,31 @@ public class SimulationLoader {
      * @return the parsed simulation
      */
     public static Simulation parseSimulation(String chemicals, String reactions, String additions){
-        Simulation simulation = new Simulation();
-
-        parseChemicals(chemicals, simulation);
-        parseReactions(reactions, simulation);
-        parseAdditions(additions, simulation);
-
-        return simulation;
-    }
+        long start = PARSE_TIMER.start();
+        SimulationEvents.Load event = new SimulationEvents.Load();
+        event.begin();
 
-    /**
-     * Converts the text into a list of chemical reactions
-     * @param reactionText the text that contains the list of reactions
-     * @param simulation the simulations to add the reactions to
-     */
-    private static void parseReactions(String reactionText, Simulation simulation) {
+        SimulationParser parser = new SimulationParser();
 
-        Scanner scanner = new Scanner(reactionText);
-        String line = "";
-
-        int chemicalReactionNumber = 1;
-        //Loop through each reaction
-        while(scanner.hasNextLine()){
-            line = scanner.nextLine();
-            if(line.isEmpty()){
-                continue;
-            }
-            //Parse and then add the reaction to the simulation
-            simulation.addReaction(parseChemicalReaction(line, simulation.getChemicals(), chemicalReactionNumber));
-            chemicalReactionNumber++;
-        }
+        parser.parseChemicals(new StringReader(chemicals));
+        parser.parseReactions(new StringReader(reactions));
+        parser.parseAdditions(new StringReader(additions));
 
+        long size = chemicals.length() + reactions.length() + additions.length();
+        PARSE_TIMER.stop(start);
+        PARSED_CHARACTERS.add(size);
+        SimulationParser.commitLoad(event, "text", size, parser.getSimulation());
+        return parser.getSimulation();
     }
 
     /**
-     * Converts text into a list of chemicals
-     * @param chemicalText the text that contains the list of chemicals
-     * @param simulation the simulation to add the chemicals to
-     * @return a list of all the chemicals in the text
+     * Loads a simulation straight from a file without keeping its text in memory, which is much faster for large
+     * files than getSimulationVariables followed by parseSimulation
+     * @param path the path to the file
+     * @return the parsed simulation
      */
-    private static List<Chemical> parseChemicals(String chemicalText, Simulation simulation){
-
-        ArrayList<Chemical> chemicals = new ArrayList<>();
-
-        Scanner scanner = new Scanner(chemicalText);
-        String line = "";
-        int chemicalIndex = 1;
-
-        //Loop through every line
-        while(scanner.hasNextLine()){
-
-            line = scanner.nextLine();
-
-            //If the line is empty, skip it
-            if(line.isEmpty()){
-                continue;
-            }
-
-            Scanner lineScanner = new Scanner(line);
-
-            //Ensure name of chemical is not a number
-            if(lineScanner.hasNextDouble()){
-                throw new RuntimeException("chemical # " + chemicalIndex + ", cannot have the name of a number number: " + lineScanner.nextDouble());
-            }
-
-            //Get the name of the chemical
-            String chemicalName = lineScanner.next();
-            double intialAmount = 0.0;
-
-            //Try and get the initial amount of the chemical
-            if(lineScanner.hasNextDouble()){
-                intialAmount = lineScanner.nextDouble();
-                if(intialAmount < 0){
-                    throw new RuntimeException("chemical # " + chemicalIndex + " cannot have initial chemical amount less than 0: " + intialAmount);
-                }
-            }
-
-            //Ensure two identical chemicals cannot exist
-            for(Chemical c : chemicals){
-                if(c.getChemicalName().equals(chemicalName)){
-                    throw new RuntimeException("chemical # " + chemicalIndex + " has a name identical to that of another chemical");
-                }
-            }
-
-            //Make the chemical and add it to the simulation
-            Chemical chemical = new Chemical(chemicalName);
-            simulation.addChemical(chemical, intialAmount);
-            chemicals.add(chemical);
-
-            //Keep track of which chemical is being parsed
-            chemicalIndex++;
-
-        }
-
-        return chemicals;
+    public static Simulation loadSimulation(String path){
+        return SimulationParser.load(Paths.get(path)).getSimulation();
     }
 
     /**
@@ -126,241 +66,37 @@ public class SimulationLoader {
 
         ArrayList<Chemical> trackedChemicals = new ArrayList<>();
 
-        Scanner scanner = new Scanner(chemicalText);
-        String line = "";
-        int chemicalIndex = 1;
-
-        //Loop through every line
-        while(scanner.hasNextLine()){
-
-            line = scanner.nextLine();
-
-            //If the line is empty, skip it
-            if(line.isEmpty()){
-                continue;
-            }
-
-            Scanner lineScanner = new Scanner(line);
-
-            //Get the name of the chemical
-            String chemicalName = lineScanner.next();
-
-            //Get the last token
-            String token = "";
-            while(lineScanner.hasNext()){
-                token = lineScanner.next();
-            }
-
-            //If last token is #, then the chemical should be tracked
-            if(token.equals("#")){
-                for (Chemical c : chemicals){
-                    if(c.getChemicalName().equals(chemicalName)){
-                        trackedChemicals.add(c);
-                        break;
-                    }
-                }
-            }
-
+        HashMap<String, Chemical> chemicalsByName = new HashMap<>();
+        for (Chemical c : chemicals){
+            chemicalsByName.put(c.getChemicalName(), c);
         }
 
-        return trackedChemicals;
-    }
-
-    /**
-     * Parse a line into a chemical reaction
-     * @param line the line that represents the chemical reaction
-     * @param chemicals the chemicals that could be involved with the reaction
-     * @param index the index of the chemical reaction for error message generation
-     * @return the parsed chemical reaction
-     */
-    private static ChemicalReaction parseChemicalReaction(String line, List<Chemical> chemicals, int index) {
-
-        //Make a scanner for line in order to be able to break the line up into tokens
-        Scanner lineScanner = new Scanner(line);
-        ArrayList<ChemicalComponent> reactants = new ArrayList<>();
-        ArrayList<ChemicalComponent> products = new ArrayList<>();
-
-        int coefficient = 1;
-        boolean parsingReactants = true;
-
-        //Default k fwd and k equ values
-        double kfwd = -1.0;
-        double kequ = -1.0;
-
-        do {
-            if(lineScanner.hasNextInt()){
-                coefficient = lineScanner.nextInt();
-            }else {
-                String token = lineScanner.next();
-
-                //If an arrow is present, the next chemicals to be parsed will be products
-                if(token.equals("->")){
-                    parsingReactants = false;
-                    continue;
-                }
-
-                //Get past useless tokens
-                if(token.equals("+") || token.equals(";")){
-                    continue;
-                }
-
-                if(token.equals("Kfwd")){
-                    //Get past equals
-                    if(lineScanner.hasNext()){
-                        lineScanner.next();
-                    }
+        SimulationTokenizer tokenizer = new SimulationTokenizer(new StringReader(chemicalText));
 
-                    //Ensure next value is a number
-                    if(!lineScanner.hasNextDouble()){
-                        throw new RuntimeException("reaction # " + index + " has no Kfwd value. Missing an equals sign?");
-                    }
-
-                    //Get value of forward reaction coefficient
-                    kfwd = lineScanner.nextDouble();
-                    continue;
-                }
-
-                if(token.equals("Kequ")){
-                    //Get past equals
-                    if(lineScanner.hasNext()){
-                        lineScanner.next();
-                    }
-
-                    //Ensure next value is a number
-                    if(!lineScanner.hasNextDouble()){
-                        throw new RuntimeException("reaction # " + index + " has no Kequ value. Missing an equals sign?");
-                    }
-
-                    //Get value of equilibrium
-                    kequ = lineScanner.nextDouble();
-                    continue;
-                }
+        //Loop through every line
+        while (!tokenizer.isAtEnd()){
 
-                //We know token is a chemical
-                Chemical chemical = null;
-                for (Chemical c : chemicals){
-                    if(c.getChemicalName().equals(token)){
-                        chemical = c;
-                        break;
-                    }
-                }
+            //Get the name of the chemical, skipping empty lines
+            String chemicalName = tokenizer.next();
+            if(chemicalName != null){
 
-                //Ensure a chemical exists
-                if(chemical == null){
-                    throw new RuntimeException("reaction # " + index + " has unknown chemical " + token);
+                //Get the last token
+                String token = chemicalName;
+                for (String next = tokenizer.next(); next != null; next = tokenizer.next()){
+                    token = next;
                 }
 
-                //Add chemical component to correct side
-                if(parsingReactants){
-                    reactants.add(new ChemicalComponent(chemical, coefficient));
-                }else{
-                    products.add(new ChemicalComponent(chemical, coefficient));
+                //If last token is #, then the chemical should be tracked
+                Chemical chemical = chemicalsByName.get(chemicalName);
+                if(token.equals("#") && chemical != null){
+                    trackedChemicals.add(chemical);
                 }
-
-                //Reset coefficient to 1 now that the chemical has been parsed
-                coefficient = 1;
-
             }
 
-        } while (lineScanner.hasNext());
-
-        //Ensure fwd reaction values and equilibrium values were assigned
-        if(kfwd <= 0 || kequ <= 0){
-            throw new RuntimeException("reaction # " + index + " has no valid kfwd and/or kequ");
-        }
-
-        //Make the chemical reaction
-        ChemicalReaction rxn =  new ChemicalReaction(kfwd,kequ);
-
-        for(ChemicalComponent reactant : reactants){
-            rxn.addReactants(reactant);
+            tokenizer.nextLine();
         }
-        for(ChemicalComponent product : products){
-            rxn.addProducts(product);
-        }
-
-        return rxn;
-    }
-
-    /**
-     * Parses chemical additions from text
-     * @param additionsText the text that contains the additions data
-     * @param simulation the simulation to add the additions to
-     */
-    private static void parseAdditions(String additionsText, Simulation simulation) {
-        Scanner scanner = new Scanner(additionsText);
-        String line = "";
-
-        int index = 1;
-
-        //Go through all the lines of the additions
-        while(scanner.hasNextLine()){
-            line = scanner.nextLine();
-            //Skip the line if it is empty
-            if(line.isEmpty()){
-                continue;
-            }
-            //Add a the chemical to the list of additions
-            simulation.addChemicalAddition(parseChemicalAddition(line, simulation.getChemicals(), index));
-            index++;
-        }
-    }
-
-    /**
-     * Parses a chemical addition from a line of text
-     * @param line the line that represents the chemical addition
-     * @param chemicals the chemicals that could be involved in the addition
-     * @param index the index of the chemical reaction for error message generation
-     * @return the parsed chemical addition
-     */
-    private static AddedChemical parseChemicalAddition(String line, List<Chemical> chemicals, int index) {
-
-        //Make a scanner for the line that will allow the line to be broken up token by token
-        Scanner lineScanner = new Scanner(line);
-
-        double time = 0.0;
-        double amount = 0.0;
-        Chemical chemical = null;
-
-        do {
-            String token = lineScanner.next();
-
-            if(token.equals("t")){
-                //Get past equals
-                if(lineScanner.hasNext()){
-                    lineScanner.next();
-                }
-                //Ensure next value is number
-                if(!lineScanner.hasNextDouble()){
-                    throw new RuntimeException("addition # " + index + " has no time value. Missing an equals sign?");
-                }
-                //Get value of forward reaction coefficient
-                time = lineScanner.nextDouble();
-                continue;
-            }
-
-            //We know token is a chemical
-            for (Chemical c : chemicals){
-                if(c.getChemicalName().equals(token)){
-                    chemical = c;
-                    break;
-                }
-            }
-
-            //If the chemical cannot be found throw an error
-            if(chemical == null){
-                throw new RuntimeException("addition # " + index + " has no valid chemical");
-            }
-
-            //Ensure there is a valid addition amount
-            if(!lineScanner.hasNextDouble()){
-                throw new RuntimeException("addition # " + index + " has no valid addition amount");
-            }
-            amount = lineScanner.nextDouble();
-        } while (lineScanner.hasNext());
-
-        return new AddedChemical(chemical, time, amount);
 
+        return trackedChemicals;
     }
 
     /**
@@ -370,65 +106,49 @@ public class SimulationLoader {
      */
     public static String[] getSimulationVariables(String path){
 
-        String[] variables = new String[3];
+        long start = READ_TIMER.start();
+        StringBuilder[] sections = {new StringBuilder(), new StringBuilder(), new StringBuilder()};
+        int section = -1;
 
-        try(Scanner fileScanner = new Scanner(new File(path))){
-            String line = "";
-            while (!line.trim().toUpperCase().equals("~CHEMICALS")){
-                line = fileScanner.nextLine();
-            }
+        try(BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)){
+            String line;
+            while ((line = reader.readLine()) != null){
 
-            String chemicalDefinitionsText = "";
-            line = fileScanner.nextLine();
-
-            //parse chemicals
-            while (!line.trim().toUpperCase().equals("~REACTIONS")){
-                if(line.isEmpty()){
-                    line = fileScanner.nextLine();
+                //Switch sections on the headers
+                String header = line.trim().toUpperCase();
+                if(header.equals("~CHEMICALS")){
+                    section = 0;
                     continue;
                 }
-                chemicalDefinitionsText += line + "\r\n";
-                line = fileScanner.nextLine();
-            }
-
-            String chemicalReactionsText = "";
-            line = fileScanner.nextLine();
-
-            //make reaction list
-            do{
-                if(line.isEmpty()){
-                    line = fileScanner.nextLine();
+                if(header.equals("~REACTIONS")){
+                    section = 1;
                     continue;
                 }
-
-                chemicalReactionsText += line + "\r\n";
-                line = fileScanner.nextLine();
-
-            } while(fileScanner.hasNextLine() && !line.trim().toUpperCase().equals("~ADDITIONS"));
-
-            String chemicalAdditionsText = "";
-
-            //parse chemical additions
-            do{
-                line = fileScanner.nextLine();
-                if(line.isEmpty()){
+                if(header.equals("~ADDITIONS")){
+                    section = 2;
                     continue;
                 }
 
-                chemicalAdditionsText += line + "\r\n";
-            }while(fileScanner.hasNextLine());
-
-            //Prepare the variable array
-            variables[0] = chemicalDefinitionsText;
-            variables[1] = chemicalReactionsText;
-            variables[2] = chemicalAdditionsText;
+                //Skip empty lines and anything before the first section
+                if(section < 0 || line.isEmpty()){
+                    continue;
+                }
+                sections[section].append(line).append("\r\n");
+            }
+        } catch (NoSuchFileException e){
+            throw new RuntimeException("File not found " + path);
+        } catch (IOException e){
+            throw new RuntimeException("Error while reading " + path + ": " + e.getMessage());
+        }
 
-        } catch (FileNotFoundException e){
-            throw new RuntimeException("File not found " + e.getMessage());
-        } catch (NoSuchElementException e){
+        if(section < 0){
             throw new RuntimeException("Unexpected text in simulation file, File may be corrupt");
         }
 
-        return variables;
+        READ_TIMER.stop(start);
+
+        //Prepare the variable array
+        return new String[]{sections[0].toString(), sections[1].toString(), sections[2].toString()};
     }
+
 }
@@ -0,0 +1,464 @@
+package bart1259;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Parses simulation text into a simulation in a single pass. Text is read token by token from a reader and chemicals
+ * are looked up by name in a hash map, so the time to parse grows linearly with the size of the text. Errors report
+ * the line and column they were found at
+ */
+public class SimulationParser {
+
+    private static final String CHEMICALS_SECTION = "~CHEMICALS";
+    private static final String REACTIONS_SECTION = "~REACTIONS";
+    private static final String ADDITIONS_SECTION = "~ADDITIONS";
+
+    //How long loading files takes, only recorded while metrics are enabled
+    private static final Metrics.Timer LOAD_TIMER = Metrics.timer("loader.load");
+    private static final Metrics.Counter LOADED_BYTES = Metrics.counter("loader.bytes");
+
+    private SimulationTokenizer tokenizer;
+    private Simulation simulation;
+
+    //Every chemical parsed so far by name
+    private HashMap<String, Chemical> chemicals;
+    private ArrayList<Chemical> trackedChemicals;
+
+    private int chemicalIndex = 1;
+    private int reactionIndex = 1;
+    private int additionIndex = 1;
+
+    /**
+     * Creates a parser with an empty simulation
+     */
+    public SimulationParser(){
+        simulation = new Simulation();
+        chemicals = new HashMap<>();
+        trackedChemicals = new ArrayList<>();
+    }
+
+    /**
+     * Loads a simulation file
+     * @param path the path to the file
+     * @return the parser holding the simulation and its tracked chemicals
+     */
+    public static SimulationParser load(Path path){
+        long start = LOAD_TIMER.start();
+        SimulationEvents.Load event = new SimulationEvents.Load();
+        event.begin();
+
+        SimulationParser parser = new SimulationParser();
+        long size;
+        try(BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)){
+            parser.parseFile(reader);
+            size = Files.size(path);
+        } catch (NoSuchFileException e){
+            throw new RuntimeException("File not found " + path);
+        } catch (IOException e){
+            throw new RuntimeException("Error while reading " + path + ": " + e.getMessage());
+        }
+
+        LOAD_TIMER.stop(start);
+        LOADED_BYTES.add(size);
+        commitLoad(event, path.toString(), size, parser.getSimulation());
+        return parser;
+    }
+
+    /**
+     * Fills in and commits a load event if a flight recording wants it
+     * @param event the event, begun before loading
+     * @param source the file or a description of the text loaded
+     * @param size the size of the file in bytes or of the text in characters
+     * @param simulation the loaded simulation
+     */
+    static void commitLoad(SimulationEvents.Load event, String source, long size, Simulation simulation){
+        if(event.shouldCommit()){
+            event.source = source;
+            event.size = size;
+            event.chemicals = simulation.getChemicals().size();
+            event.reactions = simulation.getReactionCount();
+            event.commit();
+        }
+    }
+
+    /**
+     * Parses a whole simulation file, with its ~Chemicals, ~Reactions and ~Additions sections. Anything before the
+     * first section is ignored
+     * @param reader the reader to read the file from
+     */
+    public void parseFile(Reader reader){
+        tokenizer = new SimulationTokenizer(reader);
+
+        //Skip to the first section
+        String header = null;
+        while (header == null && !tokenizer.isAtEnd()){
+            String token = tokenizer.next();
+            if(token != null && token.startsWith("~")){
+                header = token;
+            }
+            tokenizer.nextLine();
+        }
+
+        while (header != null){
+            switch (header.toUpperCase()){
+                case CHEMICALS_SECTION:
+                    header = parseChemicalLines();
+                    break;
+                case REACTIONS_SECTION:
+                    header = parseReactionLines();
+                    break;
+                case ADDITIONS_SECTION:
+                    header = parseAdditionLines();
+                    break;
+                default:
+                    throw new RuntimeException("unknown section " + header + " (" + tokenizer.getLocation() + ")");
+            }
+        }
+    }
+
+    /**
+     * Parses chemicals, one per line
+     * @param reader the reader to read the chemicals from
+     */
+    public void parseChemicals(Reader reader){
+        tokenizer = new SimulationTokenizer(reader);
+        parseChemicalLines();
+    }
+
+    /**
+     * Parses reactions, one per line
+     * @param reader the reader to read the reactions from
+     */
+    public void parseReactions(Reader reader){
+        tokenizer = new SimulationTokenizer(reader);
+        parseReactionLines();
+    }
+
+    /**
+     * Parses chemical additions, one per line
+     * @param reader the reader to read the additions from
+     */
+    public void parseAdditions(Reader reader){
+        tokenizer = new SimulationTokenizer(reader);
+        parseAdditionLines();
+    }
+
+    /**
+     * Parses chemical lines until the end of the text or the next section
+     * @return the header of the next section or null at the end of the text
+     */
+    private String parseChemicalLines(){
+        while (!tokenizer.isAtEnd()){
+            String token = tokenizer.next();
+            if(token != null && token.startsWith("~")){
+                tokenizer.nextLine();
+                return token;
+            }
+            if(token != null){
+                parseChemical(token);
+                chemicalIndex++;
+            }
+            tokenizer.nextLine();
+        }
+        return null;
+    }
+
+    /**
+     * Parses reaction lines until the end of the text or the next section
+     * @return the header of the next section or null at the end of the text
+     */
+    private String parseReactionLines(){
+        while (!tokenizer.isAtEnd()){
+            String token = tokenizer.next();
+            if(token != null && token.startsWith("~")){
+                tokenizer.nextLine();
+                return token;
+            }
+            if(token != null){
+                simulation.addReaction(parseReaction(token));
+                reactionIndex++;
+            }
+            tokenizer.nextLine();
+        }
+        return null;
+    }
+
+    /**
+     * Parses addition lines until the end of the text or the next section
+     * @return the header of the next section or null at the end of the text
+     */
+    private String parseAdditionLines(){
+        while (!tokenizer.isAtEnd()){
+            String token = tokenizer.next();
+            if(token != null && token.startsWith("~")){
+                tokenizer.nextLine();
+                return token;
+            }
+            if(token != null){
+                simulation.addChemicalAddition(parseAddition(token));
+                additionIndex++;
+            }
+            tokenizer.nextLine();
+        }
+        return null;
+    }
+
+    /**
+     * Parses the rest of a chemical line
+     * @param name the first token of the line, the name of the chemical
+     */
+    private void parseChemical(String name){
+
+        //Ensure name of chemical is not a number
+        if(parseNumber(name) != null){
+            throw error("chemical # " + chemicalIndex + ", cannot have the name of a number number: " + name);
+        }
+
+        //Ensure two identical chemicals cannot exist
+        if(chemicals.containsKey(name)){
+            throw error("chemical # " + chemicalIndex + " has a name identical to that of another chemical");
+        }
+
+        //Try and get the initial amount of the chemical
+        double initialAmount = 0.0;
+        String token = tokenizer.next();
+        String lastToken = token;
+        Double amount = token == null ? null : parseNumber(token);
+        if(amount != null){
+            initialAmount = amount;
+            if(initialAmount < 0){
+                throw error("chemical # " + chemicalIndex + " cannot have initial chemical amount less than 0: " + initialAmount);
+            }
+        }
+
+        //If the last token is #, then the chemical should be tracked
+        while (token != null){
+            lastToken = token;
+            token = tokenizer.next();
+        }
+
+        //Make the chemical and add it to the simulation
+        Chemical chemical = new Chemical(name);
+        chemicals.put(name, chemical);
+        simulation.addChemical(chemical, initialAmount);
+        if("#".equals(lastToken)){
+            trackedChemicals.add(chemical);
+        }
+    }
+
+    /**
+     * Parses the rest of a reaction line
+     * @param token the first token of the line
+     * @return the parsed reaction
+     */
+    private ChemicalReaction parseReaction(String token){
+
+        ArrayList<ChemicalComponent> reactants = new ArrayList<>();
+        ArrayList<ChemicalComponent> products = new ArrayList<>();
+
+        int coefficient = 1;
+        boolean parsingReactants = true;
+
+        //Default k fwd and k equ values
+        double kfwd = -1.0;
+        double kequ = -1.0;
+
+        for (; token != null; token = tokenizer.next()){
+
+            Integer integer = parseInteger(token);
+            if(integer != null){
+                coefficient = integer;
+                continue;
+            }
+
+            //If an arrow is present, the next chemicals to be parsed will be products
+            if(token.equals("->")){
+                parsingReactants = false;
+                continue;
+            }
+
+            //Get past useless tokens
+            if(token.equals("+") || token.equals(";")){
+                continue;
+            }
+
+            if(token.equals("Kfwd")){
+                kfwd = parseConstant("reaction # " + reactionIndex + " has no Kfwd value. Missing an equals sign?");
+                continue;
+            }
+
+            if(token.equals("Kequ")){
+                kequ = parseConstant("reaction # " + reactionIndex + " has no Kequ value. Missing an equals sign?");
+                continue;
+            }
+
+            //We know token is a chemical
+            Chemical chemical = chemicals.get(token);
+            if(chemical == null){
+                throw error("reaction # " + reactionIndex + " has unknown chemical " + token);
+            }
+
+            //Add chemical component to correct side
+            if(parsingReactants){
+                reactants.add(new ChemicalComponent(chemical, coefficient));
+            } else {
+                products.add(new ChemicalComponent(chemical, coefficient));
+            }
+
+            //Reset coefficient to 1 now that the chemical has been parsed
+            coefficient = 1;
+        }
+
+        //Ensure fwd reaction values and equilibrium values were assigned
+        if(kfwd <= 0 || kequ <= 0){
+            throw error("reaction # " + reactionIndex + " has no valid kfwd and/or kequ");
+        }
+
+        //Make the chemical reaction
+        ChemicalReaction rxn = new ChemicalReaction(kfwd, kequ);
+        for (ChemicalComponent reactant : reactants){
+            rxn.addReactant(reactant);
+        }
+        for (ChemicalComponent product : products){
+            rxn.addProduct(product);
+        }
+        return rxn;
+    }
+
+    /**
+     * Parses the value of a constant, skipping the equals sign in front of it
+     * @param message the error message if there is no value
+     * @return the value
+     */
+    private double parseConstant(String message){
+        tokenizer.next();
+        String token = tokenizer.next();
+        Double value = token == null ? null : parseNumber(token);
+        if(value == null){
+            throw error(message);
+        }
+        return value;
+    }
+
+    /**
+     * Parses the rest of an addition line
+     * @param token the first token of the line
+     * @return the parsed addition
+     */
+    private AddedChemical parseAddition(String token){
+
+        double time = 0.0;
+        double amount = 0.0;
+        Chemical chemical = null;
+
+        for (; token != null; token = tokenizer.next()){
+
+            if(token.equals("t")){
+                time = parseConstant("addition # " + additionIndex + " has no time value. Missing an equals sign?");
+                continue;
+            }
+
+            //We know token is a chemical
+            chemical = chemicals.get(token);
+            if(chemical == null){
+                throw error("addition # " + additionIndex + " has no valid chemical");
+            }
+
+            //Ensure there is a valid addition amount
+            String amountToken = tokenizer.next();
+            Double value = amountToken == null ? null : parseNumber(amountToken);
+            if(value == null){
+                throw error("addition # " + additionIndex + " has no valid addition amount");
+            }
+            amount = value;
+        }
+
+        if(chemical == null){
+            throw error("addition # " + additionIndex + " has no valid chemical");
+        }
+
+        return new AddedChemical(chemical, time, amount);
+    }
+
+    /**
+     * Parses a token as a number
+     * @param token the token
+     * @return the number or null if the token is not a number
+     */
+    private static Double parseNumber(String token){
+        if(!startsLikeNumber(token)){
+            return null;
+        }
+        try{
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    /**
+     * Parses a token as an integer
+     * @param token the token
+     * @return the integer or null if the token is not an integer
+     */
+    private static Integer parseInteger(String token){
+        if(!startsLikeNumber(token)){
+            return null;
+        }
+        try{
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e){
+            return null;
+        }
+    }
+
+    /**
+     * Checks the first character of a token so names are not run through the number parsers
+     * @param token the token
+     * @return true if the token could be a number
+     */
+    private static boolean startsLikeNumber(String token){
+        if(token.isEmpty()){
+            return false;
+        }
+        char c = token.charAt(0);
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+    }
+
+    /**
+     * Creates an error with the location of the last token
+     * @param message the error message
+     * @return the error
+     */
+    private RuntimeException error(String message){
+        return new RuntimeException(message + " (" + tokenizer.getLocation() + ")");
+    }
+
+    /**
+     * Gets a parsed chemical by name
+     * @param name the name of the chemical
+     * @return the chemical or null if there is no chemical with that name
+     */
+    public Chemical getChemical(String name){
+        return chemicals.get(name);
+    }
+
+    //Accessors
+
+    public Simulation getSimulation() {
+        return simulation;
+    }
+
+    public List<Chemical> getTrackedChemicals() {
+        return trackedChemicals;
+    }
+}
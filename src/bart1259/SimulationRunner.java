@@ -0,0 +1,136 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a simulation for a duration and records the concentrations of the tracked chemicals at regular intervals.
+ * A run can be cancelled from another thread and its progress can be read while it runs
+ */
+public class SimulationRunner {
+
+    private Simulator simulation;
+    private double duration;
+    private double deltaTime;
+    private Chemical[] trackedChemicals;
+
+    //Takes checkpoints as the run goes, null for none
+    private CheckpointWriter checkpointWriter = null;
+
+    private volatile boolean cancelled = false;
+    private volatile double progress = 0.0;
+
+    /**
+     * Creates a runner
+     * @param simulation the simulation to run
+     * @param duration how long to run the simulation for
+     * @param deltaTime the time between recorded points
+     * @param trackedChemicals the chemicals whose concentrations are recorded
+     */
+    public SimulationRunner(Simulator simulation, double duration, double deltaTime, Chemical... trackedChemicals){
+        this.simulation = simulation;
+        this.duration = duration;
+        this.deltaTime = deltaTime;
+        this.trackedChemicals = trackedChemicals;
+    }
+
+    /**
+     * Runs the simulation, recording the starting concentrations and then the concentrations after every delta time
+     * @param sink where the recorded concentrations are sent
+     * @return true if the run finished, false if it was cancelled
+     */
+    public boolean run(TrajectorySink sink){
+
+        List<String> columnNames = new ArrayList<>();
+        for (Chemical c : trackedChemicals){
+            columnNames.add(c.getChemicalName());
+        }
+
+        double[] values = new double[trackedChemicals.length];
+        double startTime = simulation.getTimeSimulated();
+
+        //Count the steps instead of adding up delta time so rounding errors don't add or drop a point
+        long steps = Math.round(duration / deltaTime);
+
+        sink.begin(columnNames);
+        try{
+            record(sink, startTime, values);
+
+            for (long i = 1; i <= steps; i++){
+                if(cancelled){
+                    return false;
+                }
+
+                simulation.simulate(deltaTime);
+                record(sink, startTime + i * deltaTime, values);
+                progress = (double) i / steps;
+                if(checkpointWriter != null){
+                    checkpointWriter.update();
+                }
+            }
+        } finally {
+            sink.end();
+        }
+
+        progress = 1.0;
+        return true;
+    }
+
+    /**
+     * Sends the current concentrations of the tracked chemicals to a sink
+     * @param sink the sink
+     * @param time the time of the point
+     * @param values the array to put the concentrations in
+     */
+    private void record(TrajectorySink sink, double time, double[] values){
+        for (int i = 0; i < trackedChemicals.length; i++){
+            values[i] = simulation.getConcentration(trackedChemicals[i]);
+        }
+        sink.record(time, values);
+    }
+
+    /**
+     * Asks the run to stop, it stops before the next step
+     */
+    public void cancel(){
+        cancelled = true;
+    }
+
+    //Accessors
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public double getProgress() {
+        return progress;
+    }
+
+    public Simulator getSimulation() {
+        return simulation;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public double getDeltaTime() {
+        return deltaTime;
+    }
+
+    public Chemical[] getTrackedChemicals() {
+        return trackedChemicals;
+    }
+
+    public CheckpointWriter getCheckpointWriter() {
+        return checkpointWriter;
+    }
+
+    /**
+     * Takes checkpoints of the simulation while it runs, the writer is not closed by the run
+     * @param checkpointWriter the writer, null to take no checkpoints
+     */
+    public void setCheckpointWriter(CheckpointWriter checkpointWriter) {
+        this.checkpointWriter = checkpointWriter;
+    }
+}
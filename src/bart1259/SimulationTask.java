@@ -0,0 +1,176 @@
+package bart1259;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Runs a simulation on a background thread. Every recorded point is kept in a full resolution trajectory, while
+ * a downsampled copy meant for the graph is handed to the JavaFX application thread in chunks at most once per
+ * frame, so the user interface stays responsive however fast the simulation produces points
+ */
+public class SimulationTask extends Task<Boolean> {
+
+    //Shortest time between two chunks being handed to the application thread
+    private static final long FRAME_INTERVAL_NANOS = 1_000_000_000L / 30;
+
+    private SimulationRunner runner;
+    private Trajectory trajectory;
+    private MinMaxDownsampler downsampler;
+    private Consumer<Trajectory[]> chunkConsumer;
+
+    //The points of an earlier run this run continues from and the ladder that takes snapshots, null if not used
+    private Trajectory previous;
+    private int previousPoints;
+    private SnapshotLadder snapshotLadder;
+
+    //Downsampled points waiting to be picked up by the application thread, guarded by lock
+    private final Object lock = new Object();
+    private Trajectory[] pending;
+    private boolean deliveryScheduled = false;
+
+    /**
+     * Creates a simulation task
+     * @param runner the runner that runs the simulation
+     * @param maxPointsPerSeries roughly how many points each chemical may have on the graph
+     * @param chunkConsumer called on the application thread with every chunk of downsampled points, one single
+     *                      column trajectory per tracked chemical
+     */
+    public SimulationTask(SimulationRunner runner, int maxPointsPerSeries, Consumer<Trajectory[]> chunkConsumer){
+        this(runner, maxPointsPerSeries, chunkConsumer, null, 0, null);
+    }
+
+    /**
+     * Creates a simulation task that continues an earlier run and takes snapshots for later runs to continue from
+     * @param runner the runner that runs the simulation
+     * @param maxPointsPerSeries roughly how many points each chemical may have on the graph
+     * @param chunkConsumer called on the application thread with every chunk of downsampled points, one single
+     *                      column trajectory per tracked chemical
+     * @param previous the points of the earlier run, null if the run starts from zero
+     * @param previousPoints how many points of the earlier run come before the first point of this run
+     * @param snapshotLadder the ladder to take snapshots for, null to take none
+     */
+    public SimulationTask(SimulationRunner runner, int maxPointsPerSeries, Consumer<Trajectory[]> chunkConsumer,
+                          Trajectory previous, int previousPoints, SnapshotLadder snapshotLadder){
+        this.runner = runner;
+        this.chunkConsumer = chunkConsumer;
+        this.previous = previousPoints > 0 ? previous : null;
+        this.previousPoints = previousPoints;
+        this.snapshotLadder = snapshotLadder;
+        double startTime = runner.getSimulation().getTimeSimulated();
+        double endTime = startTime + runner.getDuration();
+        if(this.previous != null){
+            startTime = previous.getTime(0);
+        }
+        trajectory = new Trajectory();
+        downsampler = new MinMaxDownsampler(startTime, endTime, Math.max(1, maxPointsPerSeries / 4));
+    }
+
+    /**
+     * Runs the simulation on the background thread
+     * @return true if the simulation finished, false if it was stopped
+     */
+    @Override
+    protected Boolean call() {
+        TrajectorySink sink = new ChunkingSink();
+        if(snapshotLadder != null && runner.getSimulation() instanceof Simulation){
+            sink = snapshotLadder.record((Simulation) runner.getSimulation(), previousPoints, sink);
+        }
+        return runner.run(sink);
+    }
+
+    /**
+     * Asks the simulation to stop before its next step. The task is not cancelled, call returns false once the run
+     * has stopped and the task then succeeds, so nothing reads the recorded points while the run may still add to them
+     */
+    public void stop() {
+        runner.cancel();
+    }
+
+    /**
+     * Moves a chunk into the pending points and schedules a delivery if none is waiting
+     * @param chunk the chunk to hand over
+     */
+    private void publish(Trajectory[] chunk){
+        synchronized (lock){
+            if(pending == null){
+                pending = chunk;
+            } else {
+                for (int c = 0; c < chunk.length; c++){
+                    pending[c].append(chunk[c]);
+                }
+            }
+            if(deliveryScheduled){
+                return;
+            }
+            deliveryScheduled = true;
+        }
+        Platform.runLater(this::deliver);
+    }
+
+    /**
+     * Hands all pending points to the chunk consumer, runs on the application thread
+     */
+    private void deliver(){
+        Trajectory[] chunk;
+        synchronized (lock){
+            chunk = pending;
+            pending = null;
+            deliveryScheduled = false;
+        }
+        if(chunk != null){
+            chunkConsumer.accept(chunk);
+        }
+    }
+
+    /**
+     * Gets every recorded point at full resolution, only safe to read once the task is no longer running
+     * @return the recorded trajectory
+     */
+    public Trajectory getTrajectory() {
+        return trajectory;
+    }
+
+    /**
+     * Records every point and publishes the downsampled points once per frame
+     */
+    private class ChunkingSink implements TrajectorySink {
+
+        private long lastPublish = System.nanoTime();
+
+        @Override
+        public void begin(List<String> columnNames) {
+            trajectory.begin(columnNames);
+            downsampler.begin(columnNames);
+
+            //The points the earlier run recorded before this run's first point
+            if(previous != null){
+                previous.recordPoints(trajectory, previousPoints);
+                previous.recordPoints(downsampler, previousPoints);
+            }
+        }
+
+        @Override
+        public void record(double time, double[] values) {
+            trajectory.record(time, values);
+            downsampler.record(time, values);
+
+            long now = System.nanoTime();
+            if(now - lastPublish >= FRAME_INTERVAL_NANOS){
+                publish(downsampler.takeOutput());
+                lastPublish = now;
+                updateProgress(runner.getProgress(), 1.0);
+            }
+        }
+
+        @Override
+        public void end() {
+            trajectory.end();
+            downsampler.end();
+            publish(downsampler.takeOutput());
+            updateProgress(runner.getProgress(), 1.0);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package bart1259;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits simulation text into whitespace separated tokens, one line at a time, while keeping track of the line and
+ * column of every token. Characters are read straight from a reader through a small buffer, so text of any size is
+ * tokenized in a single pass without holding it in memory
+ */
+public class SimulationTokenizer {
+
+    private Reader reader;
+    private char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+
+    //Position of the next character, lines and columns start at 1
+    private int line = 1;
+    private int column = 1;
+
+    //Position of the last token returned by next, or of the end of the line if there were no more tokens
+    private int tokenLine = 1;
+    private int tokenColumn = 1;
+
+    private StringBuilder token = new StringBuilder();
+
+    /**
+     * Creates a tokenizer
+     * @param reader the reader to read the text from
+     */
+    public SimulationTokenizer(Reader reader){
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the next token of the current line
+     * @return the token, or null if the line has no more tokens
+     */
+    public String next(){
+
+        //Skip the whitespace before the token, any character that ends a token is skipped so a token is never empty
+        int c = peek();
+        while (c != '\n' && c != -1 && Character.isWhitespace(c)){
+            advance();
+            c = peek();
+        }
+
+        tokenLine = line;
+        tokenColumn = column;
+        if(c == '\n' || c == -1){
+            return null;
+        }
+
+        token.setLength(0);
+        while (c != -1 && !Character.isWhitespace(c)){
+            token.append((char) c);
+            advance();
+            c = peek();
+        }
+        return token.toString();
+    }
+
+    /**
+     * Skips the rest of the current line
+     * @return true if there is another line to read
+     */
+    public boolean nextLine(){
+        int c = peek();
+        while (c != '\n' && c != -1){
+            advance();
+            c = peek();
+        }
+        if(c == -1){
+            return false;
+        }
+        advance();
+        return peek() != -1;
+    }
+
+    /**
+     * Checks if all the text has been read
+     * @return true if there are no more characters
+     */
+    public boolean isAtEnd(){
+        return peek() == -1;
+    }
+
+    /**
+     * Gets the next character without consuming it
+     * @return the character or -1 at the end of the text
+     */
+    private int peek(){
+        if(position == limit){
+            try{
+                limit = reader.read(buffer, 0, buffer.length);
+            } catch (IOException e){
+                throw new RuntimeException("Error while reading the simulation: " + e.getMessage());
+            }
+            position = 0;
+            if(limit <= 0){
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    /**
+     * Consumes the next character
+     */
+    private void advance(){
+        if(buffer[position++] == '\n'){
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+    }
+
+    /**
+     * Describes where the last token is
+     * @return the line and column of the last token
+     */
+    public String getLocation(){
+        return "line " + tokenLine + ", column " + tokenColumn;
+    }
+
+    //Accessors
+
+    public int getTokenLine() {
+        return tokenLine;
+    }
+
+    public int getTokenColumn() {
+        return tokenColumn;
+    }
+}
@@ -0,0 +1,28 @@
+package bart1259;
+
+/**
+ * Something that advances the concentrations of a set of chemicals through time, either deterministically or
+ * stochastically
+ */
+public interface Simulator {
+
+    /**
+     * Advances the simulation
+     * @param deltaTime the length of time to simulate
+     */
+    void simulate(double deltaTime);
+
+    /**
+     * Gets how much time has been simulated
+     * @return the simulated time
+     */
+    double getTimeSimulated();
+
+    /**
+     * Gets the current concentration of a chemical
+     * @param chemical the chemical
+     * @return the concentration, 0 if the chemical is not in the simulation
+     */
+    double getConcentration(Chemical chemical);
+
+}
@@ -0,0 +1,270 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps snapshots of the state of a run in memory so a re-run that only changes later chemical additions can start
+ * from the last snapshot before the first change instead of from zero. Snapshots are taken at recorded points, at
+ * most MAX_SNAPSHOTS per run: once the ladder is full every other snapshot is dropped and the spacing doubles, so
+ * the snapshots stay spread over the whole run however long it is. A new run is compared with the previous one, any
+ * change to the chemicals, reactions, integrator, tracked chemicals or time step starts over, and a change to the
+ * additions keeps the snapshots from before the earliest changed addition
+ */
+public class SnapshotLadder {
+
+    //Most snapshots kept per run, a snapshot is a copy of every concentration
+    private static final int MAX_SNAPSHOTS = 64;
+
+    //The run the snapshots belong to, null before the first run
+    private Model model;
+    private List<Snapshot> snapshots = new ArrayList<>();
+
+    //Every how many recorded points a snapshot is taken
+    private long spacing = 1;
+
+    /**
+     * Moves a new simulation forward to the last snapshot it shares with the previous run, if there is one. The
+     * simulation must not have been run yet, and the snapshots after the one it resumes from are dropped
+     * @param simulation the new simulation
+     * @param duration how long the new run lasts from time zero
+     * @param deltaTime the time between recorded points
+     * @param trackedChemicals the chemicals the new run records
+     * @param previousPoints how many points of the previous run are still available to show before the snapshot
+     * @return the number of recorded points of the previous run the new run continues after, 0 to start from zero
+     */
+    public int resume(Simulation simulation, double duration, double deltaTime, Chemical[] trackedChemicals, int previousPoints){
+
+        Model newModel = new Model(simulation, deltaTime, trackedChemicals);
+        double firstChange = model == null ? Double.NEGATIVE_INFINITY : model.findFirstChange(newModel);
+        model = newModel;
+
+        //A snapshot is usable if every addition up to its time is unchanged and the new run lasts past it
+        int usable = snapshots.size() - 1;
+        while (usable >= 0 && !(snapshots.get(usable).time < firstChange && snapshots.get(usable).time < duration
+                && snapshots.get(usable).point <= previousPoints)){
+            usable--;
+        }
+        if(usable < 0){
+            snapshots.clear();
+            spacing = 1;
+            return 0;
+        }
+
+        //The snapshot the run continues from is retaken when the run records its first point
+        Snapshot snapshot = snapshots.get(usable);
+        snapshots.subList(usable, snapshots.size()).clear();
+        simulation.resumeFrom(snapshot.timeSimulated, snapshot.concentrations, snapshot.fastEquilibriumError, snapshot.appliedAdditions);
+        Integrator integrator = simulation.getIntegrator();
+        integrator.setStepSize(snapshot.stepSize);
+        integrator.setStatistics(snapshot.derivativeEvaluations, snapshot.acceptedSteps, snapshot.rejectedSteps);
+        return (int) snapshot.point;
+    }
+
+    /**
+     * Wraps a sink so a snapshot of a simulation is taken at every so many recorded points
+     * @param simulation the simulation being recorded
+     * @param firstPoint the number of points recorded before the run, as returned by resume
+     * @param sink the sink the points are passed on to
+     * @return the wrapping sink
+     */
+    public TrajectorySink record(Simulation simulation, int firstPoint, TrajectorySink sink){
+        return new TrajectorySink() {
+
+            private long point = firstPoint;
+
+            @Override
+            public void begin(List<String> columnNames) {
+                sink.begin(columnNames);
+            }
+
+            @Override
+            public void record(double time, double[] values) {
+                if(point % spacing == 0){
+                    takeSnapshot(simulation, time, point);
+                }
+                point++;
+                sink.record(time, values);
+            }
+
+            @Override
+            public void end() {
+                sink.end();
+            }
+        };
+    }
+
+    /**
+     * Adds a snapshot to the ladder, thinning it out if it is full
+     * @param simulation the simulation
+     * @param time the time of the recorded point
+     * @param point the index of the recorded point
+     */
+    private void takeSnapshot(Simulation simulation, double time, long point){
+        if(snapshots.size() == MAX_SNAPSHOTS){
+            List<Snapshot> kept = new ArrayList<>();
+            for (int i = 0; i < snapshots.size(); i += 2){
+                kept.add(snapshots.get(i));
+            }
+            snapshots = kept;
+            spacing *= 2;
+            if(point % spacing != 0){
+                return;
+            }
+        }
+        snapshots.add(new Snapshot(simulation, time, point));
+    }
+
+    /**
+     * Forgets every snapshot and the previous run
+     */
+    public void clear(){
+        model = null;
+        snapshots.clear();
+        spacing = 1;
+    }
+
+    /**
+     * The state of a simulation at a recorded point
+     */
+    private static class Snapshot {
+
+        private double time;
+        private long point;
+        private double timeSimulated;
+        private double[] concentrations;
+        private double fastEquilibriumError;
+        //Points are recorded before the additions due at their time are applied, so this can't be told from the time
+        private int appliedAdditions;
+        private double stepSize;
+        private long derivativeEvaluations;
+        private long acceptedSteps;
+        private long rejectedSteps;
+
+        Snapshot(Simulation simulation, double time, long point){
+            this.time = time;
+            this.point = point;
+            timeSimulated = simulation.getTimeSimulated();
+            concentrations = simulation.getConcentrations();
+            fastEquilibriumError = simulation.getFastEquilibriumError();
+            appliedAdditions = simulation.getAppliedAdditionCount();
+            Integrator integrator = simulation.getIntegrator();
+            stepSize = integrator.getStepSize();
+            derivativeEvaluations = integrator.getDerivativeEvaluations();
+            acceptedSteps = integrator.getAcceptedSteps();
+            rejectedSteps = integrator.getRejectedSteps();
+        }
+    }
+
+    /**
+     * Everything a run depends on, to tell how far two runs agree
+     */
+    private static class Model {
+
+        private String[] chemicalNames;
+        private double[] initialConcentrations;
+        private String[] trackedNames;
+        private double[] reactionValues;
+        private int[] reactionStructure;
+        private String integratorName;
+        private double deltaTime;
+        private boolean reduceConservedChemicals;
+        private double fastEquilibriumSeparation;
+
+        //The additions, sorted by time like the simulation applies them
+        private int[] additionSpecies;
+        private double[] additionTimes;
+        private double[] additionAmounts;
+
+        Model(Simulation simulation, double deltaTime, Chemical[] trackedChemicals){
+            ReactionNetwork network = simulation.getNetwork();
+            chemicalNames = new String[network.getSpeciesCount()];
+            for (int i = 0; i < chemicalNames.length; i++){
+                chemicalNames[i] = network.getChemical(i).getChemicalName();
+            }
+            initialConcentrations = simulation.getConcentrations();
+            trackedNames = new String[trackedChemicals.length];
+            for (int i = 0; i < trackedNames.length; i++){
+                trackedNames[i] = trackedChemicals[i].getChemicalName();
+            }
+
+            //The rate constants and the stoichiometry of every reaction, laid out one after another
+            int reactionCount = network.getReactionCount();
+            reactionValues = new double[2 * reactionCount];
+            for (int r = 0; r < reactionCount; r++){
+                reactionValues[2 * r] = network.getFwdReactionRate(r);
+                reactionValues[2 * r + 1] = network.getBwdReactionRate(r);
+            }
+            int[][] parts = {network.getReactantStart(), network.getReactantSpecies(), network.getReactantCoefficients(),
+                    network.getProductStart(), network.getProductSpecies(), network.getProductCoefficients()};
+            int length = 0;
+            for (int[] part : parts){
+                length += part.length + 1;
+            }
+            reactionStructure = new int[length];
+            int position = 0;
+            for (int[] part : parts){
+                reactionStructure[position++] = part.length;
+                System.arraycopy(part, 0, reactionStructure, position, part.length);
+                position += part.length;
+            }
+
+            integratorName = simulation.getIntegrator().getName();
+            this.deltaTime = deltaTime;
+            reduceConservedChemicals = simulation.isReducingConservedChemicals();
+            fastEquilibriumSeparation = simulation.getFastEquilibriumSeparation();
+
+            List<AddedChemical> additions = simulation.getChemicalAdditions();
+            additionSpecies = new int[additions.size()];
+            additionTimes = new double[additions.size()];
+            additionAmounts = new double[additions.size()];
+            for (int i = 0; i < additionSpecies.length; i++){
+                additionSpecies[i] = network.indexOf(additions.get(i).getChemical());
+                additionTimes[i] = additions.get(i).getTime();
+                additionAmounts[i] = additions.get(i).getAmount();
+            }
+        }
+
+        /**
+         * Finds the earliest time at which a run of this model and a run of another model can differ
+         * @param other the other model
+         * @return the time of the earliest changed addition, negative infinity if anything else changed and positive
+         * infinity if nothing changed
+         */
+        double findFirstChange(Model other){
+            if(!Arrays.equals(chemicalNames, other.chemicalNames) || !Arrays.equals(initialConcentrations, other.initialConcentrations)
+                    || !Arrays.equals(trackedNames, other.trackedNames) || !Arrays.equals(reactionValues, other.reactionValues)
+                    || !Arrays.equals(reactionStructure, other.reactionStructure) || !integratorName.equals(other.integratorName)
+                    || deltaTime != other.deltaTime || reduceConservedChemicals != other.reduceConservedChemicals
+                    || fastEquilibriumSeparation != other.fastEquilibriumSeparation){
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            int count = Math.min(additionSpecies.length, other.additionSpecies.length);
+            for (int i = 0; i < count; i++){
+                if(additionSpecies[i] != other.additionSpecies[i] || additionTimes[i] != other.additionTimes[i]
+                        || additionAmounts[i] != other.additionAmounts[i]){
+                    return Math.min(additionTimes[i], other.additionTimes[i]);
+                }
+            }
+            if(additionSpecies.length > count){
+                return additionTimes[count];
+            }
+            if(other.additionSpecies.length > count){
+                return other.additionTimes[count];
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+
+    //Accessors
+
+    public int getSnapshotCount() {
+        return snapshots.size();
+    }
+
+    public long getSpacing() {
+        return spacing;
+    }
+}
@@ -0,0 +1,232 @@
+package bart1259;
+
+import java.util.Arrays;
+
+/**
+ * The exact jacobian of the mass action rate equations of a reaction network stored as a sparse matrix in
+ * compressed row (CSR) form. The sparsity pattern and the position every rate law term writes to are worked out
+ * once from the reactants, products and coefficients of the reactions, after which the values can be re-evaluated
+ * in place for any concentrations without allocating
+ */
+public class SparseJacobian {
+
+    private ReactionNetwork network;
+    private int dimension;
+
+    //Row i of the matrix is stored from rowStart[i] to rowStart[i + 1]
+    private int[] rowStart;
+    private int[] columns;
+    private double[] values;
+
+    //The contributions of reactant term t are stored from reactantContributionStart[t] to reactantContributionStart[t + 1]
+    private int[] reactantContributionStart;
+    private int[] productContributionStart;
+
+    //The position in values each contribution is added to and the stoichiometric coefficient it is scaled by
+    private int[] contributionPositions;
+    private double[] contributionCoefficients;
+
+    /**
+     * Works out the sparsity pattern of the jacobian of a reaction network
+     * @param network the network
+     */
+    public SparseJacobian(ReactionNetwork network){
+
+        this.network = network;
+        this.dimension = network.getSpeciesCount();
+
+        int[] reactantStart = network.getReactantStart();
+        int[] reactantSpecies = network.getReactantSpecies();
+        int[] productStart = network.getProductStart();
+        int[] productSpecies = network.getProductSpecies();
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        int reactionCount = network.getReactionCount();
+
+        //Count the contributions, one per term of a rate law and chemical changed by the reaction
+        int contributionCount = 0;
+        for (int r = 0; r < reactionCount; r++){
+            int terms = (reactantStart[r + 1] - reactantStart[r]) + (productStart[r + 1] - productStart[r]);
+            contributionCount += terms * (stoichiometryStart[r + 1] - stoichiometryStart[r]);
+        }
+
+        //Collect every (row, column) pair as a single sortable key
+        long[] keys = new long[contributionCount];
+        int k = 0;
+        for (int r = 0; r < reactionCount; r++){
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                for (int t = reactantStart[r]; t < reactantStart[r + 1]; t++){
+                    keys[k++] = key(stoichiometrySpecies[i], reactantSpecies[t]);
+                }
+                for (int t = productStart[r]; t < productStart[r + 1]; t++){
+                    keys[k++] = key(stoichiometrySpecies[i], productSpecies[t]);
+                }
+            }
+        }
+
+        //Sort and remove duplicates to get the pattern
+        long[] pattern = keys.clone();
+        Arrays.sort(pattern);
+        int nonZeroCount = 0;
+        for (int i = 0; i < pattern.length; i++){
+            if(i == 0 || pattern[i] != pattern[i - 1]){
+                pattern[nonZeroCount++] = pattern[i];
+            }
+        }
+
+        rowStart = new int[dimension + 1];
+        columns = new int[nonZeroCount];
+        values = new double[nonZeroCount];
+        for (int i = 0; i < nonZeroCount; i++){
+            int row = (int) (pattern[i] >>> 32);
+            columns[i] = (int) pattern[i];
+            rowStart[row + 1]++;
+        }
+        for (int i = 0; i < dimension; i++){
+            rowStart[i + 1] += rowStart[i];
+        }
+
+        //Record where each contribution goes, grouped by the term it comes from
+        reactantContributionStart = new int[reactantSpecies.length + 1];
+        productContributionStart = new int[productSpecies.length + 1];
+        contributionPositions = new int[contributionCount];
+        contributionCoefficients = new double[contributionCount];
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+
+        k = 0;
+        for (int r = 0; r < reactionCount; r++){
+            for (int t = reactantStart[r]; t < reactantStart[r + 1]; t++){
+                reactantContributionStart[t] = k;
+                for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                    contributionPositions[k] = findPosition(stoichiometrySpecies[i], reactantSpecies[t]);
+                    contributionCoefficients[k] = stoichiometryCoefficients[i];
+                    k++;
+                }
+            }
+        }
+        reactantContributionStart[reactantSpecies.length] = k;
+        for (int r = 0; r < reactionCount; r++){
+            for (int t = productStart[r]; t < productStart[r + 1]; t++){
+                productContributionStart[t] = k;
+                for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                    contributionPositions[k] = findPosition(stoichiometrySpecies[i], productSpecies[t]);
+                    contributionCoefficients[k] = stoichiometryCoefficients[i];
+                    k++;
+                }
+            }
+        }
+        productContributionStart[productSpecies.length] = k;
+    }
+
+    /**
+     * Packs a row and column into a key that sorts in row major order
+     * @param row the row
+     * @param column the column
+     * @return the key
+     */
+    private static long key(int row, int column){
+        return ((long) row << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Finds the position of an entry of the pattern in the values array
+     * @param row the row of the entry
+     * @param column the column of the entry
+     * @return the position of the entry
+     */
+    private int findPosition(int row, int column){
+        int position = Arrays.binarySearch(columns, rowStart[row], rowStart[row + 1], column);
+        if(position < 0){
+            throw new RuntimeException("entry (" + row + ", " + column + ") is not in the jacobian pattern");
+        }
+        return position;
+    }
+
+    /**
+     * Evaluates the jacobian in place for a set of concentrations
+     * @param concentrations the concentration of every chemical, indexed by id
+     */
+    public void evaluate(double[] concentrations){
+
+        Arrays.fill(values, 0.0);
+
+        int[] reactantStart = network.getReactantStart();
+        int[] productStart = network.getProductStart();
+
+        for (int r = 0; r < network.getReactionCount(); r++){
+            for (int t = reactantStart[r]; t < reactantStart[r + 1]; t++){
+                double derivative = network.computeReactantDerivative(r, t, concentrations);
+                for (int k = reactantContributionStart[t]; k < reactantContributionStart[t + 1]; k++){
+                    values[contributionPositions[k]] += contributionCoefficients[k] * derivative;
+                }
+            }
+            for (int t = productStart[r]; t < productStart[r + 1]; t++){
+                double derivative = network.computeProductDerivative(r, t, concentrations);
+                for (int k = productContributionStart[t]; k < productContributionStart[t + 1]; k++){
+                    values[contributionPositions[k]] += contributionCoefficients[k] * derivative;
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies the jacobian by a vector
+     * @param vector the vector to multiply
+     * @param result the array to store the product in
+     */
+    public void multiply(double[] vector, double[] result){
+        for (int i = 0; i < dimension; i++){
+            double sum = 0.0;
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++){
+                sum += values[k] * vector[columns[k]];
+            }
+            result[i] = sum;
+        }
+    }
+
+    /**
+     * Copies the jacobian into a dense matrix
+     * @param matrix the matrix to copy into, entries outside the pattern are set to zero
+     */
+    public void copyTo(double[][] matrix){
+        for (int i = 0; i < dimension; i++){
+            Arrays.fill(matrix[i], 0.0);
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++){
+                matrix[i][columns[k]] = values[k];
+            }
+        }
+    }
+
+    /**
+     * Gets the value of an entry of the jacobian
+     * @param row the row of the entry
+     * @param column the column of the entry
+     * @return the value of the entry, zero if it is outside the pattern
+     */
+    public double get(int row, int column){
+        int position = Arrays.binarySearch(columns, rowStart[row], rowStart[row + 1], column);
+        return position < 0 ? 0.0 : values[position];
+    }
+
+    //Accessors
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getNonZeroCount() {
+        return values.length;
+    }
+
+    public int[] getRowStart() {
+        return rowStart;
+    }
+
+    public int[] getColumns() {
+        return columns;
+    }
+
+    public double[] getValues() {
+        return values;
+    }
+}
@@ -0,0 +1,273 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Simulates the reactions of a simulation as individual random events using the next reaction method of Gibson and
+ * Bruck. Every channel (see ReactionChannels) keeps the absolute time it fires next in an indexed priority queue.
+ * When a channel fires only the channels whose reactants it changed are updated, which is found with a dependency
+ * graph built once up front, so an event costs O(log R) instead of recomputing the propensity of every reaction
+ */
+public class StochasticSimulation implements Simulator {
+
+    private ReactionNetwork network;
+    private double systemSize;
+    private SplittableRandom random;
+
+    private long[] counts;
+    private double timeSimulated = 0.0;
+    private long eventCount = 0;
+
+    private ReactionChannels channels;
+
+    //Channels that have to be updated after channel c fires, stored from dependencyStart[c] to dependencyStart[c + 1]
+    private int[] dependencyStart;
+    private int[] dependencies;
+
+    private double[] propensities;
+    private FiringTimeQueue queue;
+
+    //Chemical additions that have not happened yet, sorted by time
+    private ArrayList<AddedChemical> chemicalAdditions;
+    private int nextAddition = 0;
+
+    /**
+     * Creates a stochastic simulation with a random seed
+     * @param simulation the parsed simulation providing the reactions, initial concentrations and additions
+     * @param systemSize the number of molecules per unit of concentration
+     */
+    public StochasticSimulation(Simulation simulation, double systemSize){
+        this(simulation, systemSize, new SplittableRandom());
+    }
+
+    /**
+     * Creates a stochastic simulation that always produces the same trajectory for the same seed
+     * @param simulation the parsed simulation providing the reactions, initial concentrations and additions
+     * @param systemSize the number of molecules per unit of concentration
+     * @param seed the seed of the random number generator
+     */
+    public StochasticSimulation(Simulation simulation, double systemSize, long seed){
+        this(simulation, systemSize, new SplittableRandom(seed));
+    }
+
+    /**
+     * Creates a stochastic simulation
+     * @param simulation the parsed simulation providing the reactions, initial concentrations and additions
+     * @param systemSize the number of molecules per unit of concentration
+     * @param random the random number generator
+     */
+    private StochasticSimulation(Simulation simulation, double systemSize, SplittableRandom random){
+
+        this.network = simulation.getNetwork();
+        this.systemSize = systemSize;
+        this.random = random;
+        this.timeSimulated = simulation.getTimeSimulated();
+
+        channels = new ReactionChannels(network, systemSize);
+        counts = channels.toCounts(simulation.getConcentrations());
+
+        chemicalAdditions = new ArrayList<>(simulation.getChemicalAdditions());
+        chemicalAdditions.sort(Comparator.comparingDouble(AddedChemical::getTime));
+
+        buildDependencyGraph();
+
+        //Draw the first firing time of every channel
+        int channelCount = channels.getChannelCount();
+        propensities = new double[channelCount];
+        queue = new FiringTimeQueue(channelCount);
+        for (int c = 0; c < channelCount; c++){
+            propensities[c] = channels.computePropensity(c, counts);
+            queue.set(c, timeSimulated + drawWaitingTime(propensities[c]));
+        }
+    }
+
+    /**
+     * Builds the list of channels whose propensity changes when a channel fires
+     */
+    private void buildDependencyGraph(){
+
+        int channelCount = channels.getChannelCount();
+        int[] consumerStart = channels.getConsumerStart();
+        int[] consumers = channels.getConsumers();
+
+        //A channel affects every channel consuming a chemical it changes the count of
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+
+        dependencyStart = new int[channelCount + 1];
+        int[] marked = new int[channelCount];
+        Arrays.fill(marked, -1);
+        ArrayList<Integer> edges = new ArrayList<>();
+        for (int c = 0; c < channelCount; c++){
+            dependencyStart[c] = edges.size();
+            int r = c / 2;
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                if(stoichiometryCoefficients[i] == 0){
+                    continue;
+                }
+                int s = stoichiometrySpecies[i];
+                for (int j = consumerStart[s]; j < consumerStart[s + 1]; j++){
+                    if(marked[consumers[j]] != c && consumers[j] != c){
+                        marked[consumers[j]] = c;
+                        edges.add(consumers[j]);
+                    }
+                }
+            }
+        }
+        dependencyStart[channelCount] = edges.size();
+
+        dependencies = new int[edges.size()];
+        for (int i = 0; i < dependencies.length; i++){
+            dependencies[i] = edges.get(i);
+        }
+    }
+
+    /**
+     * Simulates every reaction event and chemical addition until delta time has passed
+     * @param deltaTime the length of time to simulate
+     */
+    @Override
+    public void simulate(double deltaTime){
+
+        double endTime = timeSimulated + deltaTime;
+
+        while (true){
+            //Without reactions nothing fires and time only moves on to the additions and the end of delta time
+            int channel = queue.isEmpty() ? -1 : queue.peek();
+            double firingTime = channel < 0 ? Double.POSITIVE_INFINITY : queue.getTime(channel);
+            double additionTime = nextAddition < chemicalAdditions.size() ? chemicalAdditions.get(nextAddition).getTime() : Double.POSITIVE_INFINITY;
+
+            if(additionTime <= firingTime && additionTime <= endTime){
+                timeSimulated = Math.max(timeSimulated, additionTime);
+                applyAddition(chemicalAdditions.get(nextAddition));
+                nextAddition++;
+            } else if(firingTime <= endTime){
+                timeSimulated = firingTime;
+                fire(channel);
+            } else {
+                break;
+            }
+        }
+
+        timeSimulated = endTime;
+    }
+
+    /**
+     * Fires a channel once and updates the firing times of the channels it affects
+     * @param channel the channel that fires
+     */
+    private void fire(int channel){
+
+        channels.fire(channel, 1, counts);
+        eventCount++;
+
+        //The channel that fired needs a new waiting time
+        propensities[channel] = channels.computePropensity(channel, counts);
+        queue.set(channel, timeSimulated + drawWaitingTime(propensities[channel]));
+
+        for (int i = dependencyStart[channel]; i < dependencyStart[channel + 1]; i++){
+            updateChannel(dependencies[i]);
+        }
+    }
+
+    /**
+     * Adds molecules of a chemical and updates the firing times of the channels consuming it
+     * @param addition the addition
+     */
+    private void applyAddition(AddedChemical addition){
+        int s = network.indexOf(addition.getChemical());
+        counts[s] = Math.max(0, counts[s] + Math.round(addition.getAmount() * systemSize));
+        int[] consumerStart = channels.getConsumerStart();
+        int[] consumers = channels.getConsumers();
+        for (int i = consumerStart[s]; i < consumerStart[s + 1]; i++){
+            updateChannel(consumers[i]);
+        }
+    }
+
+    /**
+     * Recomputes the propensity of a channel that did not fire and rescales its firing time, which keeps the
+     * trajectory exact without drawing a new random number
+     * @param channel the channel
+     */
+    private void updateChannel(int channel){
+
+        double oldPropensity = propensities[channel];
+        double propensity = channels.computePropensity(channel, counts);
+        propensities[channel] = propensity;
+
+        if(propensity == oldPropensity){
+            return;
+        }
+        if(oldPropensity > 0 && propensity > 0){
+            double firingTime = queue.getTime(channel);
+            queue.set(channel, timeSimulated + (oldPropensity / propensity) * (firingTime - timeSimulated));
+        } else {
+            //Waiting times are memoryless, so a channel that could not fire before can draw a fresh one
+            queue.set(channel, timeSimulated + drawWaitingTime(propensity));
+        }
+    }
+
+    /**
+     * Draws an exponentially distributed waiting time
+     * @param propensity the rate of the distribution
+     * @return the waiting time, infinite if the propensity is 0
+     */
+    private double drawWaitingTime(double propensity){
+        if(propensity <= 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        return -Math.log(1.0 - random.nextDouble()) / propensity;
+    }
+
+    /**
+     * Gets the number of molecules of a chemical
+     * @param chemical the chemical
+     * @return the number of molecules, 0 if the chemical is not in the simulation
+     */
+    public long getCount(Chemical chemical){
+        int index = network.indexOf(chemical);
+        return index < 0 ? 0 : counts[index];
+    }
+
+    /**
+     * Gets the concentration of a chemical
+     * @param chemical the chemical
+     * @return the number of molecules divided by the system size
+     */
+    @Override
+    public double getConcentration(Chemical chemical){
+        return getCount(chemical) / systemSize;
+    }
+
+    //Accessors
+
+    @Override
+    public double getTimeSimulated() {
+        return timeSimulated;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public double getSystemSize() {
+        return systemSize;
+    }
+
+    public ReactionNetwork getNetwork() {
+        return network;
+    }
+
+    public List<Chemical> getChemicals() {
+        List<Chemical> chemicals = new ArrayList<>();
+        for (int i = 0; i < network.getSpeciesCount(); i++){
+            chemicals.add(network.getChemical(i));
+        }
+        return chemicals;
+    }
+}
@@ -0,0 +1,522 @@
+package bart1259;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Simulates the reactions of a simulation stochastically by leaping over many reaction events at once. During a leap
+ * every channel fires a Poisson distributed number of times, and the leap is chosen as long as possible while no
+ * propensity is expected to change by more than a fraction epsilon (Cao, Gillespie and Petzold, 2006). Channels that
+ * are a few firings away from using up a reactant are critical and fire at most once per leap, and when the leap
+ * would be barely longer than a single event the simulation switches to exact events for a while. For large molecule
+ * counts this gives stochastic trajectories at a cost close to that of the deterministic simulation
+ */
+public class TauLeapingSimulation implements Simulator {
+
+    //A channel is critical if it can fire fewer than this many times before a reactant runs out
+    private static final int CRITICAL_FIRINGS = 10;
+
+    //Exact events are simulated when a leap would be shorter than this many mean event times
+    private static final double EXACT_THRESHOLD = 10.0;
+    private static final int EXACT_STEPS = 100;
+
+    //Precomputed log factorials for the Poisson sampler
+    private static final double[] LOG_FACTORIALS = new double[256];
+    static {
+        for (int k = 1; k < LOG_FACTORIALS.length; k++){
+            LOG_FACTORIALS[k] = LOG_FACTORIALS[k - 1] + Math.log(k);
+        }
+    }
+
+    private ReactionNetwork network;
+    private ReactionChannels channels;
+    private double systemSize;
+    private SplittableRandom random;
+
+    //The largest allowed relative change of a propensity during a leap
+    private double epsilon = 0.03;
+
+    private long[] counts;
+    private double timeSimulated = 0.0;
+
+    //Chemical additions that have not happened yet, sorted by time
+    private ArrayList<AddedChemical> chemicalAdditions;
+    private int nextAddition = 0;
+
+    //Work arrays
+    private double[] propensities;
+    private boolean[] critical;
+    private long[] savedCounts;
+    private double[] meanChanges;
+    private double[] changeVariances;
+    private boolean[] leapReactant;
+
+    private long eventCount = 0;
+    private long leapCount = 0;
+    private long rejectedLeapCount = 0;
+    private long exactStepCount = 0;
+
+    /**
+     * Creates a tau leaping simulation with a random seed
+     * @param simulation the parsed simulation providing the reactions, initial concentrations and additions
+     * @param systemSize the number of molecules per unit of concentration
+     */
+    public TauLeapingSimulation(Simulation simulation, double systemSize){
+        this(simulation, systemSize, new SplittableRandom());
+    }
+
+    /**
+     * Creates a tau leaping simulation that always produces the same trajectory for the same seed
+     * @param simulation the parsed simulation providing the reactions, initial concentrations and additions
+     * @param systemSize the number of molecules per unit of concentration
+     * @param seed the seed of the random number generator
+     */
+    public TauLeapingSimulation(Simulation simulation, double systemSize, long seed){
+        this(simulation, systemSize, new SplittableRandom(seed));
+    }
+
+    /**
+     * Creates a tau leaping simulation
+     * @param simulation the parsed simulation providing the reactions, initial concentrations and additions
+     * @param systemSize the number of molecules per unit of concentration
+     * @param random the random number generator
+     */
+    private TauLeapingSimulation(Simulation simulation, double systemSize, SplittableRandom random){
+
+        this.network = simulation.getNetwork();
+        this.systemSize = systemSize;
+        this.random = random;
+        this.timeSimulated = simulation.getTimeSimulated();
+
+        channels = new ReactionChannels(network, systemSize);
+        counts = channels.toCounts(simulation.getConcentrations());
+
+        chemicalAdditions = new ArrayList<>(simulation.getChemicalAdditions());
+        chemicalAdditions.sort(Comparator.comparingDouble(AddedChemical::getTime));
+
+        int channelCount = channels.getChannelCount();
+        int speciesCount = network.getSpeciesCount();
+        propensities = new double[channelCount];
+        critical = new boolean[channelCount];
+        savedCounts = new long[speciesCount];
+        meanChanges = new double[speciesCount];
+        changeVariances = new double[speciesCount];
+        leapReactant = new boolean[speciesCount];
+    }
+
+    /**
+     * Leaps until delta time has passed, stopping exactly at every chemical addition
+     * @param deltaTime the length of time to simulate
+     */
+    @Override
+    public void simulate(double deltaTime){
+
+        double endTime = timeSimulated + deltaTime;
+
+        while (true){
+            //Apply the additions that are due
+            while (nextAddition < chemicalAdditions.size() && chemicalAdditions.get(nextAddition).getTime() <= timeSimulated){
+                AddedChemical addition = chemicalAdditions.get(nextAddition);
+                int s = network.indexOf(addition.getChemical());
+                counts[s] = Math.max(0, counts[s] + Math.round(addition.getAmount() * systemSize));
+                nextAddition++;
+            }
+
+            if(timeSimulated >= endTime){
+                break;
+            }
+
+            double stopTime = endTime;
+            if(nextAddition < chemicalAdditions.size()){
+                stopTime = Math.min(stopTime, chemicalAdditions.get(nextAddition).getTime());
+            }
+            leap(stopTime);
+        }
+
+        timeSimulated = endTime;
+    }
+
+    /**
+     * Takes one leap, or a series of exact events if leaping would not pay off
+     * @param stopTime the time the leap may not go past
+     */
+    private void leap(double stopTime){
+
+        //Find the propensities and the critical channels
+        double totalPropensity = 0.0;
+        double criticalPropensity = 0.0;
+        for (int c = 0; c < propensities.length; c++){
+            propensities[c] = channels.computePropensity(c, counts);
+            critical[c] = propensities[c] > 0 && getMaxFirings(c) < CRITICAL_FIRINGS;
+            totalPropensity += propensities[c];
+            if(critical[c]){
+                criticalPropensity += propensities[c];
+            }
+        }
+
+        if(totalPropensity <= 0){
+            timeSimulated = stopTime;
+            return;
+        }
+
+        double leapTime = selectLeapTime();
+        if(leapTime < EXACT_THRESHOLD / totalPropensity){
+            simulateExactSteps(stopTime);
+            return;
+        }
+
+        while (true){
+
+            //The time until a critical channel fires, at most one of them fires during the leap
+            double criticalTime = drawWaitingTime(criticalPropensity);
+            double tau = Math.min(leapTime, criticalTime);
+            int criticalChannel = leapTime < criticalTime ? -1 : selectChannel(criticalPropensity, true);
+
+            boolean reachedStop = timeSimulated + tau >= stopTime;
+            if(reachedStop){
+                //Waiting times are memoryless, so the critical channel just doesn't fire before the stop time
+                tau = stopTime - timeSimulated;
+                criticalChannel = -1;
+            }
+
+            System.arraycopy(counts, 0, savedCounts, 0, counts.length);
+            long firings = 0;
+            for (int c = 0; c < propensities.length; c++){
+                if(!critical[c] && propensities[c] > 0){
+                    long k = samplePoisson(propensities[c] * tau);
+                    channels.fire(c, k, counts);
+                    firings += k;
+                }
+            }
+            if(criticalChannel >= 0){
+                channels.fire(criticalChannel, 1, counts);
+                firings++;
+            }
+
+            //A leap that makes a count negative is thrown away and retried with half the length
+            if(hasNegativeCount()){
+                System.arraycopy(savedCounts, 0, counts, 0, counts.length);
+                leapTime = tau / 2;
+                rejectedLeapCount++;
+                continue;
+            }
+
+            timeSimulated = reachedStop ? stopTime : timeSimulated + tau;
+            eventCount += firings;
+            leapCount++;
+            return;
+        }
+    }
+
+    /**
+     * Selects the longest leap for which the propensities of the non critical channels are not expected to change
+     * by more than epsilon, bounding the mean and standard deviation of the change of every reactant
+     * @return the length of the leap, infinite if no non critical channel can fire
+     */
+    private double selectLeapTime(){
+
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+        int[] reactantStart = channels.getReactantStart();
+        int[] reactantSpecies = channels.getReactantSpecies();
+
+        Arrays.fill(meanChanges, 0.0);
+        Arrays.fill(changeVariances, 0.0);
+        Arrays.fill(leapReactant, false);
+
+        for (int c = 0; c < propensities.length; c++){
+            if(critical[c] || propensities[c] <= 0){
+                continue;
+            }
+            int r = c / 2;
+            int direction = channels.getDirection(c);
+            for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+                double change = direction * stoichiometryCoefficients[i];
+                meanChanges[stoichiometrySpecies[i]] += change * propensities[c];
+                changeVariances[stoichiometrySpecies[i]] += change * change * propensities[c];
+            }
+            for (int i = reactantStart[c]; i < reactantStart[c + 1]; i++){
+                leapReactant[reactantSpecies[i]] = true;
+            }
+        }
+
+        double leapTime = Double.POSITIVE_INFINITY;
+        for (int s = 0; s < counts.length; s++){
+            if(!leapReactant[s]){
+                continue;
+            }
+            double bound = Math.max(epsilon * counts[s] / getRelativeSensitivity(s), 1.0);
+            if(meanChanges[s] != 0){
+                leapTime = Math.min(leapTime, bound / Math.abs(meanChanges[s]));
+            }
+            if(changeVariances[s] != 0){
+                leapTime = Math.min(leapTime, bound * bound / changeVariances[s]);
+            }
+        }
+        return leapTime;
+    }
+
+    /**
+     * Computes how much the propensities consuming a chemical change relative to a change of its count, the g
+     * factor of Cao, Gillespie and Petzold generalized to any order
+     * @param species the id of the chemical
+     * @return the largest relative sensitivity of the channels consuming the chemical
+     */
+    private double getRelativeSensitivity(int species){
+
+        int[] consumerStart = channels.getConsumerStart();
+        int[] consumers = channels.getConsumers();
+        int[] reactantStart = channels.getReactantStart();
+        int[] reactantSpecies = channels.getReactantSpecies();
+        int[] reactantOrders = channels.getReactantOrders();
+        double count = counts[species];
+
+        double sensitivity = 1.0;
+        for (int i = consumerStart[species]; i < consumerStart[species + 1]; i++){
+            int c = consumers[i];
+            int order = 0;
+            for (int j = reactantStart[c]; j < reactantStart[c + 1]; j++){
+                if(reactantSpecies[j] == species){
+                    order = reactantOrders[j];
+                }
+            }
+
+            //(m / n) * sum over k < n of x / (x - k) for a channel of order m that uses the chemical n times
+            double sum = 0.0;
+            for (int k = 0; k < order; k++){
+                sum += count / Math.max(count - k, 1.0);
+            }
+            sensitivity = Math.max(sensitivity, (double) channels.getOrder(c) / order * sum);
+        }
+        return sensitivity;
+    }
+
+    /**
+     * Simulates single reaction events with the direct method of Gillespie
+     * @param stopTime the time the events may not go past
+     */
+    private void simulateExactSteps(double stopTime){
+
+        for (int step = 0; step < EXACT_STEPS; step++){
+
+            double totalPropensity = 0.0;
+            for (int c = 0; c < propensities.length; c++){
+                propensities[c] = channels.computePropensity(c, counts);
+                totalPropensity += propensities[c];
+            }
+
+            double tau = drawWaitingTime(totalPropensity);
+            if(timeSimulated + tau >= stopTime){
+                timeSimulated = stopTime;
+                return;
+            }
+
+            timeSimulated += tau;
+            channels.fire(selectChannel(totalPropensity, false), 1, counts);
+            eventCount++;
+            exactStepCount++;
+        }
+    }
+
+    /**
+     * Picks a channel with a probability proportional to its propensity
+     * @param totalPropensity the sum of the propensities of the channels to pick from
+     * @param criticalOnly true to only pick from the critical channels
+     * @return the picked channel
+     */
+    private int selectChannel(double totalPropensity, boolean criticalOnly){
+        double target = random.nextDouble() * totalPropensity;
+        int last = -1;
+        for (int c = 0; c < propensities.length; c++){
+            if((criticalOnly && !critical[c]) || propensities[c] <= 0){
+                continue;
+            }
+            last = c;
+            target -= propensities[c];
+            if(target < 0){
+                return c;
+            }
+        }
+        //Rounding can leave a tiny remainder, which belongs to the last channel
+        return last;
+    }
+
+    /**
+     * Gets how many times a channel can fire before one of its reactants runs out
+     * @param channel the channel
+     * @return the number of firings, Long.MAX_VALUE if the channel doesn't use up anything
+     */
+    private long getMaxFirings(int channel){
+        int[] stoichiometryStart = network.getStoichiometryStart();
+        int[] stoichiometrySpecies = network.getStoichiometrySpecies();
+        double[] stoichiometryCoefficients = network.getStoichiometryCoefficients();
+
+        int r = channel / 2;
+        int direction = channels.getDirection(channel);
+        long maxFirings = Long.MAX_VALUE;
+        for (int i = stoichiometryStart[r]; i < stoichiometryStart[r + 1]; i++){
+            long change = direction * (long) stoichiometryCoefficients[i];
+            if(change < 0){
+                maxFirings = Math.min(maxFirings, counts[stoichiometrySpecies[i]] / -change);
+            }
+        }
+        return maxFirings;
+    }
+
+    /**
+     * Checks if the count of any chemical went below zero
+     * @return true if a count is negative
+     */
+    private boolean hasNegativeCount(){
+        for (long count : counts){
+            if(count < 0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Draws a Poisson distributed number, by inversion for small means and with the transformed rejection method
+     * of Hormann for large means
+     * @param mean the mean of the distribution
+     * @return the drawn number
+     */
+    private long samplePoisson(double mean){
+
+        if(mean < 10.0){
+            double probability = Math.exp(-mean);
+            double cumulative = probability;
+            double u = random.nextDouble();
+            long k = 0;
+            while (u > cumulative && probability > 0){
+                k++;
+                probability *= mean / k;
+                cumulative += probability;
+            }
+            return k;
+        }
+
+        double logMean = Math.log(mean);
+        double b = 0.931 + 2.53 * Math.sqrt(mean);
+        double a = -0.059 + 0.02483 * b;
+        double inverseAlpha = 1.1239 + 1.1328 / (b - 3.4);
+        double acceptLimit = 0.9277 - 3.6224 / (b - 2);
+
+        while (true){
+            double u = random.nextDouble() - 0.5;
+            double v = random.nextDouble();
+            double us = 0.5 - Math.abs(u);
+            long k = (long) Math.floor((2 * a / us + b) * u + mean + 0.43);
+            if(us >= 0.07 && v <= acceptLimit){
+                return k;
+            }
+            if(k < 0 || (us < 0.013 && v > us)){
+                continue;
+            }
+            if(Math.log(v * inverseAlpha / (a / (us * us) + b)) <= -mean + k * logMean - logFactorial(k)){
+                return k;
+            }
+        }
+    }
+
+    /**
+     * Computes the natural logarithm of k factorial
+     * @param k a non negative number
+     * @return ln(k!)
+     */
+    private static double logFactorial(long k){
+        if(k < LOG_FACTORIALS.length){
+            return LOG_FACTORIALS[(int) k];
+        }
+        //Stirling series of ln(gamma(k + 1))
+        double x = k + 1.0;
+        return (x - 0.5) * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI) + 1.0 / (12.0 * x) - 1.0 / (360.0 * x * x * x);
+    }
+
+    /**
+     * Draws an exponentially distributed waiting time
+     * @param propensity the rate of the distribution
+     * @return the waiting time, infinite if the propensity is 0
+     */
+    private double drawWaitingTime(double propensity){
+        if(propensity <= 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        return -Math.log(1.0 - random.nextDouble()) / propensity;
+    }
+
+    /**
+     * Gets the number of molecules of a chemical
+     * @param chemical the chemical
+     * @return the number of molecules, 0 if the chemical is not in the simulation
+     */
+    public long getCount(Chemical chemical){
+        int index = network.indexOf(chemical);
+        return index < 0 ? 0 : counts[index];
+    }
+
+    /**
+     * Gets the concentration of a chemical
+     * @param chemical the chemical
+     * @return the number of molecules divided by the system size
+     */
+    @Override
+    public double getConcentration(Chemical chemical){
+        return getCount(chemical) / systemSize;
+    }
+
+    //Accessors
+
+    @Override
+    public double getTimeSimulated() {
+        return timeSimulated;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public void setEpsilon(double epsilon) {
+        if(!(epsilon > 0 && epsilon < 1)){
+            throw new RuntimeException("epsilon must be between 0 and 1");
+        }
+        this.epsilon = epsilon;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getLeapCount() {
+        return leapCount;
+    }
+
+    public long getRejectedLeapCount() {
+        return rejectedLeapCount;
+    }
+
+    public long getExactStepCount() {
+        return exactStepCount;
+    }
+
+    public double getSystemSize() {
+        return systemSize;
+    }
+
+    public ReactionNetwork getNetwork() {
+        return network;
+    }
+
+    public List<Chemical> getChemicals() {
+        List<Chemical> chemicals = new ArrayList<>();
+        for (int i = 0; i < network.getSpeciesCount(); i++){
+            chemicals.add(network.getChemical(i));
+        }
+        return chemicals;
+    }
+}
@@ -0,0 +1,159 @@
+package bart1259;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps recorded concentrations in memory, column by column
+ */
+public class Trajectory implements TrajectorySink {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private String[] columnNames;
+    private double[] times;
+    private double[][] columns;
+    private int size = 0;
+
+    /**
+     * Creates an empty trajectory, the columns are set when begin is called
+     */
+    public Trajectory(){
+        this(new String[0]);
+    }
+
+    /**
+     * Creates an empty trajectory with the given columns
+     * @param columnNames the name of every column
+     */
+    public Trajectory(String... columnNames){
+        setColumns(columnNames);
+    }
+
+    @Override
+    public void begin(List<String> columnNames) {
+        setColumns(columnNames.toArray(new String[0]));
+    }
+
+    @Override
+    public void record(double time, double[] values) {
+        ensureCapacity(size + 1);
+        times[size] = time;
+        for (int c = 0; c < columns.length; c++){
+            columns[c][size] = values[c];
+        }
+        size++;
+    }
+
+    @Override
+    public void end() {
+    }
+
+    /**
+     * Appends all the points of another trajectory with the same columns
+     * @param other the trajectory to append
+     */
+    public void append(Trajectory other){
+        if(other.columns.length != columns.length){
+            throw new RuntimeException("cannot append a trajectory with " + other.columns.length + " columns to one with " + columns.length);
+        }
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.times, 0, times, size, other.size);
+        for (int c = 0; c < columns.length; c++){
+            System.arraycopy(other.columns[c], 0, columns[c], size, other.size);
+        }
+        size += other.size;
+    }
+
+    /**
+     * Sends every point of the trajectory to a sink, as if it was being recorded again
+     * @param sink the sink
+     */
+    public void replay(TrajectorySink sink){
+        sink.begin(getColumnNames());
+        try{
+            double[] values = new double[columns.length];
+            for (int i = 0; i < size; i++){
+                for (int c = 0; c < columns.length; c++){
+                    values[c] = columns[c][i];
+                }
+                sink.record(times[i], values);
+            }
+        } finally {
+            sink.end();
+        }
+    }
+
+    /**
+     * Sends the first points of the trajectory to a sink that has already begun, without beginning or ending it
+     * @param sink the sink
+     * @param count the number of points to send
+     */
+    public void recordPoints(TrajectorySink sink, int count){
+        double[] values = new double[columns.length];
+        for (int i = 0; i < Math.min(count, size); i++){
+            for (int c = 0; c < columns.length; c++){
+                values[c] = columns[c][i];
+            }
+            sink.record(times[i], values);
+        }
+    }
+
+    /**
+     * Removes all points while keeping the columns and the allocated storage
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    /**
+     * Sets the columns and removes all points
+     * @param columnNames the name of every column
+     */
+    private void setColumns(String[] columnNames){
+        this.columnNames = columnNames;
+        times = new double[INITIAL_CAPACITY];
+        columns = new double[columnNames.length][INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Grows the storage so it can hold a number of points
+     * @param capacity the number of points
+     */
+    private void ensureCapacity(int capacity){
+        if(capacity > times.length){
+            int newCapacity = Math.max(capacity, times.length * 2);
+            times = Arrays.copyOf(times, newCapacity);
+            for (int c = 0; c < columns.length; c++){
+                columns[c] = Arrays.copyOf(columns[c], newCapacity);
+            }
+        }
+    }
+
+    //Accessors
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public List<String> getColumnNames() {
+        return Arrays.asList(columnNames);
+    }
+
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    public double getTime(int index) {
+        return times[index];
+    }
+
+    public double getValue(int column, int index) {
+        return columns[column][index];
+    }
+}
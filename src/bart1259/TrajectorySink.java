@@ -0,0 +1,28 @@
+package bart1259;
+
+import java.util.List;
+
+/**
+ * Receives the concentrations recorded while a simulation runs
+ */
+public interface TrajectorySink {
+
+    /**
+     * Called once before any values are recorded
+     * @param columnNames the name of every recorded column, in the order values will be passed to record
+     */
+    void begin(List<String> columnNames);
+
+    /**
+     * Called for every recorded point in time
+     * @param time the time of the point
+     * @param values the value of every column at that time, the array is reused so it must not be kept
+     */
+    void record(double time, double[] values);
+
+    /**
+     * Called once after the last value was recorded, even if the simulation was cancelled or failed
+     */
+    void end();
+
+}